@@ -0,0 +1,76 @@
+package org.myproject.ecommerce.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.myproject.ecommerce.hvdfclient.Activity;
+import org.myproject.ecommerce.hvdfclient.HVDFClientService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The json mapping of HVDFClientService: the sample of record(activity) and record(activities), and the
+// results read back by query().
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ActivityJsonBenchmark {
+    private static final TypeReference<List<Activity>> ACTIVITY_LIST = new TypeReference<List<Activity>>() {};
+
+    @Param({"10", "100"})
+    private int batchSize;
+
+    private ObjectMapper objectMapper;
+    private Activity activity;
+    private List<Activity> activities;
+    private String activitiesJson;
+
+    @Setup
+    public void setUp() {
+        objectMapper = HVDFClientService.configureObjectMapper(
+                new MappingJackson2HttpMessageConverter().getObjectMapper());
+        activity = Fixtures.activity();
+        activities = new ArrayList<>();
+        for(int i = 0; i < batchSize; i++) {
+            activities.add(Fixtures.activity());
+        }
+        // hvdf returns data.time as epoch millis, which is what the deserializer reads
+        ArrayNode activitiesNode = objectMapper.valueToTree(activities);
+        activitiesNode.forEach(node -> ((ObjectNode) node.get("data")).put("time", 1524219330000L));
+        activitiesJson = activitiesNode.toString();
+    }
+
+    @Benchmark
+    public String writeActivity() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(activity);
+    }
+
+    @Benchmark
+    public String writeActivities() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(activities);
+    }
+
+    @Benchmark
+    public List<Activity> readActivities() throws IOException {
+        return objectMapper.readValue(activitiesJson, ACTIVITY_LIST);
+    }
+}
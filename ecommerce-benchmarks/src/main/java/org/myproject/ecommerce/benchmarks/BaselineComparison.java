@@ -0,0 +1,175 @@
+package org.myproject.ecommerce.benchmarks;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Compares a JMH json result (-rf json) with a baseline recorded with --record and exits with 1 when a benchmark
+// got slower by more than the threshold percentage (default 10) and the error margins of both runs do not
+// overlap. The suites measure average time per operation, a higher score is worse. The baseline records the
+// environment it was measured in. Scores of another JDK major version or another number of processors do not
+// compare, the comparison exits with 2 then: record a baseline on the machine that runs the comparison with
+// --record.
+public class BaselineComparison {
+
+    public static void main(String[] args) throws IOException, ParseException {
+        if(args.length == 3 && "--record".equals(args[0])) {
+            record(args[1], args[2]);
+            return;
+        }
+        if(args.length < 2) {
+            System.err.println("usage: BaselineComparison <baseline.json> <result.json> [threshold %]");
+            System.err.println("       BaselineComparison --record <result.json> <baseline.json>");
+            System.exit(2);
+        }
+        if(!Files.exists(Paths.get(args[0]))) {
+            System.err.println("no baseline in " + args[0] + ", record one here with: BaselineComparison --record " +
+                    args[1] + " " + args[0]);
+            System.exit(2);
+        }
+        Object baselineJson = parse(args[0]);
+        JSONArray resultJson = results(parse(args[1]));
+        String mismatch = environmentMismatch(baselineJson, resultJson);
+        if(mismatch != null) {
+            System.err.println("the baseline does not compare with this run, " + mismatch);
+            System.err.println("record a baseline here with: BaselineComparison --record " + args[1] + " " +
+                    args[0]);
+            System.exit(2);
+        }
+        Map<String, double[]> baseline = scores(results(baselineJson));
+        Map<String, double[]> result = scores(resultJson);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+        int regressions = 0;
+        System.out.println(String.format("%-70s%14s%14s%9s", "benchmark", "baseline", "result", "change"));
+        for(Map.Entry<String, double[]> entry : result.entrySet()) {
+            double[] score = entry.getValue();
+            double[] baselineScore = baseline.get(entry.getKey());
+            if(baselineScore == null) {
+                System.out.println(String.format("%-70s%14s%14.1f%9s", entry.getKey(), "-", score[0], "new"));
+                continue;
+            }
+            double change = (score[0] - baselineScore[0]) * 100 / baselineScore[0];
+            boolean regression = change > threshold && score[0] - score[1] > baselineScore[0] + baselineScore[1];
+            if(regression) {
+                regressions++;
+            }
+            System.out.println(String.format("%-70s%14.1f%14.1f%+8.1f%%%s", entry.getKey(), baselineScore[0],
+                    score[0], change, regression ? "  REGRESSION" : ""));
+        }
+        if(regressions > 0) {
+            System.out.println(regressions + " benchmark(s) slower than the baseline by more than " +
+                    threshold + "%");
+            System.exit(1);
+        }
+    }
+
+    // Writes the result as a baseline together with the environment of this machine. The results are copied
+    // as JMH wrote them.
+    private static void record(String resultPath, String baselinePath) throws IOException, ParseException {
+        String resultText = new String(Files.readAllBytes(Paths.get(resultPath)), StandardCharsets.UTF_8).trim();
+        JSONArray results = results(new JSONParser().parse(resultText));
+        if(results.isEmpty()) {
+            throw new IllegalArgumentException("no results in " + resultPath);
+        }
+        JSONObject first = (JSONObject) results.get(0);
+        Map<String, Object> environment = new LinkedHashMap<>();
+        environment.put("jdkVersion", first.get("jdkVersion"));
+        environment.put("vmName", first.get("vmName"));
+        environment.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        environment.put("cpu", cpu());
+        environment.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        String baselineText = "{\n    \"environment\" : " + JSONObject.toJSONString(environment) +
+                ",\n    \"results\" : " + resultText + "\n}\n";
+        Path baseline = Paths.get(baselinePath).toAbsolutePath();
+        Files.createDirectories(baseline.getParent());
+        Files.write(baseline, baselineText.getBytes(StandardCharsets.UTF_8));
+        System.out.println("recorded " + results.size() + " results in " + baselinePath + ": " + environment);
+    }
+
+    private static String cpu() throws IOException {
+        Path cpuInfo = Paths.get("/proc/cpuinfo");
+        if(Files.isReadable(cpuInfo)) {
+            for(String line : Files.readAllLines(cpuInfo, StandardCharsets.UTF_8)) {
+                if(line.startsWith("model name")) {
+                    return line.substring(line.indexOf(':') + 1).trim();
+                }
+            }
+        }
+        return String.valueOf(System.getenv("PROCESSOR_IDENTIFIER"));
+    }
+
+    // null when the baseline was measured with the JDK major version of the result on as many processors
+    // as this machine has
+    private static String environmentMismatch(Object baselineJson, JSONArray resultJson) {
+        if(!(baselineJson instanceof JSONObject) || resultJson.isEmpty()) {
+            return "the baseline does not record its environment";
+        }
+        JSONObject environment = (JSONObject) ((JSONObject) baselineJson).get("environment");
+        String baselineJdk = String.valueOf(environment.get("jdkVersion"));
+        String resultJdk = String.valueOf(((JSONObject) resultJson.get(0)).get("jdkVersion"));
+        if(majorVersion(baselineJdk) != majorVersion(resultJdk)) {
+            return "it was measured on JDK " + baselineJdk + " and the result on JDK " + resultJdk;
+        }
+        long baselineProcessors = ((Number) environment.get("availableProcessors")).longValue();
+        int processors = Runtime.getRuntime().availableProcessors();
+        if(baselineProcessors != processors) {
+            return "it was measured on " + baselineProcessors + " processor(s) and this machine has " + processors;
+        }
+        return null;
+    }
+
+    // 8 for 1.8.0_192, 10 for 10.0.2
+    private static int majorVersion(String jdkVersion) {
+        String[] parts = jdkVersion.split("[._+-]");
+        try {
+            return Integer.parseInt("1".equals(parts[0]) && parts.length > 1 ? parts[1] : parts[0]);
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Object parse(String path) throws IOException, ParseException {
+        return new JSONParser().parse(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+    }
+
+    // a JMH result is a bare array, a baseline keeps it under "results"
+    private static JSONArray results(Object json) {
+        return json instanceof JSONObject ? (JSONArray) ((JSONObject) json).get("results") : (JSONArray) json;
+    }
+
+    // score and error keyed by benchmark method and parameters, e.g. PairMapperBenchmark.map(itemCount=5)
+    private static Map<String, double[]> scores(JSONArray results) {
+        Map<String, double[]> scores = new TreeMap<>();
+        for(Object item : results) {
+            JSONObject result = (JSONObject) item;
+            String benchmark = (String) result.get("benchmark");
+            StringBuilder key = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.',
+                    benchmark.lastIndexOf('.') - 1) + 1));
+            JSONObject params = (JSONObject) result.get("params");
+            if(params != null) {
+                key.append(new TreeMap<Object, Object>(params).toString()
+                        .replace('{', '(').replace('}', ')'));
+            }
+            JSONObject primaryMetric = (JSONObject) result.get("primaryMetric");
+            scores.put(key.toString(), new double[] { number(primaryMetric.get("score")),
+                    number(primaryMetric.get("scoreError")) });
+        }
+        return scores;
+    }
+
+    // a single measurement iteration has no error, which JMH writes as "NaN"
+    private static double number(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
+}
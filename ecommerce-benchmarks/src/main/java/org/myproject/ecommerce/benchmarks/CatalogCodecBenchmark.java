@@ -0,0 +1,129 @@
+package org.myproject.ecommerce.benchmarks;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.myproject.ecommerce.core.domain.AudioAlbum;
+import org.myproject.ecommerce.core.domain.Film;
+import org.myproject.ecommerce.core.domain.ProductVariation;
+import org.myproject.ecommerce.core.domain.StoreInventory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// The hand written catalog codecs of CustomCodecProvider against the reflective PojoCodecProvider, encoding
+// to and decoding from BSON bytes as the driver does.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CatalogCodecBenchmark {
+    @Param({"handWritten", "reflective"})
+    private String codecs;
+
+    private Codec<Film> filmCodec;
+    private Codec<AudioAlbum> audioAlbumCodec;
+    private Codec<ProductVariation> productVariationCodec;
+    private Codec<StoreInventory> storeInventoryCodec;
+
+    private Film film;
+    private AudioAlbum audioAlbum;
+    private ProductVariation productVariation;
+    private StoreInventory storeInventory;
+
+    private byte[] filmBytes;
+    private byte[] audioAlbumBytes;
+    private byte[] productVariationBytes;
+    private byte[] storeInventoryBytes;
+
+    @Setup
+    public void setUp() {
+        CodecRegistry codecRegistry = "reflective".equals(codecs) ? Fixtures.reflectiveCodecRegistry() :
+                Fixtures.codecRegistry();
+        filmCodec = codecRegistry.get(Film.class);
+        audioAlbumCodec = codecRegistry.get(AudioAlbum.class);
+        productVariationCodec = codecRegistry.get(ProductVariation.class);
+        storeInventoryCodec = codecRegistry.get(StoreInventory.class);
+
+        film = Fixtures.film();
+        audioAlbum = Fixtures.audioAlbum();
+        productVariation = Fixtures.productVariation();
+        storeInventory = Fixtures.storeInventory();
+
+        filmBytes = encode(filmCodec, film);
+        audioAlbumBytes = encode(audioAlbumCodec, audioAlbum);
+        productVariationBytes = encode(productVariationCodec, productVariation);
+        storeInventoryBytes = encode(storeInventoryCodec, storeInventory);
+    }
+
+    @Benchmark
+    public byte[] encodeFilm() {
+        return encode(filmCodec, film);
+    }
+
+    @Benchmark
+    public Film decodeFilm() {
+        return decode(filmCodec, filmBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeAudioAlbum() {
+        return encode(audioAlbumCodec, audioAlbum);
+    }
+
+    @Benchmark
+    public AudioAlbum decodeAudioAlbum() {
+        return decode(audioAlbumCodec, audioAlbumBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeProductVariation() {
+        return encode(productVariationCodec, productVariation);
+    }
+
+    @Benchmark
+    public ProductVariation decodeProductVariation() {
+        return decode(productVariationCodec, productVariationBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeStoreInventory() {
+        return encode(storeInventoryCodec, storeInventory);
+    }
+
+    @Benchmark
+    public StoreInventory decodeStoreInventory() {
+        return decode(storeInventoryCodec, storeInventoryBytes);
+    }
+
+    private static <T> byte[] encode(Codec<T> codec, T value) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try(BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            codec.encode(writer, value, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+
+    private static <T> T decode(Codec<T> codec, byte[] bytes) {
+        try(BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+            return codec.decode(reader, DecoderContext.builder().build());
+        }
+    }
+}
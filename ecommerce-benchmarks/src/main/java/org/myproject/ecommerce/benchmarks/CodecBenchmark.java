@@ -0,0 +1,118 @@
+package org.myproject.ecommerce.benchmarks;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.myproject.ecommerce.core.domain.Film;
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.StoreInventory;
+import org.myproject.ecommerce.hvdfclient.Activity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Encoding to and decoding from BSON bytes, as the driver does on the wire, with the codecs the registry
+// of MongoDBService resolves for each class. Activities are only ever read, their codecs cannot encode.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private Codec<Product> productCodec;
+    private Codec<Film> filmCodec;
+    private Codec<StoreInventory> storeInventoryCodec;
+    private Codec<Activity> activityCodec;
+
+    private Product product;
+    private Film film;
+    private StoreInventory storeInventory;
+
+    private byte[] productBytes;
+    private byte[] filmBytes;
+    private byte[] storeInventoryBytes;
+    private byte[] activityBytes;
+
+    @Setup
+    public void setUp() {
+        CodecRegistry codecRegistry = Fixtures.codecRegistry();
+        productCodec = codecRegistry.get(Product.class);
+        filmCodec = codecRegistry.get(Film.class);
+        storeInventoryCodec = codecRegistry.get(StoreInventory.class);
+        activityCodec = codecRegistry.get(Activity.class);
+
+        product = Fixtures.product();
+        film = Fixtures.film();
+        storeInventory = Fixtures.storeInventory();
+
+        productBytes = encode(productCodec, product);
+        filmBytes = encode(filmCodec, film);
+        storeInventoryBytes = encode(storeInventoryCodec, storeInventory);
+        activityBytes = encode(new BsonDocumentCodec(), Fixtures.activityDocument());
+    }
+
+    @Benchmark
+    public byte[] encodeProduct() {
+        return encode(productCodec, product);
+    }
+
+    @Benchmark
+    public Product decodeProduct() {
+        return decode(productCodec, productBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeFilm() {
+        return encode(filmCodec, film);
+    }
+
+    @Benchmark
+    public Film decodeFilm() {
+        return decode(filmCodec, filmBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeStoreInventory() {
+        return encode(storeInventoryCodec, storeInventory);
+    }
+
+    @Benchmark
+    public StoreInventory decodeStoreInventory() {
+        return decode(storeInventoryCodec, storeInventoryBytes);
+    }
+
+    @Benchmark
+    public Activity decodeActivity() {
+        return decode(activityCodec, activityBytes);
+    }
+
+    private static <T> byte[] encode(Codec<T> codec, T value) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try(BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            codec.encode(writer, value, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+
+    private static <T> T decode(Codec<T> codec, byte[] bytes) {
+        try(BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+            return codec.decode(reader, DecoderContext.builder().build());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.myproject.ecommerce.benchmarks;
+
+import com.mongodb.MongoClient;
+import org.bson.BsonDocument;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.types.ObjectId;
+import org.myproject.ecommerce.core.codec.CustomCodecProvider;
+import org.myproject.ecommerce.core.domain.AudioAlbum;
+import org.myproject.ecommerce.core.domain.Film;
+import org.myproject.ecommerce.core.domain.Pricing;
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.ProductVariation;
+import org.myproject.ecommerce.core.domain.Shipping;
+import org.myproject.ecommerce.core.domain.StoreInventory;
+import org.myproject.ecommerce.hvdfclient.Activity;
+import org.myproject.ecommerce.hvdfclient.ActivityDataBuilder;
+import org.myproject.ecommerce.hvdfclient.HVDFCustomCodecProvider;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+// The documents the benchmarks work on, shaped like the seed data of the services.
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    // the registry MongoDBService builds for the providers of the application configuration
+    static CodecRegistry codecRegistry() {
+        CodecRegistry pojoCodecRegistry = CodecRegistries.fromRegistries(MongoClient.getDefaultCodecRegistry(),
+                CodecRegistries.fromProviders(PojoCodecProvider.builder().automatic(true).build()));
+        return CodecRegistries.fromRegistries(
+                MongoClient.getDefaultCodecRegistry(),
+                CodecRegistries.fromProviders(new CustomCodecProvider(), new HVDFCustomCodecProvider()),
+                pojoCodecRegistry);
+    }
+
+    // the registry without the hand written codecs, every class is mapped by reflection
+    static CodecRegistry reflectiveCodecRegistry() {
+        return CodecRegistries.fromRegistries(MongoClient.getDefaultCodecRegistry(),
+                CodecRegistries.fromProviders(PojoCodecProvider.builder().automatic(true).build()));
+    }
+
+    static Product product() {
+        Product product = new Product("30671", "00e8da9b", "Digital Music", "Audio Album", "Jazz",
+                "A Love Supreme", "by John Coltrane", "B0000A118M", new Shipping(6, null),
+                new Pricing(1200, 1100, 100, 8), 16, null);
+        product.setId(new ObjectId("5ad9d9a3e4b0d2d2f1a3c001"));
+        return product;
+    }
+
+    static Film film() {
+        Film.FilmDetails details = new Film.FilmDetails("The Matrix", Arrays.asList("Andy Wachowski",
+                "Larry Wachowski"), Arrays.asList("Andy Wachowski", "Larry Wachowski"), "1.66:1",
+                new Date(922406400000L), Arrays.asList("Action", "Sci-Fi"), "Keanu Reeves");
+        Film film = new Film("20034", "0ab42f88", "DVD & Blu-ray", "Film", "Science Fiction", "The Matrix",
+                "Set in the 22nd century", "B000P0J0AQ", new Shipping(6, new Shipping.Dimensions(10, 10, 1)),
+                new Pricing(1200, 1100, 100, 8), 16,
+                Collections.singletonList(new Product.CartedItem(1, 42, new Date(1500000000000L))), details);
+        film.setId(new ObjectId("5ad9d9a3e4b0d2d2f1a3c002"));
+        return film;
+    }
+
+    static AudioAlbum audioAlbum() {
+        AudioAlbum.AudioAlbumDetails details = new AudioAlbum.AudioAlbumDetails(
+                "A Love Supreme [Original Recording Reissued]", "John Coltrane", Arrays.asList("General"),
+                Arrays.asList("A Love Supreme Part I: Acknowledgement", "A Love Supreme Part II - Resolution"),
+                new Date(1102896000000L));
+        AudioAlbum audioAlbum = new AudioAlbum("30671", "00e8da9b", "Digital Music", "Audio Album", "Jazz",
+                "A Love Supreme", "by John Coltrane", "B0000A118M", new Shipping(6, null),
+                new Pricing(1200, 1100, 100, 8), 16, null, details);
+        audioAlbum.setId(new ObjectId("5ad9d9a3e4b0d2d2f1a3c003"));
+        return audioAlbum;
+    }
+
+    static ProductVariation productVariation() {
+        ProductVariation productVariation = new ProductVariation("93284847362823", "30671");
+        productVariation.addAttribute("CD");
+        return productVariation;
+    }
+
+    static StoreInventory storeInventory() {
+        return new StoreInventory("902372093572409542jbf42r2f2432", "store100",
+                Arrays.asList(-86.95444, 33.40178), "20034",
+                Arrays.asList(new StoreInventory.StoreVariation("sku1", 5),
+                        new StoreInventory.StoreVariation("sku2", 23),
+                        new StoreInventory.StoreVariation("sku3", 2)));
+    }
+
+    // activities are written by hvdf and only read by the application; this is how hvdf stores activity()
+    static BsonDocument activityDocument() {
+        return BsonDocument.parse("{_id: {source: 'u123', ts: {$numberLong: '1524219330000'}}, " +
+                "source: 'u123', ts: {$numberLong: '1524219330000'}, data: {userId: 'u123', geoCode: 1, " +
+                "sessionId: '2373BB', device: {id: '1234', type: 'mobile/iphone', " +
+                "userAgent: 'Chrome/34.0.1847.131'}, type: 'VIEW', itemId: '301671', weight: 0, " +
+                "sku: '730223104376', order: {id: '12520185', total: 1200}, locations: [-86.95444, 33.40178], " +
+                "tags: ['smartphone', 'iphone'], time: {$date: 1524219330000}, " +
+                "ts: {$numberLong: '1524219330000'}}}");
+    }
+
+    static Activity activity() {
+        ActivityDataBuilder builder = new ActivityDataBuilder()
+                .setUserId("u123")
+                .setGeoCode(1)
+                .setSessionId("2373BB")
+                .setDevice(new Activity.Device("1234", "mobile/iphone", "Chrome/34.0.1847.131"))
+                .setType(Activity.Type.VIEW)
+                .setItemId("301671")
+                .setSku("730223104376")
+                .setOrder(new Activity.Order("12520185", 1200))
+                .setLocations(Arrays.asList(-86.95444, 33.40178))
+                .setTags(Arrays.asList("smartphone", "iphone"))
+                .setTime(LocalDateTime.of(2018, 4, 20, 10, 15, 30))
+                .setTimeStamp(1524219330000L);
+        return new Activity("u123", 1524219330000L, builder.createActivity());
+    }
+}
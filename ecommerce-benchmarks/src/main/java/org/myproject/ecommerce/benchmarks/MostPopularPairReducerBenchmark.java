@@ -0,0 +1,54 @@
+package org.myproject.ecommerce.benchmarks;
+
+import com.mongodb.hadoop.io.BSONWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.myproject.ecommerce.hadoop.MostPopularPairReducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cost of reducing the pair counts of one item into its recommendation document, for pairCount pairs.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MostPopularPairReducerBenchmark {
+    @Param({"5", "50"})
+    private int pairCount;
+
+    private final MostPopularPairReducer reducer = new MostPopularPairReducer();
+    private final Text key = new Text("301671");
+    private List<Text> values;
+
+    @Setup
+    public void setUp() {
+        values = new ArrayList<>();
+        for(int i = 0; i < pairCount; i++) {
+            values.add(new Text((301672 + i) + " " + ((i * 7919) % 97 + 1)));
+        }
+    }
+
+    @Benchmark
+    public void reduce(Blackhole blackhole) throws IOException {
+        OutputCollector<BSONWritable, BSONWritable> output = (outputKey, outputValue) -> blackhole.consume(outputValue);
+        reducer.reduce(key, values.iterator(), output, Reporter.NULL);
+    }
+}
@@ -0,0 +1,55 @@
+package org.myproject.ecommerce.benchmarks;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+import org.myproject.ecommerce.hadoop.PairMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cost of mapping one lastDayOrders record, an order with itemCount items, into its item pairs.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PairMapperBenchmark {
+    @Param({"2", "5", "20"})
+    private int itemCount;
+
+    private final PairMapper pairMapper = new PairMapper();
+    private BSONObject order;
+
+    @Setup
+    public void setUp() {
+        List<Integer> items = new ArrayList<>();
+        for(int i = 0; i < itemCount; i++) {
+            items.add(301671 + i);
+        }
+        order = new BasicBSONObject("_id", 12520185).append("items", items);
+    }
+
+    @Benchmark
+    public void map(Blackhole blackhole) {
+        OutputCollector<Text, IntWritable> output = (outputKey, outputValue) -> blackhole.consume(outputKey);
+        pairMapper.map(null, order, output, Reporter.NULL);
+    }
+}
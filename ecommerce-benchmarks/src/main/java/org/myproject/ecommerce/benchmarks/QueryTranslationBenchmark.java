@@ -0,0 +1,85 @@
+package org.myproject.ecommerce.benchmarks;
+
+import org.bson.BsonDocument;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.myproject.ecommerce.core.domain.Reservation;
+import org.myproject.ecommerce.core.services.QueryTranslator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Translation of the Map based filter/update DSL of MongoDBService into the BSON sent to the server, for
+// the two writes of addItemToCart: the stock taken from the product and the upsert of the cart's reservation.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryTranslationBenchmark {
+    private static final CodecRegistry CODEC_REGISTRY = Fixtures.codecRegistry();
+
+    private Map<String, Object> stockFilterMap;
+    private Map<String, Object> stockUpdateMap;
+    private Map<String, Object> reservationFilterMap;
+    private Map<String, Object> reservationUpdateMap;
+
+    @Setup
+    public void setUp() {
+        Map<String, Object> quantityQueryMap = new HashMap<>();
+        quantityQueryMap.put("qty", 1);
+        stockFilterMap = new HashMap<>();
+        stockFilterMap.put("sku", "00e8da9b");
+        stockFilterMap.put("$gte", quantityQueryMap);
+        Map<String, Object> stockQuantityMap = new HashMap<>();
+        stockQuantityMap.put("qty", -1);
+        stockUpdateMap = new HashMap<>();
+        stockUpdateMap.put("inc", stockQuantityMap);
+
+        reservationFilterMap = new HashMap<>();
+        reservationFilterMap.put("_id", Reservation.id("00e8da9b", 42));
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put("sku", "00e8da9b");
+        valueMap.put("cart_id", 42);
+        valueMap.put("timestamp", new Date(1500000000000L));
+        valueMap.put("released_at", Optional.empty());
+        Map<String, Object> reservationQuantityMap = new HashMap<>();
+        reservationQuantityMap.put("qty", 1);
+        reservationUpdateMap = new HashMap<>();
+        reservationUpdateMap.put("addOrRemove", valueMap);
+        reservationUpdateMap.put("inc", reservationQuantityMap);
+    }
+
+    @Benchmark
+    public BsonDocument stockFilter() {
+        return QueryTranslator.filter(stockFilterMap).toBsonDocument(BsonDocument.class, CODEC_REGISTRY);
+    }
+
+    @Benchmark
+    public BsonDocument stockUpdate() {
+        return QueryTranslator.update(stockUpdateMap).toBsonDocument(BsonDocument.class, CODEC_REGISTRY);
+    }
+
+    @Benchmark
+    public BsonDocument reservationFilter() {
+        return QueryTranslator.filter(reservationFilterMap).toBsonDocument(BsonDocument.class, CODEC_REGISTRY);
+    }
+
+    @Benchmark
+    public BsonDocument reservationUpdate() {
+        return QueryTranslator.update(reservationUpdateMap).toBsonDocument(BsonDocument.class, CODEC_REGISTRY);
+    }
+}
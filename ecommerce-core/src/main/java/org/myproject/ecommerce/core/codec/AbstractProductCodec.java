@@ -0,0 +1,263 @@
+package org.myproject.ecommerce.core.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.myproject.ecommerce.core.domain.Pricing;
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.Shipping;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.myproject.ecommerce.core.codec.CodecUtils.readDate;
+import static org.myproject.ecommerce.core.codec.CodecUtils.readInt;
+import static org.myproject.ecommerce.core.codec.CodecUtils.readString;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeDate;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeString;
+
+// Reads and writes the fields every product has, straight between the BSON stream and the product, with
+// the field names of the reflective codec. Subclasses add the fields of their product type; fields
+// neither knows, such as the details of another type, are skipped.
+abstract class AbstractProductCodec<T extends Product> implements Codec<T> {
+
+    protected abstract T newProduct();
+
+    // returns false for a field the subclass does not know, which is then skipped
+    protected boolean decodeField(String name, BsonReader reader, T product, DecoderContext decoderContext) {
+        return false;
+    }
+
+    protected void encodeFields(BsonWriter writer, T product, EncoderContext encoderContext) {
+    }
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        T product = newProduct();
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            switch(name) {
+                case "_id":
+                    if(reader.getCurrentBsonType() == BsonType.OBJECT_ID) {
+                        product.setId(reader.readObjectId());
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "productId":
+                    product.setProductId(readString(reader));
+                    break;
+                case "sku":
+                    product.setSku(readString(reader));
+                    break;
+                case "department":
+                    product.setDepartment(readString(reader));
+                    break;
+                case "type":
+                    product.setType(readString(reader));
+                    break;
+                case "genre":
+                    product.setGenre(readString(reader));
+                    break;
+                case "title":
+                    product.setTitle(readString(reader));
+                    break;
+                case "description":
+                    product.setDescription(readString(reader));
+                    break;
+                case "asin":
+                    product.setAsin(readString(reader));
+                    break;
+                case "shipping":
+                    product.setShipping(decodeShipping(reader));
+                    break;
+                case "pricing":
+                    product.setPricing(decodePricing(reader));
+                    break;
+                case "qty":
+                    product.setQuantity(readInt(reader));
+                    break;
+                case "carted":
+                    product.setCarted(decodeCarted(reader));
+                    break;
+                default:
+                    if(!decodeField(name, reader, product, decoderContext)) {
+                        reader.skipValue();
+                    }
+            }
+        }
+        reader.readEndDocument();
+        return product;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T product, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if(product.getId() != null) {
+            writer.writeObjectId("_id", product.getId());
+        }
+        writeString(writer, "productId", product.getProductId());
+        writeString(writer, "sku", product.getSku());
+        writeString(writer, "department", product.getDepartment());
+        writeString(writer, "type", product.getType());
+        writeString(writer, "genre", product.getGenre());
+        writeString(writer, "title", product.getTitle());
+        writeString(writer, "description", product.getDescription());
+        writeString(writer, "asin", product.getAsin());
+        if(product.getShipping() != null) {
+            encodeShipping(writer, product.getShipping());
+        }
+        if(product.getPricing() != null) {
+            encodePricing(writer, product.getPricing());
+        }
+        writer.writeInt32("qty", product.getQuantity());
+        if(product.getCarted() != null) {
+            encodeCarted(writer, product.getCarted());
+        }
+        encodeFields(writer, product, encoderContext);
+        writer.writeEndDocument();
+    }
+
+    private static Shipping decodeShipping(BsonReader reader) {
+        if(reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        Shipping shipping = new Shipping();
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            if("weight".equals(name)) {
+                shipping.setWeight(readInt(reader));
+            } else if("dimensions".equals(name) && reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+                shipping.setDimensions(decodeDimensions(reader));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return shipping;
+    }
+
+    private static Shipping.Dimensions decodeDimensions(BsonReader reader) {
+        Shipping.Dimensions dimensions = new Shipping.Dimensions();
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch(reader.readName()) {
+                case "width":
+                    dimensions.setWidth(readInt(reader));
+                    break;
+                case "height":
+                    dimensions.setHeight(readInt(reader));
+                    break;
+                case "depth":
+                    dimensions.setDepth(readInt(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return dimensions;
+    }
+
+    private static void encodeShipping(BsonWriter writer, Shipping shipping) {
+        writer.writeStartDocument("shipping");
+        writer.writeInt32("weight", shipping.getWeight());
+        Shipping.Dimensions dimensions = shipping.getDimensions();
+        if(dimensions != null) {
+            writer.writeStartDocument("dimensions");
+            writer.writeInt32("width", dimensions.getWidth());
+            writer.writeInt32("height", dimensions.getHeight());
+            writer.writeInt32("depth", dimensions.getDepth());
+            writer.writeEndDocument();
+        }
+        writer.writeEndDocument();
+    }
+
+    private static Pricing decodePricing(BsonReader reader) {
+        if(reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        Pricing pricing = new Pricing();
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch(reader.readName()) {
+                case "list":
+                    pricing.setList(readInt(reader));
+                    break;
+                case "retail":
+                    pricing.setRetail(readInt(reader));
+                    break;
+                case "savings":
+                    pricing.setSavings(readInt(reader));
+                    break;
+                case "pct_savings":
+                    pricing.setPctSavings(readInt(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return pricing;
+    }
+
+    private static void encodePricing(BsonWriter writer, Pricing pricing) {
+        writer.writeStartDocument("pricing");
+        writer.writeInt32("list", pricing.getList());
+        writer.writeInt32("retail", pricing.getRetail());
+        writer.writeInt32("savings", pricing.getSavings());
+        writer.writeInt32("pct_savings", pricing.getPctSavings());
+        writer.writeEndDocument();
+    }
+
+    private static List<Product.CartedItem> decodeCarted(BsonReader reader) {
+        if(reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        List<Product.CartedItem> carted = new ArrayList<>();
+        reader.readStartArray();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            Product.CartedItem cartedItem = new Product.CartedItem();
+            reader.readStartDocument();
+            while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                switch(reader.readName()) {
+                    case "qty":
+                        cartedItem.setQuantity(readInt(reader));
+                        break;
+                    case "cart_id":
+                        cartedItem.setCartId(readInt(reader));
+                        break;
+                    case "timestamp":
+                        cartedItem.setTimestamp(readDate(reader));
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+            carted.add(cartedItem);
+        }
+        reader.readEndArray();
+        return carted;
+    }
+
+    private static void encodeCarted(BsonWriter writer, List<Product.CartedItem> carted) {
+        writer.writeStartArray("carted");
+        for(Product.CartedItem cartedItem : carted) {
+            writer.writeStartDocument();
+            writer.writeInt32("qty", cartedItem.getQuantity());
+            writer.writeInt32("cart_id", cartedItem.getCartId());
+            writeDate(writer, "timestamp", cartedItem.getTimestamp());
+            writer.writeEndDocument();
+        }
+        writer.writeEndArray();
+    }
+}
@@ -0,0 +1,77 @@
+package org.myproject.ecommerce.core.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.myproject.ecommerce.core.domain.AudioAlbum;
+
+import static org.myproject.ecommerce.core.codec.CodecUtils.readDate;
+import static org.myproject.ecommerce.core.codec.CodecUtils.readString;
+import static org.myproject.ecommerce.core.codec.CodecUtils.readStrings;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeDate;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeString;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeStrings;
+
+public class AudioAlbumCodec extends AbstractProductCodec<AudioAlbum> {
+
+    @Override
+    protected AudioAlbum newProduct() {
+        return new AudioAlbum();
+    }
+
+    @Override
+    protected boolean decodeField(String name, BsonReader reader, AudioAlbum audioAlbum,
+                                  DecoderContext decoderContext) {
+        if(!"details".equals(name) || reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+            return false;
+        }
+        AudioAlbum.AudioAlbumDetails details = new AudioAlbum.AudioAlbumDetails();
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch(reader.readName()) {
+                case "title":
+                    details.setDetailedTitle(readString(reader));
+                    break;
+                case "artist":
+                    details.setArtist(readString(reader));
+                    break;
+                case "genre_others":
+                    details.setOtherGenres(readStrings(reader));
+                    break;
+                case "tracks":
+                    details.setTracks(readStrings(reader));
+                    break;
+                case "issue_date":
+                    details.setIssueDate(readDate(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        audioAlbum.setDetails(details);
+        return true;
+    }
+
+    @Override
+    protected void encodeFields(BsonWriter writer, AudioAlbum audioAlbum, EncoderContext encoderContext) {
+        AudioAlbum.AudioAlbumDetails details = audioAlbum.getDetails();
+        if(details == null) {
+            return;
+        }
+        writer.writeStartDocument("details");
+        writeString(writer, "title", details.getDetailedTitle());
+        writeString(writer, "artist", details.getArtist());
+        writeStrings(writer, "genre_others", details.getOtherGenres());
+        writeStrings(writer, "tracks", details.getTracks());
+        writeDate(writer, "issue_date", details.getIssueDate());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<AudioAlbum> getEncoderClass() {
+        return AudioAlbum.class;
+    }
+}
@@ -0,0 +1,129 @@
+package org.myproject.ecommerce.core.codec;
+
+import org.bson.BsonInvalidOperationException;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+// Reads and writes the field types of the domain classes. Reads accept BSON null and, for numbers, any
+// numeric type, since updates such as $inc can change how a number is stored; writes leave null fields
+// out, as the reflective codec does.
+final class CodecUtils {
+    private CodecUtils() {
+    }
+
+    static String readString(BsonReader reader) {
+        if(reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        return reader.readString();
+    }
+
+    static int readInt(BsonReader reader) {
+        BsonType type = reader.getCurrentBsonType();
+        switch(type) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return (int) reader.readInt64();
+            case DOUBLE:
+                return (int) reader.readDouble();
+            case NULL:
+                reader.readNull();
+                return 0;
+            default:
+                throw new BsonInvalidOperationException("expected a number but found " + type);
+        }
+    }
+
+    static double readDouble(BsonReader reader) {
+        BsonType type = reader.getCurrentBsonType();
+        switch(type) {
+            case DOUBLE:
+                return reader.readDouble();
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return reader.readInt64();
+            default:
+                throw new BsonInvalidOperationException("expected a number but found " + type);
+        }
+    }
+
+    static Date readDate(BsonReader reader) {
+        if(reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        return new Date(reader.readDateTime());
+    }
+
+    static List<String> readStrings(BsonReader reader) {
+        if(reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        reader.readStartArray();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            values.add(readString(reader));
+        }
+        reader.readEndArray();
+        return values;
+    }
+
+    static List<Double> readDoubles(BsonReader reader) {
+        if(reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        List<Double> values = new ArrayList<>();
+        reader.readStartArray();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            values.add(readDouble(reader));
+        }
+        reader.readEndArray();
+        return values;
+    }
+
+    static void writeString(BsonWriter writer, String name, String value) {
+        if(value != null) {
+            writer.writeString(name, value);
+        }
+    }
+
+    static void writeDate(BsonWriter writer, String name, Date value) {
+        if(value != null) {
+            writer.writeDateTime(name, value.getTime());
+        }
+    }
+
+    static void writeStrings(BsonWriter writer, String name, List<String> values) {
+        if(values != null) {
+            writer.writeStartArray(name);
+            for(String value : values) {
+                if(value == null) {
+                    writer.writeNull();
+                } else {
+                    writer.writeString(value);
+                }
+            }
+            writer.writeEndArray();
+        }
+    }
+
+    static void writeDoubles(BsonWriter writer, String name, List<Double> values) {
+        if(values != null) {
+            writer.writeStartArray(name);
+            for(Double value : values) {
+                writer.writeDouble(value);
+            }
+            writer.writeEndArray();
+        }
+    }
+}
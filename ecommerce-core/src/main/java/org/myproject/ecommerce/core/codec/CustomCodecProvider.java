@@ -3,16 +3,34 @@ package org.myproject.ecommerce.core.codec;
 import org.bson.codecs.Codec;
 import org.bson.codecs.configuration.CodecProvider;
 import org.bson.codecs.configuration.CodecRegistry;
+import org.myproject.ecommerce.core.domain.AudioAlbum;
+import org.myproject.ecommerce.core.domain.Film;
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.ProductVariation;
 import org.myproject.ecommerce.core.domain.StoreInventory;
 
 import java.time.LocalDateTime;
 
+// The catalog classes are read and written by hand written codecs; the remaining domain classes fall
+// through to the reflective PojoCodecProvider.
 @SuppressWarnings("unchecked")
 public class CustomCodecProvider implements CodecProvider {
     @Override
     public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
         if (clazz == StoreInventory.class) {
-            return (Codec<T>) new StoreInventoryCodec(registry);
+            return (Codec<T>) new StoreInventoryCodec();
+        }
+        if(clazz == Product.class) {
+            return (Codec<T>) new ProductCodec();
+        }
+        if(clazz == Film.class) {
+            return (Codec<T>) new FilmCodec();
+        }
+        if(clazz == AudioAlbum.class) {
+            return (Codec<T>) new AudioAlbumCodec();
+        }
+        if(clazz == ProductVariation.class) {
+            return (Codec<T>) new ProductVariationCodec();
         }
         if(clazz == LocalDateTime.class) {
             return (Codec<T>) new LocalDateTimeCodec();
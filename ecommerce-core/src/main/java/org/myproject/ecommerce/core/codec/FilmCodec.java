@@ -0,0 +1,84 @@
+package org.myproject.ecommerce.core.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.myproject.ecommerce.core.domain.Film;
+
+import static org.myproject.ecommerce.core.codec.CodecUtils.readDate;
+import static org.myproject.ecommerce.core.codec.CodecUtils.readString;
+import static org.myproject.ecommerce.core.codec.CodecUtils.readStrings;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeDate;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeString;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeStrings;
+
+public class FilmCodec extends AbstractProductCodec<Film> {
+
+    @Override
+    protected Film newProduct() {
+        return new Film();
+    }
+
+    @Override
+    protected boolean decodeField(String name, BsonReader reader, Film film, DecoderContext decoderContext) {
+        if(!"details".equals(name) || reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+            return false;
+        }
+        Film.FilmDetails details = new Film.FilmDetails();
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch(reader.readName()) {
+                case "title":
+                    details.setTitle(readString(reader));
+                    break;
+                case "director":
+                    details.setDirector(readStrings(reader));
+                    break;
+                case "writer":
+                    details.setWriter(readStrings(reader));
+                    break;
+                case "aspect_ratio":
+                    details.setAspectRatio(readString(reader));
+                    break;
+                case "issue_date":
+                    details.setIssueDate(readDate(reader));
+                    break;
+                case "genre_others":
+                    details.setOtherGenres(readStrings(reader));
+                    break;
+                case "actor":
+                    details.setActor(readString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        film.setDetails(details);
+        return true;
+    }
+
+    @Override
+    protected void encodeFields(BsonWriter writer, Film film, EncoderContext encoderContext) {
+        Film.FilmDetails details = film.getDetails();
+        if(details == null) {
+            return;
+        }
+        writer.writeStartDocument("details");
+        writeString(writer, "title", details.getTitle());
+        writeStrings(writer, "director", details.getDirector());
+        writeStrings(writer, "writer", details.getWriter());
+        writeString(writer, "aspect_ratio", details.getAspectRatio());
+        writeDate(writer, "issue_date", details.getIssueDate());
+        writeStrings(writer, "genre_others", details.getOtherGenres());
+        writeString(writer, "actor", details.getActor());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Film> getEncoderClass() {
+        return Film.class;
+    }
+}
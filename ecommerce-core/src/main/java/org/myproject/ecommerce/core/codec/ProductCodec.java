@@ -0,0 +1,16 @@
+package org.myproject.ecommerce.core.codec;
+
+import org.myproject.ecommerce.core.domain.Product;
+
+public class ProductCodec extends AbstractProductCodec<Product> {
+
+    @Override
+    protected Product newProduct() {
+        return new Product();
+    }
+
+    @Override
+    public Class<Product> getEncoderClass() {
+        return Product.class;
+    }
+}
@@ -0,0 +1,55 @@
+package org.myproject.ecommerce.core.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.myproject.ecommerce.core.domain.ProductVariation;
+
+import static org.myproject.ecommerce.core.codec.CodecUtils.readString;
+import static org.myproject.ecommerce.core.codec.CodecUtils.readStrings;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeString;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeStrings;
+
+// The sku is the _id of a variation.
+public class ProductVariationCodec implements Codec<ProductVariation> {
+
+    @Override
+    public ProductVariation decode(BsonReader reader, DecoderContext decoderContext) {
+        ProductVariation productVariation = new ProductVariation();
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch(reader.readName()) {
+                case "_id":
+                    productVariation.setSku(readString(reader));
+                    break;
+                case "productId":
+                    productVariation.setProductId(readString(reader));
+                    break;
+                case "attributes":
+                    productVariation.setAttributes(readStrings(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return productVariation;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, ProductVariation productVariation, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "_id", productVariation.getSku());
+        writeString(writer, "productId", productVariation.getProductId());
+        writeStrings(writer, "attributes", productVariation.getAttributes());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<ProductVariation> getEncoderClass() {
+        return ProductVariation.class;
+    }
+}
@@ -1,106 +1,108 @@
 package org.myproject.ecommerce.core.codec;
 
 import org.bson.BsonReader;
+import org.bson.BsonType;
 import org.bson.BsonWriter;
-import org.bson.Document;
 import org.bson.codecs.Codec;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.EncoderContext;
-import org.bson.codecs.configuration.CodecRegistry;
 import org.myproject.ecommerce.core.domain.StoreInventory;
-import org.myproject.ecommerce.core.utilities.LoggingUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
-import static java.util.stream.Collectors.toList;
+import static org.myproject.ecommerce.core.codec.CodecUtils.readDoubles;
+import static org.myproject.ecommerce.core.codec.CodecUtils.readInt;
+import static org.myproject.ecommerce.core.codec.CodecUtils.readString;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeDoubles;
+import static org.myproject.ecommerce.core.codec.CodecUtils.writeString;
 
-@SuppressWarnings("unchecked")
 public class StoreInventoryCodec implements Codec<StoreInventory> {
-    private CodecRegistry codecRegistry;
-    private static final Logger logger = LoggerFactory.getLogger(StoreInventoryCodec.class);
-
-    public StoreInventoryCodec(CodecRegistry codecRegistry) {
-        this.codecRegistry = codecRegistry;
-    }
 
     @Override
     public StoreInventory decode(BsonReader reader, DecoderContext decoderContext) {
-        Document document = codecRegistry.get(Document.class).decode(reader, decoderContext);
-        LoggingUtils.info(logger, "document "+ document);
         StoreInventory storeInventory = new StoreInventory();
-        storeInventory.setId(document.getString("_id"));
-        storeInventory.setStoreId(document.getString("storeId"));
-        storeInventory.setLocation((List<Double>) document.get("location"));
-        storeInventory.setProductId(document.getString("productId"));
-        if(document.get("vars") != null && document.get("vars") instanceof ArrayList) {
-            List<StoreInventory.StoreVariation> storeVariations =
-                    ((ArrayList<Document>) document.get("vars"))
-                        .stream()
-                        .map(d -> new StoreInventory.StoreVariation(d.getString("sku"),
-                                d.getInteger("quantity")))
-                        .collect(toList());
-            storeInventory.setStoreVariations(storeVariations);
-        }
-        if(document.get("vars") != null && document.get("vars") instanceof Map) {
-            List<StoreInventory.StoreVariation> storeVariations = new ArrayList<>();
-            Map<String, Object> varsMap = (Map<String, Object>) document.get("vars");
-            storeVariations.add(new StoreInventory.StoreVariation((String) varsMap.get("sku"),
-                    (Integer) varsMap.get("quantity")));
-            storeInventory.setStoreVariations(storeVariations);
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch(reader.readName()) {
+                case "_id":
+                    storeInventory.setId(readString(reader));
+                    break;
+                case "storeId":
+                    storeInventory.setStoreId(readString(reader));
+                    break;
+                case "location":
+                    storeInventory.setLocation(readDoubles(reader));
+                    break;
+                case "productId":
+                    storeInventory.setProductId(readString(reader));
+                    break;
+                case "vars":
+                    storeInventory.setStoreVariations(decodeStoreVariations(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
         }
+        reader.readEndDocument();
         return storeInventory;
     }
 
-    @Override
-    public void encode(BsonWriter writer, StoreInventory value, EncoderContext encoderContext) {
-        String id = value.getId();
-        String storeId = value.getStoreId();
-        List<Double> location = value.getLocation();
-        String productId = value.getProductId();
-        List<StoreInventory.StoreVariation> storeVariations = value.getStoreVariations();
-
-        writer.writeStartDocument();
-        if (null != id) {
-            writer.writeName("_id");
-            writer.writeString(id);
-        }
-
-        if (null != storeId) {
-            writer.writeName("storeId");
-            writer.writeString(storeId);        }
-
-        if (null != location) {
-            writer.writeName("location");
-            writer.writeStartArray();
-            location.stream()
-                    .forEach(l -> writer.writeDouble(l));
-            writer.writeEndArray();
+    // vars is an array, except after an $unwind of it, which leaves one variation document
+    private static List<StoreInventory.StoreVariation> decodeStoreVariations(BsonReader reader) {
+        List<StoreInventory.StoreVariation> storeVariations = new ArrayList<>();
+        if(reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+            storeVariations.add(decodeStoreVariation(reader));
+        } else if(reader.getCurrentBsonType() == BsonType.ARRAY) {
+            reader.readStartArray();
+            while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                storeVariations.add(decodeStoreVariation(reader));
+            }
+            reader.readEndArray();
+        } else {
+            reader.skipValue();
+            return null;
         }
+        return storeVariations;
+    }
 
-        if (null != productId) {
-            writer.writeName("productId");
-            writer.writeString(productId);
+    private static StoreInventory.StoreVariation decodeStoreVariation(BsonReader reader) {
+        StoreInventory.StoreVariation storeVariation = new StoreInventory.StoreVariation();
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch(reader.readName()) {
+                case "sku":
+                    storeVariation.setSku(readString(reader));
+                    break;
+                case "quantity":
+                    storeVariation.setQuantity(readInt(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
         }
+        reader.readEndDocument();
+        return storeVariation;
+    }
 
+    @Override
+    public void encode(BsonWriter writer, StoreInventory value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "_id", value.getId());
+        writeString(writer, "storeId", value.getStoreId());
+        writeDoubles(writer, "location", value.getLocation());
+        writeString(writer, "productId", value.getProductId());
+        List<StoreInventory.StoreVariation> storeVariations = value.getStoreVariations();
         if(null != storeVariations && storeVariations.size() > 0) {
-            writer.writeName("vars");
-            writer.writeStartArray();
-            storeVariations.stream()
-                           .forEach(s -> {
-                               writer.writeStartDocument();
-                               writer.writeName("sku");
-                               writer.writeString(s.getSku());
-                               writer.writeName("quantity");
-                               writer.writeInt32(s.getQuantity());
-                               writer.writeEndDocument();
-                           });
+            writer.writeStartArray("vars");
+            for(StoreInventory.StoreVariation storeVariation : storeVariations) {
+                writer.writeStartDocument();
+                writeString(writer, "sku", storeVariation.getSku());
+                writer.writeInt32("quantity", storeVariation.getQuantity());
+                writer.writeEndDocument();
+            }
             writer.writeEndArray();
         }
-
         writer.writeEndDocument();
     }
 
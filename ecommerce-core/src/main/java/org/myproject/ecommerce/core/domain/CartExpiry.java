@@ -0,0 +1,64 @@
+package org.myproject.ecommerce.core.domain;
+
+import org.bson.codecs.pojo.annotations.BsonId;
+
+import java.util.Date;
+
+// The time a cart expires unless it is touched again, as scheduled in the cart expiry wheel; one document per
+// cart that has a deadline.
+public class CartExpiry {
+    @BsonId
+    private int cartId;
+
+    private Date deadline;
+
+    public CartExpiry() {
+    }
+
+    public CartExpiry(int cartId, Date deadline) {
+        this.cartId = cartId;
+        this.deadline = deadline;
+    }
+
+    public int getCartId() {
+        return cartId;
+    }
+
+    public void setCartId(int cartId) {
+        this.cartId = cartId;
+    }
+
+    public Date getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(Date deadline) {
+        this.deadline = deadline;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CartExpiry that = (CartExpiry) o;
+
+        if (cartId != that.cartId) return false;
+        return deadline != null ? deadline.equals(that.deadline) : that.deadline == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = cartId;
+        result = 31 * result + (deadline != null ? deadline.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CartExpiry{" +
+                "cartId=" + cartId +
+                ", deadline=" + deadline +
+                '}';
+    }
+}
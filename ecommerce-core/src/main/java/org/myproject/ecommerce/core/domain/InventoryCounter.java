@@ -0,0 +1,142 @@
+package org.myproject.ecommerce.core.domain;
+
+import org.bson.codecs.pojo.annotations.BsonId;
+import org.bson.codecs.pojo.annotations.BsonProperty;
+
+// One bucket of the stock of a sharded sku, keyed by id(sku, bucket). The counters of a shard that is being
+// set up are pending until the stock of the product has moved into them; they are not served until then.
+// The counters of a sku that is being unsharded are draining, their stock no longer changes.
+public class InventoryCounter {
+    @BsonId
+    private String id;
+
+    private String sku;
+
+    private int bucket;
+
+    @BsonProperty(value = "qty")
+    private int quantity;
+
+    private String shard;
+
+    private boolean pending;
+
+    private boolean draining;
+
+    public InventoryCounter() {
+    }
+
+    public InventoryCounter(String sku, int bucket, int quantity) {
+        this(sku, bucket, quantity, null, false);
+    }
+
+    public InventoryCounter(String sku, int bucket, int quantity, String shard, boolean pending) {
+        this.id = id(sku, bucket);
+        this.sku = sku;
+        this.bucket = bucket;
+        this.quantity = quantity;
+        this.shard = shard;
+        this.pending = pending;
+    }
+
+    public static String id(String sku, int bucket) {
+        return sku + "#" + bucket;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getSku() {
+        return sku;
+    }
+
+    public void setSku(String sku) {
+        this.sku = sku;
+    }
+
+    public int getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(int bucket) {
+        this.bucket = bucket;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public String getShard() {
+        return shard;
+    }
+
+    public void setShard(String shard) {
+        this.shard = shard;
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        InventoryCounter that = (InventoryCounter) o;
+
+        if (bucket != that.bucket) return false;
+        if (quantity != that.quantity) return false;
+        if (pending != that.pending) return false;
+        if (draining != that.draining) return false;
+        if (shard != null ? !shard.equals(that.shard) : that.shard != null) return false;
+        if (id != null ? !id.equals(that.id) : that.id != null) return false;
+        return sku != null ? sku.equals(that.sku) : that.sku == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id != null ? id.hashCode() : 0;
+        result = 31 * result + (sku != null ? sku.hashCode() : 0);
+        result = 31 * result + bucket;
+        result = 31 * result + quantity;
+        result = 31 * result + (shard != null ? shard.hashCode() : 0);
+        result = 31 * result + (pending ? 1 : 0);
+        result = 31 * result + (draining ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "InventoryCounter{" +
+                "id='" + id + '\'' +
+                ", sku='" + sku + '\'' +
+                ", bucket=" + bucket +
+                ", quantity=" + quantity +
+                ", shard='" + shard + '\'' +
+                ", pending=" + pending +
+                ", draining=" + draining +
+                '}';
+    }
+}
@@ -0,0 +1,121 @@
+package org.myproject.ecommerce.core.domain;
+
+import org.bson.codecs.pojo.annotations.BsonId;
+import org.bson.codecs.pojo.annotations.BsonProperty;
+import org.bson.types.ObjectId;
+
+// Listing view of a product document: read with MongoDBService.projectionFor(ProductSummary.class)
+// so details, shipping and the carted array are not transferred.
+public class ProductSummary {
+    @BsonId
+    private ObjectId id;
+
+    private String productId;
+    private String sku;
+    private String type;
+    private String title;
+    private Pricing pricing;
+
+    @BsonProperty(value = "qty")
+    private int quantity;
+
+    public ProductSummary() {
+    }
+
+    public ObjectId getId() {
+        return id;
+    }
+
+    public void setId(ObjectId id) {
+        this.id = id;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public String getSku() {
+        return sku;
+    }
+
+    public void setSku(String sku) {
+        this.sku = sku;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public Pricing getPricing() {
+        return pricing;
+    }
+
+    public void setPricing(Pricing pricing) {
+        this.pricing = pricing;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ProductSummary that = (ProductSummary) o;
+
+        if (quantity != that.quantity) return false;
+        if (id != null ? !id.equals(that.id) : that.id != null) return false;
+        if (productId != null ? !productId.equals(that.productId) : that.productId != null) return false;
+        if (sku != null ? !sku.equals(that.sku) : that.sku != null) return false;
+        if (type != null ? !type.equals(that.type) : that.type != null) return false;
+        if (title != null ? !title.equals(that.title) : that.title != null) return false;
+        return pricing != null ? pricing.equals(that.pricing) : that.pricing == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id != null ? id.hashCode() : 0;
+        result = 31 * result + (productId != null ? productId.hashCode() : 0);
+        result = 31 * result + (sku != null ? sku.hashCode() : 0);
+        result = 31 * result + (type != null ? type.hashCode() : 0);
+        result = 31 * result + (title != null ? title.hashCode() : 0);
+        result = 31 * result + (pricing != null ? pricing.hashCode() : 0);
+        result = 31 * result + quantity;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductSummary{" +
+                "id=" + id +
+                ", productId='" + productId + '\'' +
+                ", sku='" + sku + '\'' +
+                ", type='" + type + '\'' +
+                ", title='" + title + '\'' +
+                ", pricing=" + pricing +
+                ", quantity=" + quantity +
+                '}';
+    }
+}
@@ -0,0 +1,127 @@
+package org.myproject.ecommerce.core.domain;
+
+import org.bson.codecs.pojo.annotations.BsonId;
+import org.bson.codecs.pojo.annotations.BsonProperty;
+
+import java.util.Date;
+
+// The quantity of a sku held by a cart, one document per cart and sku keyed by id(sku, cartId). A released
+// reservation has no quantity left and the time it was released; it is deleted once its stock is returned.
+public class Reservation {
+    @BsonId
+    private String id;
+
+    private String sku;
+
+    @BsonProperty(value = "cart_id")
+    private int cartId;
+
+    @BsonProperty(value = "qty")
+    private int quantity;
+
+    private Date timestamp;
+
+    @BsonProperty(value = "released_at")
+    private Date releasedAt;
+
+    public Reservation() {
+    }
+
+    public Reservation(String sku, int cartId, int quantity, Date timestamp) {
+        this.id = id(sku, cartId);
+        this.sku = sku;
+        this.cartId = cartId;
+        this.quantity = quantity;
+        this.timestamp = timestamp;
+    }
+
+    public static String id(String sku, int cartId) {
+        return sku + "#" + cartId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getSku() {
+        return sku;
+    }
+
+    public void setSku(String sku) {
+        this.sku = sku;
+    }
+
+    public int getCartId() {
+        return cartId;
+    }
+
+    public void setCartId(int cartId) {
+        this.cartId = cartId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Date timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public Date getReleasedAt() {
+        return releasedAt;
+    }
+
+    public void setReleasedAt(Date releasedAt) {
+        this.releasedAt = releasedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Reservation that = (Reservation) o;
+
+        if (cartId != that.cartId) return false;
+        if (quantity != that.quantity) return false;
+        if (id != null ? !id.equals(that.id) : that.id != null) return false;
+        if (sku != null ? !sku.equals(that.sku) : that.sku != null) return false;
+        if (timestamp != null ? !timestamp.equals(that.timestamp) : that.timestamp != null) return false;
+        return releasedAt != null ? releasedAt.equals(that.releasedAt) : that.releasedAt == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id != null ? id.hashCode() : 0;
+        result = 31 * result + (sku != null ? sku.hashCode() : 0);
+        result = 31 * result + cartId;
+        result = 31 * result + quantity;
+        result = 31 * result + (timestamp != null ? timestamp.hashCode() : 0);
+        result = 31 * result + (releasedAt != null ? releasedAt.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Reservation{" +
+                "id='" + id + '\'' +
+                ", sku='" + sku + '\'' +
+                ", cartId=" + cartId +
+                ", quantity=" + quantity +
+                ", timestamp=" + timestamp +
+                ", releasedAt=" + releasedAt +
+                '}';
+    }
+}
@@ -3,13 +3,15 @@ package org.myproject.ecommerce.core.domain;
 import org.bson.codecs.pojo.annotations.BsonId;
 import org.bson.types.ObjectId;
 
+// The next unreserved product sku, product variation sku and product id. Blocks are reserved by
+// incrementing these counters, so they are stored as numbers.
 public class SKUCodeProductId {
     @BsonId
     private ObjectId id;
 
-    private String productSkuCode;
-    private String productVariationSkuCode;
-    private String productId;
+    private long nextProductSku;
+    private long nextProductVariationSku;
+    private long nextProductId;
 
     public SKUCodeProductId() {
     }
@@ -22,28 +24,28 @@ public class SKUCodeProductId {
         this.id = id;
     }
 
-    public String getProductSkuCode() {
-        return productSkuCode;
+    public long getNextProductSku() {
+        return nextProductSku;
     }
 
-    public void setProductSkuCode(String productSkuCode) {
-        this.productSkuCode = productSkuCode;
+    public void setNextProductSku(long nextProductSku) {
+        this.nextProductSku = nextProductSku;
     }
 
-    public String getProductVariationSkuCode() {
-        return productVariationSkuCode;
+    public long getNextProductVariationSku() {
+        return nextProductVariationSku;
     }
 
-    public void setProductVariationSkuCode(String productVariationSkuCode) {
-        this.productVariationSkuCode = productVariationSkuCode;
+    public void setNextProductVariationSku(long nextProductVariationSku) {
+        this.nextProductVariationSku = nextProductVariationSku;
     }
 
-    public String getProductId() {
-        return productId;
+    public long getNextProductId() {
+        return nextProductId;
     }
 
-    public void setProductId(String productId) {
-        this.productId = productId;
+    public void setNextProductId(long nextProductId) {
+        this.nextProductId = nextProductId;
     }
 
     @Override
@@ -53,20 +55,18 @@ public class SKUCodeProductId {
 
         SKUCodeProductId that = (SKUCodeProductId) o;
 
-        if (id != null ? !id.equals(that.id) : that.id != null) return false;
-        if (productSkuCode != null ? !productSkuCode.equals(that.productSkuCode) : that.productSkuCode != null)
-            return false;
-        if (productVariationSkuCode != null ? !productVariationSkuCode.equals(that.productVariationSkuCode) : that.productVariationSkuCode != null)
-            return false;
-        return productId != null ? productId.equals(that.productId) : that.productId == null;
+        if (nextProductSku != that.nextProductSku) return false;
+        if (nextProductVariationSku != that.nextProductVariationSku) return false;
+        if (nextProductId != that.nextProductId) return false;
+        return id != null ? id.equals(that.id) : that.id == null;
     }
 
     @Override
     public int hashCode() {
         int result = id != null ? id.hashCode() : 0;
-        result = 31 * result + (productSkuCode != null ? productSkuCode.hashCode() : 0);
-        result = 31 * result + (productVariationSkuCode != null ? productVariationSkuCode.hashCode() : 0);
-        result = 31 * result + (productId != null ? productId.hashCode() : 0);
+        result = 31 * result + (int) (nextProductSku ^ (nextProductSku >>> 32));
+        result = 31 * result + (int) (nextProductVariationSku ^ (nextProductVariationSku >>> 32));
+        result = 31 * result + (int) (nextProductId ^ (nextProductId >>> 32));
         return result;
     }
 
@@ -74,9 +74,9 @@ public class SKUCodeProductId {
     public String toString() {
         return "SKUCodeProductId{" +
                 "id=" + id +
-                ", productSkuCode='" + productSkuCode + '\'' +
-                ", productVariationSkuCode='" + productVariationSkuCode + '\'' +
-                ", productId='" + productId + '\'' +
+                ", nextProductSku=" + nextProductSku +
+                ", nextProductVariationSku=" + nextProductVariationSku +
+                ", nextProductId=" + nextProductId +
                 '}';
     }
 }
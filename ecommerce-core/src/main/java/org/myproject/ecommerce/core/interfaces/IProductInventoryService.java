@@ -1,11 +1,18 @@
 package org.myproject.ecommerce.core.interfaces;
 
 import org.myproject.ecommerce.core.domain.ShoppingCart;
+import org.myproject.ecommerce.core.domain.ShoppingCartItem;
 import org.myproject.ecommerce.core.domain.ShoppingCartItemDetails;
+import org.myproject.ecommerce.core.domain.ShoppingCartStatus;
 import org.myproject.ecommerce.core.services.EcommerceException;
 import org.myproject.ecommerce.core.services.CartInactiveException;
+import org.myproject.ecommerce.core.services.InventoryCleanupSweeper;
+import org.myproject.ecommerce.core.services.Page;
+import org.myproject.ecommerce.core.services.ReservationEngine;
 
 import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Optional;
 
 public interface IProductInventoryService {
     @PostConstruct
@@ -16,16 +23,39 @@ public interface IProductInventoryService {
     void addItemToCart(int cartId, String sku, int quantity, ShoppingCartItemDetails details)
             throws EcommerceException;
 
+    // Adds all items or none; an InadequateInventoryException reports the shortfall of each sku that was short.
+    void addItemsToCart(int cartId, List<ShoppingCartItem> items) throws EcommerceException;
+
     void updateCartQuantity(int cartId, String sku, int oldQty, int newQty) throws EcommerceException;
 
     void processCheckout(int cartId) throws CartInactiveException;
 
     void processExpiringCarts(long timeout);
 
+    // Expires each cart timeout seconds after its last change as that time comes, until stopCartExpiry.
+    void startCartExpiry(long timeout);
+
+    void stopCartExpiry() throws InterruptedException;
+
     ShoppingCart getCartByCartId(int cartId);
 
+    Page<ShoppingCart> getCartPage(ShoppingCartStatus status, Optional<String> pageToken, int pageSize);
+
+    int getAvailableQuantity(String sku);
+
     // The function is safe for use because it checks to ensure that the cart has expired before returning
     // items from the cart to inventory. However, it could be long-running and slow other updates and queries.
     // Use judiciously.
     void cleanupInventory(long timeout);
+
+    // Does what cleanupInventory does in the background, a throttled chunk at a time, until stopInventoryCleanup.
+    InventoryCleanupSweeper startInventoryCleanup(long timeout, int opsPerSecond, int pauseAboveOpsPerSecond);
+
+    void stopInventoryCleanup() throws InterruptedException;
+
+    // Takes the stock of the skus handed to ReservationEngine.own in memory and writes it to the products behind,
+    // until stopReservationEngine; owner names this instance in the leases of the skus.
+    ReservationEngine startReservationEngine(String owner);
+
+    void stopReservationEngine() throws InterruptedException;
 }
@@ -0,0 +1,249 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.MongoException;
+import org.bson.Document;
+import org.myproject.ecommerce.core.utilities.LoggingUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.stream.Collectors.toList;
+
+// Seeds the demo data at startup. Each step records a fingerprint of the collections it seeds in
+// bootstrap_fingerprints once it has run: their estimated document counts and, for small collections
+// whose content changes without changing the count, the server computed hash. A step whose collections
+// still match the fingerprint is skipped. Steps run in parallel once the steps they depend on are done,
+// and a step reruns whenever one of them had to seed, since seeding may delete what depends on it.
+// The context waits for the bootstrap unless -Dbootstrap_wait=false, in which case callers use
+// isReady()/awaitReady().
+@Service
+public class BootstrapCoordinator {
+    public static final String DATABASE = "ecommerce";
+    public static final String FINGERPRINT_COLLECTION = "bootstrap_fingerprints";
+
+    public enum Verification {
+        COUNT, HASH
+    }
+
+    public enum Outcome {
+        VERIFIED, SEEDED
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(BootstrapCoordinator.class);
+
+    private final MongoDBService mongoDBService;
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+    private volatile CompletableFuture<Map<String, Outcome>> readiness;
+    private volatile boolean hashesSupported = true;
+
+    @Autowired
+    public BootstrapCoordinator(MongoDBService mongoDBService, ProductCategoryService productCategoryService,
+                                StoreService storeService, ProductCatalogService productCatalogService,
+                                StoreInventoryService storeInventoryService, PriceService priceService,
+                                ProductInventoryService productInventoryService) {
+        this.mongoDBService = mongoDBService;
+        register("categories", Verification.HASH, Collections.singletonList("categories"),
+                productCategoryService::initialise);
+        register("stores", Verification.COUNT, Collections.singletonList("store"),
+                storeService::initialise);
+        // the catalog also clears store_inventory and prices, which their own steps then reseed
+        register("products", Verification.COUNT, Arrays.asList("product", "variations"),
+                productCatalogService::initialise);
+        register("storeInventory", Verification.COUNT, Collections.singletonList("store_inventory"),
+                storeInventoryService::initialise, "products");
+        register("prices", Verification.COUNT, Collections.singletonList("prices"),
+                priceService::initialise, "products", "stores");
+        // the demo carts hold their stock in reservations, which are seeded with them
+        register("carts", Verification.HASH, Arrays.asList("cart", ProductInventoryService.RESERVATION_COLLECTION),
+                productInventoryService::initialise, "products");
+    }
+
+    // dependencies must be registered first, which keeps the graph acyclic
+    public synchronized void register(String name, Verification verification, List<String> collectionNames,
+                                      Runnable seeder, String... dependencies) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(verification);
+        Objects.requireNonNull(seeder);
+        if(collectionNames.isEmpty()) {
+            throw new IllegalArgumentException("bootstrap step without collections: " + name);
+        }
+        if(steps.containsKey(name)) {
+            throw new IllegalArgumentException("bootstrap step already registered: " + name);
+        }
+        for(String dependency : dependencies) {
+            if(!steps.containsKey(dependency)) {
+                throw new IllegalArgumentException("bootstrap step " + name + " depends on unknown step " +
+                        dependency);
+            }
+        }
+        steps.put(name, new Step(name, verification, new ArrayList<>(collectionNames), seeder,
+                Arrays.asList(dependencies)));
+    }
+
+    @PostConstruct
+    public void initialise() {
+        start();
+        if(Boolean.parseBoolean(System.getProperty("bootstrap_wait", "true"))) {
+            awaitReady();
+        }
+    }
+
+    // Runs the steps; a bootstrap already running is returned instead of starting another.
+    public synchronized CompletableFuture<Map<String, Outcome>> start() {
+        if(readiness != null && !readiness.isDone()) {
+            return readiness;
+        }
+        long start = System.currentTimeMillis();
+        ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.min(steps.size(), Runtime.getRuntime().availableProcessors()), r -> {
+                    Thread thread = new Thread(r, "bootstrap");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        Map<String, CompletableFuture<Outcome>> outcomes = new LinkedHashMap<>();
+        for(Step step : steps.values()) {
+            List<CompletableFuture<Outcome>> dependencies = step.dependencies.stream()
+                    .map(outcomes::get)
+                    .collect(toList());
+            outcomes.put(step.name, CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]))
+                    .thenApplyAsync(v -> run(step, dependencies.stream().anyMatch(d -> d.join() == Outcome.SEEDED)),
+                            executorService));
+        }
+        readiness = CompletableFuture.allOf(outcomes.values().toArray(new CompletableFuture[0]))
+                .handle((v, e) -> {
+                    executorService.shutdown();
+                    if(e != null) {
+                        logger.error("bootstrap failed after " + (System.currentTimeMillis() - start) + " ms", e);
+                        throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                    }
+                    Map<String, Outcome> result = new LinkedHashMap<>();
+                    outcomes.forEach((name, outcome) -> result.put(name, outcome.join()));
+                    LoggingUtils.info(logger, "bootstrap complete in " + (System.currentTimeMillis() - start) +
+                            " ms: " + result);
+                    return Collections.unmodifiableMap(result);
+                });
+        return readiness;
+    }
+
+    public boolean isReady() {
+        CompletableFuture<Map<String, Outcome>> current = readiness;
+        return current != null && current.isDone() && !current.isCompletedExceptionally();
+    }
+
+    // false if the bootstrap is still running after the timeout; a failed bootstrap is rethrown
+    public boolean awaitReady(long timeout, TimeUnit unit) {
+        CompletableFuture<Map<String, Outcome>> current = readiness;
+        if(current == null) {
+            return false;
+        }
+        try {
+            current.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for the bootstrap", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("bootstrap failed", e.getCause());
+        }
+    }
+
+    public Map<String, Outcome> awaitReady() {
+        CompletableFuture<Map<String, Outcome>> current = readiness;
+        if(current == null) {
+            throw new IllegalStateException("bootstrap not started");
+        }
+        try {
+            return current.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("bootstrap failed", e.getCause());
+        }
+    }
+
+    private Outcome run(Step step, boolean dependencySeeded) {
+        long start = System.currentTimeMillis();
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", step.name);
+        if(!dependencySeeded) {
+            Optional<Document> recorded = mongoDBService.readOne(DATABASE, FINGERPRINT_COLLECTION,
+                    Document.class, filterMap);
+            recorded.ifPresent(r -> r.remove("seededAt"));
+            Optional<Document> current = fingerprint(step);
+            if(recorded.isPresent() && current.isPresent() && recorded.get().equals(current.get())) {
+                LoggingUtils.info(logger, "bootstrap step " + step.name + " verified in " +
+                        (System.currentTimeMillis() - start) + " ms");
+                return Outcome.VERIFIED;
+            }
+        }
+        step.seeder.run();
+        Optional<Document> fingerprint = fingerprint(step);
+        if(fingerprint.isPresent()) {
+            mongoDBService.upsertOne(DATABASE, FINGERPRINT_COLLECTION, Document.class, filterMap,
+                    fingerprint.get().append("seededAt", new Date()));
+        }
+        LoggingUtils.info(logger, "bootstrap step " + step.name + " seeded in " +
+                (System.currentTimeMillis() - start) + " ms");
+        return Outcome.SEEDED;
+    }
+
+    // Empty when the step cannot be verified: without dbHash (mongos) a hash verified step always seeds,
+    // as it did before fingerprints.
+    private Optional<Document> fingerprint(Step step) {
+        Document counts = new Document();
+        step.collectionNames.forEach(c -> counts.append(c, mongoDBService.estimatedDocumentCount(DATABASE, c)));
+        Document fingerprint = new Document("_id", step.name).append("counts", counts);
+        if(step.verification == Verification.COUNT) {
+            return Optional.of(fingerprint);
+        }
+        if(hashesSupported) {
+            try {
+                Document hashes = new Document();
+                mongoDBService.getCollectionHashes(DATABASE, step.collectionNames).forEach(hashes::append);
+                return Optional.of(fingerprint.append("hashes", hashes));
+            } catch (MongoException e) {
+                hashesSupported = false;
+                LoggingUtils.info(logger, "collection hashes unavailable, hash verified steps will always seed: " +
+                        e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static class Step {
+        private final String name;
+        private final Verification verification;
+        private final List<String> collectionNames;
+        private final Runnable seeder;
+        private final List<String> dependencies;
+
+        private Step(String name, Verification verification, List<String> collectionNames, Runnable seeder,
+                     List<String> dependencies) {
+            this.name = name;
+            this.verification = verification;
+            this.collectionNames = collectionNames;
+            this.seeder = seeder;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs aggregation pipelines over an InMemoryCollection: $geoNear, $match, $unwind, $group, $sort, $skip,
+// $limit, $project and $count, with field paths and literals as expressions and the accumulators $sum,
+// $avg, $min, $max, $first, $last, $push and $addToSet. A leading $match or $geoNear uses the indexes of
+// the collection like a find does.
+final class BsonAggregator {
+    // the limit of $geoNear when the stage sets none
+    static final int DEFAULT_GEO_NEAR_LIMIT = 100;
+
+    private BsonAggregator() {
+    }
+
+    static List<BsonDocument> aggregate(InMemoryCollection collection, List<BsonDocument> pipeline) {
+        List<BsonDocument> documents;
+        int next = 0;
+        if(!pipeline.isEmpty() && pipeline.get(0).containsKey("$geoNear")) {
+            documents = geoNear(collection, pipeline.get(0).getDocument("$geoNear"));
+            next = 1;
+        } else if(!pipeline.isEmpty() && pipeline.get(0).containsKey("$match")) {
+            documents = collection.find(pipeline.get(0).getDocument("$match"));
+            next = 1;
+        } else {
+            documents = collection.find(new BsonDocument());
+        }
+        for(BsonDocument stage : pipeline.subList(next, pipeline.size())) {
+            documents = stage(documents, stage);
+        }
+        return documents;
+    }
+
+    private static List<BsonDocument> stage(List<BsonDocument> documents, BsonDocument stage) {
+        String operator = BsonMatcher.firstKey(stage);
+        BsonValue specification = stage.get(operator);
+        switch(operator) {
+            case "$match":
+                List<BsonDocument> matched = new ArrayList<>();
+                for(BsonDocument document : documents) {
+                    if(BsonMatcher.matches(document, specification.asDocument())) {
+                        matched.add(document);
+                    }
+                }
+                return matched;
+            case "$unwind":
+                return unwind(documents, specification);
+            case "$group":
+                return group(documents, specification.asDocument());
+            case "$sort":
+                return sort(documents, specification.asDocument());
+            case "$skip":
+                int skip = Math.min(specification.asNumber().intValue(), documents.size());
+                return new ArrayList<>(documents.subList(skip, documents.size()));
+            case "$limit":
+                return limit(documents, specification.asNumber().intValue());
+            case "$project":
+                List<BsonDocument> projected = new ArrayList<>(documents.size());
+                for(BsonDocument document : documents) {
+                    projected.add(project(document, specification.asDocument()));
+                }
+                return projected;
+            case "$count":
+                List<BsonDocument> count = new ArrayList<>();
+                if(!documents.isEmpty()) {
+                    count.add(new BsonDocument(specification.asString().getValue(), new BsonInt32(documents.size())));
+                }
+                return count;
+            default:
+                throw new UnsupportedOperationException("aggregation stage not supported in memory: " + operator);
+        }
+    }
+
+    private static List<BsonDocument> geoNear(InMemoryCollection collection, BsonDocument specification) {
+        String field = specification.containsKey("key") ? specification.getString("key").getValue() :
+                collection.geoField().orElseThrow(() -> new IllegalStateException(
+                        "$geoNear needs a 2d or 2dsphere index on " + collection.getNamespace()));
+        BsonValue nearPoint = specification.get("near");
+        double[] point = BsonMatcher.point(nearPoint);
+        if(point == null) {
+            throw new IllegalArgumentException("invalid point for $geoNear: " + nearPoint);
+        }
+        boolean geoJson = nearPoint.isDocument();
+        boolean spherical = geoJson || specification.getBoolean("spherical", BsonBoolean.FALSE).getValue();
+        double maxDistance = number(specification, "maxDistance", Double.MAX_VALUE);
+        double minDistance = number(specification, "minDistance", 0);
+        BsonMatcher.Near near = new BsonMatcher.Near(point, spherical, geoJson, maxDistance, minDistance);
+        List<Map.Entry<Double, BsonDocument>> found = new ArrayList<>();
+        for(BsonDocument document : collection.find(specification.getDocument("query", new BsonDocument()))) {
+            double d = near.distance(BsonMatcher.values(document, field));
+            if(!Double.isNaN(d) && d <= maxDistance && d >= minDistance) {
+                found.add(new AbstractMap.SimpleImmutableEntry<>(d, document));
+            }
+        }
+        found.sort(Map.Entry.comparingByKey());
+        int limit = specification.containsKey("limit") ? specification.getNumber("limit").intValue() :
+                DEFAULT_GEO_NEAR_LIMIT;
+        String distanceField = specification.getString("distanceField").getValue();
+        List<BsonDocument> results = new ArrayList<>();
+        for(Map.Entry<Double, BsonDocument> entry : found.subList(0, Math.min(limit, found.size()))) {
+            BsonDocument document = entry.getValue().clone();
+            BsonUpdater.set(document, distanceField, new BsonDouble(entry.getKey()));
+            results.add(document);
+        }
+        return results;
+    }
+
+    private static double number(BsonDocument document, String key, double defaultValue) {
+        BsonValue value = document.get(key);
+        return value != null && value.isNumber() ? BsonMatcher.doubleValue(value) : defaultValue;
+    }
+
+    private static List<BsonDocument> unwind(List<BsonDocument> documents, BsonValue specification) {
+        String path = specification.isString() ? specification.asString().getValue() :
+                specification.asDocument().getString("path").getValue();
+        boolean preserve = specification.isDocument() && specification.asDocument()
+                .getBoolean("preserveNullAndEmptyArrays", BsonBoolean.FALSE).getValue();
+        String field = path.substring(1);
+        List<BsonDocument> unwound = new ArrayList<>();
+        for(BsonDocument document : documents) {
+            BsonValue value = BsonUpdater.get(document, field);
+            if(value != null && value.isArray() && !value.asArray().isEmpty()) {
+                for(BsonValue element : value.asArray()) {
+                    BsonDocument copy = copy(document, field);
+                    BsonUpdater.set(copy, field, element);
+                    unwound.add(copy);
+                }
+            } else if(value != null && !value.isArray() && !value.isNull()) {
+                unwound.add(document);
+            } else if(preserve) {
+                BsonDocument copy = copy(document, field);
+                if(value != null && value.isArray()) {
+                    BsonUpdater.unset(copy, field);
+                }
+                unwound.add(copy);
+            }
+        }
+        return unwound;
+    }
+
+    // a copy that can be changed at the path, sharing all other values
+    private static BsonDocument copy(BsonDocument document, String path) {
+        if(path.indexOf('.') >= 0) {
+            return document.clone();
+        }
+        BsonDocument copy = new BsonDocument();
+        copy.putAll(document);
+        return copy;
+    }
+
+    private static List<BsonDocument> group(List<BsonDocument> documents, BsonDocument specification) {
+        BsonValue idExpression = specification.get("_id");
+        Map<BsonValue, Group> groups = new LinkedHashMap<>();
+        for(BsonDocument document : documents) {
+            BsonValue id = evaluate(document, idExpression);
+            Group group = groups.computeIfAbsent(BsonMatcher.key(id), key -> new Group(id, specification));
+            group.accumulate(document);
+        }
+        List<BsonDocument> results = new ArrayList<>(groups.size());
+        groups.values().forEach(group -> results.add(group.result()));
+        return results;
+    }
+
+    private static final class Group {
+        private final BsonDocument result;
+        private final List<String> fields = new ArrayList<>();
+        private final List<String> operators = new ArrayList<>();
+        private final List<BsonValue> expressions = new ArrayList<>();
+        private final List<BsonValue> values = new ArrayList<>();
+        private final List<Integer> counts = new ArrayList<>();
+
+        private Group(BsonValue id, BsonDocument specification) {
+            result = new BsonDocument("_id", id);
+            for(Map.Entry<String, BsonValue> entry : specification.entrySet()) {
+                if("_id".equals(entry.getKey())) {
+                    continue;
+                }
+                BsonDocument accumulator = entry.getValue().asDocument();
+                fields.add(entry.getKey());
+                operators.add(BsonMatcher.firstKey(accumulator));
+                expressions.add(accumulator.get(BsonMatcher.firstKey(accumulator)));
+                values.add(null);
+                counts.add(0);
+            }
+        }
+
+        private void accumulate(BsonDocument document) {
+            for(int i = 0; i < fields.size(); i++) {
+                BsonValue value = evaluate(document, expressions.get(i));
+                BsonValue current = values.get(i);
+                switch(operators.get(i)) {
+                    case "$sum":
+                        if(value.isNumber()) {
+                            values.set(i, current == null ? value : BsonMatcher.add(current, value));
+                        }
+                        break;
+                    case "$avg":
+                        if(value.isNumber()) {
+                            values.set(i, current == null ? value : BsonMatcher.add(current, value));
+                            counts.set(i, counts.get(i) + 1);
+                        }
+                        break;
+                    case "$min":
+                        if(!value.isNull() && (current == null || BsonMatcher.compare(value, current) < 0)) {
+                            values.set(i, value);
+                        }
+                        break;
+                    case "$max":
+                        if(!value.isNull() && (current == null || BsonMatcher.compare(value, current) > 0)) {
+                            values.set(i, value);
+                        }
+                        break;
+                    case "$first":
+                        if(counts.get(i) == 0) {
+                            values.set(i, value);
+                            counts.set(i, 1);
+                        }
+                        break;
+                    case "$last":
+                        values.set(i, value);
+                        break;
+                    case "$push":
+                        BsonArray pushed = current == null ? new BsonArray() : current.asArray();
+                        pushed.add(value);
+                        values.set(i, pushed);
+                        break;
+                    case "$addToSet":
+                        BsonArray set = current == null ? new BsonArray() : current.asArray();
+                        if(set.stream().noneMatch(element -> BsonMatcher.equal(element, value))) {
+                            set.add(value);
+                        }
+                        values.set(i, set);
+                        break;
+                    default:
+                        throw new UnsupportedOperationException("accumulator not supported in memory: " +
+                                operators.get(i));
+                }
+            }
+        }
+
+        private BsonDocument result() {
+            for(int i = 0; i < fields.size(); i++) {
+                BsonValue value = values.get(i);
+                switch(operators.get(i)) {
+                    case "$sum":
+                        value = value == null ? new BsonInt32(0) : value;
+                        break;
+                    case "$avg":
+                        value = value == null ? BsonNull.VALUE :
+                                new BsonDouble(BsonMatcher.doubleValue(value) / counts.get(i));
+                        break;
+                    case "$push":
+                    case "$addToSet":
+                        value = value == null ? new BsonArray() : value;
+                        break;
+                    default:
+                        value = value == null ? BsonNull.VALUE : value;
+                }
+                result.put(fields.get(i), value);
+            }
+            return result;
+        }
+    }
+
+    // "$path" is the value at the path, a document an object of expressions, anything else a literal
+    static BsonValue evaluate(BsonDocument document, BsonValue expression) {
+        if(expression.isString() && expression.asString().getValue().startsWith("$")) {
+            return BsonMatcher.value(document, expression.asString().getValue().substring(1));
+        }
+        if(expression.isDocument()) {
+            BsonDocument expressions = expression.asDocument();
+            if(expressions.containsKey("$literal")) {
+                return expressions.get("$literal");
+            }
+            if(BsonMatcher.isOperatorDocument(expressions)) {
+                throw new UnsupportedOperationException("expression not supported in memory: " +
+                        BsonMatcher.firstKey(expressions));
+            }
+            BsonDocument value = new BsonDocument();
+            for(Map.Entry<String, BsonValue> entry : expressions.entrySet()) {
+                value.put(entry.getKey(), evaluate(document, entry.getValue()));
+            }
+            return value;
+        }
+        if(expression.isArray()) {
+            BsonArray values = new BsonArray();
+            expression.asArray().forEach(element -> values.add(evaluate(document, element)));
+            return values;
+        }
+        return expression;
+    }
+
+    // Orders by the fields of the specification, 1 ascending and -1 descending, missing values first. The
+    // sort is stable.
+    static List<BsonDocument> sort(List<BsonDocument> documents, BsonDocument specification) {
+        Comparator<BsonDocument> comparator = (document, other) -> 0;
+        for(Map.Entry<String, BsonValue> entry : specification.entrySet()) {
+            String field = entry.getKey();
+            int order = entry.getValue().asNumber().intValue() < 0 ? -1 : 1;
+            comparator = comparator.thenComparing((document, other) -> order *
+                    BsonMatcher.compare(sortKey(document, field, order), sortKey(other, field, order)));
+        }
+        List<BsonDocument> sorted = new ArrayList<>(documents);
+        sorted.sort(comparator);
+        return sorted;
+    }
+
+    // an array sorts by its smallest element ascending and by its largest descending
+    private static BsonValue sortKey(BsonDocument document, String field, int order) {
+        BsonValue value = BsonMatcher.value(document, field);
+        if(!value.isArray() || value.asArray().isEmpty()) {
+            return value;
+        }
+        BsonValue key = null;
+        for(BsonValue element : value.asArray()) {
+            if(key == null || order * BsonMatcher.compare(element, key) < 0) {
+                key = element;
+            }
+        }
+        return key;
+    }
+
+    static List<BsonDocument> limit(List<BsonDocument> documents, int limit) {
+        // 0 means no limit, as for find; a negative limit returns as many documents
+        int size = limit == 0 ? documents.size() : Math.min(Math.abs(limit), documents.size());
+        return new ArrayList<>(documents.subList(0, size));
+    }
+
+    // Inclusion projections copy the _id, unless excluded, and the fields set to 1 or true, and add the
+    // fields given an expression. Exclusion projections copy all but the fields set to 0 or false.
+    static BsonDocument project(BsonDocument document, BsonDocument specification) {
+        boolean inclusion = false;
+        for(Map.Entry<String, BsonValue> entry : specification.entrySet()) {
+            if(!"_id".equals(entry.getKey()) && !isFalse(entry.getValue())) {
+                inclusion = true;
+            }
+        }
+        // { _id: 1 } on its own includes only the _id
+        if(specification.size() == 1 && specification.containsKey("_id") && !isFalse(specification.get("_id"))) {
+            inclusion = true;
+        }
+        if(!inclusion) {
+            BsonDocument projected = document.clone();
+            specification.keySet().forEach(field -> BsonUpdater.unset(projected, field));
+            return projected;
+        }
+        BsonDocument projected = new BsonDocument();
+        if(!isFalse(specification.get("_id", new BsonInt32(1))) && document.containsKey("_id")) {
+            projected.put("_id", document.get("_id"));
+        }
+        for(Map.Entry<String, BsonValue> entry : specification.entrySet()) {
+            String field = entry.getKey();
+            BsonValue value = entry.getValue();
+            if("_id".equals(field) && (isTrue(value) || isFalse(value))) {
+                continue;
+            }
+            if(isTrue(value)) {
+                BsonValue included = BsonUpdater.get(document, field);
+                if(included != null) {
+                    BsonUpdater.set(projected, field, BsonMatcher.copy(included));
+                }
+            } else {
+                BsonUpdater.set(projected, field, evaluate(document, value));
+            }
+        }
+        return projected;
+    }
+
+    private static boolean isFalse(BsonValue value) {
+        return value.isBoolean() && !value.asBoolean().getValue() ||
+                value.isNumber() && value.asNumber().doubleValue() == 0;
+    }
+
+    private static boolean isTrue(BsonValue value) {
+        return value.isBoolean() && value.asBoolean().getValue() ||
+                value.isNumber() && value.asNumber().doubleValue() != 0;
+    }
+}
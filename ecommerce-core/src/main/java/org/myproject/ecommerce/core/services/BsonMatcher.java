@@ -0,0 +1,593 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonValue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+// Evaluates query documents, as the filter DSL renders them, against documents held in memory with the
+// semantics of the server for the operators the services use: dotted paths that reach into arrays,
+// comparisons within a type bracket, $in/$nin, $regex, $exists, $elemMatch, $and/$or/$nor and
+// $near/$nearSphere. Values compare in the BSON sort order.
+final class BsonMatcher {
+    // the radius the server uses for distances on a 2dsphere index
+    static final double EARTH_RADIUS_METERS = 6378100;
+
+    private BsonMatcher() {
+    }
+
+    static boolean matches(BsonDocument document, BsonDocument query) {
+        for(Map.Entry<String, BsonValue> entry : query.entrySet()) {
+            if(!matches(document, entry.getKey(), entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(BsonDocument document, String key, BsonValue condition) {
+        switch(key) {
+            case "$and":
+                for(BsonValue clause : condition.asArray()) {
+                    if(!matches(document, clause.asDocument())) {
+                        return false;
+                    }
+                }
+                return true;
+            case "$or":
+                for(BsonValue clause : condition.asArray()) {
+                    if(matches(document, clause.asDocument())) {
+                        return true;
+                    }
+                }
+                return false;
+            case "$nor":
+                for(BsonValue clause : condition.asArray()) {
+                    if(matches(document, clause.asDocument())) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                if(key.startsWith("$")) {
+                    throw new UnsupportedOperationException("query operator not supported in memory: " + key);
+                }
+                return matchesCondition(values(document, key), condition);
+        }
+    }
+
+    // the condition of a single field: a value to equal or a document of operators
+    static boolean matchesCondition(List<BsonValue> values, BsonValue condition) {
+        if(!isOperatorDocument(condition)) {
+            return equalsAny(values, condition);
+        }
+        BsonDocument operators = condition.asDocument();
+        for(Map.Entry<String, BsonValue> entry : operators.entrySet()) {
+            if(!matchesOperator(values, entry.getKey(), entry.getValue(), operators)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesOperator(List<BsonValue> values, String operator, BsonValue operand,
+                                           BsonDocument operators) {
+        switch(operator) {
+            case "$eq":
+                return equalsAny(values, operand);
+            case "$ne":
+                return !equalsAny(values, operand);
+            case "$gt":
+                return compareAny(values, operand, c -> c > 0);
+            case "$gte":
+                return compareAny(values, operand, c -> c >= 0);
+            case "$lt":
+                return compareAny(values, operand, c -> c < 0);
+            case "$lte":
+                return compareAny(values, operand, c -> c <= 0);
+            case "$in":
+                return in(values, operand.asArray());
+            case "$nin":
+                return !in(values, operand.asArray());
+            case "$all":
+                for(BsonValue value : operand.asArray()) {
+                    if(!equalsAny(values, value)) {
+                        return false;
+                    }
+                }
+                return true;
+            case "$exists":
+                return values.isEmpty() != isTrue(operand);
+            case "$not":
+                return !matchesCondition(values, operand);
+            case "$size":
+                return values.stream().anyMatch(value -> value.isArray() &&
+                        value.asArray().size() == operand.asNumber().intValue());
+            case "$elemMatch":
+                return values.stream().anyMatch(value -> value.isArray() && value.asArray().stream()
+                        .anyMatch(element -> matchesElement(element, operand)));
+            case "$regex":
+                BsonRegularExpression regex = operand.isRegularExpression() ? operand.asRegularExpression() :
+                        new BsonRegularExpression(operand.asString().getValue(), operators.containsKey("$options") ?
+                                operators.getString("$options").getValue() : "");
+                return equalsAny(values, regex);
+            case "$near":
+            case "$nearSphere":
+                Near near = Near.of(operator, operators);
+                return values.stream().anyMatch(value -> near.contains(value));
+            case "$options":
+            case "$geometry":
+            case "$maxDistance":
+            case "$minDistance":
+                // modifiers of $regex and $near
+                return true;
+            default:
+                throw new UnsupportedOperationException("query operator not supported in memory: " + operator);
+        }
+    }
+
+    // an array element against an $elemMatch or $pull condition: a query on document elements, the
+    // condition of a field otherwise
+    static boolean matchesElement(BsonValue element, BsonValue condition) {
+        if(condition.isDocument() && !isOperatorDocument(condition)) {
+            return element.isDocument() ? matches(element.asDocument(), condition.asDocument()) :
+                    equal(element, condition);
+        }
+        return matchesCondition(Collections.singletonList(element), condition);
+    }
+
+    static boolean isOperatorDocument(BsonValue value) {
+        if(!value.isDocument() || value.asDocument().isEmpty()) {
+            return false;
+        }
+        return firstKey(value.asDocument()).startsWith("$");
+    }
+
+    static String firstKey(BsonDocument document) {
+        return document.keySet().iterator().next();
+    }
+
+    // a deep copy of documents and arrays, the other values are immutable
+    static BsonValue copy(BsonValue value) {
+        if(value.isDocument()) {
+            return value.asDocument().clone();
+        }
+        if(value.isArray()) {
+            BsonArray array = new BsonArray();
+            value.asArray().forEach(element -> array.add(copy(element)));
+            return array;
+        }
+        return value;
+    }
+
+    private static boolean isTrue(BsonValue value) {
+        return value.isBoolean() ? value.asBoolean().getValue() : value.isNumber() && value.asNumber().doubleValue() != 0;
+    }
+
+    private static boolean in(List<BsonValue> values, BsonArray operand) {
+        for(BsonValue value : operand) {
+            if(equalsAny(values, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // a missing field equals null; an array field equals a value if the array or one of its elements does
+    private static boolean equalsAny(List<BsonValue> values, BsonValue value) {
+        if(values.isEmpty()) {
+            return value.isNull();
+        }
+        for(BsonValue candidate : expand(values)) {
+            if(value.isRegularExpression()) {
+                if(candidate.isString() && pattern(value.asRegularExpression()).matcher(
+                        candidate.asString().getValue()).find()) {
+                    return true;
+                }
+            } else if(equal(candidate, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private interface Comparison {
+        boolean test(int comparison);
+    }
+
+    // range operators only compare values of the same type bracket, e.g. numbers with numbers
+    private static boolean compareAny(List<BsonValue> values, BsonValue value, Comparison comparison) {
+        for(BsonValue candidate : expand(values)) {
+            if(bracket(candidate) == bracket(value) && comparison.test(compare(candidate, value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<BsonValue> expand(List<BsonValue> values) {
+        List<BsonValue> expanded = new ArrayList<>(values);
+        for(BsonValue value : values) {
+            if(value.isArray()) {
+                expanded.addAll(value.asArray());
+            }
+        }
+        return expanded;
+    }
+
+    static Pattern pattern(BsonRegularExpression regex) {
+        int flags = 0;
+        for(char option : regex.getOptions().toCharArray()) {
+            switch(option) {
+                case 'i':
+                    flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+                    break;
+                case 'm':
+                    flags |= Pattern.MULTILINE;
+                    break;
+                case 's':
+                    flags |= Pattern.DOTALL;
+                    break;
+                case 'x':
+                    flags |= Pattern.COMMENTS;
+                    break;
+                default:
+            }
+        }
+        return Pattern.compile(regex.getPattern(), flags);
+    }
+
+    // The values a dotted path reaches. A path continues into every document of an array it meets, or into
+    // the element at a numeric segment, so "items.sku" reaches the sku of every item. Missing paths reach
+    // nothing.
+    static List<BsonValue> values(BsonValue value, String path) {
+        List<BsonValue> values = new ArrayList<>(1);
+        resolve(value, path.split("\\."), 0, values);
+        return values;
+    }
+
+    private static void resolve(BsonValue value, String[] segments, int index, List<BsonValue> values) {
+        if(index == segments.length) {
+            values.add(value);
+            return;
+        }
+        if(value.isDocument()) {
+            BsonValue field = value.asDocument().get(segments[index]);
+            if(field != null) {
+                resolve(field, segments, index + 1, values);
+            }
+        } else if(value.isArray()) {
+            BsonArray array = value.asArray();
+            int position = arrayIndex(segments[index]);
+            if(position >= 0 && position < array.size()) {
+                resolve(array.get(position), segments, index + 1, values);
+            }
+            for(BsonValue element : array) {
+                if(element.isDocument()) {
+                    resolve(element, segments, index, values);
+                }
+            }
+        }
+    }
+
+    static int arrayIndex(String segment) {
+        if(segment.isEmpty() || segment.length() > 9) {
+            return -1;
+        }
+        for(int i = 0; i < segment.length(); i++) {
+            if(!Character.isDigit(segment.charAt(i))) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(segment);
+    }
+
+    // the value of a path as an aggregation expression sees it: null when missing, an array of the values
+    // when the path goes through an array
+    static BsonValue value(BsonDocument document, String path) {
+        BsonValue value = document;
+        for(String segment : path.split("\\.")) {
+            if(value.isDocument()) {
+                value = value.asDocument().get(segment);
+            } else if(value.isArray()) {
+                BsonArray values = new BsonArray();
+                for(BsonValue element : value.asArray()) {
+                    if(element.isDocument() && element.asDocument().containsKey(segment)) {
+                        values.add(element.asDocument().get(segment));
+                    }
+                }
+                value = values;
+            } else {
+                value = null;
+            }
+            if(value == null) {
+                return BsonNull.VALUE;
+            }
+        }
+        return value;
+    }
+
+    static boolean equal(BsonValue value, BsonValue other) {
+        return bracket(value) == bracket(other) && compare(value, other) == 0;
+    }
+
+    // BSON sort order: MinKey, null, numbers, strings, documents, arrays, binary data, ObjectId, booleans,
+    // dates, timestamps, regular expressions, MaxKey
+    static int compare(BsonValue value, BsonValue other) {
+        int bracket = Integer.compare(bracket(value), bracket(other));
+        if(bracket != 0) {
+            return bracket;
+        }
+        switch(value.getBsonType()) {
+            case INT32:
+            case INT64:
+            case DOUBLE:
+            case DECIMAL128:
+                if((value.isInt32() || value.isInt64()) && (other.isInt32() || other.isInt64())) {
+                    return Long.compare(value.asNumber().longValue(), other.asNumber().longValue());
+                }
+                return Double.compare(doubleValue(value), doubleValue(other));
+            case STRING:
+            case SYMBOL:
+                return string(value).compareTo(string(other));
+            case DOCUMENT:
+                return compareDocuments(value.asDocument(), other.asDocument());
+            case ARRAY:
+                return compareArrays(value.asArray(), other.asArray());
+            case BINARY:
+                return compareBinary(value.asBinary(), other.asBinary());
+            case OBJECT_ID:
+                return value.asObjectId().getValue().compareTo(other.asObjectId().getValue());
+            case BOOLEAN:
+                return Boolean.compare(value.asBoolean().getValue(), other.asBoolean().getValue());
+            case DATE_TIME:
+                return Long.compare(value.asDateTime().getValue(), other.asDateTime().getValue());
+            case TIMESTAMP:
+                return value.asTimestamp().compareTo(other.asTimestamp());
+            case REGULAR_EXPRESSION:
+                int pattern = value.asRegularExpression().getPattern().compareTo(
+                        other.asRegularExpression().getPattern());
+                return pattern != 0 ? pattern : value.asRegularExpression().getOptions().compareTo(
+                        other.asRegularExpression().getOptions());
+            default:
+                return 0;
+        }
+    }
+
+    private static int bracket(BsonValue value) {
+        switch(value.getBsonType()) {
+            case MIN_KEY:
+                return 0;
+            case NULL:
+            case UNDEFINED:
+                return 1;
+            case INT32:
+            case INT64:
+            case DOUBLE:
+            case DECIMAL128:
+                return 2;
+            case STRING:
+            case SYMBOL:
+                return 3;
+            case DOCUMENT:
+                return 4;
+            case ARRAY:
+                return 5;
+            case BINARY:
+                return 6;
+            case OBJECT_ID:
+                return 7;
+            case BOOLEAN:
+                return 8;
+            case DATE_TIME:
+                return 9;
+            case TIMESTAMP:
+                return 10;
+            case REGULAR_EXPRESSION:
+                return 11;
+            case MAX_KEY:
+                return 13;
+            default:
+                return 12;
+        }
+    }
+
+    private static String string(BsonValue value) {
+        return value.isSymbol() ? value.asSymbol().getSymbol() : value.asString().getValue();
+    }
+
+    private static int compareDocuments(BsonDocument document, BsonDocument other) {
+        Iterator<Map.Entry<String, BsonValue>> entries = document.entrySet().iterator();
+        Iterator<Map.Entry<String, BsonValue>> otherEntries = other.entrySet().iterator();
+        while(entries.hasNext() && otherEntries.hasNext()) {
+            Map.Entry<String, BsonValue> entry = entries.next();
+            Map.Entry<String, BsonValue> otherEntry = otherEntries.next();
+            int comparison = Integer.compare(bracket(entry.getValue()), bracket(otherEntry.getValue()));
+            if(comparison == 0) {
+                comparison = entry.getKey().compareTo(otherEntry.getKey());
+            }
+            if(comparison == 0) {
+                comparison = compare(entry.getValue(), otherEntry.getValue());
+            }
+            if(comparison != 0) {
+                return comparison;
+            }
+        }
+        return Boolean.compare(entries.hasNext(), otherEntries.hasNext());
+    }
+
+    private static int compareArrays(BsonArray array, BsonArray other) {
+        for(int i = 0; i < Math.min(array.size(), other.size()); i++) {
+            int comparison = compare(array.get(i), other.get(i));
+            if(comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(array.size(), other.size());
+    }
+
+    private static int compareBinary(BsonBinary binary, BsonBinary other) {
+        int comparison = Integer.compare(binary.getData().length, other.getData().length);
+        if(comparison == 0) {
+            comparison = Byte.compare(binary.getType(), other.getType());
+        }
+        for(int i = 0; comparison == 0 && i < binary.getData().length; i++) {
+            comparison = Byte.compare(binary.getData()[i], other.getData()[i]);
+        }
+        return comparison;
+    }
+
+    static double doubleValue(BsonValue value) {
+        return value.isDecimal128() ? value.asDecimal128().getValue().bigDecimalValue().doubleValue() :
+                value.asNumber().doubleValue();
+    }
+
+    // Sums keep the narrowest type that holds the result, as $inc and $sum do on the server.
+    static BsonValue add(BsonValue value, BsonValue other) {
+        if(value.isInt32() && other.isInt32()) {
+            long sum = (long) value.asInt32().getValue() + other.asInt32().getValue();
+            return sum == (int) sum ? new BsonInt32((int) sum) : new BsonInt64(sum);
+        }
+        if((value.isInt32() || value.isInt64()) && (other.isInt32() || other.isInt64())) {
+            return new BsonInt64(Math.addExact(value.asNumber().longValue(), other.asNumber().longValue()));
+        }
+        return new BsonDouble(doubleValue(value) + doubleValue(other));
+    }
+
+    // Numbers of equal value are one key whatever their type, as they are in an index.
+    static BsonValue key(BsonValue value) {
+        if(value.isNumber() || value.isDecimal128()) {
+            return new BsonDouble(doubleValue(value));
+        }
+        return value;
+    }
+
+    // the near condition of a query, if any, by which the results are ordered
+    static Optional<Map.Entry<String, Near>> near(BsonDocument query) {
+        for(Map.Entry<String, BsonValue> entry : query.entrySet()) {
+            if("$and".equals(entry.getKey())) {
+                for(BsonValue clause : entry.getValue().asArray()) {
+                    Optional<Map.Entry<String, Near>> near = near(clause.asDocument());
+                    if(near.isPresent()) {
+                        return near;
+                    }
+                }
+            } else if(isOperatorDocument(entry.getValue())) {
+                BsonDocument operators = entry.getValue().asDocument();
+                for(String operator : new String[] { "$nearSphere", "$near" }) {
+                    if(operators.containsKey(operator)) {
+                        return Optional.of(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(),
+                                Near.of(operator, operators)));
+                    }
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    // A point to measure from and the distances to keep. GeoJSON points measure in meters on the sphere;
+    // legacy coordinate pairs in radians for $nearSphere and in coordinate units for $near.
+    static final class Near {
+        private final double[] point;
+        private final boolean spherical;
+        private final boolean meters;
+        private final double maxDistance;
+        private final double minDistance;
+
+        Near(double[] point, boolean spherical, boolean meters, double maxDistance, double minDistance) {
+            this.point = point;
+            this.spherical = spherical;
+            this.meters = meters;
+            this.maxDistance = maxDistance;
+            this.minDistance = minDistance;
+        }
+
+        static Near of(String operator, BsonDocument operators) {
+            BsonValue near = operators.get(operator);
+            BsonDocument options = operators;
+            if(near.isDocument() && near.asDocument().containsKey("$geometry")) {
+                options = near.asDocument();
+                near = options.get("$geometry");
+            }
+            double[] point = point(near);
+            if(point == null) {
+                throw new IllegalArgumentException("invalid point for " + operator + ": " + near);
+            }
+            boolean geoJson = near.isDocument();
+            return new Near(point, geoJson || "$nearSphere".equals(operator), geoJson,
+                    distance(options, "$maxDistance", Double.MAX_VALUE), distance(options, "$minDistance", 0));
+        }
+
+        private static double distance(BsonDocument options, String key, double defaultValue) {
+            BsonValue value = options.get(key);
+            return value != null && value.isNumber() ? doubleValue(value) : defaultValue;
+        }
+
+        boolean contains(BsonValue value) {
+            double distance = distance(value);
+            return distance >= minDistance && distance <= maxDistance;
+        }
+
+        // NaN for a value that is no point
+        double distance(BsonValue value) {
+            double[] other = point(value);
+            if(other == null) {
+                return Double.NaN;
+            }
+            if(!spherical) {
+                return Math.hypot(other[0] - point[0], other[1] - point[1]);
+            }
+            double radians = sphericalDistance(point, other);
+            return meters ? radians * EARTH_RADIUS_METERS : radians;
+        }
+
+        // the smallest distance of the values a path reaches
+        double distance(List<BsonValue> values) {
+            double distance = Double.NaN;
+            for(BsonValue value : values) {
+                double d = distance(value);
+                if(!Double.isNaN(d) && (Double.isNaN(distance) || d < distance)) {
+                    distance = d;
+                }
+            }
+            return distance;
+        }
+    }
+
+    // longitude and latitude of a GeoJSON point or a legacy coordinate pair
+    static double[] point(BsonValue value) {
+        if(value.isDocument() && value.asDocument().containsKey("coordinates")) {
+            value = value.asDocument().get("coordinates");
+        }
+        if(value.isArray() && value.asArray().size() == 2 && value.asArray().get(0).isNumber() &&
+                value.asArray().get(1).isNumber()) {
+            return new double[] { doubleValue(value.asArray().get(0)), doubleValue(value.asArray().get(1)) };
+        }
+        return null;
+    }
+
+    // haversine distance in radians between two longitude/latitude pairs in degrees
+    static double sphericalDistance(double[] point, double[] other) {
+        double lat1 = Math.toRadians(point[1]);
+        double lat2 = Math.toRadians(other[1]);
+        double dLat = lat2 - lat1;
+        double dLng = Math.toRadians(other[0] - point[0]);
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+}
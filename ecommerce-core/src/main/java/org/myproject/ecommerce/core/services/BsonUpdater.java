@@ -0,0 +1,386 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteError;
+import org.bson.BsonArray;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Applies update documents, as the update DSL renders them, to documents held in memory. A document
+// without update operators replaces the document but keeps its _id. Paths may use the positional $
+// operator, which stands for the first array element the query matched. Invalid updates fail with the
+// error codes of the server, wrapped in a MongoWriteException.
+final class BsonUpdater {
+    static final int BAD_VALUE = 2;
+    static final int TYPE_MISMATCH = 14;
+    static final int IMMUTABLE_FIELD = 66;
+    static final int DUPLICATE_KEY = 11000;
+
+    private BsonUpdater() {
+    }
+
+    static boolean isReplacement(BsonDocument update) {
+        return update.isEmpty() || !BsonMatcher.firstKey(update).startsWith("$");
+    }
+
+    // Returns the updated copy of the document; the document itself is left as it is. On insert, i.e. for
+    // an upsert that matched nothing, $setOnInsert applies as well.
+    static BsonDocument apply(BsonDocument document, BsonDocument update, BsonDocument query, boolean insert) {
+        if(isReplacement(update)) {
+            return replace(document, update);
+        }
+        BsonDocument updated = document.clone();
+        for(Map.Entry<String, BsonValue> entry : update.entrySet()) {
+            String operator = entry.getKey();
+            if("$setOnInsert".equals(operator) && !insert) {
+                continue;
+            }
+            for(Map.Entry<String, BsonValue> field : entry.getValue().asDocument().entrySet()) {
+                String path = positional(updated, field.getKey(), query);
+                if(updated.containsKey("_id") && (path.equals("_id") || path.startsWith("_id."))) {
+                    if(!"$set".equals(operator) && !"$setOnInsert".equals(operator) ||
+                            !BsonMatcher.equal(field.getValue(), updated.get("_id"))) {
+                        throw error(IMMUTABLE_FIELD, "Performing an update on the path '_id' would modify the " +
+                                "immutable field '_id'");
+                    }
+                }
+                apply(updated, operator, path, field.getValue());
+            }
+        }
+        return updated;
+    }
+
+    static BsonDocument replace(BsonDocument document, BsonDocument replacement) {
+        BsonDocument replaced = new BsonDocument();
+        BsonValue id = document.get("_id");
+        if(id != null) {
+            if(replacement.containsKey("_id") && !BsonMatcher.equal(id, replacement.get("_id"))) {
+                throw error(IMMUTABLE_FIELD, "the (immutable) field '_id' was found to have been altered");
+            }
+            replaced.put("_id", id);
+        }
+        for(Map.Entry<String, BsonValue> entry : replacement.entrySet()) {
+            if(!"_id".equals(entry.getKey()) || id == null) {
+                replaced.put(entry.getKey(), BsonMatcher.copy(entry.getValue()));
+            }
+        }
+        return replaced;
+    }
+
+    private static void apply(BsonDocument document, String operator, String path, BsonValue operand) {
+        BsonValue current = get(document, path);
+        switch(operator) {
+            case "$set":
+            case "$setOnInsert":
+                set(document, path, BsonMatcher.copy(operand));
+                break;
+            case "$unset":
+                unset(document, path);
+                break;
+            case "$inc":
+                numeric(operator, path, current, operand);
+                set(document, path, current == null ? operand : BsonMatcher.add(current, operand));
+                break;
+            case "$mul":
+                numeric(operator, path, current, operand);
+                set(document, path, current == null ? zero(operand) : multiply(current, operand));
+                break;
+            case "$min":
+                if(current == null || BsonMatcher.compare(operand, current) < 0) {
+                    set(document, path, BsonMatcher.copy(operand));
+                }
+                break;
+            case "$max":
+                if(current == null || BsonMatcher.compare(operand, current) > 0) {
+                    set(document, path, BsonMatcher.copy(operand));
+                }
+                break;
+            case "$currentDate":
+                boolean timestamp = operand.isDocument() &&
+                        "timestamp".equals(operand.asDocument().getString("$type").getValue());
+                set(document, path, timestamp ? new BsonTimestamp((int) (System.currentTimeMillis() / 1000), 1) :
+                        new BsonDateTime(System.currentTimeMillis()));
+                break;
+            case "$rename":
+                if(current != null) {
+                    unset(document, path);
+                    set(document, operand.asString().getValue(), current);
+                }
+                break;
+            case "$push":
+                push(document, path, array(operator, path, current), operand);
+                break;
+            case "$addToSet":
+                BsonArray set = array(operator, path, current);
+                List<BsonValue> values = operand.isDocument() && operand.asDocument().containsKey("$each") ?
+                        operand.asDocument().getArray("$each") : Collections.singletonList(operand);
+                for(BsonValue value : values) {
+                    if(set.stream().noneMatch(element -> BsonMatcher.equal(element, value))) {
+                        set.add(BsonMatcher.copy(value));
+                    }
+                }
+                set(document, path, set);
+                break;
+            case "$pop":
+                if(current != null) {
+                    BsonArray popped = array(operator, path, current);
+                    if(!popped.isEmpty()) {
+                        popped.remove(operand.asNumber().intValue() < 0 ? 0 : popped.size() - 1);
+                    }
+                }
+                break;
+            case "$pull":
+                if(current != null) {
+                    array(operator, path, current).removeIf(element -> BsonMatcher.matchesElement(element, operand));
+                }
+                break;
+            case "$pullAll":
+                if(current != null) {
+                    array(operator, path, current).removeIf(element -> operand.asArray().stream()
+                            .anyMatch(value -> BsonMatcher.equal(element, value)));
+                }
+                break;
+            default:
+                throw error(BAD_VALUE, "Unknown modifier: " + operator);
+        }
+    }
+
+    private static void push(BsonDocument document, String path, BsonArray array, BsonValue operand) {
+        if(!operand.isDocument() || !operand.asDocument().containsKey("$each")) {
+            array.add(BsonMatcher.copy(operand));
+            set(document, path, array);
+            return;
+        }
+        BsonDocument modifiers = operand.asDocument();
+        int position = modifiers.containsKey("$position") ?
+                Math.min(modifiers.getNumber("$position").intValue(), array.size()) : array.size();
+        for(BsonValue value : modifiers.getArray("$each")) {
+            array.add(position++, BsonMatcher.copy(value));
+        }
+        if(modifiers.containsKey("$slice")) {
+            int slice = modifiers.getNumber("$slice").intValue();
+            List<BsonValue> kept = slice >= 0 ? new ArrayList<>(array.subList(0, Math.min(slice, array.size()))) :
+                    new ArrayList<>(array.subList(Math.max(0, array.size() + slice), array.size()));
+            array.clear();
+            array.addAll(kept);
+        }
+        set(document, path, array);
+    }
+
+    private static void numeric(String operator, String path, BsonValue current, BsonValue operand) {
+        if(!operand.isNumber()) {
+            throw error(TYPE_MISMATCH, "Cannot " + operator.substring(1) + " with non-numeric argument: {" + path +
+                    ": " + operand + "}");
+        }
+        if(current != null && !current.isNumber()) {
+            throw error(TYPE_MISMATCH, "Cannot apply " + operator + " to a value of non-numeric type. {_id: ...} " +
+                    "has the field '" + path + "' of non-numeric type " + current.getBsonType());
+        }
+    }
+
+    private static BsonValue zero(BsonValue operand) {
+        return operand.isInt32() ? new BsonInt32(0) : operand.isInt64() ? new BsonInt64(0) : new BsonDouble(0);
+    }
+
+    private static BsonValue multiply(BsonValue value, BsonValue other) {
+        if((value.isInt32() || value.isInt64()) && (other.isInt32() || other.isInt64())) {
+            long product = Math.multiplyExact(value.asNumber().longValue(), other.asNumber().longValue());
+            return value.isInt32() && other.isInt32() && product == (int) product ?
+                    new BsonInt32((int) product) : new BsonInt64(product);
+        }
+        return new BsonDouble(BsonMatcher.doubleValue(value) * BsonMatcher.doubleValue(other));
+    }
+
+    // an existing array is updated in place, a missing one created
+    private static BsonArray array(String operator, String path, BsonValue current) {
+        if(current == null) {
+            return new BsonArray();
+        }
+        if(!current.isArray()) {
+            throw error(BAD_VALUE, "The field '" + path + "' must be an array but is of type " +
+                    current.getBsonType() + " in document {_id: ...} for " + operator);
+        }
+        return current.asArray();
+    }
+
+    // Replaces the first positional $ of the path with the index of the first element of the array before
+    // it that the conditions of the query on that array hold for.
+    static String positional(BsonDocument document, String path, BsonDocument query) {
+        int position = path.indexOf(".$");
+        if(position < 0 || position + 2 < path.length() && path.charAt(position + 2) != '.') {
+            return path;
+        }
+        String arrayPath = path.substring(0, position);
+        BsonValue array = get(document, arrayPath);
+        List<Map.Entry<String, BsonValue>> conditions = new ArrayList<>();
+        conditions(query, arrayPath, conditions);
+        if(array != null && array.isArray() && !conditions.isEmpty()) {
+            BsonArray elements = array.asArray();
+            for(int i = 0; i < elements.size(); i++) {
+                if(matches(elements.get(i), conditions)) {
+                    return arrayPath + "." + i + path.substring(position + 2);
+                }
+            }
+        }
+        throw error(BAD_VALUE, "The positional operator did not find the match needed from the query.");
+    }
+
+    // conditions on the elements of the array at arrayPath, keyed by the path within the element ("" for
+    // the element itself)
+    private static void conditions(BsonDocument query, String arrayPath, List<Map.Entry<String, BsonValue>> conditions) {
+        for(Map.Entry<String, BsonValue> entry : query.entrySet()) {
+            String key = entry.getKey();
+            if("$and".equals(key)) {
+                entry.getValue().asArray().forEach(clause -> conditions(clause.asDocument(), arrayPath, conditions));
+            } else if(key.startsWith(arrayPath + ".")) {
+                conditions.add(new AbstractMap.SimpleImmutableEntry<>(
+                        key.substring(arrayPath.length() + 1), entry.getValue()));
+            } else if(key.equals(arrayPath)) {
+                BsonValue condition = entry.getValue();
+                if(BsonMatcher.isOperatorDocument(condition) && condition.asDocument().containsKey("$elemMatch")) {
+                    condition = condition.asDocument().get("$elemMatch");
+                    if(!BsonMatcher.isOperatorDocument(condition)) {
+                        for(Map.Entry<String, BsonValue> field : condition.asDocument().entrySet()) {
+                            conditions.add(new AbstractMap.SimpleImmutableEntry<>(field.getKey(),
+                                    field.getValue()));
+                        }
+                        continue;
+                    }
+                }
+                conditions.add(new AbstractMap.SimpleImmutableEntry<>("", condition));
+            }
+        }
+    }
+
+    private static boolean matches(BsonValue element, List<Map.Entry<String, BsonValue>> conditions) {
+        for(Map.Entry<String, BsonValue> condition : conditions) {
+            List<BsonValue> values = condition.getKey().isEmpty() ? Collections.singletonList(element) :
+                    BsonMatcher.values(element, condition.getKey());
+            if(!BsonMatcher.matchesCondition(values, condition.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the value at a path of plain field names and array indexes, null when missing
+    static BsonValue get(BsonDocument document, String path) {
+        BsonValue value = document;
+        for(String segment : path.split("\\.")) {
+            if(value == null) {
+                return null;
+            }
+            value = child(value, segment);
+        }
+        return value;
+    }
+
+    private static BsonValue child(BsonValue value, String segment) {
+        if(value.isDocument()) {
+            return value.asDocument().get(segment);
+        }
+        if(value.isArray()) {
+            int index = BsonMatcher.arrayIndex(segment);
+            return index >= 0 && index < value.asArray().size() ? value.asArray().get(index) : null;
+        }
+        return null;
+    }
+
+    // sets the value at the path, creating the documents on the way and padding arrays with nulls
+    static void set(BsonValue document, String path, BsonValue value) {
+        String[] segments = path.split("\\.");
+        BsonValue parent = document;
+        for(int i = 0; i < segments.length - 1; i++) {
+            BsonValue next = child(parent, segments[i]);
+            if(next == null) {
+                next = new BsonDocument();
+                put(parent, path, segments[i], next);
+            } else if(!next.isDocument() && !next.isArray()) {
+                throw error(BAD_VALUE, "Cannot create field '" + segments[i + 1] + "' in element {" +
+                        segments[i] + ": " + next + "}");
+            }
+            parent = next;
+        }
+        put(parent, path, segments[segments.length - 1], value);
+    }
+
+    private static void put(BsonValue parent, String path, String segment, BsonValue value) {
+        if(parent.isDocument()) {
+            parent.asDocument().put(segment, value);
+            return;
+        }
+        int index = BsonMatcher.arrayIndex(segment);
+        if(index < 0) {
+            throw error(BAD_VALUE, "Cannot create field '" + segment + "' in an array for path '" + path + "'");
+        }
+        BsonArray array = parent.asArray();
+        while(array.size() <= index) {
+            array.add(BsonNull.VALUE);
+        }
+        array.set(index, value);
+    }
+
+    // unsetting an array element leaves null in its place, as on the server
+    static void unset(BsonDocument document, String path) {
+        int last = path.lastIndexOf('.');
+        BsonValue parent = last < 0 ? document : get(document, path.substring(0, last));
+        String segment = path.substring(last + 1);
+        if(parent != null && parent.isDocument()) {
+            parent.asDocument().remove(segment);
+        } else if(parent != null && parent.isArray()) {
+            int index = BsonMatcher.arrayIndex(segment);
+            if(index >= 0 && index < parent.asArray().size()) {
+                parent.asArray().set(index, BsonNull.VALUE);
+            }
+        }
+    }
+
+    // The document an upsert inserts when nothing matched: the equality conditions of the query, then the
+    // update applied to it.
+    static BsonDocument upsert(BsonDocument query, BsonDocument update) {
+        BsonDocument document = new BsonDocument();
+        equalities(query, document);
+        if(isReplacement(update)) {
+            BsonDocument replacement = replace(new BsonDocument(), update);
+            if(!replacement.containsKey("_id") && document.containsKey("_id")) {
+                BsonDocument withId = new BsonDocument("_id", document.get("_id"));
+                withId.putAll(replacement);
+                return withId;
+            }
+            return replacement;
+        }
+        return apply(document, update, query, true);
+    }
+
+    private static void equalities(BsonDocument query, BsonDocument document) {
+        for(Map.Entry<String, BsonValue> entry : query.entrySet()) {
+            BsonValue condition = entry.getValue();
+            if("$and".equals(entry.getKey())) {
+                condition.asArray().forEach(clause -> equalities(clause.asDocument(), document));
+            } else if(!entry.getKey().startsWith("$")) {
+                if(!BsonMatcher.isOperatorDocument(condition)) {
+                    set(document, entry.getKey(), BsonMatcher.copy(condition));
+                } else if(condition.asDocument().containsKey("$eq")) {
+                    set(document, entry.getKey(), BsonMatcher.copy(condition.asDocument().get("$eq")));
+                }
+            }
+        }
+    }
+
+    static MongoWriteException error(int code, String message) {
+        return new MongoWriteException(new WriteError(code, message, new BsonDocument()), new ServerAddress());
+    }
+}
@@ -0,0 +1,95 @@
+package org.myproject.ecommerce.core.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Outcome of one chunk of a bulk write. Error messages carry the index of the failed operation in the
+// list that was handed to MongoDBService.bulkWrite.
+public class BulkWriteBatchResult {
+    private final int batchIndex;
+    private final long firstOperationIndex;
+    private final int operationCount;
+    private final int insertedCount;
+    private final int matchedCount;
+    private final int modifiedCount;
+    private final int deletedCount;
+    private final int upsertedCount;
+    private final List<String> errors;
+    private final long elapsedMillis;
+
+    public BulkWriteBatchResult(int batchIndex, long firstOperationIndex, int operationCount, int insertedCount,
+                                int matchedCount, int modifiedCount, int deletedCount, int upsertedCount,
+                                List<String> errors, long elapsedMillis) {
+        this.batchIndex = batchIndex;
+        this.firstOperationIndex = firstOperationIndex;
+        this.operationCount = operationCount;
+        this.insertedCount = insertedCount;
+        this.matchedCount = matchedCount;
+        this.modifiedCount = modifiedCount;
+        this.deletedCount = deletedCount;
+        this.upsertedCount = upsertedCount;
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getBatchIndex() {
+        return batchIndex;
+    }
+
+    public long getFirstOperationIndex() {
+        return firstOperationIndex;
+    }
+
+    public int getOperationCount() {
+        return operationCount;
+    }
+
+    public int getInsertedCount() {
+        return insertedCount;
+    }
+
+    public int getMatchedCount() {
+        return matchedCount;
+    }
+
+    public int getModifiedCount() {
+        return modifiedCount;
+    }
+
+    public int getDeletedCount() {
+        return deletedCount;
+    }
+
+    public int getUpsertedCount() {
+        return upsertedCount;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public boolean isSuccessful() {
+        return errors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkWriteBatchResult{" +
+                "batchIndex=" + batchIndex +
+                ", firstOperationIndex=" + firstOperationIndex +
+                ", operationCount=" + operationCount +
+                ", insertedCount=" + insertedCount +
+                ", matchedCount=" + matchedCount +
+                ", modifiedCount=" + modifiedCount +
+                ", deletedCount=" + deletedCount +
+                ", upsertedCount=" + upsertedCount +
+                ", errors=" + errors +
+                ", elapsedMillis=" + elapsedMillis +
+                '}';
+    }
+}
@@ -0,0 +1,95 @@
+package org.myproject.ecommerce.core.services;
+
+import java.util.Map;
+import java.util.Objects;
+
+// A single insert/update/replace/delete of a bulk write. Filters and updates use the same Map based
+// DSL as the other MongoDBService operations.
+public class BulkWriteOperation<T> {
+    public enum Type {
+        INSERT_ONE, UPDATE_ONE, UPDATE_MANY, REPLACE_ONE, DELETE_ONE, DELETE_MANY
+    }
+
+    private final Type type;
+    private final T document;
+    private final Map<String, Object> filterMap;
+    private final Map<String, Object> updateMap;
+    private final boolean upsert;
+
+    private BulkWriteOperation(Type type, T document, Map<String, Object> filterMap,
+                               Map<String, Object> updateMap, boolean upsert) {
+        this.type = type;
+        this.document = document;
+        this.filterMap = filterMap;
+        this.updateMap = updateMap;
+        this.upsert = upsert;
+    }
+
+    public static <T> BulkWriteOperation<T> insertOne(T document) {
+        Objects.requireNonNull(document);
+        return new BulkWriteOperation<>(Type.INSERT_ONE, document, null, null, false);
+    }
+
+    public static <T> BulkWriteOperation<T> updateOne(Map<String, Object> filterMap, Map<String, Object> updateMap) {
+        return updateOne(filterMap, updateMap, false);
+    }
+
+    public static <T> BulkWriteOperation<T> updateOne(Map<String, Object> filterMap, Map<String, Object> updateMap,
+                                                      boolean upsert) {
+        Objects.requireNonNull(filterMap);
+        Objects.requireNonNull(updateMap);
+        return new BulkWriteOperation<>(Type.UPDATE_ONE, null, filterMap, updateMap, upsert);
+    }
+
+    public static <T> BulkWriteOperation<T> updateMany(Map<String, Object> filterMap, Map<String, Object> updateMap) {
+        Objects.requireNonNull(filterMap);
+        Objects.requireNonNull(updateMap);
+        return new BulkWriteOperation<>(Type.UPDATE_MANY, null, filterMap, updateMap, false);
+    }
+
+    public static <T> BulkWriteOperation<T> replaceOne(Map<String, Object> filterMap, T document, boolean upsert) {
+        Objects.requireNonNull(filterMap);
+        Objects.requireNonNull(document);
+        return new BulkWriteOperation<>(Type.REPLACE_ONE, document, filterMap, null, upsert);
+    }
+
+    public static <T> BulkWriteOperation<T> deleteOne(Map<String, Object> filterMap) {
+        Objects.requireNonNull(filterMap);
+        return new BulkWriteOperation<>(Type.DELETE_ONE, null, filterMap, null, false);
+    }
+
+    public static <T> BulkWriteOperation<T> deleteMany(Map<String, Object> filterMap) {
+        Objects.requireNonNull(filterMap);
+        return new BulkWriteOperation<>(Type.DELETE_MANY, null, filterMap, null, false);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public T getDocument() {
+        return document;
+    }
+
+    public Map<String, Object> getFilterMap() {
+        return filterMap;
+    }
+
+    public Map<String, Object> getUpdateMap() {
+        return updateMap;
+    }
+
+    public boolean isUpsert() {
+        return upsert;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkWriteOperation{" +
+                "type=" + type +
+                ", filterMap=" + filterMap +
+                ", updateMap=" + updateMap +
+                ", upsert=" + upsert +
+                '}';
+    }
+}
@@ -0,0 +1,94 @@
+package org.myproject.ecommerce.core.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Buffers bulk write operations for one collection and sends them through MongoDBService.bulkWrite once
+// bufferSize operations are pending, on flush() and on close(). An ordered writer stops accepting
+// operations after a batch has failed.
+public class BulkWriter<T> implements AutoCloseable {
+    private final MongoDBService mongoDBService;
+    private final String databaseName;
+    private final String collectionName;
+    private final Class<T> clazz;
+    private final boolean ordered;
+    private final int bufferSize;
+    private final List<BulkWriteOperation<T>> buffer;
+    private final List<BulkWriteBatchResult> results = new ArrayList<>();
+    private long flushedOperations;
+    private boolean failed;
+
+    BulkWriter(MongoDBService mongoDBService, String databaseName, String collectionName, Class<T> clazz,
+               boolean ordered, int bufferSize) {
+        if(bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive: " + bufferSize);
+        }
+        this.mongoDBService = mongoDBService;
+        this.databaseName = databaseName;
+        this.collectionName = collectionName;
+        this.clazz = clazz;
+        this.ordered = ordered;
+        this.bufferSize = bufferSize;
+        this.buffer = new ArrayList<>(bufferSize);
+    }
+
+    public BulkWriter<T> insertOne(T document) {
+        return add(BulkWriteOperation.insertOne(document));
+    }
+
+    public BulkWriter<T> updateOne(Map<String, Object> filterMap, Map<String, Object> updateMap) {
+        return add(BulkWriteOperation.updateOne(filterMap, updateMap));
+    }
+
+    public BulkWriter<T> updateMany(Map<String, Object> filterMap, Map<String, Object> updateMap) {
+        return add(BulkWriteOperation.updateMany(filterMap, updateMap));
+    }
+
+    public BulkWriter<T> deleteOne(Map<String, Object> filterMap) {
+        return add(BulkWriteOperation.deleteOne(filterMap));
+    }
+
+    public synchronized BulkWriter<T> add(BulkWriteOperation<T> operation) {
+        if(failed && ordered) {
+            throw new IllegalStateException("ordered bulk writer stopped after a failed batch: " +
+                    databaseName + "." + collectionName);
+        }
+        buffer.add(operation);
+        if(buffer.size() >= bufferSize) {
+            flush();
+        }
+        return this;
+    }
+
+    public synchronized List<BulkWriteBatchResult> flush() {
+        if(buffer.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<BulkWriteBatchResult> flushed = mongoDBService.bulkWrite(databaseName, collectionName, clazz,
+                buffer, ordered, MongoDBService.DEFAULT_BULK_BATCH_COUNT, results.size(), flushedOperations);
+        flushedOperations += buffer.size();
+        buffer.clear();
+        results.addAll(flushed);
+        failed |= flushed.stream().anyMatch(r -> !r.isSuccessful());
+        return flushed;
+    }
+
+    public synchronized int getPendingCount() {
+        return buffer.size();
+    }
+
+    public synchronized List<BulkWriteBatchResult> getResults() {
+        return new ArrayList<>(results);
+    }
+
+    public synchronized boolean hasErrors() {
+        return failed;
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+}
@@ -0,0 +1,327 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.Document;
+import org.myproject.ecommerce.core.domain.CartExpiry;
+import org.myproject.ecommerce.core.domain.ShoppingCart;
+import org.myproject.ecommerce.core.domain.ShoppingCartStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Tracks the deadline of every cart, its last change plus the timeout, as the cart is touched, and hands the
+// carts to the expirer once their deadline has passed, so expiring carts takes no scan of the cart collection.
+// The deadlines are kept in a hierarchical timing wheel: LEVELS wheels of SLOTS slots, where a slot of level n
+// spans SLOTS^n ticks. Scheduling a cart again costs the same whatever the number of carts, and a tick only looks
+// at the slot that comes due; when a wheel completes a turn the next slot of the level above is spread over the
+// levels below. Deadlines beyond the reach of the top level wait in an overflow slot until the top level turns.
+// Due carts go to the expirer at most batchSize at a time; it schedules again the ones touched by another process.
+// The deadlines are written behind to cart_expiry once per tick with one bulk write, the carts that expired are
+// deleted from it, and every flush records its time in cart_expiry_checkpoint. start() loads cart_expiry plus the
+// active carts changed since shortly before the checkpoint, whose touches may not have been flushed, through the
+// cart index on status and last_modified; only a start without a checkpoint reads all active carts.
+public class CartExpiryWheel {
+    public static final String DATABASE = "ecommerce";
+    public static final String COLLECTION = "cart_expiry";
+    public static final String CHECKPOINT_COLLECTION = "cart_expiry_checkpoint";
+    public static final long DEFAULT_TICK_MILLIS = 1000;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(CartExpiryWheel.class);
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 4;
+    // a cart is written with its last_modified a little before the wheel is touched with it
+    private static final long CHECKPOINT_SLACK_MILLIS = 60000;
+
+    private final MongoDBService mongoDBService;
+    private final long timeoutMillis;
+    private final long tickMillis;
+    private final int batchSize;
+    private final Consumer<List<Integer>> expirer;
+    // the wheel state and the unflushed deadlines are guarded by scheduled
+    private final Map<Integer, Scheduled> scheduled = new HashMap<>();
+    private final Slot[][] wheels = new Slot[LEVELS][SLOTS];
+    private final Slot overflow = new Slot();
+    // the deadlines to write, empty for the carts to delete from cart_expiry
+    private final Map<Integer, Optional<Date>> unflushed = new HashMap<>();
+    private long currentTick;
+    private ScheduledExecutorService ticker;
+
+    private static class Slot {
+        private final Set<Integer> cartIds = new HashSet<>();
+    }
+
+    private static class Scheduled {
+        private long deadlineTick;
+        private Slot slot;
+    }
+
+    public CartExpiryWheel(MongoDBService mongoDBService, long timeout, Consumer<List<Integer>> expirer) {
+        this(mongoDBService, timeout, DEFAULT_TICK_MILLIS, DEFAULT_BATCH_SIZE, expirer);
+    }
+
+    public CartExpiryWheel(MongoDBService mongoDBService, long timeout, long tickMillis, int batchSize,
+                           Consumer<List<Integer>> expirer) {
+        this.mongoDBService = mongoDBService;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeout);
+        this.tickMillis = tickMillis;
+        this.batchSize = batchSize;
+        this.expirer = expirer;
+        for(int level = 0; level < LEVELS; level++) {
+            for(int slot = 0; slot < SLOTS; slot++) {
+                wheels[level][slot] = new Slot();
+            }
+        }
+        this.currentTick = Math.floorDiv(System.currentTimeMillis(), tickMillis);
+    }
+
+    // Loads the persisted deadlines and starts expiring carts every tick.
+    public synchronized void start() {
+        if(ticker != null) {
+            throw new IllegalStateException("the cart expiry wheel is already running");
+        }
+        load();
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cart-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(() -> {
+            expireDue(System.currentTimeMillis());
+            flush();
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Stops the ticks and persists the deadlines that are left to write.
+    public synchronized boolean stop() throws InterruptedException {
+        if(ticker != null) {
+            ticker.shutdown();
+            ticker.awaitTermination(1, TimeUnit.MINUTES);
+            ticker = null;
+        }
+        return flush();
+    }
+
+    void load() {
+        try(Stream<CartExpiry> expiries = mongoDBService.stream(DATABASE, COLLECTION, CartExpiry.class,
+                new HashMap<>(), Optional.empty(), Optional.empty(), MongoDBService.DEFAULT_BATCH_SIZE)) {
+            expiries.forEach(expiry -> {
+                synchronized(scheduled) {
+                    if(!scheduled.containsKey(expiry.getCartId())) {
+                        place(expiry.getCartId(), expiry.getDeadline().getTime());
+                    }
+                }
+            });
+        }
+
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("status", ShoppingCartStatus.ACTIVE.toString());
+        Optional<Date> checkpoint = mongoDBService.readOne(DATABASE, CHECKPOINT_COLLECTION, Document.class,
+                Collections.singletonMap("_id", COLLECTION))
+                .map(document -> document.getDate("flushed_at"));
+        if(checkpoint.isPresent()) {
+            Map<String, Object> lastModifiedFilterMap = new HashMap<>();
+            lastModifiedFilterMap.put("last_modified",
+                    new Date(checkpoint.get().getTime() - CHECKPOINT_SLACK_MILLIS));
+            filterMap.put("$gte", lastModifiedFilterMap);
+        } else {
+            logger.warn("no cart expiry checkpoint, scheduling every active cart");
+        }
+        Map<String, Integer> projectionMap = new HashMap<>();
+        projectionMap.put("_id", 1);
+        projectionMap.put("last_modified", 1);
+        try(Stream<ShoppingCart> carts = mongoDBService.stream(DATABASE, "cart", ShoppingCart.class, filterMap,
+                Optional.empty(), Optional.of(projectionMap), MongoDBService.DEFAULT_BATCH_SIZE)) {
+            carts.forEach(cart -> {
+                long deadline = cart.getLastModified().getTime() + timeoutMillis;
+                synchronized(scheduled) {
+                    Scheduled entry = scheduled.get(cart.getCartId());
+                    if(entry == null || entry.deadlineTick < ticks(deadline)) {
+                        schedule(cart.getCartId(), deadline);
+                    }
+                }
+            });
+        }
+    }
+
+    // Schedules the cart to expire timeout after lastModified, in place of its earlier deadline.
+    public void touch(int cartId, Date lastModified) {
+        synchronized(scheduled) {
+            schedule(cartId, lastModified.getTime() + timeoutMillis);
+        }
+    }
+
+    // Forgets the cart, e.g. once it is checked out.
+    public void cancel(int cartId) {
+        synchronized(scheduled) {
+            Scheduled entry = scheduled.remove(cartId);
+            if(entry != null) {
+                entry.slot.cartIds.remove(cartId);
+                unflushed.put(cartId, Optional.empty());
+            }
+        }
+    }
+
+    public Optional<Date> getDeadline(int cartId) {
+        synchronized(scheduled) {
+            return Optional.ofNullable(scheduled.get(cartId))
+                    .map(entry -> new Date(entry.deadlineTick * tickMillis));
+        }
+    }
+
+    public int size() {
+        synchronized(scheduled) {
+            return scheduled.size();
+        }
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    // Turns the wheel up to now and passes the carts that came due to the expirer; returns their number. A batch
+    // the expirer failed on is tried again on the next tick.
+    public int expireDue(long nowMillis) {
+        List<Integer> due = new ArrayList<>();
+        synchronized(scheduled) {
+            long nowTick = Math.floorDiv(nowMillis, tickMillis);
+            while(currentTick < nowTick) {
+                if(scheduled.isEmpty()) {
+                    currentTick = nowTick;
+                    break;
+                }
+                currentTick++;
+                // from the top down, a cart moved out of a higher level may land in a slot that turns too
+                if((currentTick & ((1L << (BITS * LEVELS)) - 1)) == 0) {
+                    cascade(overflow);
+                }
+                for(int level = LEVELS - 1; level > 0; level--) {
+                    if((currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                        cascade(wheels[level][(int) (currentTick >>> (BITS * level)) & (SLOTS - 1)]);
+                    }
+                }
+                Slot slot = wheels[0][(int) currentTick & (SLOTS - 1)];
+                for(Integer cartId : slot.cartIds) {
+                    scheduled.remove(cartId);
+                    unflushed.put(cartId, Optional.empty());
+                    due.add(cartId);
+                }
+                slot.cartIds.clear();
+            }
+        }
+
+        for(int from = 0; from < due.size(); from += batchSize) {
+            List<Integer> batch = new ArrayList<>(due.subList(from, Math.min(due.size(), from + batchSize)));
+            try {
+                expirer.accept(batch);
+            } catch (RuntimeException e) {
+                logger.error("unable to expire " + batch.size() + " carts: " + e.getMessage());
+                synchronized(scheduled) {
+                    batch.stream()
+                            .filter(cartId -> !scheduled.containsKey(cartId))
+                            .forEach(cartId -> schedule(cartId, nowMillis));
+                }
+            }
+        }
+        return due.size();
+    }
+
+    // Persists the deadlines that changed; false when MongoDB failed, in which case they are retried on the next
+    // flush.
+    public boolean flush() {
+        Date checkpoint = new Date();
+        Map<Integer, Optional<Date>> changes;
+        synchronized(scheduled) {
+            if(unflushed.isEmpty()) {
+                return true;
+            }
+            changes = new HashMap<>(unflushed);
+            unflushed.clear();
+        }
+        List<BulkWriteOperation<CartExpiry>> writes = new ArrayList<>();
+        changes.forEach((cartId, deadline) -> {
+            Map<String, Object> filterMap = Collections.singletonMap("_id", cartId);
+            writes.add(deadline.isPresent() ?
+                    BulkWriteOperation.replaceOne(filterMap, new CartExpiry(cartId, deadline.get()), true) :
+                    BulkWriteOperation.deleteOne(filterMap));
+        });
+        try {
+            for(BulkWriteBatchResult result : mongoDBService.bulkWrite(DATABASE, COLLECTION, CartExpiry.class,
+                    writes, false)) {
+                if(!result.isSuccessful()) {
+                    throw new EcommerceException("bulk write failed: " + result.getErrors());
+                }
+            }
+            mongoDBService.upsertOne(DATABASE, CHECKPOINT_COLLECTION, Document.class,
+                    Collections.singletonMap("_id", COLLECTION),
+                    new Document("_id", COLLECTION).append("flushed_at", checkpoint));
+            return true;
+        } catch (EcommerceException | RuntimeException e) {
+            logger.error("unable to flush " + changes.size() + " cart deadlines: " + e.getMessage());
+            synchronized(scheduled) {
+                changes.forEach(unflushed::putIfAbsent);
+            }
+            return false;
+        }
+    }
+
+    // called with scheduled held
+    private void schedule(int cartId, long deadline) {
+        place(cartId, deadline);
+        unflushed.put(cartId, Optional.of(new Date(deadline)));
+    }
+
+    // called with scheduled held; a deadline that has passed comes due on the next tick
+    private void place(int cartId, long deadline) {
+        Scheduled entry = scheduled.get(cartId);
+        if(entry == null) {
+            entry = new Scheduled();
+            scheduled.put(cartId, entry);
+        } else {
+            entry.slot.cartIds.remove(cartId);
+        }
+        entry.deadlineTick = Math.max(ticks(deadline), currentTick + 1);
+        entry.slot = slot(entry.deadlineTick);
+        entry.slot.cartIds.add(cartId);
+    }
+
+    // the lowest level whose current turn the deadline falls in
+    private Slot slot(long deadlineTick) {
+        for(int level = 0; level < LEVELS; level++) {
+            int shift = BITS * (level + 1);
+            if(deadlineTick >>> shift == currentTick >>> shift) {
+                return wheels[level][(int) (deadlineTick >>> (BITS * level)) & (SLOTS - 1)];
+            }
+        }
+        return overflow;
+    }
+
+    private void cascade(Slot slot) {
+        List<Integer> cartIds = new ArrayList<>(slot.cartIds);
+        slot.cartIds.clear();
+        for(Integer cartId : cartIds) {
+            Scheduled entry = scheduled.get(cartId);
+            entry.slot = slot(entry.deadlineTick);
+            entry.slot.cartIds.add(cartId);
+        }
+    }
+
+    // rounded up, a cart never expires before its deadline
+    private long ticks(long millis) {
+        return Math.floorDiv(millis + tickMillis - 1, tickMillis);
+    }
+}
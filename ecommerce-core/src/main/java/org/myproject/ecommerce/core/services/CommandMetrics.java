@@ -0,0 +1,258 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionAddedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolClosedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import com.mongodb.event.ConnectionPoolOpenedEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueEnteredEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueExitedEvent;
+import com.mongodb.event.ConnectionRemovedEvent;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.io.ByteBufferBsonInput;
+import org.myproject.ecommerce.core.utilities.LoggingUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.stream.Collectors.toList;
+
+// Command and connection pool listener registered with the MongoClient. Commands are attributed to
+// database, collection and command name when they start; the driver only reports the request id with
+// the outcome. Pool wait is measured between entering and leaving the wait queue, which the synchronous
+// driver does on the checking out thread.
+// Responses are measured without copying them: a raw response is read from its buffer, of any other only the
+// n of a write is looked up. The size and the cursor batch of those take a copy of the response on the
+// driver's I/O thread, so they are counted only with responseSizes, e.g. -Dmongodb_metrics_response_sizes=true.
+public class CommandMetrics implements CommandListener, ConnectionPoolListener {
+    private static final Logger logger = LoggerFactory.getLogger(CommandMetrics.class);
+
+    private final boolean responseSizes;
+
+    private final Map<String, CommandStats> stats = new ConcurrentHashMap<>();
+    private final Map<Integer, CommandStats> inFlight = new ConcurrentHashMap<>();
+    private final LatencyHistogram checkoutWait = new LatencyHistogram();
+    private final ThreadLocal<Long> waitQueueEnteredAt = new ThreadLocal<>();
+    private final LongAdder connectionsCheckedOut = new LongAdder();
+    private ScheduledExecutorService reporter;
+
+    public CommandMetrics() {
+        this(false);
+    }
+
+    public CommandMetrics(boolean responseSizes) {
+        this.responseSizes = responseSizes;
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        String commandName = event.getCommandName();
+        String collectionName = collectionName(commandName, event.getCommand());
+        String key = event.getDatabaseName() + "." + collectionName + " " + commandName;
+        inFlight.put(event.getRequestId(), stats.computeIfAbsent(key,
+                k -> new CommandStats(event.getDatabaseName(), collectionName, commandName)));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        CommandStats commandStats = inFlight.remove(event.getRequestId());
+        if(commandStats == null) {
+            return;
+        }
+        BsonDocument response = Objects.requireNonNull(event.getResponse());
+        RawBsonDocument rawResponse = response instanceof RawBsonDocument ? (RawBsonDocument) response :
+                responseSizes ? rawCopy(response) : null;
+        long documentCount = rawResponse != null ? documentCount(rawResponse) : writtenCount(response);
+        long byteCount = rawResponse == null ? 0 : rawResponse.getByteBuffer().remaining();
+        commandStats.succeeded(event.getElapsedTime(TimeUnit.NANOSECONDS), documentCount, byteCount);
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        CommandStats commandStats = inFlight.remove(event.getRequestId());
+        if(commandStats != null) {
+            commandStats.failed(event.getElapsedTime(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    @Override
+    public void waitQueueEntered(ConnectionPoolWaitQueueEnteredEvent event) {
+        waitQueueEnteredAt.set(System.nanoTime());
+    }
+
+    @Override
+    public void waitQueueExited(ConnectionPoolWaitQueueExitedEvent event) {
+        Long enteredAt = waitQueueEnteredAt.get();
+        if(enteredAt != null) {
+            waitQueueEnteredAt.remove();
+            checkoutWait.record(System.nanoTime() - enteredAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        connectionsCheckedOut.increment();
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    }
+
+    @Override
+    public void connectionPoolOpened(ConnectionPoolOpenedEvent event) {
+    }
+
+    @Override
+    public void connectionPoolClosed(ConnectionPoolClosedEvent event) {
+    }
+
+    @Override
+    public void connectionAdded(ConnectionAddedEvent event) {
+    }
+
+    @Override
+    public void connectionRemoved(ConnectionRemovedEvent event) {
+    }
+
+    public List<CommandStats> getCommandStats() {
+        return new ArrayList<>(stats.values());
+    }
+
+    public List<CommandStats> getCommandStats(String databaseName, String collectionName) {
+        return stats.values()
+                .stream()
+                .filter(s -> s.getDatabaseName().equals(databaseName) && s.getCollectionName().equals(collectionName))
+                .collect(toList());
+    }
+
+    public LatencyHistogram getCheckoutWait() {
+        return checkoutWait;
+    }
+
+    public long getConnectionsCheckedOut() {
+        return connectionsCheckedOut.sum();
+    }
+
+    public void reset() {
+        stats.values().forEach(CommandStats::reset);
+        checkoutWait.reset();
+        connectionsCheckedOut.reset();
+    }
+
+    // Logs the commands ordered by the time spent in them, most expensive first.
+    public void log() {
+        List<CommandStats> commandStats = stats.values()
+                .stream()
+                .filter(s -> s.getLatency().getCount() > 0)
+                .sorted(Comparator.comparingLong((CommandStats s) -> s.getLatency().getTotalMicros()).reversed())
+                .collect(toList());
+        if(commandStats.isEmpty()) {
+            return;
+        }
+        LoggingUtils.info(logger, "connection checkout wait: " + checkoutWait +
+                ", checkouts=" + getConnectionsCheckedOut());
+        commandStats.forEach(s -> LoggingUtils.info(logger, s.toString()));
+    }
+
+    public synchronized void startReporting(long period, TimeUnit unit) {
+        if(reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mongodb-command-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(this::log, period, period, unit);
+    }
+
+    public synchronized void stopReporting() {
+        if(reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    // The collection is the value of the command name field, e.g. {find: "product"}; getMore names it
+    // in a separate field. Commands on the database itself are reported under "$cmd".
+    private static String collectionName(String commandName, BsonDocument command) {
+        BsonValue value = "getMore".equals(commandName) ? command.get("collection") : command.get(commandName);
+        return value != null && value.isString() ? value.asString().getValue() : "$cmd";
+    }
+
+    // Responses are handed out backed by the connection's buffer; a clone copies the raw bytes without
+    // decoding them.
+    private static RawBsonDocument rawCopy(BsonDocument response) {
+        BsonDocument copy = response.clone();
+        return copy instanceof RawBsonDocument ? (RawBsonDocument) copy : null;
+    }
+
+    // n of a write; the driver's response finds a field by skipping over the others and decodes only its value
+    static long writtenCount(BsonDocument response) {
+        BsonValue n = response.get("n");
+        return n != null && n.isNumber() ? n.asNumber().longValue() : 0;
+    }
+
+    // Counts the documents of a cursor batch, or n of a write, skipping over the documents themselves.
+    static long documentCount(RawBsonDocument response) {
+        try(BsonBinaryReader reader = new BsonBinaryReader(new ByteBufferBsonInput(response.getByteBuffer()))) {
+            reader.readStartDocument();
+            while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String name = reader.readName();
+                if("cursor".equals(name) && reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+                    return batchSize(reader);
+                }
+                if("n".equals(name) && reader.getCurrentBsonType() == BsonType.INT32) {
+                    return reader.readInt32();
+                }
+                if("n".equals(name) && reader.getCurrentBsonType() == BsonType.INT64) {
+                    return reader.readInt64();
+                }
+                if("value".equals(name) && reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+                    // findAndModify
+                    return 1;
+                }
+                reader.skipValue();
+            }
+        }
+        return 0;
+    }
+
+    private static long batchSize(BsonBinaryReader reader) {
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            if(("firstBatch".equals(name) || "nextBatch".equals(name))
+                    && reader.getCurrentBsonType() == BsonType.ARRAY) {
+                long count = 0;
+                reader.readStartArray();
+                while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    reader.skipValue();
+                    count++;
+                }
+                return count;
+            }
+            reader.skipValue();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,77 @@
+package org.myproject.ecommerce.core.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency and volume of one command against one collection, as seen by the driver.
+public class CommandStats {
+    private final String databaseName;
+    private final String collectionName;
+    private final String commandName;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+
+    CommandStats(String databaseName, String collectionName, String commandName) {
+        this.databaseName = databaseName;
+        this.collectionName = collectionName;
+        this.commandName = commandName;
+    }
+
+    void succeeded(long elapsedNanos, long documentCount, long byteCount) {
+        latency.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        documents.add(documentCount);
+        responseBytes.add(byteCount);
+    }
+
+    void failed(long elapsedNanos) {
+        latency.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        failures.increment();
+    }
+
+    void reset() {
+        latency.reset();
+        failures.reset();
+        documents.reset();
+        responseBytes.reset();
+    }
+
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    public String getCommandName() {
+        return commandName;
+    }
+
+    // includes failed commands
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    // documents returned by cursors, or written for insert/update/delete
+    public long getDocumentCount() {
+        return documents.sum();
+    }
+
+    public long getResponseBytes() {
+        return responseBytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return databaseName + "." + collectionName + " " + commandName + ": " + latency +
+                ", failures=" + getFailureCount() +
+                ", documents=" + getDocumentCount() +
+                ", bytes=" + getResponseBytes();
+    }
+}
@@ -0,0 +1,105 @@
+package org.myproject.ecommerce.core.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+// A ConcurrentHashMap bounded to maxEntries that evicts the least recently used entries. Reads take no lock,
+// they only stamp the entry with the time of use. The put that takes the map over its bound removes the
+// stalest tenth of the entries in one pass, so the scan is paid once per maxEntries / 10 puts; puts racing
+// with that pass may leave the map briefly over its bound.
+class ConcurrentLruMap<K, V> {
+    private final int maxEntries;
+    private final ConcurrentHashMap<K, Node<V>> nodes = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder evictions = new LongAdder();
+    private final BiConsumer<K, V> evicted;
+
+    ConcurrentLruMap(int maxEntries) {
+        this(maxEntries, (key, value) -> { });
+    }
+
+    // evicted is told every entry the bound removed
+    ConcurrentLruMap(int maxEntries, BiConsumer<K, V> evicted) {
+        if(maxEntries <= 0) {
+            throw new IllegalArgumentException("max entries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.evicted = evicted;
+    }
+
+    V get(K key) {
+        Node<V> node = nodes.get(key);
+        if(node == null) {
+            return null;
+        }
+        node.lastUsed = System.nanoTime();
+        return node.value;
+    }
+
+    void put(K key, V value) {
+        nodes.put(key, new Node<>(value));
+        if(nodes.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    // removes the key only while it still maps to value
+    boolean remove(K key, V value) {
+        Node<V> node = nodes.get(key);
+        return node != null && node.value == value && nodes.remove(key, node);
+    }
+
+    void remove(K key) {
+        nodes.remove(key);
+    }
+
+    void clear() {
+        nodes.clear();
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private void evict() {
+        if(!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int excess = nodes.size() - maxEntries + maxEntries / 10;
+            if(excess <= 0) {
+                return;
+            }
+            List<Map.Entry<K, Node<V>>> entries = new ArrayList<>(nodes.entrySet());
+            entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+            for(int i = 0; i < excess && i < entries.size(); i++) {
+                Map.Entry<K, Node<V>> entry = entries.get(i);
+                if(nodes.remove(entry.getKey(), entry.getValue())) {
+                    evictions.increment();
+                    evicted.accept(entry.getKey(), entry.getValue().value);
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static class Node<V> {
+        private final V value;
+        private volatile long lastUsed = System.nanoTime();
+
+        Node(V value) {
+            this.value = value;
+        }
+    }
+}
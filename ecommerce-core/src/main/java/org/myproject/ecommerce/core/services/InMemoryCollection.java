@@ -0,0 +1,467 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+
+// The documents of one collection of InMemoryMongoDBService, keyed by _id, with the secondary indexes
+// created on it. Every write to a document is atomic: it runs inside the compute of its _id and
+// re-evaluates the filter there, so conditional updates such as {qty: {$gte: 2}} + {$inc: {qty: -2}}
+// cannot oversell under concurrent callers. Queries that pin every field of an index by equality or $in
+// look the candidates up in the index, all others scan the collection in insertion order. Reads see
+// every write that completed before them but, as on the server, no snapshot across documents.
+final class InMemoryCollection {
+    private final String namespace;
+    private final Map<BsonValue, Entry> documents = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, BsonValue> naturalOrder = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<Index> indexes = new CopyOnWriteArrayList<>();
+    private final Index idIndex;
+
+    InMemoryCollection(String namespace) {
+        this.namespace = namespace;
+        this.idIndex = new Index("_id_", new BsonDocument("_id", new BsonInt32(1)), true);
+    }
+
+    private static final class Entry {
+        private final long sequence;
+        private final BsonDocument document;
+
+        private Entry(long sequence, BsonDocument document) {
+            this.sequence = sequence;
+            this.document = document;
+        }
+    }
+
+    // Index entries map a tuple of the normalised values of the key fields to the _ids of the documents
+    // with that tuple; an array value makes a document appear under every element. Geo and text indexes
+    // are only listed, queries on them scan.
+    private static final class Index {
+        private final String name;
+        private final BsonDocument keys;
+        private final boolean unique;
+        private final boolean ordered;
+        private final Map<BsonValue, Set<BsonValue>> entries = new ConcurrentHashMap<>();
+        private final AtomicLong ops = new AtomicLong();
+        private final long since = System.currentTimeMillis();
+
+        private Index(String name, BsonDocument keys, boolean unique) {
+            this.name = name;
+            this.keys = keys;
+            this.unique = unique;
+            this.ordered = keys.values().stream().allMatch(BsonValue::isNumber);
+        }
+
+        private Set<BsonValue> keysOf(BsonDocument document) {
+            if(document == null) {
+                return Collections.emptySet();
+            }
+            List<List<BsonValue>> fieldValues = new ArrayList<>();
+            for(String field : keys.keySet()) {
+                List<BsonValue> values = new ArrayList<>();
+                for(BsonValue value : BsonMatcher.values(document, field)) {
+                    if(value.isArray()) {
+                        value.asArray().forEach(element -> values.add(BsonMatcher.key(element)));
+                    } else {
+                        values.add(BsonMatcher.key(value));
+                    }
+                }
+                fieldValues.add(values.isEmpty() ? Collections.singletonList(BsonNull.VALUE) : values);
+            }
+            return tuples(fieldValues);
+        }
+
+        private boolean add(BsonValue key, BsonValue id) {
+            boolean[] added = { true };
+            entries.compute(key, (k, ids) -> {
+                if(ids == null) {
+                    ids = ConcurrentHashMap.newKeySet();
+                } else if(unique && !ids.isEmpty() && !ids.contains(id)) {
+                    added[0] = false;
+                    return ids;
+                }
+                ids.add(id);
+                return ids;
+            });
+            return added[0];
+        }
+
+        private void remove(BsonValue key, BsonValue id) {
+            entries.computeIfPresent(key, (k, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    // cartesian product of the values of each field
+    private static Set<BsonValue> tuples(List<List<BsonValue>> fieldValues) {
+        Set<BsonValue> tuples = new LinkedHashSet<>();
+        tuples.add(new BsonArray());
+        for(List<BsonValue> values : fieldValues) {
+            Set<BsonValue> extended = new LinkedHashSet<>();
+            for(BsonValue tuple : tuples) {
+                for(BsonValue value : values) {
+                    BsonArray next = new BsonArray(new ArrayList<>(tuple.asArray()));
+                    next.add(value);
+                    extended.add(next);
+                }
+            }
+            tuples = extended;
+        }
+        return tuples;
+    }
+
+    String getNamespace() {
+        return namespace;
+    }
+
+    long count() {
+        return documents.size();
+    }
+
+    // Matching documents in insertion order, or by distance for a $near/$nearSphere query. The documents
+    // are the stored ones and must not be modified.
+    List<BsonDocument> find(BsonDocument query) {
+        List<BsonDocument> results = new ArrayList<>();
+        for(BsonValue id : candidates(query)) {
+            Entry entry = documents.get(id);
+            if(entry != null && BsonMatcher.matches(entry.document, query)) {
+                results.add(entry.document);
+            }
+        }
+        Optional<Map.Entry<String, BsonMatcher.Near>> near = BsonMatcher.near(query);
+        if(near.isPresent()) {
+            String field = near.get().getKey();
+            BsonMatcher.Near point = near.get().getValue();
+            results.sort(Comparator.comparingDouble(document ->
+                    point.distance(BsonMatcher.values(document, field))));
+        }
+        return results;
+    }
+
+    void insert(BsonDocument document) {
+        BsonValue id = BsonMatcher.key(document.get("_id"));
+        documents.compute(id, (k, existing) -> {
+            if(existing != null) {
+                throw duplicateKey(idIndex, document.get("_id"));
+            }
+            reindex(k, null, document);
+            Entry entry = new Entry(sequence.incrementAndGet(), document);
+            naturalOrder.put(entry.sequence, k);
+            return entry;
+        });
+    }
+
+    UpdateResult updateOne(BsonDocument query, BsonDocument update, boolean upsert) {
+        for(BsonValue id : candidates(query)) {
+            Outcome outcome = update(id, query, update);
+            if(outcome.matched) {
+                return UpdateResult.acknowledged(1, outcome.modified ? 1L : 0L, null);
+            }
+        }
+        if(upsert) {
+            BsonDocument document = withId(BsonUpdater.upsert(query, update));
+            insert(document);
+            return UpdateResult.acknowledged(0, 0L, document.get("_id"));
+        }
+        return UpdateResult.acknowledged(0, 0L, null);
+    }
+
+    UpdateResult updateMany(BsonDocument query, BsonDocument update) {
+        long matched = 0;
+        long modified = 0;
+        for(BsonValue id : candidates(query)) {
+            Outcome outcome = update(id, query, update);
+            matched += outcome.matched ? 1 : 0;
+            modified += outcome.modified ? 1 : 0;
+        }
+        return UpdateResult.acknowledged(matched, modified, null);
+    }
+
+    // the updated document, or none when nothing matched
+    Optional<BsonDocument> findOneAndUpdate(BsonDocument query, BsonDocument update) {
+        for(BsonValue id : candidates(query)) {
+            Outcome outcome = update(id, query, update);
+            if(outcome.matched) {
+                return Optional.of(outcome.document);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static final class Outcome {
+        private boolean matched;
+        private boolean modified;
+        private BsonDocument document;
+    }
+
+    private Outcome update(BsonValue id, BsonDocument query, BsonDocument update) {
+        Outcome outcome = new Outcome();
+        documents.computeIfPresent(id, (k, entry) -> {
+            if(!BsonMatcher.matches(entry.document, query)) {
+                return entry;
+            }
+            outcome.matched = true;
+            BsonDocument updated = BsonUpdater.apply(entry.document, update, query, false);
+            outcome.document = updated;
+            if(updated.equals(entry.document)) {
+                outcome.document = entry.document;
+                return entry;
+            }
+            reindex(k, entry.document, updated);
+            outcome.modified = true;
+            return new Entry(entry.sequence, updated);
+        });
+        return outcome;
+    }
+
+    DeleteResult delete(BsonDocument query, boolean many) {
+        long deleted = 0;
+        for(BsonValue id : candidates(query)) {
+            boolean[] removed = { false };
+            documents.computeIfPresent(id, (k, entry) -> {
+                if(!BsonMatcher.matches(entry.document, query)) {
+                    return entry;
+                }
+                reindex(k, entry.document, null);
+                naturalOrder.remove(entry.sequence);
+                removed[0] = true;
+                return null;
+            });
+            if(removed[0]) {
+                deleted++;
+                if(!many) {
+                    break;
+                }
+            }
+        }
+        return DeleteResult.acknowledged(deleted);
+    }
+
+    void clear() {
+        delete(new BsonDocument(), true);
+    }
+
+    // Moves the entries of a document in every index from its old to its new version. Entries a unique
+    // index already holds for another document undo the entries added so far and fail the write.
+    private void reindex(BsonValue id, BsonDocument oldDocument, BsonDocument newDocument) {
+        List<Index> changed = new ArrayList<>();
+        List<Set<BsonValue>> added = new ArrayList<>();
+        for(Index index : indexes) {
+            if(!index.ordered) {
+                continue;
+            }
+            Set<BsonValue> oldKeys = index.keysOf(oldDocument);
+            Set<BsonValue> newKeys = new LinkedHashSet<>(index.keysOf(newDocument));
+            newKeys.removeAll(oldKeys);
+            Set<BsonValue> reserved = new HashSet<>();
+            for(BsonValue key : newKeys) {
+                if(!index.add(key, id)) {
+                    reserved.forEach(k -> index.remove(k, id));
+                    for(int i = 0; i < changed.size(); i++) {
+                        Index other = changed.get(i);
+                        added.get(i).forEach(k -> other.remove(k, id));
+                    }
+                    throw duplicateKey(index, key);
+                }
+                reserved.add(key);
+            }
+            changed.add(index);
+            added.add(reserved);
+        }
+        for(Index index : indexes) {
+            if(index.ordered) {
+                Set<BsonValue> oldKeys = new LinkedHashSet<>(index.keysOf(oldDocument));
+                oldKeys.removeAll(index.keysOf(newDocument));
+                oldKeys.forEach(key -> index.remove(key, id));
+            }
+        }
+    }
+
+    private RuntimeException duplicateKey(Index index, BsonValue key) {
+        return BsonUpdater.error(BsonUpdater.DUPLICATE_KEY, "E11000 duplicate key error collection: " + namespace +
+                " index: " + index.name + " dup key: " + key);
+    }
+
+    // The _ids of the documents the query can match: those of an _id equality, those an index holds for
+    // the values the query pins, or all in insertion order.
+    private Collection<BsonValue> candidates(BsonDocument query) {
+        Map<String, List<BsonValue>> equalities = new HashMap<>();
+        equalities(query, equalities);
+        List<BsonValue> ids = equalities.get("_id");
+        if(ids != null) {
+            idIndex.ops.incrementAndGet();
+            return ids.stream().map(BsonMatcher::key).distinct().collect(toList());
+        }
+        Index best = null;
+        for(Index index : indexes) {
+            if(index.ordered && equalities.keySet().containsAll(index.keys.keySet()) &&
+                    (best == null || index.keys.size() > best.keys.size())) {
+                best = index;
+            }
+        }
+        if(best == null) {
+            return naturalOrder.values();
+        }
+        best.ops.incrementAndGet();
+        List<List<BsonValue>> fieldValues = new ArrayList<>();
+        for(String field : best.keys.keySet()) {
+            fieldValues.add(equalities.get(field).stream().map(BsonMatcher::key).collect(toList()));
+        }
+        Set<BsonValue> candidates = new LinkedHashSet<>();
+        for(BsonValue tuple : tuples(fieldValues)) {
+            candidates.addAll(best.entries.getOrDefault(tuple, Collections.emptySet()));
+        }
+        // insertion order, as a scan would return them
+        return candidates.stream()
+                .filter(documents::containsKey)
+                .sorted(Comparator.comparingLong(id -> {
+                    Entry entry = documents.get(id);
+                    return entry == null ? Long.MAX_VALUE : entry.sequence;
+                }))
+                .collect(toList());
+    }
+
+    // the values a query pins each top level field to by equality or $in; arrays and documents are left
+    // out since they also match arrays containing them
+    private static void equalities(BsonDocument query, Map<String, List<BsonValue>> equalities) {
+        for(Map.Entry<String, BsonValue> entry : query.entrySet()) {
+            String field = entry.getKey();
+            BsonValue condition = entry.getValue();
+            if("$and".equals(field)) {
+                condition.asArray().forEach(clause -> equalities(clause.asDocument(), equalities));
+                continue;
+            }
+            if(field.startsWith("$") || equalities.containsKey(field)) {
+                continue;
+            }
+            List<BsonValue> values = null;
+            if(!BsonMatcher.isOperatorDocument(condition)) {
+                values = Collections.singletonList(condition);
+            } else if(condition.asDocument().size() == 1 && condition.asDocument().containsKey("$eq")) {
+                values = Collections.singletonList(condition.asDocument().get("$eq"));
+            } else if(condition.asDocument().size() == 1 && condition.asDocument().containsKey("$in")) {
+                values = condition.asDocument().getArray("$in").getValues();
+            }
+            if(values != null && values.stream().noneMatch(value -> value.isArray() || value.isDocument() ||
+                    value.isRegularExpression())) {
+                equalities.put(field, values);
+            }
+        }
+    }
+
+    // Creating an index that exists returns its name. Existing documents are indexed, and a unique index
+    // they violate is not created.
+    synchronized String createIndex(BsonDocument keys, String name, boolean unique) {
+        Objects.requireNonNull(name);
+        for(Index index : indexes) {
+            if(index.name.equals(name)) {
+                if(!index.keys.equals(keys) || index.unique != unique) {
+                    throw BsonUpdater.error(85, "Index with name: " + name + " already exists with different options");
+                }
+                return name;
+            }
+        }
+        Index index = new Index(name, keys, unique);
+        if(index.ordered) {
+            for(BsonValue id : naturalOrder.values()) {
+                Entry entry = documents.get(id);
+                if(entry == null) {
+                    continue;
+                }
+                for(BsonValue key : index.keysOf(entry.document)) {
+                    if(!index.add(key, id)) {
+                        throw duplicateKey(index, key);
+                    }
+                }
+            }
+        }
+        indexes.add(index);
+        return name;
+    }
+
+    // the 2d or 2dsphere index field $geoNear measures from
+    Optional<String> geoField() {
+        for(Index index : indexes) {
+            for(Map.Entry<String, BsonValue> key : index.keys.entrySet()) {
+                if(key.getValue().isString() && key.getValue().asString().getValue().startsWith("2d")) {
+                    return Optional.of(key.getKey());
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    // index documents in the shape of listIndexes
+    List<BsonDocument> listIndexes() {
+        List<BsonDocument> list = new ArrayList<>();
+        list.add(describe(idIndex));
+        indexes.forEach(index -> list.add(describe(index)));
+        return list;
+    }
+
+    private BsonDocument describe(Index index) {
+        BsonDocument document = new BsonDocument("v", new BsonInt32(2))
+                .append("key", index.keys.clone())
+                .append("name", new BsonString(index.name))
+                .append("ns", new BsonString(namespace));
+        if(index.unique && index != idIndex) {
+            document.append("unique", BsonBoolean.TRUE);
+        }
+        return document;
+    }
+
+    // index usage in the shape of $indexStats: how many queries looked candidates up in each index
+    List<BsonDocument> indexStats() {
+        List<BsonDocument> stats = new ArrayList<>();
+        List<Index> all = new ArrayList<>();
+        all.add(idIndex);
+        all.addAll(indexes);
+        for(Index index : all) {
+            stats.add(new BsonDocument("name", new BsonString(index.name))
+                    .append("key", index.keys.clone())
+                    .append("accesses", new BsonDocument("ops", new BsonInt64(index.ops.get()))
+                            .append("since", new BsonDateTime(index.since))));
+        }
+        return stats;
+    }
+
+    // documents get an ObjectId _id, first, unless they bring their own
+    static BsonDocument withId(BsonDocument document) {
+        if(document.containsKey("_id")) {
+            return document;
+        }
+        BsonDocument withId = new BsonDocument("_id", new BsonObjectId());
+        withId.putAll(document);
+        return withId;
+    }
+}
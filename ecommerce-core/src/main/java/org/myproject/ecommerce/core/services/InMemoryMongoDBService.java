@@ -0,0 +1,695 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.myproject.ecommerce.core.codec.CustomCodecProvider;
+import org.myproject.ecommerce.core.utilities.LoggingUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static com.mongodb.client.model.Filters.and;
+import static java.util.stream.Collectors.toList;
+
+// A MongoDBService that keeps the collections in memory, for load tests and benchmarks of the services
+// on a machine without a server and for tests that need no server. It supports what the services use:
+// the filter and update DSL, the query and update operators these render to, positional updates,
+// unique and secondary indexes, $nearSphere and $geoNear, and aggregations with $match, $unwind, $group,
+// $sort, $limit and $project. Documents go through the same codecs as with the driver, so the services
+// read and write the same documents. Writes to a single document are atomic, see InMemoryCollection.
+// Read preferences and write concerns are accepted and ignored, there is a single copy of the data;
+// TTL indexes are created but never delete documents and map/reduce is not supported.
+public class InMemoryMongoDBService extends MongoDBService {
+    private final CodecRegistry codecRegistry;
+    private final Map<String, InMemoryCollection> collections = new ConcurrentHashMap<>();
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryMongoDBService.class);
+
+    public InMemoryMongoDBService() {
+        this(Collections.emptyList());
+    }
+
+    public InMemoryMongoDBService(List<CodecProvider> codecProvider) {
+        List<CodecProvider> allCodecProviders = new ArrayList<>();
+        allCodecProviders.add(new CustomCodecProvider());
+        allCodecProviders.addAll(codecProvider);
+        codecRegistry = codecRegistry(allCodecProviders);
+    }
+
+    private InMemoryCollection collection(String databaseName, String collectionName) {
+        validateDB(databaseName, collectionName);
+        return collections.computeIfAbsent(databaseName + "." + collectionName, InMemoryCollection::new);
+    }
+
+    // reads do not create the collection
+    private InMemoryCollection readCollection(String databaseName, String collectionName) {
+        validateDB(databaseName, collectionName);
+        String namespace = databaseName + "." + collectionName;
+        InMemoryCollection collection = collections.get(namespace);
+        return collection != null ? collection : new InMemoryCollection(namespace);
+    }
+
+    private <T> BsonDocument encode(Class<T> clazz, T value) {
+        Codec<T> codec = codecRegistry.get(clazz);
+        if(codec instanceof CollectibleCodec) {
+            value = ((CollectibleCodec<T>) codec).generateIdIfAbsentFromDocument(value);
+        }
+        BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), value,
+                EncoderContext.builder().isEncodingCollectibleDocument(true).build());
+        return document;
+    }
+
+    private <T> T decode(Class<T> clazz, BsonDocument document) {
+        return codecRegistry.get(clazz).decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    private BsonDocument toBsonDocument(Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, codecRegistry);
+    }
+
+    private BsonDocument filter(Map<String, Object> filterMap) {
+        return toBsonDocument(QueryTranslator.filter(filterMap));
+    }
+
+    private BsonDocument update(Map<String, Object> updateMap) {
+        return toBsonDocument(QueryTranslator.update(updateMap));
+    }
+
+    private static BsonDocument toBsonDocument(Map<String, Integer> fieldMap) {
+        BsonDocument document = new BsonDocument();
+        fieldMap.forEach((field, value) -> document.put(field, new BsonInt32(value)));
+        return document;
+    }
+
+    @Override
+    public <T> void createOne(String databaseName, String collectionName, Class<T> clazz, T document) {
+        collection(databaseName, collectionName).insert(InMemoryCollection.withId(encode(clazz, document)));
+        written(databaseName, collectionName, null);
+    }
+
+    // Like insertMany, the documents before a duplicate key stay inserted.
+    @Override
+    public <T> void createAll(String databaseName, String collectionName, Class<T> clazz, List<T> documents) {
+        InMemoryCollection collection = collection(databaseName, collectionName);
+        documents.forEach(document -> collection.insert(InMemoryCollection.withId(encode(clazz, document))));
+        written(databaseName, collectionName, null);
+    }
+
+    @Override
+    <T> List<BulkWriteBatchResult> bulkWrite(String databaseName, String collectionName, Class<T> clazz,
+                                             List<BulkWriteOperation<T>> operations, boolean ordered,
+                                             int maxBatchCount, int startBatchIndex, long startOperationIndex) {
+        if(maxBatchCount <= 0) {
+            throw new IllegalArgumentException("invalid bulk batch limit: " + maxBatchCount + " operations");
+        }
+        InMemoryCollection collection = collection(databaseName, collectionName);
+        try {
+            return executeBulkWrite(collection, clazz, operations, ordered, maxBatchCount, startBatchIndex,
+                    startOperationIndex);
+        } finally {
+            bulkWritten(databaseName, collectionName, operations);
+        }
+    }
+
+    private <T> List<BulkWriteBatchResult> executeBulkWrite(InMemoryCollection collection, Class<T> clazz,
+                                                            List<BulkWriteOperation<T>> operations, boolean ordered,
+                                                            int maxBatchCount, int startBatchIndex,
+                                                            long startOperationIndex) {
+        List<BulkWriteBatchResult> results = new ArrayList<>();
+        List<BsonDocument[]> batch = new ArrayList<>();
+        List<BulkWriteOperation<T>> batchOperations = new ArrayList<>();
+        long firstOperationIndex = 0;
+        for(int i = 0; i < operations.size(); i++) {
+            BulkWriteOperation<T> operation = operations.get(i);
+            if(batch.size() >= maxBatchCount) {
+                BulkWriteBatchResult result = executeBulkBatch(collection, batchOperations, batch, ordered,
+                        startBatchIndex + results.size(), startOperationIndex + firstOperationIndex);
+                results.add(result);
+                if(ordered && !result.isSuccessful()) {
+                    return results;
+                }
+                firstOperationIndex = i;
+                batch.clear();
+                batchOperations.clear();
+            }
+            batch.add(toRequest(clazz, operation));
+            batchOperations.add(operation);
+        }
+        if(!batch.isEmpty()) {
+            results.add(executeBulkBatch(collection, batchOperations, batch, ordered,
+                    startBatchIndex + results.size(), startOperationIndex + firstOperationIndex));
+        }
+        return results;
+    }
+
+    // the filter and the update or document of an operation
+    private <T> BsonDocument[] toRequest(Class<T> clazz, BulkWriteOperation<T> operation) {
+        switch(operation.getType()) {
+            case INSERT_ONE:
+                return new BsonDocument[] { null, InMemoryCollection.withId(encode(clazz, operation.getDocument())) };
+            case UPDATE_ONE:
+            case UPDATE_MANY:
+                return new BsonDocument[] { filter(operation.getFilterMap()), update(operation.getUpdateMap()) };
+            case REPLACE_ONE:
+                return new BsonDocument[] { filter(operation.getFilterMap()), encode(clazz, operation.getDocument()) };
+            case DELETE_ONE:
+            case DELETE_MANY:
+                return new BsonDocument[] { filter(operation.getFilterMap()), null };
+            default:
+                throw new IllegalArgumentException("unknown bulk write operation: " + operation.getType());
+        }
+    }
+
+    private <T> BulkWriteBatchResult executeBulkBatch(InMemoryCollection collection,
+                                                      List<BulkWriteOperation<T>> operations,
+                                                      List<BsonDocument[]> requests, boolean ordered,
+                                                      int batchIndex, long firstOperationIndex) {
+        long start = System.currentTimeMillis();
+        int inserted = 0;
+        int matched = 0;
+        int modified = 0;
+        int deleted = 0;
+        int upserted = 0;
+        List<String> errors = new ArrayList<>();
+        for(int i = 0; i < operations.size(); i++) {
+            BulkWriteOperation<T> operation = operations.get(i);
+            BsonDocument filter = requests.get(i)[0];
+            BsonDocument document = requests.get(i)[1];
+            try {
+                switch(operation.getType()) {
+                    case INSERT_ONE:
+                        collection.insert(document);
+                        inserted++;
+                        break;
+                    case UPDATE_ONE:
+                    case REPLACE_ONE:
+                        UpdateResult updateResult = collection.updateOne(filter, document, operation.isUpsert());
+                        matched += updateResult.getMatchedCount();
+                        modified += updateResult.getModifiedCount();
+                        upserted += updateResult.getUpsertedId() != null ? 1 : 0;
+                        break;
+                    case UPDATE_MANY:
+                        UpdateResult updateManyResult = collection.updateMany(filter, document);
+                        matched += updateManyResult.getMatchedCount();
+                        modified += updateManyResult.getModifiedCount();
+                        break;
+                    case DELETE_ONE:
+                        deleted += collection.delete(filter, false).getDeletedCount();
+                        break;
+                    default:
+                        deleted += collection.delete(filter, true).getDeletedCount();
+                }
+            } catch (MongoWriteException e) {
+                errors.add(String.format("operation %d: %s", firstOperationIndex + i, e.getError().getMessage()));
+                if(ordered) {
+                    break;
+                }
+            }
+        }
+        if(!errors.isEmpty()) {
+            logger.error(String.format("bulk write to %s failed in batch %d: %s", collection.getNamespace(),
+                    batchIndex, errors));
+        }
+        return new BulkWriteBatchResult(batchIndex, firstOperationIndex, operations.size(), inserted, matched,
+                modified, deleted, upserted, errors, System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz,
+                               Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                               Optional<Map<String, Integer>> projectionOptional) {
+        return find(databaseName, collectionName, clazz, filter, sortOptional, projectionOptional, 0);
+    }
+
+    @Override
+    public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz,
+                               Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                               Optional<Map<String, Integer>> projectionOptional, ReadPreference readPreference) {
+        Objects.requireNonNull(readPreference);
+        return find(databaseName, collectionName, clazz, filter, sortOptional, projectionOptional, 0);
+    }
+
+    @Override
+    public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz,
+                               Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                               Optional<Map<String, Integer>> projectionOptional, ReadPreference readPreference,
+                               MongoDBConnectionSettings.Workload workload) {
+        Objects.requireNonNull(readPreference);
+        return find(databaseName, collectionName, clazz, filter, sortOptional, projectionOptional, 0);
+    }
+
+    @Override
+    public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz) {
+        return readCollection(databaseName, collectionName).find(new BsonDocument())
+                .stream()
+                .map(document -> decode(clazz, document))
+                .collect(toList());
+    }
+
+    // The documents are decoded as the stream is consumed, the matches are collected up front.
+    @Override
+    public <T> Stream<T> stream(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                                Optional<Map<String, Integer>> projectionOptional, int batchSize) {
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+        }
+        return findDocuments(databaseName, collectionName, filter, sortOptional, projectionOptional, 0)
+                .stream()
+                .map(document -> decode(clazz, document));
+    }
+
+    @Override
+    public <T> Stream<T> stream(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                                Optional<Map<String, Integer>> projectionOptional, int batchSize,
+                                ReadPreference readPreference) {
+        Objects.requireNonNull(readPreference);
+        return stream(databaseName, collectionName, clazz, filter, sortOptional, projectionOptional, batchSize);
+    }
+
+    @Override
+    public <T> Stream<T> stream(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                                Optional<Map<String, Integer>> projectionOptional, int batchSize,
+                                MongoDBConnectionSettings.Workload workload) {
+        return stream(databaseName, collectionName, clazz, filter, sortOptional, projectionOptional, batchSize);
+    }
+
+    @Override
+    public <T> Page<T> readPage(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter, String sortField, int sortOrder,
+                                Optional<String> pageToken, int pageSize,
+                                Optional<Map<String, Integer>> projectionOptional) {
+        Objects.requireNonNull(sortField);
+        if(pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive: " + pageSize);
+        }
+        if(sortOrder != 1 && sortOrder != -1) {
+            throw new IllegalArgumentException("sort order must be 1 or -1: " + sortOrder);
+        }
+        Bson query = QueryTranslator.filter(filter);
+        if(pageToken.isPresent()) {
+            query = and(query, after(sortField, sortOrder, BsonDocument.parse(pageToken.get())));
+        }
+        BsonDocument sort = new BsonDocument(sortField, new BsonInt32(sortOrder))
+                .append("_id", new BsonInt32(sortOrder));
+        List<BsonDocument> documents = BsonAggregator.limit(BsonAggregator.sort(
+                readCollection(databaseName, collectionName).find(toBsonDocument(query)), sort), pageSize + 1);
+        boolean hasNext = documents.size() > pageSize;
+        if(hasNext) {
+            documents = documents.subList(0, pageSize);
+        }
+        List<T> items = documents.stream()
+                .map(document -> projectionOptional.isPresent() ?
+                        BsonAggregator.project(document, toBsonDocument(projectionOptional.get())) : document)
+                .map(document -> decode(clazz, document))
+                .collect(toList());
+        String lastItemToken = documents.isEmpty() ? null :
+                pageToken(documents.get(documents.size() - 1), sortField);
+        return new Page<>(items, hasNext ? lastItemToken : null, lastItemToken);
+    }
+
+    private <T> List<T> find(String databaseName, String collectionName, Class<T> clazz,
+                             Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                             Optional<Map<String, Integer>> projectionOptional, int limit) {
+        return findDocuments(databaseName, collectionName, filter, sortOptional, projectionOptional, limit)
+                .stream()
+                .map(document -> decode(clazz, document))
+                .collect(toList());
+    }
+
+    private List<BsonDocument> findDocuments(String databaseName, String collectionName, Map<String, Object> filter,
+                                             Optional<Map<String, Integer>> sortOptional,
+                                             Optional<Map<String, Integer>> projectionOptional, int limit) {
+        List<BsonDocument> documents = readCollection(databaseName, collectionName).find(filter(filter));
+        if(sortOptional.isPresent()) {
+            documents = BsonAggregator.sort(documents, toBsonDocument(sortOptional.get()));
+        }
+        documents = BsonAggregator.limit(documents, limit);
+        if(projectionOptional.isPresent()) {
+            BsonDocument projection = toBsonDocument(projectionOptional.get());
+            documents = documents.stream()
+                    .map(document -> BsonAggregator.project(document, projection))
+                    .collect(toList());
+        }
+        return documents;
+    }
+
+    @Override
+    public <T> Optional<T> readOne(String databaseName, String collectionName, Class<T> clazz,
+                                   Map<String, Object> filter, Optional<Map<String, Integer>> projectionOptional) {
+        return find(databaseName, collectionName, clazz, filter, Optional.empty(), projectionOptional, 1)
+                .stream()
+                .findFirst();
+    }
+
+    @Override
+    public <T> long getDocumentCount(String databaseName, String collectionName, Class<T> clazz) {
+        return readCollection(databaseName, collectionName).count();
+    }
+
+    @Override
+    public <T> boolean addOne(String databaseName, String collectionName, Class<T> clazz,
+                              Map<String, Object> queryFilterMap, Map<String, Object> valueMap) {
+        return updateOne(databaseName, collectionName, clazz, queryFilterMap, valueMap, new HashMap<>());
+    }
+
+    @Override
+    public <T> boolean removeOne(String databaseName, String collectionName, Class<T> clazz,
+                                 Map<String, Object> queryFilterMap, Map<String, Object> valueMap) {
+        return updateOne(databaseName, collectionName, clazz, queryFilterMap, valueMap, new HashMap<>());
+    }
+
+    @Override
+    public <T> boolean updateMany(String databaseName, String collectionName, Map<String, Object> queryFilterMap,
+                                  Map<String, Object> valueMap) {
+        collection(databaseName, collectionName).updateMany(filter(queryFilterMap), update(valueMap));
+        written(databaseName, collectionName, queryFilterMap);
+        return true;
+    }
+
+    @Override
+    public <T> boolean updateOne(String databaseName, String collectionName, Class<T> clazz,
+                                 Map<String, Object> queryFilterMap, Map<String, Object> valueMap,
+                                 Map<String, Object> updateOptions) {
+        UpdateResult updateResult = null;
+        try {
+            updateResult = process(databaseName, collectionName, queryFilterMap, valueMap, updateOptions);
+        } catch (EcommerceException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return updateResult.getModifiedCount() == 1 ? true : false;
+    }
+
+    @Override
+    public <T> long conditionalUpdateOne(String databaseName, String collectionName, Class<T> clazz,
+                                         Map<String, Object> queryFilterMap, Map<String, Object> valueMap,
+                                         Map<String, Object> updateOptions) {
+        UpdateResult updateResult = collection(databaseName, collectionName).updateOne(filter(queryFilterMap),
+                update(valueMap), Boolean.TRUE.equals(updateOptions.get("upsert")));
+        written(databaseName, collectionName, updateResult.getUpsertedId() != null ? null : queryFilterMap);
+        return updateResult.getMatchedCount() + (updateResult.getUpsertedId() != null ? 1 : 0);
+    }
+
+    // the same checks as MongoDBService: filters on _id and "atomic" updates are a single conditional
+    // update, other filters must match exactly one document
+    private UpdateResult process(String databaseName, String collectionName, Map<String, Object> queryFilterMap,
+                                 Map<String, Object> updateMap, Map<String, Object> updateOptions)
+            throws EcommerceException {
+        InMemoryCollection collection = collection(databaseName, collectionName);
+        BsonDocument filter = filter(queryFilterMap);
+
+        if(!queryFilterMap.containsKey("_id") && !Boolean.TRUE.equals(updateOptions.get("atomic"))) {
+            List<BsonDocument> documents = collection.find(filter);
+            if(documents.size() > 1) {
+                LoggingUtils.info(logger, "documents contain more than one record: " +
+                        Objects.toString(queryFilterMap));
+                throw new EcommerceException("documents contain more than one record: " +
+                        Objects.toString(queryFilterMap));
+            }
+            if(documents.isEmpty()) {
+                throw noRecordException(queryFilterMap);
+            }
+            filter = new BsonDocument("$and", new BsonArray(Arrays.asList(filter,
+                    new BsonDocument("_id", documents.get(0).get("_id")))));
+        }
+
+        UpdateResult updateResult = collection.updateOne(filter, update(updateMap), false);
+        written(databaseName, collectionName, queryFilterMap);
+        if(updateResult.getMatchedCount() == 0) {
+            throw noRecordException(queryFilterMap);
+        }
+        return updateResult;
+    }
+
+    @Override
+    public void deleteAll(String databaseName, String collectionName) {
+        collection(databaseName, collectionName).clear();
+        written(databaseName, collectionName, null);
+    }
+
+    @Override
+    public void deleteMany(String databaseName, String collectionName, Map<String, Object> filterMap) {
+        collection(databaseName, collectionName).delete(filter(filterMap), true);
+        written(databaseName, collectionName, filterMap);
+    }
+
+    @Override
+    public void deleteOne(String databaseName, String collectionName, Map<String, Object> filterMap) {
+        collection(databaseName, collectionName).delete(filter(filterMap), false);
+        written(databaseName, collectionName, filterMap);
+    }
+
+    @Override
+    public <T> boolean replaceOne(String databaseName, String collectionName, Class<T> clazz,
+                                  Map<String, Object> filterMap, T value) {
+        UpdateResult result = collection(databaseName, collectionName).updateOne(filter(filterMap),
+                encode(clazz, value), false);
+        written(databaseName, collectionName, filterMap);
+        return result.getModifiedCount() == 1L;
+    }
+
+    @Override
+    public <T> boolean upsertOne(String databaseName, String collectionName, Class<T> clazz,
+                                 Map<String, Object> filterMap, T value) {
+        UpdateResult result = collection(databaseName, collectionName).updateOne(filter(filterMap),
+                encode(clazz, value), true);
+        written(databaseName, collectionName, result.getUpsertedId() != null ? null : filterMap);
+        return result.getModifiedCount() == 1L || result.getUpsertedId() != null;
+    }
+
+    @Override
+    public long estimatedDocumentCount(String databaseName, String collectionName) {
+        return readCollection(databaseName, collectionName).count();
+    }
+
+    // md5 of the BSON of the documents of each collection in _id order; collections that do not exist are
+    // left out. The hashes differ from the server's, compare them only with each other.
+    @Override
+    public Map<String, String> getCollectionHashes(String databaseName, List<String> collectionNames) {
+        Objects.requireNonNull(databaseName);
+        Objects.requireNonNull(collectionNames);
+        Map<String, String> hashes = new HashMap<>();
+        for(String collectionName : collectionNames) {
+            InMemoryCollection collection = collections.get(databaseName + "." + collectionName);
+            if(collection == null) {
+                continue;
+            }
+            try {
+                MessageDigest digest = MessageDigest.getInstance("MD5");
+                for(BsonDocument document : BsonAggregator.sort(collection.find(new BsonDocument()),
+                        new BsonDocument("_id", new BsonInt32(1)))) {
+                    ByteBuffer bytes = new RawBsonDocument(document, new BsonDocumentCodec()).getByteBuffer()
+                            .asNIO();
+                    digest.update(bytes);
+                }
+                StringBuilder hash = new StringBuilder();
+                for(byte b : digest.digest()) {
+                    hash.append(String.format("%02x", b));
+                }
+                hashes.put(collectionName, hash.toString());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return hashes;
+    }
+
+    @Override
+    public <T> long count(String databaseName, String collectionName, Class<T> clazz) {
+        return readCollection(databaseName, collectionName).count();
+    }
+
+    @Override
+    public long count(String databaseName, String collectionName) {
+        return readCollection(databaseName, collectionName).count();
+    }
+
+    @Override
+    public void writeJson(String databaseName, String collectionName, String jsonString) {
+        collection(databaseName, collectionName).insert(InMemoryCollection.withId(BsonDocument.parse(jsonString)));
+        written(databaseName, collectionName, null);
+    }
+
+    @Override
+    public Map<String, Object> processAggregatePipeline(String databaseName, String collectionName,
+                                                        List<Map<String, Object>> pipeline, List<String> resultFields) {
+        Map<String, Object> result = new HashMap<>();
+        Consumer<Document> consumer = document ->
+                resultFields.stream()
+                            .forEach(field -> result.put(field, document.get(field)));
+        List<Bson> pipelines = pipeline
+                .stream()
+                .map(m -> mapAggregatePipeline(m))
+                .filter(o -> o.isPresent())
+                .map(Optional::get)
+                .collect(toList());
+        aggregate(databaseName, collectionName, pipelines, Document.class).forEach(consumer);
+        return result;
+    }
+
+    private <T> List<T> aggregate(String databaseName, String collectionName, List<Bson> pipeline, Class<T> clazz) {
+        List<BsonDocument> stages = pipeline.stream()
+                .map(this::toBsonDocument)
+                .collect(toList());
+        return BsonAggregator.aggregate(readCollection(databaseName, collectionName), stages)
+                .stream()
+                .map(document -> decode(clazz, document))
+                .collect(toList());
+    }
+
+    @Override
+    public void cleanup() {
+        collections.clear();
+    }
+
+    @Override
+    public <T> Optional<T> findOneAndUpdate(String databaseName, String collectionName, Class<T> clazz,
+                                            Map<String, Object> queryFilterMap, Map<String, Object> valueMap) {
+        Optional<T> updated = collection(databaseName, collectionName)
+                .findOneAndUpdate(filter(queryFilterMap), update(valueMap))
+                .map(document -> decode(clazz, document));
+        written(databaseName, collectionName, queryFilterMap);
+        return updated;
+    }
+
+    @Override
+    public <T> List<T> performGeoQuery(String databaseName, String collectionName, Class<T> clazz,
+                                       Map<String, Object> geoQueryMap, Map<String, Object> filterMap,
+                                       List<Map<String, Object>> aggregatePipelineMapList) {
+        return aggregate(databaseName, collectionName,
+                geoQueryPipeline(geoQueryMap, filterMap, aggregatePipelineMapList), clazz);
+    }
+
+    @Override
+    public <T> List<T> executeAggregatePipineline(String databaseName, String collectionName,
+                                                 List<Bson> pipeline, Class<T> clazz) {
+        return aggregate(databaseName, collectionName, pipeline, clazz);
+    }
+
+    @Override
+    public <T> List<T> executeAggregatePipineline(String databaseName, String collectionName,
+                                                 List<Bson> pipeline, Class<T> clazz,
+                                                 ReadPreference readPreference) {
+        Objects.requireNonNull(readPreference);
+        return aggregate(databaseName, collectionName, pipeline, clazz);
+    }
+
+    @Override
+    public <T> List<T> executeAggregatePipineline(String databaseName, String collectionName,
+                                                 Map<String, Map<String, Object>> pipelineStageMap, Class<T> clazz) {
+        List<Bson> pipeline = pipelineStageMap.keySet()
+                .stream()
+                .map(key -> getPipelineBson(key, pipelineStageMap.get(key)))
+                .filter(o -> o.isPresent())
+                .map(Optional::get)
+                .collect(toList());
+        return aggregate(databaseName, collectionName, pipeline, clazz);
+    }
+
+    @Override
+    public void dropCollection(String databaseName, String collectionName) {
+        validateDB(databaseName, collectionName);
+        collections.remove(databaseName + "." + collectionName);
+        written(databaseName, collectionName, null);
+    }
+
+    @Override
+    public String createIndex(String databaseName, String collectionName, IndexDefinition indexDefinition) {
+        Objects.requireNonNull(indexDefinition);
+        BsonDocument keys = toBsonDocument(new Document(indexDefinition.getKeys()));
+        return collection(databaseName, collectionName).createIndex(keys, indexDefinition.getName(),
+                indexDefinition.isUnique());
+    }
+
+    @Override
+    public List<Document> listIndexes(String databaseName, String collectionName) {
+        InMemoryCollection collection = collections.get(databaseName + "." + collectionName);
+        validateDB(databaseName, collectionName);
+        if(collection == null) {
+            return new ArrayList<>();
+        }
+        return collection.listIndexes().stream()
+                .map(document -> decode(Document.class, document))
+                .collect(toList());
+    }
+
+    @Override
+    public List<Document> getIndexStats(String databaseName, String collectionName) {
+        return readCollection(databaseName, collectionName).indexStats().stream()
+                .map(document -> decode(Document.class, document))
+                .collect(toList());
+    }
+
+    @Override
+    public List<String> listCollectionNames(String databaseName) {
+        Objects.requireNonNull(databaseName);
+        String prefix = databaseName + ".";
+        return collections.keySet()
+                .stream()
+                .filter(namespace -> namespace.startsWith(prefix))
+                .map(namespace -> namespace.substring(prefix.length()))
+                .sorted()
+                .collect(toList());
+    }
+
+    @Override
+    public void performMapReduce(String databaseName, String collectionName, String map, String reduce,
+                                 Optional<String> finalize, Map<String, Object> filterMap, String action,
+                                 String outputCollection, boolean sharded) {
+        throw new UnsupportedOperationException("map/reduce is not supported in memory");
+    }
+
+    @Override
+    public ReadPreference getAnalyticsReadPreference() {
+        return ReadPreference.primary();
+    }
+
+    // only ping, to tell that the "server" is up
+    @Override
+    public Document runAdminCommand(Bson command) {
+        BsonDocument document = toBsonDocument(command);
+        if(!document.isEmpty() && "ping".equals(BsonMatcher.firstKey(document))) {
+            return new Document("ok", 1.0);
+        }
+        throw new UnsupportedOperationException("command not supported in memory: " + document.toJson());
+    }
+
+    private static void validateDB(String database, String collectionName) {
+        Objects.requireNonNull(database);
+        Objects.requireNonNull(collectionName);
+    }
+}
@@ -1,8 +1,23 @@
 package org.myproject.ecommerce.core.services;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class InadequateInventoryException extends EcommerceException {
+    private final Map<String, Integer> shortfalls;
 
     public InadequateInventoryException(String message) {
+        this(message, Collections.emptyMap());
+    }
+
+    // shortfalls maps each sku that was short to the quantity that was missing
+    public InadequateInventoryException(String message, Map<String, Integer> shortfalls) {
         super(message);
+        this.shortfalls = Collections.unmodifiableMap(new LinkedHashMap<>(shortfalls));
+    }
+
+    public Map<String, Integer> getShortfalls() {
+        return shortfalls;
     }
 }
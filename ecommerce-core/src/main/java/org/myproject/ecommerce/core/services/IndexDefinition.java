@@ -0,0 +1,115 @@
+package org.myproject.ecommerce.core.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import static java.util.stream.Collectors.joining;
+
+// An index a service relies on. Keys map field names to 1/-1 or an index type such as "2dsphere", in key
+// order. The index is named the way the server names it by default, e.g. "productId_1_storeId_1".
+// An expiring index is a TTL index: the server deletes a document expireAfterSeconds after the date in its
+// field, documents without the field are kept.
+public class IndexDefinition {
+    private final Map<String, Object> keys;
+    private final boolean unique;
+    private final String name;
+    private final Optional<Long> expireAfterSeconds;
+
+    private IndexDefinition(Map<String, Object> keys, boolean unique) {
+        this(keys, unique, Optional.empty());
+    }
+
+    private IndexDefinition(Map<String, Object> keys, boolean unique, Optional<Long> expireAfterSeconds) {
+        if(keys.isEmpty()) {
+            throw new IllegalArgumentException("an index needs at least one key");
+        }
+        this.keys = Collections.unmodifiableMap(new LinkedHashMap<>(keys));
+        this.unique = unique;
+        this.name = keys.entrySet()
+                .stream()
+                .map(entry -> entry.getKey() + "_" + entry.getValue())
+                .collect(joining("_"));
+        this.expireAfterSeconds = expireAfterSeconds;
+    }
+
+    public static IndexDefinition of(Map<String, Object> keys) {
+        Objects.requireNonNull(keys);
+        return new IndexDefinition(keys, false);
+    }
+
+    public static IndexDefinition unique(Map<String, Object> keys) {
+        Objects.requireNonNull(keys);
+        return new IndexDefinition(keys, true);
+    }
+
+    public static IndexDefinition ascending(String... fields) {
+        Map<String, Object> keys = new LinkedHashMap<>();
+        for(String field : fields) {
+            keys.put(field, 1);
+        }
+        return new IndexDefinition(keys, false);
+    }
+
+    public static IndexDefinition geo2dsphere(String field) {
+        Objects.requireNonNull(field);
+        return new IndexDefinition(Collections.singletonMap(field, "2dsphere"), false);
+    }
+
+    public static IndexDefinition expiring(String field, long expireAfterSeconds) {
+        Objects.requireNonNull(field);
+        if(expireAfterSeconds < 0) {
+            throw new IllegalArgumentException("expireAfterSeconds must not be negative: " + expireAfterSeconds);
+        }
+        return new IndexDefinition(Collections.singletonMap(field, 1), false, Optional.of(expireAfterSeconds));
+    }
+
+    public Map<String, Object> getKeys() {
+        return keys;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Optional<Long> getExpireAfterSeconds() {
+        return expireAfterSeconds;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        IndexDefinition that = (IndexDefinition) o;
+
+        if (unique != that.unique) return false;
+        if (!expireAfterSeconds.equals(that.expireAfterSeconds)) return false;
+        // key order is significant for compound indexes
+        return new ArrayList<>(keys.entrySet()).equals(new ArrayList<>(that.keys.entrySet()));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = new ArrayList<>(keys.entrySet()).hashCode();
+        result = 31 * result + (unique ? 1 : 0);
+        result = 31 * result + expireAfterSeconds.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexDefinition{" +
+                "keys=" + keys +
+                ", unique=" + unique +
+                ", expireAfterSeconds=" + expireAfterSeconds +
+                '}';
+    }
+}
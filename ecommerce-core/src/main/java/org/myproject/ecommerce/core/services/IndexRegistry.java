@@ -0,0 +1,205 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.MongoException;
+import org.bson.Document;
+import org.myproject.ecommerce.core.utilities.LoggingUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.stream.Collectors.toList;
+
+// Declares the indexes the services' queries rely on, per collection of the ecommerce database, and per
+// collection name prefix for collections created at run time such as the hvdf activity slices. Missing
+// indexes are built in the background at startup; collections created later are indexed on first use
+// through ensureIndexes(collectionName).
+@Service
+public class IndexRegistry {
+    public static final String DATABASE = "ecommerce";
+    public static final String ACTIVITY_SLICE_PREFIX = "activity_";
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexRegistry.class);
+
+    private final MongoDBService mongoDBService;
+    private final Map<String, List<IndexDefinition>> collectionIndexes = new ConcurrentHashMap<>();
+    private final Map<String, List<IndexDefinition>> prefixIndexes = new ConcurrentHashMap<>();
+    private final Set<String> ensuredCollections = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public IndexRegistry(MongoDBService mongoDBService) {
+        this.mongoDBService = mongoDBService;
+        declareIndexes();
+    }
+
+    private void declareIndexes() {
+        register("product", IndexDefinition.ascending("sku"));
+        // _id makes the productId order total for keyset pagination
+        register("product", IndexDefinition.ascending("productId", "_id"));
+        register("variations", IndexDefinition.ascending("productId"));
+        register("store_inventory", IndexDefinition.ascending("productId", "storeId", "vars.sku"));
+        // $geoNear needs exactly one geospatial index on the collection
+        register("store_inventory", IndexDefinition.geo2dsphere("location"));
+        register("store", IndexDefinition.ascending("storeId"));
+        register("store", IndexDefinition.geo2dsphere("location"));
+        register("cart", IndexDefinition.ascending("status", "last_modified", "_id"));
+        register("inventory_counter", IndexDefinition.ascending("sku"));
+        register(ProductInventoryService.RESERVATION_COLLECTION, IndexDefinition.ascending("cart_id"));
+        // _id makes the timestamp order total for the keyset walk of InventoryCleanupSweeper
+        register(ProductInventoryService.RESERVATION_COLLECTION, IndexDefinition.ascending("timestamp", "_id"));
+        // collects the released reservations a crashed release did not get to delete
+        register(ProductInventoryService.RESERVATION_COLLECTION, IndexDefinition.expiring("released_at",
+                ProductInventoryService.RELEASED_RESERVATION_TTL_SECONDS));
+
+        // activities are read per user or item within a time range, newest first
+        Map<String, Object> userActivityKeys = new LinkedHashMap<>();
+        userActivityKeys.put("data.userId", 1);
+        userActivityKeys.put("data.ts", -1);
+        registerPrefix(ACTIVITY_SLICE_PREFIX, IndexDefinition.of(userActivityKeys));
+        Map<String, Object> productActivityKeys = new LinkedHashMap<>();
+        productActivityKeys.put("data.itemId", 1);
+        productActivityKeys.put("data.ts", -1);
+        registerPrefix(ACTIVITY_SLICE_PREFIX, IndexDefinition.of(productActivityKeys));
+    }
+
+    @PostConstruct
+    public void initialise() {
+        declaredCollections().forEach(this::ensureIndexes);
+        IndexReport report = verify();
+        if(!report.isComplete()) {
+            logger.error("indexes missing after startup: " + report.getMissingIndexes());
+        }
+        if(!report.getUnusedIndexes().isEmpty()) {
+            LoggingUtils.info(logger, "indexes not used since the server started: " + report.getUnusedIndexes());
+        }
+    }
+
+    public void register(String collectionName, IndexDefinition indexDefinition) {
+        Objects.requireNonNull(collectionName);
+        Objects.requireNonNull(indexDefinition);
+        collectionIndexes.computeIfAbsent(collectionName, k -> new CopyOnWriteArrayList<>()).add(indexDefinition);
+        ensuredCollections.remove(collectionName);
+    }
+
+    public void registerPrefix(String collectionNamePrefix, IndexDefinition indexDefinition) {
+        Objects.requireNonNull(collectionNamePrefix);
+        Objects.requireNonNull(indexDefinition);
+        prefixIndexes.computeIfAbsent(collectionNamePrefix, k -> new CopyOnWriteArrayList<>()).add(indexDefinition);
+        ensuredCollections.removeIf(collectionName -> collectionName.startsWith(collectionNamePrefix));
+    }
+
+    public List<IndexDefinition> getIndexDefinitions(String collectionName) {
+        List<IndexDefinition> definitions = new ArrayList<>(
+                collectionIndexes.getOrDefault(collectionName, Collections.emptyList()));
+        definitions.addAll(prefixDefinitions(collectionName));
+        return definitions;
+    }
+
+    // Creates the declared indexes the collection is missing. Checked once per collection and registry,
+    // so it is cheap to call whenever a collection may just have been created.
+    public void ensureIndexes(String collectionName) {
+        if(ensuredCollections.contains(collectionName)) {
+            return;
+        }
+        List<IndexDefinition> definitions = getIndexDefinitions(collectionName);
+        if(definitions.isEmpty()) {
+            return;
+        }
+        try {
+            List<IndexDefinition> missing = missingIndexes(collectionName, definitions);
+            for(IndexDefinition definition : missing) {
+                LoggingUtils.info(logger, "creating index " + definition.getName() + " on " + collectionName);
+                mongoDBService.createIndex(DATABASE, collectionName, definition);
+            }
+            ensuredCollections.add(collectionName);
+        } catch (MongoException e) {
+            logger.error("unable to create indexes on " + collectionName + ": " + e.getMessage());
+        }
+    }
+
+    // Compares the declared indexes with the ones on the server. Indexes of declared collections that
+    // were not accessed since the server started, other than _id, are reported as unused; they are only
+    // candidates for removal, the counters are per server and reset on restart.
+    public IndexReport verify() {
+        Map<String, List<IndexDefinition>> missingIndexes = new LinkedHashMap<>();
+        Map<String, List<String>> unusedIndexes = new LinkedHashMap<>();
+        for(String collectionName : declaredCollections()) {
+            try {
+                List<IndexDefinition> missing = missingIndexes(collectionName,
+                        getIndexDefinitions(collectionName));
+                if(!missing.isEmpty()) {
+                    missingIndexes.put(collectionName, missing);
+                }
+                List<String> unused = mongoDBService.getIndexStats(DATABASE, collectionName)
+                        .stream()
+                        .filter(stats -> !"_id_".equals(stats.getString("name")))
+                        .filter(stats -> accessCount(stats) == 0)
+                        .map(stats -> stats.getString("name"))
+                        .collect(toList());
+                if(!unused.isEmpty()) {
+                    unusedIndexes.put(collectionName, unused);
+                }
+            } catch (MongoException e) {
+                logger.error("unable to verify indexes on " + collectionName + ": " + e.getMessage());
+            }
+        }
+        return new IndexReport(missingIndexes, unusedIndexes);
+    }
+
+    // the declared collections plus the existing ones that match a declared prefix
+    private List<String> declaredCollections() {
+        List<String> collectionNames = new ArrayList<>(collectionIndexes.keySet());
+        mongoDBService.listCollectionNames(DATABASE)
+                .stream()
+                .filter(collectionName -> !collectionIndexes.containsKey(collectionName))
+                .filter(collectionName -> !prefixDefinitions(collectionName).isEmpty())
+                .forEach(collectionNames::add);
+        return collectionNames;
+    }
+
+    private List<IndexDefinition> prefixDefinitions(String collectionName) {
+        return prefixIndexes.entrySet()
+                .stream()
+                .filter(entry -> collectionName.startsWith(entry.getKey()))
+                .flatMap(entry -> entry.getValue().stream())
+                .collect(toList());
+    }
+
+    private List<IndexDefinition> missingIndexes(String collectionName, List<IndexDefinition> definitions) {
+        List<List<Map.Entry<String, Object>>> existingKeys = mongoDBService.listIndexes(DATABASE, collectionName)
+                .stream()
+                .map(index -> normalise((Document) index.get("key")))
+                .collect(toList());
+        return definitions.stream()
+                .filter(definition -> !existingKeys.contains(normalise(definition.getKeys())))
+                .collect(toList());
+    }
+
+    // the server may return 1 as 1, 1L or 1.0; compare directions as ints and keep the key order
+    private static List<Map.Entry<String, Object>> normalise(Map<String, Object> keys) {
+        Map<String, Object> normalised = new LinkedHashMap<>();
+        keys.forEach((field, value) -> normalised.put(field,
+                value instanceof Number ? (Object) ((Number) value).intValue() : value));
+        return new ArrayList<>(normalised.entrySet());
+    }
+
+    private static long accessCount(Document stats) {
+        Object accesses = stats.get("accesses");
+        if(!(accesses instanceof Document)) {
+            return 0;
+        }
+        Object ops = ((Document) accesses).get("ops");
+        return ops instanceof Number ? ((Number) ops).longValue() : 0;
+    }
+}
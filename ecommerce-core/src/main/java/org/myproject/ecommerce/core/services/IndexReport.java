@@ -0,0 +1,35 @@
+package org.myproject.ecommerce.core.services;
+
+import java.util.List;
+import java.util.Map;
+
+// Outcome of IndexRegistry.verify(), keyed by collection name.
+public class IndexReport {
+    private final Map<String, List<IndexDefinition>> missingIndexes;
+    private final Map<String, List<String>> unusedIndexes;
+
+    IndexReport(Map<String, List<IndexDefinition>> missingIndexes, Map<String, List<String>> unusedIndexes) {
+        this.missingIndexes = missingIndexes;
+        this.unusedIndexes = unusedIndexes;
+    }
+
+    public Map<String, List<IndexDefinition>> getMissingIndexes() {
+        return missingIndexes;
+    }
+
+    public Map<String, List<String>> getUnusedIndexes() {
+        return unusedIndexes;
+    }
+
+    public boolean isComplete() {
+        return missingIndexes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "IndexReport{" +
+                "missingIndexes=" + missingIndexes +
+                ", unusedIndexes=" + unusedIndexes +
+                '}';
+    }
+}
@@ -0,0 +1,215 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.Document;
+import org.myproject.ecommerce.core.domain.Reservation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Does the work of cleanupInventory in the background, a chunk at a time, so it never holds up the foreground.
+// Each pass walks the reservation index on timestamp and _id in keyset pages of chunkSize, from a watermark up to
+// the reservations older than the timeout, and hands every chunk to ProductInventoryService.cleanupReservations,
+// which reads the chunk's carts once and writes the refreshed and returned reservations in bulk: one bulk write
+// releases the chunk's stale reservations, one returns their stock to the products and one refreshes and deletes
+// the reservations. The reservations of active carts get a new timestamp, which moves them past the watermark,
+// and the others are returned and deleted. The watermark is saved in cleanup_watermark after every chunk that was handled completely, so a
+// restarted sweeper resumes after it; after a chunk that was not it stays put for the rest of the pass. A pass
+// that reaches the end resets the watermark, so every pass starts from the beginning and also finds what the
+// last one missed, or what sorts behind the watermark because of clock skew between the writers.
+// The sweeper spends at most opsPerSecond operations per second, counting the reads and the documents written,
+// and while the foreground runs more than pauseAboveOpsPerSecond operations per second it pauses for pauseMillis
+// at a time; 0 never pauses.
+public class InventoryCleanupSweeper {
+    public static final String DATABASE = "ecommerce";
+    public static final String WATERMARK_COLLECTION = "cleanup_watermark";
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+    public static final long DEFAULT_PAUSE_MILLIS = 1000;
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(InventoryCleanupSweeper.class);
+    // the foreground rate is measured over at least this long
+    private static final long FOREGROUND_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final MongoDBService mongoDBService;
+    private final ProductInventoryService productInventoryService;
+    private final long timeoutMillis;
+    private final int opsPerSecond;
+    private final int pauseAboveOpsPerSecond;
+    private final int chunkSize;
+    private final long pauseMillis;
+    private final LongSupplier foregroundOperations;
+    private final LongAdder swept = new LongAdder();
+    private final LongAdder pauses = new LongAdder();
+    private volatile boolean stopping;
+    private ScheduledExecutorService sweeper;
+    // used by the sweeping thread only
+    private long foregroundSample;
+    private long foregroundSampledAt;
+
+    public InventoryCleanupSweeper(MongoDBService mongoDBService, ProductInventoryService productInventoryService,
+                                   long timeout, int opsPerSecond, int pauseAboveOpsPerSecond,
+                                   LongSupplier foregroundOperations) {
+        this(mongoDBService, productInventoryService, timeout, opsPerSecond, pauseAboveOpsPerSecond,
+                DEFAULT_CHUNK_SIZE, DEFAULT_PAUSE_MILLIS, foregroundOperations);
+    }
+
+    public InventoryCleanupSweeper(MongoDBService mongoDBService, ProductInventoryService productInventoryService,
+                                   long timeout, int opsPerSecond, int pauseAboveOpsPerSecond, int chunkSize,
+                                   long pauseMillis, LongSupplier foregroundOperations) {
+        if(opsPerSecond <= 0) {
+            throw new IllegalArgumentException("the ops per second budget must be positive: " + opsPerSecond);
+        }
+        this.mongoDBService = mongoDBService;
+        this.productInventoryService = productInventoryService;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeout);
+        this.opsPerSecond = opsPerSecond;
+        this.pauseAboveOpsPerSecond = pauseAboveOpsPerSecond;
+        this.chunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+        this.foregroundOperations = foregroundOperations;
+        this.foregroundSample = foregroundOperations.getAsLong();
+        this.foregroundSampledAt = System.nanoTime();
+    }
+
+    // Starts a pass every intervalMillis after the previous one ended.
+    public synchronized void start(long intervalMillis) {
+        if(sweeper != null) {
+            throw new IllegalStateException("the cleanup sweeper is already running");
+        }
+        stopping = false;
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inventory-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                logger.error("inventory cleanup pass failed: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Interrupts the pass in progress after its current chunk; the watermark keeps what it got done.
+    public synchronized void stop() throws InterruptedException {
+        if(sweeper != null) {
+            stopping = true;
+            sweeper.shutdownNow();
+            sweeper.awaitTermination(1, TimeUnit.MINUTES);
+            sweeper = null;
+        }
+    }
+
+    // One pass from the watermark up to the reservations that are stale now; returns the number looked at.
+    public int sweep() {
+        Date threshold = new Date(System.currentTimeMillis() - timeoutMillis);
+        Map<String, Object> filterMap = new HashMap<>();
+        Map<String, Object> timestampFilterMap = new HashMap<>();
+        timestampFilterMap.put("timestamp", threshold);
+        filterMap.put("$lt", timestampFilterMap);
+        Map<String, Object> quantityFilterMap = new HashMap<>();
+        quantityFilterMap.put("qty", 0);
+        filterMap.put("$gt", quantityFilterMap);
+        Optional<String> watermark = mongoDBService.readOne(DATABASE, WATERMARK_COLLECTION, Document.class,
+                Collections.singletonMap("_id", ProductInventoryService.RESERVATION_COLLECTION))
+                .map(document -> document.getString("token"));
+
+        int looked = 0;
+        boolean complete = true;
+        while(awaitQuietForeground()) {
+            long start = System.nanoTime();
+            Page<Reservation> chunk = mongoDBService.readPage(DATABASE,
+                    ProductInventoryService.RESERVATION_COLLECTION, Reservation.class, filterMap, "timestamp", 1,
+                    watermark, chunkSize);
+            int operations = 1;
+            if(!chunk.getItems().isEmpty()) {
+                ProductInventoryService.CleanupResult result =
+                        productInventoryService.cleanupReservations(chunk.getItems());
+                operations += result.getOperations();
+                watermark = chunk.getLastItemToken();
+                if(complete && !result.isComplete()) {
+                    logger.info("not every reservation of the chunk before " + watermark.get() +
+                            " was handled, the watermark stays behind it for this pass");
+                    complete = false;
+                }
+                if(complete) {
+                    mongoDBService.upsertOne(DATABASE, WATERMARK_COLLECTION, Document.class,
+                            Collections.singletonMap("_id", ProductInventoryService.RESERVATION_COLLECTION),
+                            new Document("_id", ProductInventoryService.RESERVATION_COLLECTION)
+                                    .append("token", watermark.get())
+                                    .append("updated_at", new Date()));
+                    operations++;
+                }
+                looked += chunk.getItems().size();
+                swept.add(chunk.getItems().size());
+            }
+            if(!chunk.hasNext()) {
+                mongoDBService.deleteOne(DATABASE, WATERMARK_COLLECTION,
+                        Collections.singletonMap("_id", ProductInventoryService.RESERVATION_COLLECTION));
+                operations++;
+            }
+            // a chunk may take as long as its operations are worth in the budget
+            long budgetNanos = TimeUnit.SECONDS.toNanos(operations) / opsPerSecond;
+            if(!sleep(budgetNanos - (System.nanoTime() - start)) || !chunk.hasNext()) {
+                break;
+            }
+        }
+        return looked;
+    }
+
+    // the reservations looked at by all passes
+    public long getSwept() {
+        return swept.sum();
+    }
+
+    // the times the sweeper paused for the foreground
+    public long getPauses() {
+        return pauses.sum();
+    }
+
+    // false once the sweeper is stopping
+    private boolean awaitQuietForeground() {
+        while(!stopping) {
+            long now = System.nanoTime();
+            if(pauseAboveOpsPerSecond <= 0 || now - foregroundSampledAt < FOREGROUND_SAMPLE_NANOS) {
+                return true;
+            }
+            long operations = foregroundOperations.getAsLong();
+            double rate = (operations - foregroundSample) * 1e9 / (now - foregroundSampledAt);
+            foregroundSample = operations;
+            foregroundSampledAt = now;
+            if(rate <= pauseAboveOpsPerSecond) {
+                return true;
+            }
+            pauses.increment();
+            if(!sleep(TimeUnit.MILLISECONDS.toNanos(pauseMillis))) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private boolean sleep(long nanos) {
+        if(nanos <= 0) {
+            return !stopping;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            return !stopping;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
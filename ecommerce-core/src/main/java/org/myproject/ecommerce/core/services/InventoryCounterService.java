@@ -0,0 +1,410 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.myproject.ecommerce.core.domain.InventoryCounter;
+import org.myproject.ecommerce.core.domain.Product;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.stream.Collectors.toList;
+
+// Splits the stock of a hot sku over a number of counter documents in inventory_counter, keyed sku#bucket, so
+// concurrent reservations update different documents instead of all contending for product.qty. A reservation
+// tries a random bucket first and, when that one runs short, a random bucket among those that still hold enough,
+// or takes the quantity piecewise from several buckets. rebalance() evens out the buckets again. While a sku is sharded its product.qty
+// stays 0; ProductInventoryService routes the stock changes of sharded skus here.
+// The product records the number of buckets of a sharded sku. It is cached per process for the skus used last,
+// for BUCKETS_TTL_MILLIS; a take that misses can be a shard() or unshard() of another instance, and
+// ProductInventoryService re-reads the product with refresh(sku) before it gives up.
+// shard() writes the counters as pending before it takes the stock of the product, and the product records
+// the shard it went to, so a shard interrupted by a crash is completed or undone by the next shard() of the
+// sku; do not shard the same sku from two instances at once.
+@Service
+public class InventoryCounterService {
+    public static final String DATABASE = "ecommerce";
+    public static final String COLLECTION = "inventory_counter";
+    public static final long BUCKETS_TTL_MILLIS = 60000;
+    // the field of the product that holds the number of buckets of a sharded sku
+    public static final String BUCKETS_FIELD = "inventory_buckets";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int MAX_CACHED_SKUS = 10000;
+    // the field of the product that names the shard its stock moved to, until the shard is complete
+    private static final String SHARD_FIELD = "inventory_shard";
+
+    private final MongoDBService mongoDBService;
+    private final StockChangeNotifier stockChangeNotifier;
+    // sku to its number of buckets, 0 if the sku is not sharded
+    private final ConcurrentLruMap<String, BucketCount> buckets = new ConcurrentLruMap<>(MAX_CACHED_SKUS);
+
+    private static class BucketCount {
+        private final int count;
+        private final long expiresAt;
+
+        BucketCount(int count) {
+            this.count = count;
+            this.expiresAt = System.currentTimeMillis() + BUCKETS_TTL_MILLIS;
+        }
+    }
+
+    public InventoryCounterService(MongoDBService mongoDBService) {
+        this(mongoDBService, new StockChangeNotifier());
+    }
+
+    @Autowired
+    public InventoryCounterService(MongoDBService mongoDBService, StockChangeNotifier stockChangeNotifier) {
+        this.mongoDBService = mongoDBService;
+        this.stockChangeNotifier = stockChangeNotifier;
+    }
+
+    // Moves the stock of the product into bucketCount counters.
+    public void shard(String sku, int bucketCount) throws EcommerceException {
+        if(bucketCount < 2) {
+            throw new IllegalArgumentException("a sharded sku needs at least two buckets: " + bucketCount);
+        }
+        recover(sku);
+        if(!readCounters(sku).isEmpty()) {
+            throw new EcommerceException("sku is already sharded: " + sku);
+        }
+        for(int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Optional<Product> product = mongoDBService.readOne(DATABASE, "product", Product.class,
+                    Collections.singletonMap("sku", sku));
+            if(!product.isPresent()) {
+                throw new EcommerceException("no product for sku: " + sku);
+            }
+            int quantity = product.get().getQuantity();
+            String shard = new ObjectId().toHexString();
+            List<InventoryCounter> counters = new ArrayList<>();
+            for(int bucket = 0; bucket < bucketCount; bucket++) {
+                counters.add(new InventoryCounter(sku, bucket,
+                        quantity / bucketCount + (bucket < quantity % bucketCount ? 1 : 0), shard, true));
+            }
+            mongoDBService.createAll(DATABASE, COLLECTION, InventoryCounter.class, counters);
+            if(takeProductStock(sku, quantity, shard)) {
+                stockChangeNotifier.stockChanged(sku);
+                completeShard(sku, bucketCount);
+                buckets.put(sku, new BucketCount(bucketCount));
+                return;
+            }
+            // the stock changed since it was read
+            mongoDBService.deleteMany(DATABASE, COLLECTION, pendingFilter(sku));
+        }
+        throw new EcommerceException("product stock kept changing, unable to shard sku: " + sku);
+    }
+
+    // Completes a shard that took the stock of the product, or drops the counters of one that did not get to;
+    // completes an unshard that fenced the counters.
+    private void recover(String sku) {
+        Map<String, Object> drainingFilterMap = new HashMap<>();
+        drainingFilterMap.put("sku", sku);
+        drainingFilterMap.put("draining", true);
+        if(mongoDBService.readOne(DATABASE, COLLECTION, InventoryCounter.class, drainingFilterMap).isPresent()) {
+            completeUnshard(sku, readBuckets(sku));
+        }
+        List<InventoryCounter> pending = mongoDBService.readAll(DATABASE, COLLECTION, InventoryCounter.class,
+                pendingFilter(sku));
+        Map<String, Integer> projectionMap = new HashMap<>();
+        projectionMap.put(SHARD_FIELD, 1);
+        Object productShard = mongoDBService.readOne(DATABASE, "product", Document.class,
+                Collections.singletonMap("sku", sku), Optional.of(projectionMap))
+                .map(document -> document.get(SHARD_FIELD))
+                .orElse(null);
+        if(pending.isEmpty() && productShard == null) {
+            return;
+        }
+        if(!pending.isEmpty() && pending.get(0).getShard().equals(productShard)) {
+            completeShard(sku, pending.size());
+        } else {
+            mongoDBService.deleteMany(DATABASE, COLLECTION, pendingFilter(sku));
+            clearProductShard(sku);
+        }
+        buckets.remove(sku);
+    }
+
+    private void completeShard(String sku, int bucketCount) {
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put("pending", false);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        mongoDBService.updateMany(DATABASE, COLLECTION, pendingFilter(sku), updateMap);
+        Map<String, Object> productValueMap = new HashMap<>();
+        productValueMap.put(SHARD_FIELD, Optional.empty());
+        productValueMap.put(BUCKETS_FIELD, bucketCount);
+        Map<String, Object> productUpdateMap = new HashMap<>();
+        productUpdateMap.put("addOrRemove", productValueMap);
+        mongoDBService.updateMany(DATABASE, "product", Collections.singletonMap("sku", sku), productUpdateMap);
+    }
+
+    private void clearProductShard(String sku) {
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put(SHARD_FIELD, Optional.empty());
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        mongoDBService.updateMany(DATABASE, "product", Collections.singletonMap("sku", sku), updateMap);
+    }
+
+    private static Map<String, Object> pendingFilter(String sku) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", sku);
+        filterMap.put("pending", true);
+        return filterMap;
+    }
+
+    // Moves the stock of the counters back into the product and drops them. The counters are fenced first: takes
+    // and releases only change counters that are not draining, and a release that misses goes to the product,
+    // so once the fence is up the counters hold still and their sum is what the product gets back. Fencing again
+    // is harmless, an unshard interrupted by a crash is completed by the next one, or by the next shard().
+    public void unshard(String sku) throws EcommerceException {
+        int bucketCount = readBuckets(sku);
+        if(bucketCount == 0) {
+            throw new EcommerceException("sku is not sharded: " + sku);
+        }
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put("draining", true);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        mongoDBService.updateMany(DATABASE, COLLECTION, Collections.singletonMap("sku", sku), updateMap);
+        completeUnshard(sku, bucketCount);
+    }
+
+    // The product takes the stock of the fenced counters and stops being sharded with one update that only
+    // applies while it still has bucketCount buckets, so an unshard interrupted by a crash and completed by
+    // recover() does not return the stock twice.
+    private void completeUnshard(String sku, int bucketCount) {
+        int quantity = mongoDBService.readAll(DATABASE, COLLECTION, InventoryCounter.class,
+                Collections.singletonMap("sku", sku))
+                .stream()
+                .mapToInt(InventoryCounter::getQuantity)
+                .sum();
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", sku);
+        filterMap.put(BUCKETS_FIELD, bucketCount);
+        Map<String, Object> updateMap = increment(quantity);
+        updateMap.put("addOrRemove", Collections.singletonMap(BUCKETS_FIELD, Optional.empty()));
+        if(bucketCount > 0 && mongoDBService.conditionalUpdateOne(DATABASE, "product", Product.class, filterMap,
+                updateMap, new HashMap<>()) == 1) {
+            stockChangeNotifier.stockChanged(sku);
+        }
+        mongoDBService.deleteMany(DATABASE, COLLECTION, Collections.singletonMap("sku", sku));
+        buckets.remove(sku);
+    }
+
+    public StockChangeNotifier getStockChangeNotifier() {
+        return stockChangeNotifier;
+    }
+
+    public boolean isSharded(String sku) {
+        return getBuckets(sku) > 0;
+    }
+
+    public int getBuckets(String sku) {
+        BucketCount bucketCount = buckets.get(sku);
+        if(bucketCount == null || bucketCount.expiresAt <= System.currentTimeMillis()) {
+            bucketCount = new BucketCount(readBuckets(sku));
+            buckets.put(sku, bucketCount);
+        }
+        return bucketCount.count;
+    }
+
+    public void refresh() {
+        buckets.clear();
+    }
+
+    // Re-reads whether the sku is sharded, e.g. after a take missed; true if that changed since it was cached.
+    public boolean refresh(String sku) {
+        BucketCount cached = buckets.get(sku);
+        int bucketCount = readBuckets(sku);
+        buckets.put(sku, new BucketCount(bucketCount));
+        return cached == null || (cached.count > 0) != (bucketCount > 0);
+    }
+
+    private int readBuckets(String sku) {
+        Map<String, Integer> projectionMap = new HashMap<>();
+        projectionMap.put(BUCKETS_FIELD, 1);
+        return mongoDBService.readOne(DATABASE, "product", Document.class, Collections.singletonMap("sku", sku),
+                Optional.of(projectionMap))
+                .map(document -> document.get(BUCKETS_FIELD))
+                .map(bucketCount -> ((Number) bucketCount).intValue())
+                .orElse(0);
+    }
+
+    // Takes quantity from a random bucket that holds enough, or else from several buckets; false if the buckets
+    // do not hold enough between them.
+    public boolean reserve(String sku, int quantity) {
+        int bucketCount = getBuckets(sku);
+        if(bucketCount == 0) {
+            return false;
+        }
+        if(take(sku, ThreadLocalRandom.current().nextInt(bucketCount), quantity)) {
+            return true;
+        }
+        for(int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            List<InventoryCounter> counters = readCounters(sku);
+            List<InventoryCounter> candidates = counters.stream()
+                    .filter(counter -> counter.getQuantity() >= quantity)
+                    .collect(toList());
+            if(!candidates.isEmpty()) {
+                InventoryCounter counter = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+                if(take(sku, counter.getBucket(), quantity)) {
+                    return true;
+                }
+                continue;
+            }
+            if(counters.stream().mapToInt(InventoryCounter::getQuantity).sum() < quantity) {
+                return false;
+            }
+            if(gather(sku, counters, quantity)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // takes quantity piecewise from the non-empty buckets, giving back what was taken if it falls short
+    private boolean gather(String sku, List<InventoryCounter> counters, int quantity) {
+        List<InventoryCounter> nonEmpty = counters.stream()
+                .filter(counter -> counter.getQuantity() > 0)
+                .collect(toList());
+        Collections.shuffle(nonEmpty, ThreadLocalRandom.current());
+        Map<Integer, Integer> taken = new HashMap<>();
+        int remaining = quantity;
+        for(InventoryCounter counter : nonEmpty) {
+            int part = Math.min(counter.getQuantity(), remaining);
+            if(take(sku, counter.getBucket(), part)) {
+                taken.put(counter.getBucket(), part);
+                remaining -= part;
+                if(remaining == 0) {
+                    return true;
+                }
+            }
+        }
+        taken.forEach((bucket, part) -> give(sku, bucket, part));
+        return false;
+    }
+
+    // Returns quantity to a random bucket.
+    public void release(String sku, int quantity) {
+        int bucketCount = getBuckets(sku);
+        if(bucketCount == 0) {
+            returnToProduct(sku, quantity);
+        } else {
+            give(sku, ThreadLocalRandom.current().nextInt(bucketCount), quantity);
+        }
+    }
+
+    // The stock of all buckets, summed by the server.
+    public int getAvailable(String sku) {
+        Map<String, Object> sumMap = new HashMap<>();
+        sumMap.put("$sum", Arrays.asList("available", "$qty"));
+        List<Map<String, Object>> pipeline = Arrays.asList(
+                Collections.singletonMap("$match", Collections.singletonMap("sku", sku)),
+                Collections.singletonMap("$group", Arrays.asList("$sku", sumMap)));
+        Object available = mongoDBService.processAggregatePipeline(DATABASE, COLLECTION, pipeline,
+                Collections.singletonList("available")).get("available");
+        return available == null ? 0 : ((Number) available).intValue();
+    }
+
+    // Evens out the buckets: surpluses are taken off with conditional updates first and then spread over the
+    // buckets below the average, so concurrent reservations may briefly see less stock but never more.
+    public void rebalance(String sku) {
+        List<InventoryCounter> counters = readCounters(sku);
+        if(counters.size() < 2) {
+            return;
+        }
+        int total = counters.stream().mapToInt(InventoryCounter::getQuantity).sum();
+        int moved = 0;
+        List<InventoryCounter> belowTarget = new ArrayList<>();
+        for(InventoryCounter counter : counters) {
+            int target = target(total, counters.size(), counter.getBucket());
+            if(counter.getQuantity() > target) {
+                if(take(sku, counter.getBucket(), counter.getQuantity() - target)) {
+                    moved += counter.getQuantity() - target;
+                }
+            } else if(counter.getQuantity() < target) {
+                belowTarget.add(counter);
+            }
+        }
+        for(InventoryCounter counter : belowTarget) {
+            int quantity = Math.min(moved, target(total, counters.size(), counter.getBucket()) -
+                    counter.getQuantity());
+            if(quantity > 0) {
+                give(sku, counter.getBucket(), quantity);
+                moved -= quantity;
+            }
+        }
+        if(moved > 0) {
+            give(sku, counters.get(0).getBucket(), moved);
+        }
+    }
+
+    private static int target(int total, int bucketCount, int bucket) {
+        return total / bucketCount + (bucket < total % bucketCount ? 1 : 0);
+    }
+
+    private List<InventoryCounter> readCounters(String sku) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", sku);
+        filterMap.put("pending", false);
+        filterMap.put("draining", false);
+        return mongoDBService.readAll(DATABASE, COLLECTION, InventoryCounter.class, filterMap);
+    }
+
+    private boolean take(String sku, int bucket, int quantity) {
+        Map<String, Object> quantityMap = new HashMap<>();
+        quantityMap.put("qty", quantity);
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", InventoryCounter.id(sku, bucket));
+        filterMap.put("$gte", quantityMap);
+        filterMap.put("draining", false);
+        return mongoDBService.conditionalUpdateOne(DATABASE, COLLECTION, InventoryCounter.class, filterMap,
+                increment(-quantity), new HashMap<>()) == 1;
+    }
+
+    // puts quantity into the bucket, or into the product once the sku is unsharded or being unsharded
+    private void give(String sku, int bucket, int quantity) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", InventoryCounter.id(sku, bucket));
+        filterMap.put("draining", false);
+        if(mongoDBService.conditionalUpdateOne(DATABASE, COLLECTION, InventoryCounter.class, filterMap,
+                increment(quantity), new HashMap<>()) == 0) {
+            buckets.remove(sku);
+            returnToProduct(sku, quantity);
+        }
+    }
+
+    private void returnToProduct(String sku, int quantity) {
+        mongoDBService.updateOne(DATABASE, "product", Product.class, Collections.singletonMap("sku", sku),
+                increment(quantity), new HashMap<>());
+        stockChangeNotifier.stockChanged(sku);
+    }
+
+    // Takes the quantity read from the product unless its stock changed since, and records the shard it went to.
+    private boolean takeProductStock(String sku, int quantity, String shard) {
+        Map<String, Object> quantityMap = new HashMap<>();
+        quantityMap.put("qty", quantity);
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", sku);
+        filterMap.put("$eq", quantityMap);
+        Map<String, Object> updateMap = increment(-quantity);
+        updateMap.put("addOrRemove", Collections.singletonMap(SHARD_FIELD, shard));
+        return mongoDBService.conditionalUpdateOne(DATABASE, "product", Product.class, filterMap, updateMap,
+                new HashMap<>()) == 1;
+    }
+
+    private static Map<String, Object> increment(int quantity) {
+        Map<String, Object> quantityMap = new HashMap<>();
+        quantityMap.put("qty", quantity);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("inc", quantityMap);
+        return updateMap;
+    }
+}
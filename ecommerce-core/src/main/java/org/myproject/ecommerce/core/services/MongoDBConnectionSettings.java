@@ -0,0 +1,179 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ReadPreference;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Connection pool and timeout settings of one MongoClient. MongoDBService keeps separate clients for
+// short OLTP operations and for long running analytics (aggregations, map/reduce), so that a slow
+// report cannot hold the connections cart updates wait for. Every value can be overridden with a system
+// property mongodb_<workload>_<setting>, e.g. -Dmongodb_oltp_max_pool_size=200.
+public class MongoDBConnectionSettings {
+    public enum Workload {
+        OLTP, ANALYTICS
+    }
+
+    private final Workload workload;
+    private final int minPoolSize;
+    private final int maxPoolSize;
+    private final int waitQueueMultiple;
+    private final int maxWaitMillis;
+    private final int connectTimeoutMillis;
+    private final int socketTimeoutMillis;
+    private final int serverSelectionTimeoutMillis;
+    private final int maxIdleMillis;
+    private final boolean warmUp;
+    private final ReadPreference readPreference;
+
+    public MongoDBConnectionSettings(Workload workload, int minPoolSize, int maxPoolSize, int waitQueueMultiple,
+                                     int maxWaitMillis, int connectTimeoutMillis, int socketTimeoutMillis,
+                                     int serverSelectionTimeoutMillis, int maxIdleMillis, boolean warmUp,
+                                     ReadPreference readPreference) {
+        this.workload = Objects.requireNonNull(workload);
+        if(maxPoolSize <= 0 || minPoolSize < 0 || minPoolSize > maxPoolSize) {
+            throw new IllegalArgumentException("invalid pool size, min: " + minPoolSize + ", max: " + maxPoolSize);
+        }
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.waitQueueMultiple = waitQueueMultiple;
+        this.maxWaitMillis = maxWaitMillis;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        this.serverSelectionTimeoutMillis = serverSelectionTimeoutMillis;
+        this.maxIdleMillis = maxIdleMillis;
+        this.warmUp = warmUp;
+        this.readPreference = Objects.requireNonNull(readPreference);
+    }
+
+    // Cart and catalog operations: a warm pool, and a bounded wait so that an overloaded pool fails
+    // fast instead of queueing request threads. Reads go to the primary.
+    public static MongoDBConnectionSettings oltp() {
+        return fromSystemProperties(Workload.OLTP, 10, 100, 5, 2000, 5000, 10000, 5000, 0, true,
+                "primary", 0);
+    }
+
+    // Aggregations and map/reduce: few connections, long reads, waiting for a connection is acceptable.
+    // Reads go to a secondary at most 90 seconds (the smallest staleness the server accepts) behind, and
+    // to the primary when there is none.
+    public static MongoDBConnectionSettings analytics() {
+        return fromSystemProperties(Workload.ANALYTICS, 0, 10, 50, 120000, 5000, 0, 30000, 60000, false,
+                "secondaryPreferred", 90);
+    }
+
+    // mode is a read preference name such as primaryPreferred or nearest; max staleness does not apply
+    // to primary and is ignored when not positive
+    public static ReadPreference readPreference(String mode, long maxStalenessSeconds) {
+        if("primary".equals(mode) || maxStalenessSeconds <= 0) {
+            return ReadPreference.valueOf(mode);
+        }
+        return ReadPreference.valueOf(mode, Collections.emptyList(), maxStalenessSeconds, TimeUnit.SECONDS);
+    }
+
+    private static MongoDBConnectionSettings fromSystemProperties(Workload workload, int minPoolSize,
+                                                                  int maxPoolSize, int waitQueueMultiple,
+                                                                  int maxWaitMillis, int connectTimeoutMillis,
+                                                                  int socketTimeoutMillis,
+                                                                  int serverSelectionTimeoutMillis,
+                                                                  int maxIdleMillis, boolean warmUp,
+                                                                  String readPreferenceMode,
+                                                                  int maxStalenessSeconds) {
+        return new MongoDBConnectionSettings(workload,
+                intProperty(workload, "min_pool_size", minPoolSize),
+                intProperty(workload, "max_pool_size", maxPoolSize),
+                intProperty(workload, "wait_queue_multiple", waitQueueMultiple),
+                intProperty(workload, "max_wait_ms", maxWaitMillis),
+                intProperty(workload, "connect_timeout_ms", connectTimeoutMillis),
+                intProperty(workload, "socket_timeout_ms", socketTimeoutMillis),
+                intProperty(workload, "server_selection_timeout_ms", serverSelectionTimeoutMillis),
+                intProperty(workload, "max_idle_ms", maxIdleMillis),
+                property(workload, "warm_up").map(Boolean::parseBoolean).orElse(warmUp),
+                readPreference(property(workload, "read_preference").orElse(readPreferenceMode),
+                        intProperty(workload, "max_staleness_seconds", maxStalenessSeconds)));
+    }
+
+    private static Optional<String> property(Workload workload, String setting) {
+        return Optional.ofNullable(System.getProperty("mongodb_" + workload.name().toLowerCase() + "_" + setting));
+    }
+
+    private static int intProperty(Workload workload, String setting, int defaultValue) {
+        return property(workload, setting).map(Integer::parseInt).orElse(defaultValue);
+    }
+
+    MongoClientOptions.Builder apply(MongoClientOptions.Builder builder) {
+        return builder.minConnectionsPerHost(minPoolSize)
+                      .connectionsPerHost(maxPoolSize)
+                      .threadsAllowedToBlockForConnectionMultiplier(waitQueueMultiple)
+                      .maxWaitTime(maxWaitMillis)
+                      .connectTimeout(connectTimeoutMillis)
+                      .socketTimeout(socketTimeoutMillis)
+                      .serverSelectionTimeout(serverSelectionTimeoutMillis)
+                      .maxConnectionIdleTime(maxIdleMillis)
+                      .readPreference(readPreference)
+                      .applicationName("ecommerce-" + workload.name().toLowerCase());
+    }
+
+    public Workload getWorkload() {
+        return workload;
+    }
+
+    public int getMinPoolSize() {
+        return minPoolSize;
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public int getWaitQueueMultiple() {
+        return waitQueueMultiple;
+    }
+
+    public int getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public int getServerSelectionTimeoutMillis() {
+        return serverSelectionTimeoutMillis;
+    }
+
+    public int getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public ReadPreference getReadPreference() {
+        return readPreference;
+    }
+
+    @Override
+    public String toString() {
+        return "MongoDBConnectionSettings{" +
+                "workload=" + workload +
+                ", minPoolSize=" + minPoolSize +
+                ", maxPoolSize=" + maxPoolSize +
+                ", waitQueueMultiple=" + waitQueueMultiple +
+                ", maxWaitMillis=" + maxWaitMillis +
+                ", connectTimeoutMillis=" + connectTimeoutMillis +
+                ", socketTimeoutMillis=" + socketTimeoutMillis +
+                ", serverSelectionTimeoutMillis=" + serverSelectionTimeoutMillis +
+                ", maxIdleMillis=" + maxIdleMillis +
+                ", warmUp=" + warmUp +
+                ", readPreference=" + readPreference +
+                '}';
+    }
+}
@@ -1,25 +1,45 @@
 package org.myproject.ecommerce.core.services;
 
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
+import com.mongodb.ReadPreference;
 import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MapReduceIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Accumulators;
 import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.BsonField;
-import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertOneModel;
 import com.mongodb.client.model.MapReduceAction;
 import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Sorts;
-import com.mongodb.client.model.Updates;
-import com.mongodb.client.model.geojson.Point;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
 import org.bson.codecs.configuration.CodecProvider;
 import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.ClassModel;
 import org.bson.codecs.pojo.PojoCodecProvider;
 import org.bson.conversions.Bson;
 import org.myproject.ecommerce.core.codec.CustomCodecProvider;
@@ -32,15 +52,26 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.function.Function;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.mongodb.client.model.Accumulators.sum;
 import static com.mongodb.client.model.Aggregates.group;
@@ -49,18 +80,8 @@ import static com.mongodb.client.model.Aggregates.unwind;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Filters.gt;
-import static com.mongodb.client.model.Filters.gte;
-import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Filters.lt;
-import static com.mongodb.client.model.Filters.lte;
-import static com.mongodb.client.model.Filters.nearSphere;
-import static com.mongodb.client.model.Filters.regex;
-import static com.mongodb.client.model.Updates.combine;
-import static com.mongodb.client.model.Updates.inc;
-import static com.mongodb.client.model.Updates.popLast;
-import static com.mongodb.client.model.Updates.pushEach;
-import static com.mongodb.client.model.Updates.set;
-import static com.mongodb.client.model.Updates.unset;
+import static com.mongodb.client.model.Filters.or;
 import static java.util.stream.Collectors.toList;
 
 @Service("mongoDBService")
@@ -68,7 +89,19 @@ import static java.util.stream.Collectors.toList;
 @SuppressWarnings("unchecked")
 public class MongoDBService {
     private MongoClient mongoClient;
+    private MongoClient analyticsClient;
+    private final Map<Class<?>, Map<String, Integer>> projections = new ConcurrentHashMap<>();
+    private final CommandMetrics commandMetrics =
+            new CommandMetrics(Boolean.getBoolean("mongodb_metrics_response_sizes"));
+    // the commands and pool of the analytics client, the OLTP ones when there is no separate client
+    private CommandMetrics analyticsCommandMetrics = commandMetrics;
+    private final Map<String, ReadPreference> readPreferences = new ConcurrentHashMap<>();
+    private final Map<String, List<Consumer<Optional<Map<String, Object>>>>> writeListeners =
+            new ConcurrentHashMap<>();
     private static final int SORT_ASCENDING_ORDER = 1;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_BULK_BATCH_COUNT = 1000;
+    private static final long METRICS_LOG_INTERVAL_SECONDS = 60;
 
     private static final Logger logger = LoggerFactory.getLogger(MongoDBService.class);
 
@@ -82,15 +115,36 @@ public class MongoDBService {
     }
 
     public MongoDBService(@Qualifier("codecProvider")  List<CodecProvider> codecProvider, String host, int port) {
+        this(codecProvider, host, port, MongoDBConnectionSettings.oltp(),
+                Optional.of(MongoDBConnectionSettings.analytics()));
+    }
+
+    // Without analytics settings aggregations and map/reduce share the OLTP client.
+    public MongoDBService(List<CodecProvider> codecProvider, String host, int port,
+                          MongoDBConnectionSettings oltpSettings,
+                          Optional<MongoDBConnectionSettings> analyticsSettings) {
         List<CodecProvider> allCodecProviders = new ArrayList<>();
         allCodecProviders.add(new CustomCodecProvider());
         allCodecProviders.addAll(codecProvider);
-        configMongoClient(allCodecProviders, host, port);
+        mongoClient = configMongoClient(allCodecProviders, host, port, oltpSettings, commandMetrics);
+        if(analyticsSettings.isPresent()) {
+            analyticsCommandMetrics = new CommandMetrics(Boolean.getBoolean("mongodb_metrics_response_sizes"));
+            analyticsClient = configMongoClient(allCodecProviders, host, port, analyticsSettings.get(),
+                    analyticsCommandMetrics);
+            analyticsCommandMetrics.startReporting(METRICS_LOG_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        } else {
+            analyticsClient = mongoClient;
+        }
+        commandMetrics.startReporting(METRICS_LOG_INTERVAL_SECONDS, TimeUnit.SECONDS);
     }
 
     public <T> MongoDBService(List<T> ts, Optional<String> mongodb_host) {
     }
 
+    // for stand-ins that keep the data elsewhere, see InMemoryMongoDBService
+    protected MongoDBService() {
+    }
+
 //    private void configMongoClient(List<CodecProvider> codecProviderList) {
 //        MongoClientOptions options = getMongoClientOptions(codecProviderList);
 //        mongoClient = new MongoClient(System.getProperty("mongodb_host") == null ? "localhost" :
@@ -102,23 +156,100 @@ public class MongoDBService {
 //        mongoClient = new MongoClient(String.format("%s:%d", host, 27017), options);
 //    }
 
-    private void configMongoClient(List<CodecProvider> codecProviderList, String host, int port) {
-        MongoClientOptions options = getMongoClientOptions(codecProviderList);
-        mongoClient = System.getProperty("mongodb_host") == null ?
+    private MongoClient configMongoClient(List<CodecProvider> codecProviderList, String host, int port,
+                                          MongoDBConnectionSettings settings, CommandMetrics metrics) {
+        LoggingUtils.info(logger, "mongoClient: " + settings);
+        MongoClientOptions options = getMongoClientOptions(codecProviderList, settings, metrics);
+        MongoClient client = System.getProperty("mongodb_host") == null ?
                 new MongoClient(String.format("%s:%d", host, port), options) :
                 new MongoClient(System.getProperty("mongodb_host"), options);
 //        mongoClient = new MongoClient(String.format("%s:%d", host, port), options);
+        if(settings.isWarmUp() && settings.getMinPoolSize() > 0) {
+            warmUp(client, settings);
+        }
+        return client;
     }
 
-    private MongoClientOptions getMongoClientOptions(List<CodecProvider> codecProviderList) {
+    // The driver only tops the pool up to its minimum size in the background; open the minimum number of
+    // connections up front so the first requests do not pay for connection setup. Failures are logged,
+    // an unreachable server surfaces on first use as before.
+    private void warmUp(MongoClient client, MongoDBConnectionSettings settings) {
+        int connections = settings.getMinPoolSize();
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        CountDownLatch allCheckedOut = new CountDownLatch(connections);
+        long start = System.currentTimeMillis();
+        try {
+            List<Future<?>> pings = new ArrayList<>();
+            for(int i = 0; i < connections; i++) {
+                // every ping waits for the others so that each of them holds its own connection
+                pings.add(executor.submit(() -> {
+                    allCheckedOut.countDown();
+                    allCheckedOut.await(settings.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS);
+                    return client.getDatabase("admin").runCommand(new Document("ping", 1));
+                }));
+            }
+            for(Future<?> ping : pings) {
+                ping.get();
+            }
+            LoggingUtils.info(logger, "opened " + connections + " " + settings.getWorkload() +
+                    " connections in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("unable to warm up the " + settings.getWorkload() + " connection pool: " +
+                    e.getCause().getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private MongoClientOptions getMongoClientOptions(List<CodecProvider> codecProviderList,
+                                                     MongoDBConnectionSettings settings, CommandMetrics metrics) {
+        return settings.apply(MongoClientOptions.builder())
+                .codecRegistry(codecRegistry(codecProviderList))
+                .addCommandListener(metrics)
+                .addConnectionPoolListener(metrics)
+                .build();
+    }
+
+    static CodecRegistry codecRegistry(List<CodecProvider> codecProviderList) {
         CodecRegistry pojoCodecRegistry = CodecRegistries.fromRegistries(MongoClient.getDefaultCodecRegistry(),
                 CodecRegistries.fromProviders(PojoCodecProvider.builder().automatic(true).build()));
-        CodecRegistry codecRegistry = CodecRegistries.fromRegistries(
+        return CodecRegistries.fromRegistries(
                 MongoClient.getDefaultCodecRegistry(),
                 CodecRegistries.fromProviders(codecProviderList.toArray(new CodecProvider[codecProviderList.size()])),
                 pojoCodecRegistry);
-        return MongoClientOptions.builder().codecRegistry(codecRegistry)
-                .build();
+    }
+
+    // The listener is told of every write to the collection through this service, after the write, with the
+    // filter of the write, or empty when the write may have changed any document, e.g. an insert or deleteAll.
+    // Listeners run on the writing thread and should be quick, such as dropping cached documents.
+    public void addWriteListener(String databaseName, String collectionName,
+                                 Consumer<Optional<Map<String, Object>>> listener) {
+        validateDB(databaseName, collectionName);
+        writeListeners.computeIfAbsent(databaseName + "." + collectionName, namespace -> new CopyOnWriteArrayList<>())
+                .add(listener);
+    }
+
+    // filterMap is null for writes that may have changed any document
+    void written(String databaseName, String collectionName, Map<String, Object> filterMap) {
+        List<Consumer<Optional<Map<String, Object>>>> listeners =
+                writeListeners.get(databaseName + "." + collectionName);
+        if(listeners != null) {
+            listeners.forEach(listener -> listener.accept(Optional.ofNullable(filterMap)));
+        }
+    }
+
+    // once per filter, or once for all of them when one of the operations is an insert or an upsert
+    <T> void bulkWritten(String databaseName, String collectionName, List<BulkWriteOperation<T>> operations) {
+        if(!writeListeners.containsKey(databaseName + "." + collectionName)) {
+            return;
+        }
+        if(operations.stream().anyMatch(o -> o.getType() == BulkWriteOperation.Type.INSERT_ONE || o.isUpsert())) {
+            written(databaseName, collectionName, null);
+            return;
+        }
+        operations.forEach(operation -> written(databaseName, collectionName, operation.getFilterMap()));
     }
 
     public <T> void createOne(String databaseName, String collectionName, Class<T> clazz, T document) {
@@ -126,6 +257,7 @@ public class MongoDBService {
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
         collection.insertOne(document);
+        written(databaseName, collectionName, null);
     }
 
     public <T> void createAll(String databaseName, String collectionName, Class<T> clazz, List<T> documents) {
@@ -133,6 +265,131 @@ public class MongoDBService {
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
         collection.insertMany(documents);
+        written(databaseName, collectionName, null);
+    }
+
+    public <T> List<BulkWriteBatchResult> bulkWrite(String databaseName, String collectionName, Class<T> clazz,
+                                                    List<BulkWriteOperation<T>> operations, boolean ordered) {
+        return bulkWrite(databaseName, collectionName, clazz, operations, ordered, DEFAULT_BULK_BATCH_COUNT);
+    }
+
+    // Operations are sent in chunks of at most maxBatchCount operations, one result per chunk; the driver
+    // splits a chunk further where it would exceed the server's message size, so documents are encoded only
+    // once, on the way out. An ordered bulk write stops at the first chunk with a write error; an unordered
+    // one sends every chunk and reports the errors of each.
+    public <T> List<BulkWriteBatchResult> bulkWrite(String databaseName, String collectionName, Class<T> clazz,
+                                                    List<BulkWriteOperation<T>> operations, boolean ordered,
+                                                    int maxBatchCount) {
+        return bulkWrite(databaseName, collectionName, clazz, operations, ordered, maxBatchCount, 0, 0);
+    }
+
+    <T> List<BulkWriteBatchResult> bulkWrite(String databaseName, String collectionName, Class<T> clazz,
+                                             List<BulkWriteOperation<T>> operations, boolean ordered,
+                                             int maxBatchCount, int startBatchIndex, long startOperationIndex) {
+        validateDB(databaseName, collectionName);
+        if(maxBatchCount <= 0) {
+            throw new IllegalArgumentException("invalid bulk batch limit: " + maxBatchCount + " operations");
+        }
+        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
+        MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
+        BulkWriteOptions bulkWriteOptions = new BulkWriteOptions().ordered(ordered);
+        try {
+            return executeBulkWrite(collection, bulkWriteOptions, operations, ordered, maxBatchCount,
+                    startBatchIndex, startOperationIndex);
+        } finally {
+            bulkWritten(databaseName, collectionName, operations);
+        }
+    }
+
+    private <T> List<BulkWriteBatchResult> executeBulkWrite(MongoCollection<T> collection,
+                                                            BulkWriteOptions bulkWriteOptions,
+                                                            List<BulkWriteOperation<T>> operations, boolean ordered,
+                                                            int maxBatchCount, int startBatchIndex,
+                                                            long startOperationIndex) {
+        List<BulkWriteBatchResult> results = new ArrayList<>();
+        List<WriteModel<T>> batch = new ArrayList<>();
+        long firstOperationIndex = 0;
+        for(int i = 0; i < operations.size(); i++) {
+            if(batch.size() >= maxBatchCount) {
+                BulkWriteBatchResult result = executeBulkBatch(collection, batch, bulkWriteOptions,
+                        startBatchIndex + results.size(), startOperationIndex + firstOperationIndex);
+                results.add(result);
+                if(ordered && !result.isSuccessful()) {
+                    return results;
+                }
+                firstOperationIndex = i;
+                batch.clear();
+            }
+            batch.add(toWriteModel(operations.get(i)));
+        }
+        if(!batch.isEmpty()) {
+            results.add(executeBulkBatch(collection, batch, bulkWriteOptions,
+                    startBatchIndex + results.size(), startOperationIndex + firstOperationIndex));
+        }
+        return results;
+    }
+
+    public <T> BulkWriter<T> bulkWriter(String databaseName, String collectionName, Class<T> clazz,
+                                        boolean ordered) {
+        return bulkWriter(databaseName, collectionName, clazz, ordered, DEFAULT_BULK_BATCH_COUNT);
+    }
+
+    public <T> BulkWriter<T> bulkWriter(String databaseName, String collectionName, Class<T> clazz,
+                                        boolean ordered, int bufferSize) {
+        validateDB(databaseName, collectionName);
+        return new BulkWriter<>(this, databaseName, collectionName, clazz, ordered, bufferSize);
+    }
+
+    private <T> WriteModel<T> toWriteModel(BulkWriteOperation<T> operation) {
+        switch(operation.getType()) {
+            case INSERT_ONE:
+                return new InsertOneModel<>(operation.getDocument());
+            case UPDATE_ONE:
+                return new UpdateOneModel<>(QueryTranslator.filter(operation.getFilterMap()),
+                        QueryTranslator.update(operation.getUpdateMap()),
+                        new UpdateOptions().upsert(operation.isUpsert()));
+            case UPDATE_MANY:
+                return new UpdateManyModel<>(QueryTranslator.filter(operation.getFilterMap()),
+                        QueryTranslator.update(operation.getUpdateMap()));
+            case REPLACE_ONE:
+                return new ReplaceOneModel<>(QueryTranslator.filter(operation.getFilterMap()),
+                        operation.getDocument(), new UpdateOptions().upsert(operation.isUpsert()));
+            case DELETE_ONE:
+                return new DeleteOneModel<>(QueryTranslator.filter(operation.getFilterMap()));
+            case DELETE_MANY:
+                return new DeleteManyModel<>(QueryTranslator.filter(operation.getFilterMap()));
+            default:
+                throw new IllegalArgumentException("unknown bulk write operation: " + operation.getType());
+        }
+    }
+
+    private <T> BulkWriteBatchResult executeBulkBatch(MongoCollection<T> collection, List<WriteModel<T>> batch,
+                                                      BulkWriteOptions bulkWriteOptions, int batchIndex,
+                                                      long firstOperationIndex) {
+        long start = System.currentTimeMillis();
+        BulkWriteResult bulkWriteResult;
+        List<String> errors = new ArrayList<>();
+        try {
+            bulkWriteResult = collection.bulkWrite(batch, bulkWriteOptions);
+        } catch (MongoBulkWriteException e) {
+            bulkWriteResult = e.getWriteResult();
+            e.getWriteErrors().forEach(error -> errors.add(String.format("operation %d: %s",
+                    firstOperationIndex + error.getIndex(), error.getMessage())));
+            if(e.getWriteConcernError() != null) {
+                errors.add("write concern: " + e.getWriteConcernError().getMessage());
+            }
+            logger.error(String.format("bulk write to %s failed in batch %d: %s", collection.getNamespace(),
+                    batchIndex, errors));
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        if(!bulkWriteResult.wasAcknowledged()) {
+            return new BulkWriteBatchResult(batchIndex, firstOperationIndex, batch.size(), 0, 0, 0, 0, 0,
+                    errors, elapsed);
+        }
+        return new BulkWriteBatchResult(batchIndex, firstOperationIndex, batch.size(),
+                bulkWriteResult.getInsertedCount(), bulkWriteResult.getMatchedCount(),
+                bulkWriteResult.isModifiedCountAvailable() ? bulkWriteResult.getModifiedCount() : 0,
+                bulkWriteResult.getDeletedCount(), bulkWriteResult.getUpserts().size(), errors, elapsed);
     }
 
     public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz,
@@ -144,63 +401,277 @@ public class MongoDBService {
     public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz,
                                Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional) {
         validateDB(databaseName, collectionName);
-        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
-        MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
-        List<Bson> filters = filter.keySet()
-                .stream()
-                .map(key -> mapBsonFilter(key, filter))
-                .collect(Collectors.toList());
-        List<T> result = new ArrayList<>();
-        Consumer<? super T> consumer = t -> result.add(t);
+        return readAll(databaseName, collectionName, clazz, filter, sortOptional, Optional.empty());
+    }
+
+    // The projection map follows the sort map convention: field name to 1 (include) or 0 (exclude).
+    public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz,
+                               Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                               Optional<Map<String, Integer>> projectionOptional) {
+        validateDB(databaseName, collectionName);
+        return find(databaseName, collectionName, clazz, filter, sortOptional, projectionOptional,
+                Optional.empty())
+                .into(new ArrayList<>());
+    }
+
+    public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz,
+                               Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                               Optional<Map<String, Integer>> projectionOptional, ReadPreference readPreference) {
+        validateDB(databaseName, collectionName);
+        Objects.requireNonNull(readPreference);
+        return find(databaseName, collectionName, clazz, filter, sortOptional, projectionOptional,
+                Optional.of(readPreference))
+                .into(new ArrayList<>());
+    }
+
+    // Reads on the client of the workload: large analytics reads run on the analytics pool and do not hold
+    // the connections cart updates wait for.
+    public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz,
+                               Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                               Optional<Map<String, Integer>> projectionOptional, ReadPreference readPreference,
+                               MongoDBConnectionSettings.Workload workload) {
+        validateDB(databaseName, collectionName);
+        Objects.requireNonNull(readPreference);
+        return find(client(workload), databaseName, collectionName, clazz, filter, sortOptional,
+                projectionOptional, Optional.of(readPreference))
+                .into(new ArrayList<>());
+    }
+
+    public <T> void readAll(String databaseName, String collectionName, Class<T> clazz,
+                            Map<String, Object> filter, Consumer<T> consumer) {
+        validateDB(databaseName, collectionName);
+        try(Stream<T> stream = stream(databaseName, collectionName, clazz, filter)) {
+            stream.forEach(consumer);
+        }
+    }
+
+    public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz) {
+        validateDB(databaseName, collectionName);
+        MongoCollection<T> collection = readCollection(mongoClient, databaseName, collectionName, clazz,
+                Optional.empty());
+        return collection.find().into(new ArrayList<>());
+    }
+
+    public <T> Stream<T> stream(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter) {
+        return stream(databaseName, collectionName, clazz, filter, Optional.empty(), DEFAULT_BATCH_SIZE);
+    }
+
+    // The returned stream is backed directly by the driver cursor and fetches batchSize documents per
+    // round trip, so heap use does not depend on the size of the result. The stream must be closed
+    // (try-with-resources) to release the server side cursor, in particular when it is terminated early.
+    public <T> Stream<T> stream(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                                int batchSize) {
+        return stream(databaseName, collectionName, clazz, filter, sortOptional, Optional.empty(), batchSize);
+    }
+
+    public <T> Stream<T> stream(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                                Optional<Map<String, Integer>> projectionOptional, int batchSize) {
+        return stream(mongoClient, databaseName, collectionName, clazz, filter, sortOptional, projectionOptional,
+                batchSize, Optional.empty());
+    }
+
+    public <T> Stream<T> stream(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                                Optional<Map<String, Integer>> projectionOptional, int batchSize,
+                                ReadPreference readPreference) {
+        Objects.requireNonNull(readPreference);
+        return stream(mongoClient, databaseName, collectionName, clazz, filter, sortOptional, projectionOptional,
+                batchSize, Optional.of(readPreference));
+    }
+
+    // Streams on the client of the workload, see readAll; the read preference is the one set for the
+    // namespace or else the client's.
+    public <T> Stream<T> stream(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                                Optional<Map<String, Integer>> projectionOptional, int batchSize,
+                                MongoDBConnectionSettings.Workload workload) {
+        return stream(client(workload), databaseName, collectionName, clazz, filter, sortOptional,
+                projectionOptional, batchSize, Optional.empty());
+    }
+
+    private <T> Stream<T> stream(MongoClient client, String databaseName, String collectionName, Class<T> clazz,
+                                 Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                                 Optional<Map<String, Integer>> projectionOptional, int batchSize,
+                                 Optional<ReadPreference> readPreference) {
+        validateDB(databaseName, collectionName);
+        if(batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+        }
+        MongoCursor<T> cursor = find(client, databaseName, collectionName, clazz, filter, sortOptional,
+                projectionOptional, readPreference)
+                .batchSize(batchSize)
+                .iterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor,
+                    Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(cursor::close);
+    }
+
+    public <T> Page<T> readPage(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter, String sortField, int sortOrder,
+                                Optional<String> pageToken, int pageSize) {
+        return readPage(databaseName, collectionName, clazz, filter, sortField, sortOrder, pageToken, pageSize,
+                Optional.empty());
+    }
+
+    // Keyset pagination: documents are ordered by sortField and then _id, both ascending for sortOrder 1
+    // and descending for -1, and a page starts after the key of the previous page's last document. Every
+    // page is an index seek instead of skipping the pages before it, and documents inserted or removed
+    // meanwhile do not shift the pages. sortField must be present in every document and, on large
+    // collections, be backed by an index on {sortField: 1, _id: 1} unless it is _id itself.
+    public <T> Page<T> readPage(String databaseName, String collectionName, Class<T> clazz,
+                                Map<String, Object> filter, String sortField, int sortOrder,
+                                Optional<String> pageToken, int pageSize,
+                                Optional<Map<String, Integer>> projectionOptional) {
+        validateDB(databaseName, collectionName);
+        Objects.requireNonNull(sortField);
+        if(pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive: " + pageSize);
+        }
+        if(sortOrder != 1 && sortOrder != -1) {
+            throw new IllegalArgumentException("sort order must be 1 or -1: " + sortOrder);
+        }
+        MongoCollection<T> collection = readCollection(mongoClient, databaseName, collectionName, clazz,
+                Optional.empty());
+        Codec<T> codec = collection.getCodecRegistry().get(clazz);
+        Bson query = QueryTranslator.filter(filter);
+        if(pageToken.isPresent()) {
+            query = and(query, after(sortField, sortOrder, BsonDocument.parse(pageToken.get())));
+        }
+        List<Bson> sort = new ArrayList<>();
+        if(!"_id".equals(sortField)) {
+            sort.add(sortOrder == SORT_ASCENDING_ORDER ? Sorts.ascending(sortField) : Sorts.descending(sortField));
+        }
+        sort.add(sortOrder == SORT_ASCENDING_ORDER ? Sorts.ascending("_id") : Sorts.descending("_id"));
+        // read one document more than the page to tell whether there is a next page
+        FindIterable<RawBsonDocument> findIterable = collection.withDocumentClass(RawBsonDocument.class)
+                .find(query)
+                .sort(Sorts.orderBy(sort))
+                .limit(pageSize + 1);
+        if(projectionOptional.isPresent()) {
+            Map<String, Integer> projectionMap = new HashMap<>(projectionOptional.get());
+            if(projectionMap.containsValue(1)) {
+                projectionMap.put(sortField, 1);
+            }
+            projectionMap.remove("_id");
+            findIterable = findIterable.projection(toProjection(projectionMap));
+        }
+        List<RawBsonDocument> documents = findIterable.into(new ArrayList<>());
+        boolean hasNext = documents.size() > pageSize;
+        if(hasNext) {
+            documents = documents.subList(0, pageSize);
+        }
+        List<T> items = documents.stream()
+                .map(document -> document.decode(codec))
+                .collect(toList());
+        String lastItemToken = documents.isEmpty() ? null :
+                pageToken(documents.get(documents.size() - 1), sortField);
+        return new Page<>(items, hasNext ? lastItemToken : null, lastItemToken);
+    }
+
+    Bson after(String sortField, int sortOrder, BsonDocument pageToken) {
+        BsonValue id = pageToken.get("_id");
+        if("_id".equals(sortField)) {
+            return sortOrder == SORT_ASCENDING_ORDER ? gt("_id", id) : lt("_id", id);
+        }
+        BsonValue key = pageToken.get("key");
+        return sortOrder == SORT_ASCENDING_ORDER ?
+                or(gt(sortField, key), and(eq(sortField, key), gt("_id", id))) :
+                or(lt(sortField, key), and(eq(sortField, key), lt("_id", id)));
+    }
+
+    String pageToken(BsonDocument document, String sortField) {
+        BsonValue key = document;
+        for(String field : sortField.split("\\.")) {
+            key = key != null && key.isDocument() ? key.asDocument().get(field) : null;
+        }
+        return new BsonDocument("key", key == null ? BsonNull.VALUE : key)
+                .append("_id", document.get("_id"))
+                .toJson();
+    }
+
+    private <T> FindIterable<T> find(String databaseName, String collectionName, Class<T> clazz,
+                                     Map<String, Object> filter, Optional<Map<String, Integer>> sortOptional,
+                                     Optional<Map<String, Integer>> projectionOptional,
+                                     Optional<ReadPreference> readPreference) {
+        return find(mongoClient, databaseName, collectionName, clazz, filter, sortOptional, projectionOptional,
+                readPreference);
+    }
+
+    private <T> FindIterable<T> find(MongoClient client, String databaseName, String collectionName,
+                                     Class<T> clazz, Map<String, Object> filter,
+                                     Optional<Map<String, Integer>> sortOptional,
+                                     Optional<Map<String, Integer>> projectionOptional,
+                                     Optional<ReadPreference> readPreference) {
+        MongoCollection<T> collection = readCollection(client, databaseName, collectionName, clazz,
+                readPreference);
+        FindIterable<T> findIterable = collection.find(QueryTranslator.filter(filter));
         if(sortOptional.isPresent()) {
             List<Bson> sort =
                     sortOptional.get().keySet().stream()
                                                .map(key -> sortOptional.get().get(key) == SORT_ASCENDING_ORDER ?
                                                        Sorts.ascending(key) : Sorts.descending(key))
                                                .collect(toList());
-            collection.find(combine(filters)).sort(Sorts.orderBy(sort)).forEach(consumer);
-        } else {
-            collection.find(combine(filters)) .forEach(consumer);
+            findIterable = findIterable.sort(Sorts.orderBy(sort));
         }
-        return result;
+        if(projectionOptional.isPresent()) {
+            findIterable = findIterable.projection(toProjection(projectionOptional.get()));
+        }
+        return findIterable;
     }
 
-    public <T> void readAll(String databaseName, String collectionName, Class<T> clazz,
-                            Map<String, Object> filter, Consumer<T> consumer) {
-        validateDB(databaseName, collectionName);
-        readAll(databaseName, collectionName, clazz, filter)
-                .stream()
-                .forEach(consumer);
+    private Bson toProjection(Map<String, Integer> projectionMap) {
+        List<Bson> projections =
+                projectionMap.keySet().stream()
+                                      .map(key -> projectionMap.get(key) == 0 ?
+                                              Projections.exclude(key) : Projections.include(key))
+                                      .collect(toList());
+        return Projections.fields(projections);
     }
 
-    public <T> List<T> readAll(String databaseName, String collectionName, Class<T> clazz) {
-        validateDB(databaseName, collectionName);
-        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
-        MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
-        List<T> result = new ArrayList<>();
-        Consumer<? super T> consumer = t -> result.add(t);
-        collection.find().forEach(consumer);
-        return result;
+    // Include projection of the properties a POJO (e.g. a summary class) decodes, so reading into it
+    // transfers and decodes no other fields.
+    public Map<String, Integer> projectionFor(Class<?> clazz) {
+        return projections.computeIfAbsent(clazz, c -> {
+            Map<String, Integer> projectionMap = new HashMap<>();
+            ClassModel.builder(c).build().getPropertyModels()
+                      .forEach(propertyModel -> projectionMap.put(propertyModel.getReadName(), 1));
+            return Collections.unmodifiableMap(projectionMap);
+        });
     }
 
     public <T> Optional<T> readById(String databaseName, String collectionName, Class<T> clazz, Object id) {
+        return readById(databaseName, collectionName, clazz, id, Optional.empty());
+    }
+
+    public <T> Optional<T> readById(String databaseName, String collectionName, Class<T> clazz, Object id,
+                                    Optional<Map<String, Integer>> projectionOptional) {
         validateDB(databaseName, collectionName);
         Map<String, Object> filter = new HashMap<>();
         filter.put("_id", id);
-        return this.readOne(databaseName, collectionName, clazz, filter);
+        return this.readOne(databaseName, collectionName, clazz, filter, projectionOptional);
     }
 
     public <T> Optional<T> readOne(String databaseName, String collectionName, Class<T> clazz,
                                             Map<String, Object> filter) {
+        return readOne(databaseName, collectionName, clazz, filter, Optional.empty());
+    }
+
+    public <T> Optional<T> readOne(String databaseName, String collectionName, Class<T> clazz,
+                                   Map<String, Object> filter, Optional<Map<String, Integer>> projectionOptional) {
         validateDB(databaseName, collectionName);
-        List<T> results = readAll(databaseName, collectionName, clazz, filter);
-        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
+        return Optional.ofNullable(find(databaseName, collectionName, clazz, filter, Optional.empty(),
+                projectionOptional, Optional.empty())
+                .limit(1)
+                .first());
     }
 
     public <T> long getDocumentCount(String databaseName, String collectionName, Class<T> clazz) {
         validateDB(databaseName, collectionName);
-        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
-        MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
+        MongoCollection<T> collection = readCollection(mongoClient, databaseName, collectionName, clazz,
+                Optional.empty());
         return collection.count();
     }
 
@@ -210,7 +681,7 @@ public class MongoDBService {
         UpdateResult updateResult = null;
         try {
             updateResult = process(databaseName, collectionName, clazz, queryFilterMap,
-                    valueMap, new HashMap<>(), this::convert);
+                    valueMap, new HashMap<>());
         } catch (EcommerceException e) {
             e.printStackTrace();
             return false;
@@ -224,7 +695,7 @@ public class MongoDBService {
         UpdateResult updateResult = null;
         try {
             updateResult = process(databaseName, collectionName, clazz, queryFilterMap,
-                    valueMap, new HashMap<>(), this::convert);
+                    valueMap, new HashMap<>());
         } catch (EcommerceException e) {
             e.printStackTrace();
             return false;
@@ -237,12 +708,8 @@ public class MongoDBService {
         validateDB(databaseName, collectionName);
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
-        List<Bson> filters = queryFilterMap.keySet()
-                .stream()
-                .map(key -> mapBsonFilter(key, queryFilterMap))
-                .collect(toList());
-        List<Bson>  updates = convert(valueMap);
-        collection.updateMany(and(filters), combine(updates));
+        collection.updateMany(QueryTranslator.filter(queryFilterMap), QueryTranslator.update(valueMap));
+        written(databaseName, collectionName, queryFilterMap);
         return true;
     }
 
@@ -253,7 +720,7 @@ public class MongoDBService {
         UpdateResult updateResult = null;
         try {
             updateResult = process(databaseName, collectionName, clazz, queryFilterMap,
-                    valueMap, updateOptions, this::convert);
+                    valueMap, updateOptions);
         } catch (EcommerceException e) {
             e.printStackTrace();
             return false;
@@ -261,33 +728,47 @@ public class MongoDBService {
         return updateResult.getModifiedCount() == 1 ? true : false;
     }
 
+    // A single conditional updateOne for updates that are expected to miss now and then, such as taking stock
+    // that is no longer there: returns the matched count, 0 or 1, and logs nothing. With "upsert" in
+    // updateOptions a document that was inserted counts as matched.
+    public <T> long conditionalUpdateOne(String databaseName, String collectionName, Class<T> clazz,
+                                         Map<String, Object> queryFilterMap, Map<String, Object> valueMap,
+                                         Map<String, Object> updateOptions) {
+        validateDB(databaseName, collectionName);
+        MongoCollection<Document> collection = mongoClient.getDatabase(databaseName).getCollection(collectionName);
+        if(updateOptions.containsKey("writeConcern")) {
+            collection = collection.withWriteConcern(WriteConcern.valueOf(
+                    (String) updateOptions.get("writeConcern")));
+        }
+        UpdateResult updateResult = collection.updateOne(QueryTranslator.filter(queryFilterMap),
+                QueryTranslator.update(valueMap),
+                new UpdateOptions().upsert(Boolean.TRUE.equals(updateOptions.get("upsert"))));
+        written(databaseName, collectionName, updateResult.getUpsertedId() != null ? null : queryFilterMap);
+        return updateResult.getMatchedCount() + (updateResult.getUpsertedId() != null ? 1 : 0);
+    }
+
     public void deleteAll(String databaseName, String collectionName) {
         validateDB(databaseName, collectionName);
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         MongoCollection collection = mongoDatabase.getCollection(collectionName);
         collection.deleteMany(new Document());
+        written(databaseName, collectionName, null);
     }
 
     public void deleteMany(String databaseName, String collectionName, Map<String, Object> filterMap) {
         validateDB(databaseName, collectionName);
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         MongoCollection collection = mongoDatabase.getCollection(collectionName);
-        List<Bson> filters = filterMap.keySet()
-                .stream()
-                .map(key -> mapBsonFilter(key, filterMap))
-                .collect(toList());
-        collection.deleteMany(and(filters));
+        collection.deleteMany(QueryTranslator.filter(filterMap));
+        written(databaseName, collectionName, filterMap);
     }
 
     public void deleteOne(String databaseName, String collectionName, Map<String, Object> filterMap) {
         validateDB(databaseName, collectionName);
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         MongoCollection collection = mongoDatabase.getCollection(collectionName);
-        List<Bson> filters = filterMap.keySet()
-                .stream()
-                .map(key -> mapBsonFilter(key, filterMap))
-                .collect(toList());
-        collection.deleteOne(and(filters));
+        collection.deleteOne(QueryTranslator.filter(filterMap));
+        written(databaseName, collectionName, filterMap);
     }
 
     public <T> boolean replaceOne(String databaseName, String collectionName, Class<T> clazz,
@@ -295,25 +776,56 @@ public class MongoDBService {
         validateDB(databaseName, collectionName);
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
-        List<Bson> filters = filterMap.keySet()
-                .stream()
-                .map(key -> mapBsonFilter(key, filterMap))
-                .collect(toList());
-        UpdateResult result = collection.replaceOne(and(filters), value);
+        UpdateResult result = collection.replaceOne(QueryTranslator.filter(filterMap), value);
+        written(databaseName, collectionName, filterMap);
         return result.getModifiedCount() == 1L;
     }
 
-    public <T> long count(String databaseName, String collectionName, Class<T> clazz) {
+    public <T> boolean upsertOne(String databaseName, String collectionName, Class<T> clazz,
+                                 Map<String, Object> filterMap, T value) {
         validateDB(databaseName, collectionName);
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
+        UpdateResult result = collection.replaceOne(QueryTranslator.filter(filterMap), value,
+                new UpdateOptions().upsert(true));
+        written(databaseName, collectionName, result.getUpsertedId() != null ? null : filterMap);
+        return result.getModifiedCount() == 1L || result.getUpsertedId() != null;
+    }
+
+    // A count command without a query is answered from the collection metadata instead of scanning the
+    // collection. After an unclean shutdown it may be off until the collection is validated.
+    public long estimatedDocumentCount(String databaseName, String collectionName) {
+        validateDB(databaseName, collectionName);
+        Document result = mongoClient.getDatabase(databaseName).runCommand(new Document("count", collectionName));
+        return ((Number) result.get("n")).longValue();
+    }
+
+    // md5 of the contents of each collection, computed by the server; collections that do not exist are
+    // left out. Not supported through mongos.
+    public Map<String, String> getCollectionHashes(String databaseName, List<String> collectionNames) {
+        Objects.requireNonNull(databaseName);
+        Objects.requireNonNull(collectionNames);
+        Document result = mongoClient.getDatabase(databaseName).runCommand(
+                new Document("dbHash", 1).append("collections", collectionNames));
+        Document collections = result.get("collections", Document.class);
+        Map<String, String> hashes = new HashMap<>();
+        if(collections != null) {
+            collections.forEach((name, hash) -> hashes.put(name, (String) hash));
+        }
+        return hashes;
+    }
+
+    public <T> long count(String databaseName, String collectionName, Class<T> clazz) {
+        validateDB(databaseName, collectionName);
+        MongoCollection<T> collection = readCollection(mongoClient, databaseName, collectionName, clazz,
+                Optional.empty());
         return collection.count();
     }
 
     public long count(String databaseName, String collectionName) {
         validateDB(databaseName, collectionName);
-        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
-        MongoCollection collection = mongoDatabase.getCollection(collectionName);
+        MongoCollection<Document> collection = readCollection(mongoClient, databaseName, collectionName,
+                Document.class, Optional.empty());
         return collection.count();
     }
 
@@ -322,13 +834,14 @@ public class MongoDBService {
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
         collection.insertOne(Document.parse(jsonString));
+        written(databaseName, collectionName, null);
     }
 
     public Map<String, Object> processAggregatePipeline(String databaseName, String collectionName,
                                              List<Map<String, Object>> pipeline, List<String> resultFields) {
         validateDB(databaseName, collectionName);
-        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
-        MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
+        MongoCollection<Document> collection = readCollection(mongoClient, databaseName, collectionName,
+                Document.class, Optional.empty());
         Map<String, Object> result = new HashMap<>();
         Consumer<Document> consumer = document ->
                 resultFields.stream()
@@ -343,7 +856,7 @@ public class MongoDBService {
         return result;
     }
 
-    private Optional<Bson> mapAggregatePipeline(Map<String, Object> pipelineMap) {
+    Optional<Bson> mapAggregatePipeline(Map<String, Object> pipelineMap) {
         Objects.requireNonNull(pipelineMap);
         if(pipelineMap.keySet().size() == 0) {
             return Optional.empty();
@@ -352,11 +865,7 @@ public class MongoDBService {
         String key = pipelineMap.keySet().iterator().next();
         if(key.equals("$match")) {
             Map<String, Object> filterMap = (Map<String, Object>) pipelineMap.get("$match");
-            List<Bson> filters = filterMap.keySet()
-                    .stream()
-                    .map(k -> mapBsonFilter(k, filterMap))
-                    .collect(toList());
-            return Optional.of(match(and(filters)));
+            return Optional.of(match(QueryTranslator.filter(filterMap)));
         } else if(key.equals("$unwind")) {
             return Optional.of(unwind((String) pipelineMap.get("$unwind")));
         } else if(key.equals("$group")) {
@@ -381,167 +890,93 @@ public class MongoDBService {
     @PreDestroy
     public void cleanup() {
         LoggingUtils.info(logger, "dispose of mongoClient");
+        commandMetrics.stopReporting();
+        commandMetrics.log();
+        if(analyticsClient != mongoClient) {
+            analyticsCommandMetrics.stopReporting();
+            analyticsCommandMetrics.log();
+            analyticsClient.close();
+        }
         mongoClient.close();
     }
 
+    // A filter on _id, or an update flagged "atomic" in updateOptions, is sent as a single conditional
+    // updateOne and the matched count tells whether a document qualified. Any other filter is first probed
+    // for at most two matching _ids so that ambiguous filters are still rejected before the update.
     private <T> UpdateResult process(String databaseName, String collectionName, Class<T> clazz,
                                            Map<String, Object> queryFilterMap, Map<String, Object> updateMap,
-                                           Map<String, Object> updateOptions,
-                                           Function<Map<String, Object>, List<Bson>> convert)
+                                           Map<String, Object> updateOptions)
             throws EcommerceException {
         validateDB(databaseName, collectionName);
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
-        List<Document> documents = readAll("ecommerce",
-                collectionName, Document.class, queryFilterMap);
-
-        if(documents.size() == 0) {
-            logger.error("documents contain no record: " +
-                    Objects.toString(queryFilterMap));
-            throw new EcommerceException("documents contain no record: " +
-                    Objects.toString(queryFilterMap));
-        }
-
-        if(documents.size() > 1) {
-            LoggingUtils.info(logger, "documents contain more than one record: " +
-                    Objects.toString(queryFilterMap));
-            throw new EcommerceException("documents contain more than one record: " +
-                    Objects.toString(queryFilterMap));
-        }
-
-        Document document  = documents.get(0);
-        queryFilterMap.put("_id", document.get("_id"));
-        List<Bson> filters = queryFilterMap.keySet()
-                .stream()
-                .map(key -> mapBsonFilter(key, queryFilterMap))
-                .collect(toList());
-        List<Bson>  updates = convert.apply(updateMap);
         if(updateOptions.containsKey("writeConcern")) {
             collection = collection.withWriteConcern(WriteConcern.valueOf(
                     (String) updateOptions.get("writeConcern")));
         }
-        return collection.updateOne(and(filters), combine(updates));
-    }
+        Bson filter = QueryTranslator.filter(queryFilterMap);
 
-    private Bson mapBsonFilter(String key, final Map<String, Object>  queryFilterMap) {
-        Objects.requireNonNull(key);
-        if(key.equals("$eq")) {
-            Map<String, Object> fieldValueMap = (Map<String, Object>) queryFilterMap.get("$eq");
-            List<String> keys = fieldValueMap.keySet().stream().collect(toList());
-            return eq(keys.get(0), fieldValueMap.get(keys.get(0)));
-        } else if(key.equals("$gte")) {
-            Map<String, Object> fieldValueMap = (Map<String, Object>) queryFilterMap.get("$gte");
-            List<String> keys = fieldValueMap.keySet().stream().collect(toList());
-            return gte(keys.get(0), fieldValueMap.get(keys.get(0)));
-        } else if(key.equals("$gt")) {
-            Map<String, Object> fieldValueMap = (Map<String, Object>) queryFilterMap.get("$gt");
-            List<String> keys = fieldValueMap.keySet().stream().collect(toList());
-            return gt(keys.get(0), fieldValueMap.get(keys.get(0)));
-        } else if(key.equals("$lt")) {
-            Map<String, Object> fieldValueMap = (Map<String, Object>) queryFilterMap.get("$lt");
-            List<String> keys = fieldValueMap.keySet().stream().collect(toList());
-            return lt(keys.get(0), fieldValueMap.get(keys.get(0)));
-        } else if(key.equals("$lte")) {
-            Map<String, Object> fieldValueMap = (Map<String, Object>) queryFilterMap.get("$lte");
-            List<String> keys = fieldValueMap.keySet().stream().collect(toList());
-            return lte(keys.get(0), fieldValueMap.get(keys.get(0)));
-        } else if(key.equals("$in")) {
-            Map<String, Object> fieldValueMap = (Map<String, Object>) queryFilterMap.get("$in");
-            List<String> keys = fieldValueMap.keySet().stream().collect(toList());
-            return in(keys.get(0), (List) fieldValueMap.get(keys.get(0)));
-        } else if(key.equals("$regex")) {
-            Map<String, Object> fieldValueMap = (Map<String, Object>) queryFilterMap.get("$regex");
-            List<String> keys = fieldValueMap.keySet().stream().collect(toList());
-            return regex(keys.get(0), (Pattern) fieldValueMap.get(keys.get(0)));
-        } else if(key.equals("$nearSphere")) {
-            Map<String, Object> fieldValueMap = (Map<String, Object>) queryFilterMap.get("$nearSphere");
-            return nearSphere((String) fieldValueMap.get("fieldName"), (Point) fieldValueMap.get("geometry"),
-                    (Double) fieldValueMap.get("maxDistance"),
-                    fieldValueMap.containsKey("minDistance") ? (Double) fieldValueMap.get("minDistance") : 0.0);
-        } else {
-            return eq(key, queryFilterMap.get(key));
+        if(!queryFilterMap.containsKey("_id") && !Boolean.TRUE.equals(updateOptions.get("atomic"))) {
+            List<Object> ids = new ArrayList<>();
+            collection.find(filter)
+                      .projection(Projections.include("_id"))
+                      .limit(2)
+                      .forEach((Consumer<Document>) document -> ids.add(document.get("_id")));
+            if(ids.size() > 1) {
+                LoggingUtils.info(logger, "documents contain more than one record: " +
+                        Objects.toString(queryFilterMap));
+                throw new EcommerceException("documents contain more than one record: " +
+                        Objects.toString(queryFilterMap));
+            }
+            if(ids.isEmpty()) {
+                throw noRecordException(queryFilterMap);
+            }
+            filter = and(filter, eq("_id", ids.get(0)));
         }
-    }
-
-    private List<Bson> convert(Map<String, Object> valueMap) {
-        List<Bson> addOrRemoveOperators = convertAddOrRemove(Optional.ofNullable((Map<String, Object>)
-                valueMap.get("addOrRemove")));
-
-        List<Bson> incOperators = convertIncOperators(Optional.ofNullable((Map<String, Object>)
-                valueMap.get("inc")));
-
-        Optional<Bson> pullOperators = convertPullOperators(Optional.ofNullable((Map<String, Object>)
-                valueMap.get("pull")));
 
-        List<Bson> combined = new ArrayList<>();
-        combined.addAll(addOrRemoveOperators);
-        combined.addAll(incOperators);
-        if(pullOperators.isPresent()) {
-            combined.add(pullOperators.get());
+        UpdateResult updateResult = collection.updateOne(filter, QueryTranslator.update(updateMap));
+        written(databaseName, collectionName, queryFilterMap);
+        if(updateResult.getMatchedCount() == 0) {
+            throw noRecordException(queryFilterMap);
         }
-        return combined;
+        return updateResult;
     }
 
-    private List<Bson> convertAddOrRemove(Optional<Map<String, Object>> valueMapOptional) {
-        if(!valueMapOptional.isPresent()) {
-            return new ArrayList<>();
-        }
-        Map<String, Object> valueMap = valueMapOptional.get();
-        return valueMap.keySet()
-                .stream()
-                .map(key -> {
-                    if (valueMap.get(key) instanceof List) {
-                        if(((List) valueMap.get(key)).size() > 0) {
-                            return pushEach(key, (List) valueMap.get(key));
-                        } else {
-                            return popLast(key);
-                        }
-                    } else {
-                        if(valueMap.get(key) instanceof Optional && !((Optional) valueMap.get(key)).isPresent()) {
-                            return unset(key);
-                        } else {
-                            return set(key, valueMap.get(key));
-                        }
-                    }
-                })
-                .collect(toList());
+    EcommerceException noRecordException(Map<String, Object> queryFilterMap) {
+        logger.error("documents contain no record: " +
+                Objects.toString(queryFilterMap));
+        return new EcommerceException("documents contain no record: " +
+                Objects.toString(queryFilterMap));
     }
 
-    private List<Bson> convertIncOperators(Optional<Map<String, Object>> valueMapOptional) {
-        if (!valueMapOptional.isPresent()) {
-            return new ArrayList<>();
-        }
-        Map<String, Object> valueMap = valueMapOptional.get();
-        return valueMap.keySet()
-                .stream()
-                .map(key -> inc(key, (Integer) valueMap.get(key)))
-                .collect(toList());
-    }
-
-    private Optional<Bson> convertPullOperators(Optional<Map<String, Object>> valueMapOptional) {
-        if (!valueMapOptional.isPresent()) {
-            return Optional.empty();
-        }
-
-        Map<String, Object> valueMap = valueMapOptional.get();
-        Object[] keys = valueMap.keySet().toArray();
-        String key = (String) keys[0];
-        Object value = valueMap.get(key);
-        String[] fields = key.split("\\.");
-        Bson filter = Filters.eq(fields[fields.length - 1], value);
-        for(int i = fields.length - 2; i >= 0; i--) {
-            filter = Filters.eq(fields[i], filter);
-        }
-        return Optional.of(Updates.pullByFilter(filter));
+    public <T> Optional<T> findOneAndUpdate(String databaseName, String collectionName, Class<T> clazz,
+                                            Map<String, Object> queryFilterMap, Map<String, Object> valueMap) {
+        validateDB(databaseName, collectionName);
+        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
+        MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
+        T updated = collection.findOneAndUpdate(QueryTranslator.filter(queryFilterMap),
+                QueryTranslator.update(valueMap),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+        written(databaseName, collectionName, queryFilterMap);
+        return Optional.ofNullable(updated);
     }
 
     public  <T> List<T> performGeoQuery(String databaseName, String collectionName, Class<T> clazz,
                                         Map<String, Object> geoQueryMap, Map<String, Object> filterMap,
                                         List<Map<String, Object>> aggregatePipelineMapList) {
         validateDB(databaseName, collectionName);
-        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
-        MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
+        MongoCollection<T> collection = readCollection(mongoClient, databaseName, collectionName, clazz,
+                Optional.empty());
+        List<T> result = new ArrayList<>();
+        Consumer<T> consumer = document -> {
+            result.add(document);
+        };
+        collection.aggregate(geoQueryPipeline(geoQueryMap, filterMap, aggregatePipelineMapList)).forEach(consumer);
+        return result;
+    }
 
+    List<Bson> geoQueryPipeline(Map<String, Object> geoQueryMap, Map<String, Object> filterMap,
+                                List<Map<String, Object>> aggregatePipelineMapList) {
         Document query = new Document();
         filterMap.keySet().stream()
                 .forEach(key -> query.append(key, new Document("$eq", filterMap.get(key))));
@@ -566,11 +1001,7 @@ public class MongoDBService {
                                 return Optional.of(Aggregates.unwind((String) m.get("$unwind")));
                             } else if (m.containsKey("$match")) {
                                 Map<String, Object> queryFilterMap = (Map<String, Object>) m.get("$match");
-                                List<Bson> filters = queryFilterMap.keySet()
-                                        .stream()
-                                        .map(key -> mapBsonFilter(key, queryFilterMap))
-                                        .collect(toList());
-                                return Optional.of(Aggregates.match(and(filters)));
+                                return Optional.of(Aggregates.match(QueryTranslator.filter(queryFilterMap)));
                             } else {
                                 return Optional.<Bson>empty();
                             }
@@ -586,20 +1017,28 @@ public class MongoDBService {
                 )
         );
         pipeline.add(excluded);
-
-        List<T> result = new ArrayList<>();
-        Consumer<T> consumer = document -> {
-            result.add(document);
-        };
-        collection.aggregate(pipeline).forEach(consumer);
-        return result;
+        return pipeline;
     }
 
     public <T> List<T> executeAggregatePipineline(String databaseName, String collectionName,
                                                  List<Bson> pipeline, Class<T> clazz) {
+        return executeAggregatePipineline(databaseName, collectionName, pipeline, clazz, Optional.empty());
+    }
+
+    public <T> List<T> executeAggregatePipineline(String databaseName, String collectionName,
+                                                 List<Bson> pipeline, Class<T> clazz,
+                                                 ReadPreference readPreference) {
+        Objects.requireNonNull(readPreference);
+        return executeAggregatePipineline(databaseName, collectionName, pipeline, clazz,
+                Optional.of(readPreference));
+    }
+
+    private <T> List<T> executeAggregatePipineline(String databaseName, String collectionName,
+                                                  List<Bson> pipeline, Class<T> clazz,
+                                                  Optional<ReadPreference> readPreference) {
         validateDB(databaseName, collectionName);
-        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
-        MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
+        MongoCollection<T> collection = readCollection(analyticsClient, databaseName, collectionName, clazz,
+                readPreference);
         List<T> results = new ArrayList<>();
         Consumer<T> addResult = r -> results.add(r);
         collection.aggregate(pipeline, clazz).forEach(addResult);
@@ -609,8 +1048,8 @@ public class MongoDBService {
     public <T> List<T> executeAggregatePipineline(String databaseName, String collectionName,
                                                  Map<String, Map<String, Object>> pipelineStageMap, Class<T> clazz) {
         validateDB(databaseName, collectionName);
-        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
-        MongoCollection<T> collection = mongoDatabase.getCollection(collectionName, clazz);
+        MongoCollection<T> collection = readCollection(analyticsClient, databaseName, collectionName, clazz,
+                Optional.empty());
         List<Bson> pipeline = pipelineStageMap.keySet()
                 .stream()
                 .map(key -> getPipelineBson(key, pipelineStageMap.get(key)))
@@ -624,15 +1063,11 @@ public class MongoDBService {
         return results;
     }
 
-    private Optional<Bson> getPipelineBson(String key, Map<String, Object> aggregationMap) {
+    Optional<Bson> getPipelineBson(String key, Map<String, Object> aggregationMap) {
         Objects.requireNonNull(key);
         Objects.requireNonNull(aggregationMap);
         if ("match".equals(key)) {
-            List<Bson> filters = aggregationMap.keySet()
-                    .stream()
-                    .map(k -> mapBsonFilter(k, aggregationMap))
-                    .collect(toList());
-            return Optional.of(Aggregates.match(and(filters)));
+            return Optional.of(Aggregates.match(QueryTranslator.filter(aggregationMap)));
         }
         if ("group".equals(key)) {
             BsonField aggregateField = aggregationMap.keySet()
@@ -660,6 +1095,48 @@ public class MongoDBService {
         MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
         Optional<MongoCollection> collectionOptional = Optional.of(mongoDatabase.getCollection(collectionName));
         collectionOptional.ifPresent(c -> c.drop());
+        written(databaseName, collectionName, null);
+    }
+
+    // Indexes are built in the background so that creating them on a populated collection does not
+    // block other operations on the database.
+    public String createIndex(String databaseName, String collectionName, IndexDefinition indexDefinition) {
+        validateDB(databaseName, collectionName);
+        Objects.requireNonNull(indexDefinition);
+        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
+        MongoCollection<Document> collection = mongoDatabase.getCollection(collectionName);
+        IndexOptions indexOptions = new IndexOptions().background(true)
+                                                      .unique(indexDefinition.isUnique())
+                                                      .name(indexDefinition.getName());
+        indexDefinition.getExpireAfterSeconds()
+                       .ifPresent(seconds -> indexOptions.expireAfter(seconds, TimeUnit.SECONDS));
+        return collection.createIndex(new Document(indexDefinition.getKeys()), indexOptions);
+    }
+
+    public List<Document> listIndexes(String databaseName, String collectionName) {
+        validateDB(databaseName, collectionName);
+        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
+        List<Document> indexes = new ArrayList<>();
+        mongoDatabase.getCollection(collectionName).listIndexes().into(indexes);
+        return indexes;
+    }
+
+    // Per index usage since the server started, one document per index with name and accesses.ops.
+    public List<Document> getIndexStats(String databaseName, String collectionName) {
+        validateDB(databaseName, collectionName);
+        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
+        List<Document> stats = new ArrayList<>();
+        mongoDatabase.getCollection(collectionName)
+                     .aggregate(Collections.singletonList(new Document("$indexStats", new Document())))
+                     .into(stats);
+        return stats;
+    }
+
+    public List<String> listCollectionNames(String databaseName) {
+        Objects.requireNonNull(databaseName);
+        List<String> collectionNames = new ArrayList<>();
+        mongoClient.getDatabase(databaseName).listCollectionNames().into(collectionNames);
+        return collectionNames;
     }
 
     public void performMapReduce(String databaseName, String collectionName, String map, String reduce,
@@ -672,23 +1149,20 @@ public class MongoDBService {
         Objects.requireNonNull(outputCollection);
         Objects.requireNonNull(MapReduceAction.valueOf(action));
         LoggingUtils.info(logger, "collection: " + collectionName);
-        MongoDatabase mongoDatabase = mongoClient.getDatabase(databaseName);
+        MongoDatabase mongoDatabase = analyticsClient.getDatabase(databaseName);
         MongoCollection collection = mongoDatabase.getCollection(collectionName);
         if(collection.count() == 0) {
             LoggingUtils.info(logger, "collection has no documents: " + collectionName);
             return;
         }
-        List<Bson> filters = filterMap.keySet()
-                .stream()
-                .map(key -> mapBsonFilter(key, filterMap))
-                .collect(toList());
+        Bson filter = QueryTranslator.filter(filterMap);
         MapReduceIterable mapReduceIterable = collection.mapReduce(map, reduce)
                 .sharded(sharded)
                 .action(MapReduceAction.valueOf(action))
                 .databaseName(databaseName)
                 .collectionName(outputCollection);
-        if(filters.size() > 0) {
-            mapReduceIterable = mapReduceIterable.filter(and(filters));
+        if(!filterMap.isEmpty()) {
+            mapReduceIterable = mapReduceIterable.filter(filter);
         }
         if(finalize.isPresent()) {
             mapReduceIterable = mapReduceIterable.finalizeFunction(finalize.get());
@@ -696,6 +1170,51 @@ public class MongoDBService {
         mapReduceIterable.toCollection();
     }
 
+    // Reads of collections whose name starts with collectionNamePrefix use readPreference unless a call
+    // passes its own. Without a matching prefix reads use the client's preference: the primary for the
+    // OLTP client, see MongoDBConnectionSettings for the analytics client. Map/reduce always runs on the
+    // primary since it writes its output.
+    public void setReadPreference(String databaseName, String collectionNamePrefix, ReadPreference readPreference) {
+        validateDB(databaseName, collectionNamePrefix);
+        Objects.requireNonNull(readPreference);
+        readPreferences.put(databaseName + "." + collectionNamePrefix, readPreference);
+    }
+
+    // the longest configured prefix of the namespace wins
+    public Optional<ReadPreference> getReadPreference(String databaseName, String collectionName) {
+        String namespace = databaseName + "." + collectionName;
+        return readPreferences.entrySet()
+                .stream()
+                .filter(entry -> namespace.startsWith(entry.getKey()))
+                .max(Comparator.comparingInt(entry -> entry.getKey().length()))
+                .map(Map.Entry::getValue);
+    }
+
+    private <T> MongoCollection<T> readCollection(MongoClient client, String databaseName, String collectionName,
+                                                  Class<T> clazz, Optional<ReadPreference> readPreference) {
+        MongoCollection<T> collection = client.getDatabase(databaseName).getCollection(collectionName, clazz);
+        Optional<ReadPreference> preference = readPreference.isPresent() ?
+                readPreference : getReadPreference(databaseName, collectionName);
+        return preference.isPresent() ? collection.withReadPreference(preference.get()) : collection;
+    }
+
+    // read preference analytics reads default to, the primary when there is no separate analytics client
+    public ReadPreference getAnalyticsReadPreference() {
+        return analyticsClient.getMongoClientOptions().getReadPreference();
+    }
+
+    public CommandMetrics getCommandMetrics() {
+        return commandMetrics;
+    }
+
+    public CommandMetrics getCommandMetrics(MongoDBConnectionSettings.Workload workload) {
+        return workload == MongoDBConnectionSettings.Workload.ANALYTICS ? analyticsCommandMetrics : commandMetrics;
+    }
+
+    private MongoClient client(MongoDBConnectionSettings.Workload workload) {
+        return workload == MongoDBConnectionSettings.Workload.ANALYTICS ? analyticsClient : mongoClient;
+    }
+
     public Document runAdminCommand(Bson command) {
         return mongoClient.getDatabase("admin").runCommand(command);
     }
@@ -0,0 +1,50 @@
+package org.myproject.ecommerce.core.services;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+// One page of a keyset paginated read. The next page token holds the sort key and _id of the last item;
+// pass it to the same read, with the same filter and sort, to continue after that item.
+public class Page<T> {
+    private final List<T> items;
+    private final String nextPageToken;
+    private final String lastItemToken;
+
+    Page(List<T> items, String nextPageToken) {
+        this(items, nextPageToken, nextPageToken);
+    }
+
+    Page(List<T> items, String nextPageToken, String lastItemToken) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextPageToken = nextPageToken;
+        this.lastItemToken = lastItemToken;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    // empty on the last page
+    public Optional<String> getNextPageToken() {
+        return Optional.ofNullable(nextPageToken);
+    }
+
+    // the token after the last item also on the last page, to continue from there once more documents sort
+    // after it; empty when the page has no items
+    public Optional<String> getLastItemToken() {
+        return Optional.ofNullable(lastItemToken);
+    }
+
+    public boolean hasNext() {
+        return nextPageToken != null;
+    }
+
+    @Override
+    public String toString() {
+        return "Page{" +
+                "items=" + items.size() +
+                ", nextPageToken='" + nextPageToken + '\'' +
+                '}';
+    }
+}
@@ -1,19 +1,24 @@
 package org.myproject.ecommerce.core.services;
 
 import org.myproject.ecommerce.core.domain.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.PostConstruct;
 import java.util.*;
 import java.util.regex.Pattern;
 
+import static java.util.stream.Collectors.toList;
+
 @Service
 public class PriceService {
     private final MongoDBService mongoDBService;
     private final ProductCatalogService productCatalogService;
     private final StoreService storeService;
 
+    private static final Logger logger = LoggerFactory.getLogger(PriceService.class);
+
     @Autowired
     public PriceService(MongoDBService mongoDBService, ProductCatalogService productCatalogService,
                         StoreService storeService) {
@@ -22,9 +27,8 @@ public class PriceService {
         this.storeService = storeService;
     }
 
-    @PostConstruct
     public void initialise() {
-        if(getNumberOfPrices() != 14014) {
+        if(mongoDBService.estimatedDocumentCount("ecommerce", "prices") != 14014) {
             deleteAllPrices();
 
             Optional<Product> product = productCatalogService.getProductByProductId("30671", Product.class);
@@ -77,21 +81,30 @@ public class PriceService {
     }
 
     public void createPrice(Product product) {
-        storeService.getAllStores()
+        List<BulkWriteOperation<Price>> prices = storeService.getAllStores()
                 .stream()
                 .map(s -> new Price(product.getProductId() + "_" + s.getStoreId(),
                         generatePrice(s, product)))
-                .forEach(p -> mongoDBService.createOne("ecommerce",
-                        "prices", Price.class, p));
+                .map(BulkWriteOperation::insertOne)
+                .collect(toList());
+        insertPrices(prices);
     }
 
     public void createPrice(ProductVariation productVariation) {
-        storeService.getAllStores()
+        List<BulkWriteOperation<Price>> prices = storeService.getAllStores()
                 .stream()
                 .map(s -> new Price(productVariation.getSku() + "_" + s.getStoreId(),
                         generatePrice(s, productVariation)))
-                .forEach(p -> mongoDBService.createOne("ecommerce",
-                        "prices", Price.class, p));
+                .map(BulkWriteOperation::insertOne)
+                .collect(toList());
+        insertPrices(prices);
+    }
+
+    private void insertPrices(List<BulkWriteOperation<Price>> prices) {
+        mongoDBService.bulkWrite("ecommerce", "prices", Price.class, prices, false)
+                .stream()
+                .filter(result -> !result.isSuccessful())
+                .forEach(result -> logger.error("failed to insert prices: " + result.getErrors()));
     }
 
     public Optional<Integer> getProductPrice(Product product, Optional<Store> store) {
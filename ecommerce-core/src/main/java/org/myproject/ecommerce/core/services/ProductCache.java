@@ -0,0 +1,277 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.myproject.ecommerce.core.codec.CustomCodecProvider;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Bounded read-through cache for catalog lookups. Entries are keyed by lookup field, value and the class
+// the document is decoded into, evicted least recently used beyond maxEntries and expire after ttlMillis.
+// Lookups that found nothing are cached as well, for negativeTtlMillis. Documents are kept encoded and every
+// hit decodes a copy of its own, so callers may modify what they get.
+// A load only lands in the cache if nothing was invalidated while it read, and a document whose stock
+// changed, see invalidateStock, is not served again: entries remember the stock version of their stockKey
+// from before the read and are dropped once it moved on.
+// Entries are indexed by their lookup field and value and by the id of their document, so invalidations
+// remove them directly instead of scanning the cache.
+public class ProductCache {
+    private static final int STOCK_STRIPES = 256;
+
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final CodecRegistry codecRegistry;
+    private final Function<Object, String> stockKeyOf;
+    private final Function<Object, Object> idOf;
+    private final ConcurrentLruMap<Key, Entry> entries;
+    // the entries of each lookup field and value and of each document id
+    private final ConcurrentHashMap<Object, Map<Key, Entry>> index = new ConcurrentHashMap<>();
+    // bumped by every invalidate, before it removes anything
+    private final AtomicLong generation = new AtomicLong();
+    // stock versions of the stock keys, striped by hash
+    private final AtomicLongArray stockVersions = new AtomicLongArray(STOCK_STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public ProductCache(int maxEntries, long ttlMillis, long negativeTtlMillis) {
+        this(maxEntries, ttlMillis, negativeTtlMillis,
+                MongoDBService.codecRegistry(Collections.singletonList(new CustomCodecProvider())),
+                document -> null, document -> null);
+    }
+
+    public ProductCache(int maxEntries, long ttlMillis, long negativeTtlMillis, CodecRegistry codecRegistry,
+                        Function<Object, String> stockKeyOf, Function<Object, Object> idOf) {
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.codecRegistry = codecRegistry;
+        this.stockKeyOf = stockKeyOf;
+        this.idOf = idOf;
+        this.entries = new ConcurrentLruMap<>(maxEntries, this::unindex);
+    }
+
+    public <T> Optional<T> get(String field, Object value, Class<T> clazz, Supplier<Optional<T>> loader) {
+        Optional<T> cached = getIfPresent(field, value, clazz);
+        if(cached != null) {
+            return cached;
+        }
+        Ticket ticket = ticket();
+        Optional<T> loaded = loader.get();
+        put(ticket, field, value, clazz, loaded);
+        return loaded;
+    }
+
+    // Returns null when nothing is cached, Optional.empty() for a cached miss.
+    public <T> Optional<T> getIfPresent(String field, Object value, Class<T> clazz) {
+        Key key = new Key(field, value, clazz);
+        Entry entry = entries.get(key);
+        if(entry != null && isCurrent(entry)) {
+            hits.increment();
+            return Optional.ofNullable(entry.document == null ? null : entry.document.decode(codec(clazz)));
+        }
+        if(entry != null && entries.remove(key, entry)) {
+            unindex(key, entry);
+            expirations.increment();
+        }
+        misses.increment();
+        return null;
+    }
+
+    // Take a ticket before reading the documents to put, so that the put can tell what changed meanwhile.
+    public Ticket ticket() {
+        long[] stockSnapshot = new long[STOCK_STRIPES];
+        for(int i = 0; i < STOCK_STRIPES; i++) {
+            stockSnapshot[i] = stockVersions.get(i);
+        }
+        return new Ticket(generation.get(), stockSnapshot);
+    }
+
+    public <T> void put(String field, Object value, Class<T> clazz, Optional<T> document) {
+        put(ticket(), field, value, clazz, document);
+    }
+
+    public <T> void put(Ticket ticket, String field, Object value, Class<T> clazz, Optional<T> document) {
+        long expiresAt = System.currentTimeMillis() + (document.isPresent() ? ttlMillis : negativeTtlMillis);
+        String stockKey = document.map(stockKeyOf).orElse(null);
+        Entry entry = new Entry(document.map(d -> new RawBsonDocument(d, codec(clazz))).orElse(null), expiresAt,
+                stockKey, stockKey == null ? 0 : ticket.stockSnapshot[stripe(stockKey)],
+                document.map(idOf).orElse(null));
+        Key key = new Key(field, value, clazz);
+        // indexed before it is visible, so that an invalidate that sees the entry finds it
+        index(key.lookup(), key, entry);
+        if(entry.id != null) {
+            index(entry.id, key, entry);
+        }
+        entries.put(key, entry);
+        // an invalidate that bumped the generation before this check may have removed the key before the put
+        if(generation.get() != ticket.generation && entries.remove(key, entry)) {
+            unindex(key, entry);
+        }
+    }
+
+    // Drops the entries looked up by this field and value, cached misses included.
+    public void invalidate(String field, Object value) {
+        invalidateIndexed(Arrays.asList(field, value));
+    }
+
+    // Drops the entries of the document with this id, whatever they were looked up by.
+    public void invalidateDocument(Object id) {
+        invalidateIndexed(Objects.requireNonNull(id));
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+        index.clear();
+    }
+
+    // The stock of the documents with this stock key changed; call it after the write.
+    public void invalidateStock(String stockKey) {
+        stockVersions.incrementAndGet(stripe(stockKey));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return entries.getEvictionCount() + expirations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ProductCache{" +
+                "size=" + size() +
+                ", hits=" + hits.sum() +
+                ", misses=" + misses.sum() +
+                ", evictions=" + getEvictionCount() +
+                '}';
+    }
+
+    private void invalidateIndexed(Object indexKey) {
+        generation.incrementAndGet();
+        Map<Key, Entry> indexed = index.remove(indexKey);
+        if(indexed == null) {
+            return;
+        }
+        indexed.forEach((key, entry) -> {
+            if(entries.remove(key, entry)) {
+                unindex(key, entry);
+            }
+        });
+    }
+
+    private void index(Object indexKey, Key key, Entry entry) {
+        index.compute(indexKey, (k, indexed) -> {
+            Map<Key, Entry> keys = indexed != null ? indexed : new ConcurrentHashMap<>();
+            keys.put(key, entry);
+            return keys;
+        });
+    }
+
+    // only while the index still holds this entry of the key, a later put of the key stays indexed
+    private void unindex(Key key, Entry entry) {
+        unindex(key.lookup(), key, entry);
+        if(entry.id != null) {
+            unindex(entry.id, key, entry);
+        }
+    }
+
+    private void unindex(Object indexKey, Key key, Entry entry) {
+        index.computeIfPresent(indexKey, (k, indexed) -> {
+            indexed.remove(key, entry);
+            return indexed.isEmpty() ? null : indexed;
+        });
+    }
+
+    private boolean isCurrent(Entry entry) {
+        return entry.expiresAt > System.currentTimeMillis() && (entry.stockKey == null ||
+                stockVersions.get(stripe(entry.stockKey)) == entry.stockVersion);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Codec<T> codec(Class<T> clazz) {
+        return codecRegistry.get(clazz);
+    }
+
+    private static int stripe(String stockKey) {
+        return (stockKey.hashCode() & Integer.MAX_VALUE) % STOCK_STRIPES;
+    }
+
+    public static class Ticket {
+        private final long generation;
+        private final long[] stockSnapshot;
+
+        private Ticket(long generation, long[] stockSnapshot) {
+            this.generation = generation;
+            this.stockSnapshot = stockSnapshot;
+        }
+    }
+
+    private static class Key {
+        private final String field;
+        private final Object value;
+        private final Class<?> clazz;
+
+        Key(String field, Object value, Class<?> clazz) {
+            this.field = Objects.requireNonNull(field);
+            this.value = Objects.requireNonNull(value);
+            this.clazz = Objects.requireNonNull(clazz);
+        }
+
+        Object lookup() {
+            return Arrays.asList(field, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return field.equals(key.field) && value.equals(key.value) && clazz.equals(key.clazz);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = field.hashCode();
+            result = 31 * result + value.hashCode();
+            result = 31 * result + clazz.hashCode();
+            return result;
+        }
+    }
+
+    private static class Entry {
+        private final RawBsonDocument document;
+        private final long expiresAt;
+        private final String stockKey;
+        private final long stockVersion;
+        private final Object id;
+
+        Entry(RawBsonDocument document, long expiresAt, String stockKey, long stockVersion, Object id) {
+            this.document = document;
+            this.expiresAt = expiresAt;
+            this.stockKey = stockKey;
+            this.stockVersion = stockVersion;
+            this.id = id;
+        }
+    }
+}
@@ -1,48 +1,205 @@
 package org.myproject.ecommerce.core.services;
 
 import org.bson.types.ObjectId;
+import org.myproject.ecommerce.core.codec.CustomCodecProvider;
 import org.myproject.ecommerce.core.domain.*;
 import org.myproject.ecommerce.core.interfaces.IProductCatalogService;
+import org.myproject.ecommerce.core.utilities.LoggingUtils;
 import org.myproject.ecommerce.core.utilities.SKUCodeProductIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toList;
 
 @Service
 public class ProductCatalogService implements IProductCatalogService {
     private final MongoDBService mongoDBService;
     private final SKUCodeProductIdGenerator skuCodeGeneratorService;
 
-    @Autowired
+    private static final int VARIATIONS_PER_PRODUCT = 4;
+    private static final int SEEDING_CHUNK_PAIRS = 2500;
+    private static final long SEEDING_PROGRESS_INTERVAL_SECONDS = 5;
+    private static final int PRODUCT_CACHE_MAX_ENTRIES = 10000;
+    private static final long PRODUCT_CACHE_TTL_MILLIS = 60000;
+    private static final long PRODUCT_CACHE_NEGATIVE_TTL_MILLIS = 5000;
+    private static final int MULTI_GET_CHUNK_SIZE = 100;
+    private static final int MULTI_GET_THREADS = 4;
+
+    // products are dropped from the cache when their documents or their stock are written, see
+    // productsWritten and StockChangeNotifier; variations are keyed by their sku, which is their _id
+    private final ProductCache productCache = new ProductCache(PRODUCT_CACHE_MAX_ENTRIES,
+            PRODUCT_CACHE_TTL_MILLIS, PRODUCT_CACHE_NEGATIVE_TTL_MILLIS,
+            MongoDBService.codecRegistry(Collections.singletonList(new CustomCodecProvider())),
+            document -> document instanceof Product ? ((Product) document).getSku() : null,
+            document -> document instanceof Product ? ((Product) document).getId() :
+                    document instanceof ProductVariation ? ((ProductVariation) document).getSku() : null);
+    private final ExecutorService multiGetExecutor = Executors.newFixedThreadPool(MULTI_GET_THREADS, r -> {
+        Thread thread = new Thread(r, "product-multi-get");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Logger logger = LoggerFactory.getLogger(ProductCatalogService.class);
+
     public ProductCatalogService(MongoDBService mongoDBService,
                                  SKUCodeProductIdGenerator skuCodeProductIdGenerator) {
+        this(mongoDBService, skuCodeProductIdGenerator, new StockChangeNotifier());
+    }
+
+    @Autowired
+    public ProductCatalogService(MongoDBService mongoDBService,
+                                 SKUCodeProductIdGenerator skuCodeProductIdGenerator,
+                                 StockChangeNotifier stockChangeNotifier) {
         this.mongoDBService = mongoDBService;
         this.skuCodeGeneratorService = skuCodeProductIdGenerator;
+        stockChangeNotifier.addListener(productCache::invalidateStock);
+        mongoDBService.addWriteListener("ecommerce", "product", this::productsWritten);
+        mongoDBService.addWriteListener("ecommerce", "variations", this::variationsWritten);
+    }
+
+    // A write by _id drops the entries of that document, one by sku those of the product with the sku, see
+    // ProductCache.invalidateStock. Anything else, inserts included, may have changed any product or turned a
+    // cached miss into a product, and drops the whole cache.
+    private void productsWritten(Optional<Map<String, Object>> filterMap) {
+        Object id = filterMap.map(filter -> filter.get("_id")).orElse(null);
+        Object sku = filterMap.map(filter -> filter.get("sku")).orElse(null);
+        if(isSingleValue(id)) {
+            productCache.invalidateDocument(id);
+        } else if(sku instanceof String) {
+            productCache.invalidateStock((String) sku);
+        } else {
+            productCache.invalidateAll();
+        }
+    }
+
+    private void variationsWritten(Optional<Map<String, Object>> filterMap) {
+        Object sku = filterMap.map(filter -> filter.get("_id")).orElse(null);
+        if(sku instanceof String) {
+            productCache.invalidateDocument(sku);
+        } else {
+            productCache.invalidateAll();
+        }
+    }
+
+    // a value the filter compares the field with, rather than operators such as $in
+    private static boolean isSingleValue(Object filterValue) {
+        return filterValue != null && !(filterValue instanceof Map) && !(filterValue instanceof Collection);
     }
 
-    @PostConstruct
     public void initialise() {
-        if(mongoDBService.getDocumentCount("ecommerce", "product",
-                Product.class) != 100004) {
+        if(mongoDBService.estimatedDocumentCount("ecommerce", "product") != 100004) {
             deleteAllProductCatalog();
             deleteAllProductVariations();
             deleteAllStoreInventory();
             skuCodeGeneratorService.reset();
             deleteAllPrices();
-            for(int i=0; i<50000; i++) {
-                Product audioAlbum = createAudioAlbumProduct();
-                createAudioAlbumProductVariation(audioAlbum);
-                Product film = createFilmProduct();
-                createFilmProductVariation(film);
-            }
+            seedProductCatalog(50000);
             populateProducts();
         }
     }
 
+    // Seeds pairs audio album/film products, four variations each. The id ranges are reserved up front so
+    // that product i gets the same productId, sku and variation skus as a serial run would hand out, and the
+    // pairs are split into chunks built and bulk inserted by a pool of producer threads.
+    private void seedProductCatalog(int pairs) {
+        long firstProductId = skuCodeGeneratorService.reserveProductIds(pairs * 2);
+        long firstProductSku = skuCodeGeneratorService.reserveProductSKUCodes(pairs * 2);
+        long firstVariationSku = skuCodeGeneratorService.reserveProductVariationSKUCodes(
+                pairs * 2 * VARIATIONS_PER_PRODUCT);
+
+        int producers = Runtime.getRuntime().availableProcessors();
+        ExecutorService executorService = Executors.newFixedThreadPool(producers);
+        ScheduledExecutorService progressReporter = Executors.newSingleThreadScheduledExecutor();
+        AtomicLong seeded = new AtomicLong();
+        long start = System.currentTimeMillis();
+        progressReporter.scheduleAtFixedRate(() -> reportSeedingProgress(seeded.get(), pairs * 2L, start),
+                SEEDING_PROGRESS_INTERVAL_SECONDS, SEEDING_PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        try {
+            List<Future<Boolean>> chunks = new ArrayList<>();
+            for(int from = 0; from < pairs; from += SEEDING_CHUNK_PAIRS) {
+                int chunkStart = from;
+                int chunkEnd = Math.min(pairs, from + SEEDING_CHUNK_PAIRS);
+                chunks.add(executorService.submit(() -> seedProductCatalogChunk(chunkStart, chunkEnd,
+                        firstProductId, firstProductSku, firstVariationSku, seeded)));
+            }
+            boolean successful = true;
+            for(Future<Boolean> chunk : chunks) {
+                successful &= chunk.get();
+            }
+            if(!successful) {
+                logger.error("product catalog seeding reported write errors");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("product catalog seeding interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("product catalog seeding failed", e.getCause());
+        } finally {
+            progressReporter.shutdownNow();
+            executorService.shutdownNow();
+        }
+        reportSeedingProgress(seeded.get(), pairs * 2L, start);
+    }
+
+    private boolean seedProductCatalogChunk(int from, int to, long firstProductId, long firstProductSku,
+                                            long firstVariationSku, AtomicLong seeded) {
+        try(BulkWriter<Product> products = mongoDBService.bulkWriter("ecommerce", "product",
+                Product.class, false);
+            BulkWriter<ProductVariation> variations = mongoDBService.bulkWriter("ecommerce", "variations",
+                ProductVariation.class, false)) {
+            for(int i = from; i < to; i++) {
+                int audioAlbumIndex = i * 2;
+                int filmIndex = audioAlbumIndex + 1;
+                Product audioAlbum = buildAudioAlbumProduct(
+                        SKUCodeProductIdGenerator.formatProductId(firstProductId + audioAlbumIndex),
+                        SKUCodeProductIdGenerator.formatProductSKUCode(firstProductSku + audioAlbumIndex));
+                products.insertOne(audioAlbum);
+                buildAudioAlbumProductVariation(audioAlbum,
+                        variationSkuCodes(firstVariationSku + audioAlbumIndex * VARIATIONS_PER_PRODUCT))
+                        .forEach(variations::insertOne);
+                Product film = buildFilmProduct(
+                        SKUCodeProductIdGenerator.formatProductId(firstProductId + filmIndex),
+                        SKUCodeProductIdGenerator.formatProductSKUCode(firstProductSku + filmIndex));
+                products.insertOne(film);
+                buildFilmProductVariation(film,
+                        variationSkuCodes(firstVariationSku + filmIndex * VARIATIONS_PER_PRODUCT))
+                        .forEach(variations::insertOne);
+                seeded.addAndGet(2);
+            }
+            products.flush();
+            variations.flush();
+            return !products.hasErrors() && !variations.hasErrors();
+        }
+    }
+
+    private Supplier<String> variationSkuCodes(long firstVariationSku) {
+        AtomicLong next = new AtomicLong(firstVariationSku);
+        return () -> SKUCodeProductIdGenerator.formatProductVariationSKUCode(next.getAndIncrement());
+    }
+
+    private void reportSeedingProgress(long seeded, long total, long start) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        LoggingUtils.info(logger, String.format("seeded %d/%d products in %d ms (%d products/s)",
+                seeded, total, elapsed, seeded * 1000 / elapsed));
+    }
+
     private void populateProducts() {
         // build prep-populated products
         Film matrix = createMatrixFilmProduct(skuCodeGeneratorService.createProductId(), "0ab42f88");
@@ -72,9 +229,7 @@ public class ProductCatalogService implements IProductCatalogService {
         Product product = mongoDBService.readOne("ecommerce", "product",
                 Product.class, filterMap).get();
         product.setSku("sku11736");
-        filterMap.put("_id", product.getId());
-        mongoDBService.deleteOne("ecommerce", "product", filterMap);
-        mongoDBService.createOne("ecommerce", "product", Product.class, product);
+        replaceProduct(product);
 
         filterMap.clear();
         filterMap.put("productId", "20034");
@@ -110,6 +265,20 @@ public class ProductCatalogService implements IProductCatalogService {
         mongoDBService.deleteOne("ecommerce", "product", filterMap);
     }
 
+    // a replacement may move the product to another sku or productId that has a miss cached
+    public boolean replaceProduct(Product product) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", product.getId());
+        boolean replaced = mongoDBService.replaceOne("ecommerce", "product", Product.class, filterMap, product);
+        productCache.invalidate("product.sku", product.getSku());
+        productCache.invalidate("product.productId", product.getProductId());
+        return replaced;
+    }
+
+    public ProductCache getProductCache() {
+        return productCache;
+    }
+
     public Product createAudioAlbumProduct() {
         Product audioAlbum = buildAudioAlbumProduct();
         mongoDBService.createOne("ecommerce", "product", Product.class, audioAlbum);
@@ -123,29 +292,119 @@ public class ProductCatalogService implements IProductCatalogService {
     }
 
     public <T> Optional<T> getProductBySku(String sku, Class<T> clazz) {
-        Map<String, Object> filter = new HashMap<>();
-        filter.put("sku", sku);
-        return mongoDBService.readOne("ecommerce", "product", clazz, filter);
+        return productCache.get("product.sku", sku, clazz, () -> {
+            Map<String, Object> filter = new HashMap<>();
+            filter.put("sku", sku);
+            return mongoDBService.readOne("ecommerce", "product", clazz, filter);
+        });
     }
 
     public <T> Optional<T> getProductVariationBySku(String sku, Class<T> clazz) {
-        Map<String, Object> filter = new HashMap<>();
-        filter.put("_id", sku);
-        return mongoDBService.readOne("ecommerce", "variations", clazz, filter);
+        return productCache.get("variation.sku", sku, clazz, () -> {
+            Map<String, Object> filter = new HashMap<>();
+            filter.put("_id", sku);
+            return mongoDBService.readOne("ecommerce", "variations", clazz, filter);
+        });
     }
 
     public <T> Optional<T> getProductByProductId(String productId, Class<T> clazz) {
-        Map<String, Object> filter = new HashMap<>();
-        filter.put("productId", productId);
-        return mongoDBService.readOne("ecommerce", "product", clazz, filter);
+        return productCache.get("product.productId", productId, clazz, () -> {
+            Map<String, Object> filter = new HashMap<>();
+            filter.put("productId", productId);
+            return mongoDBService.readOne("ecommerce", "product", clazz, filter);
+        });
     }
 
-    public <T> List<T> getProducts(List<String> productIds, Class<T> clazz) {
+    public <T extends Product> List<T> getProducts(List<String> productIds, Class<T> clazz) {
+        return getProducts(productIds, clazz, Collections.emptyList());
+    }
+
+    // Multi-get in the order of productIds; unknown ids are left out. Cached products are merged in, the
+    // rest is read with $in queries of at most MULTI_GET_CHUNK_SIZE ids that run concurrently. With a
+    // non-empty fields list only those fields (and productId) are read, and the results are not cached.
+    public <T extends Product> List<T> getProducts(List<String> productIds, Class<T> clazz, List<String> fields) {
+        Optional<Map<String, Integer>> projection = Optional.empty();
+        if(!fields.isEmpty()) {
+            Map<String, Integer> projectionMap = new HashMap<>();
+            fields.forEach(field -> projectionMap.put(field, 1));
+            projectionMap.put("productId", 1);
+            projection = Optional.of(projectionMap);
+        }
+        return multiGet(productIds, clazz, projection, Product::getProductId, !projection.isPresent());
+    }
+
+    // Listing variant of getProducts that only reads the fields of ProductSummary.
+    public List<ProductSummary> getProductSummaries(List<String> productIds) {
+        return multiGet(productIds, ProductSummary.class,
+                Optional.of(mongoDBService.projectionFor(ProductSummary.class)), ProductSummary::getProductId, false);
+    }
+
+    // Pages through the catalog in productId order without skipping: pass the next page token of a page to
+    // read the one after it. Pages are not cached.
+    public <T extends Product> Page<T> getProductPage(Optional<String> pageToken, int pageSize, Class<T> clazz) {
+        return mongoDBService.readPage("ecommerce", "product", clazz, new HashMap<>(), "productId", 1,
+                pageToken, pageSize);
+    }
+
+    public Page<ProductSummary> getProductSummaryPage(Optional<String> pageToken, int pageSize) {
+        return mongoDBService.readPage("ecommerce", "product", ProductSummary.class, new HashMap<>(),
+                "productId", 1, pageToken, pageSize, Optional.of(mongoDBService.projectionFor(ProductSummary.class)));
+    }
+
+    private <T> List<T> multiGet(List<String> productIds, Class<T> clazz, Optional<Map<String, Integer>> projection,
+                                 Function<T, String> productIdOf, boolean cached) {
+        Map<String, T> products = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        ProductCache.Ticket ticket = productCache.ticket();
+        for(String productId : new LinkedHashSet<>(productIds)) {
+            Optional<T> hit = cached ? productCache.getIfPresent("product.productId", productId, clazz) : null;
+            if(hit != null && hit.isPresent()) {
+                products.put(productId, hit.get());
+            } else {
+                missing.add(productId);
+            }
+        }
+
+        List<List<String>> chunks = new ArrayList<>();
+        for(int from = 0; from < missing.size(); from += MULTI_GET_CHUNK_SIZE) {
+            chunks.add(missing.subList(from, Math.min(missing.size(), from + MULTI_GET_CHUNK_SIZE)));
+        }
+        List<T> fetched = new ArrayList<>();
+        if(chunks.size() == 1) {
+            fetched.addAll(readProducts(chunks.get(0), clazz, projection));
+        } else if(chunks.size() > 1) {
+            List<CompletableFuture<List<T>>> futures = chunks.stream()
+                    .map(chunk -> CompletableFuture.supplyAsync(() -> readProducts(chunk, clazz, projection),
+                            multiGetExecutor))
+                    .collect(toList());
+            futures.forEach(future -> fetched.addAll(future.join()));
+        }
+        for(T product : fetched) {
+            products.put(productIdOf.apply(product), product);
+            if(cached) {
+                productCache.put(ticket, "product.productId", productIdOf.apply(product), clazz,
+                        Optional.of(product));
+            }
+        }
+
+        return productIds.stream()
+                         .map(products::get)
+                         .filter(Objects::nonNull)
+                         .collect(toList());
+    }
+
+    private <T> List<T> readProducts(List<String> productIds, Class<T> clazz,
+                                     Optional<Map<String, Integer>> projection) {
         Map<String, Object> valueMap = new HashMap<>();
         valueMap.put("productId", productIds);
         Map<String, Object> filterMap = new HashMap<>();
         filterMap.put("$in", valueMap);
-        return mongoDBService.readAll("ecommerce", "product", clazz, filterMap);
+        return mongoDBService.readAll("ecommerce", "product", clazz, filterMap, Optional.empty(), projection);
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        multiGetExecutor.shutdownNow();
     }
 
     public <T> List<T> getAllProductVariationsByProductId(String productId, Class<T> clazz) {
@@ -156,7 +415,10 @@ public class ProductCatalogService implements IProductCatalogService {
 
     private AudioAlbum buildAudioAlbumProduct() {
         String productId = skuCodeGeneratorService.createProductId();
-        String sku = skuCodeGeneratorService.createProductSKUCode();
+        return buildAudioAlbumProduct(productId, skuCodeGeneratorService.createProductSKUCode());
+    }
+
+    private AudioAlbum buildAudioAlbumProduct(String productId, String sku) {
         String genre = AudioAlbumGenreType.JAZZ.toString();
         AudioAlbum.AudioAlbumBuilder builder = new AudioAlbum.AudioAlbumBuilder(productId, sku,
                 ProductType.AUDIOALBUM.toString());
@@ -180,7 +442,10 @@ public class ProductCatalogService implements IProductCatalogService {
 
     private Film buildFilmProduct() {
         String productId = skuCodeGeneratorService.createProductId();
-        String sku = skuCodeGeneratorService.createProductSKUCode();
+        return buildFilmProduct(productId, skuCodeGeneratorService.createProductSKUCode());
+    }
+
+    private Film buildFilmProduct(String productId, String sku) {
         String genre = FilmGenreType.THRILLER.toString();
         Film.FilmBuilder builder = new Film.FilmBuilder(productId, sku, ProductType.FILM.toString());
         builder.buildGenre(genre).buildTitle("The Matrix [1999][DVD]").buildDescription("by Joel Silver")
@@ -247,41 +512,55 @@ public class ProductCatalogService implements IProductCatalogService {
     }
 
     private List<ProductVariation> createAudioAlbumProductVariation(Product audioAlbum) {
+        List<ProductVariation> variations = buildAudioAlbumProductVariation(audioAlbum,
+                skuCodeGeneratorService::createProductVariationSKUCode);
+        mongoDBService.createAll("ecommerce", "variations",
+                ProductVariation.class, variations);
+        return variations;
+    }
+
+    private List<ProductVariation> buildAudioAlbumProductVariation(Product audioAlbum,
+                                                                   Supplier<String> variationSkuCodes) {
         List<ProductVariation> variations = new ArrayList<>();
         ProductVariation productVariation = new ProductVariation();
-        productVariation.setSku(skuCodeGeneratorService.createProductVariationSKUCode());
+        productVariation.setSku(variationSkuCodes.get());
         productVariation.setProductId(audioAlbum.getProductId());
         productVariation.addAttribute("MP3");
         variations.add(productVariation);
 
         productVariation = new ProductVariation();
-        productVariation.setSku(skuCodeGeneratorService.createProductVariationSKUCode());
+        productVariation.setSku(variationSkuCodes.get());
         productVariation.setProductId(audioAlbum.getProductId());
         productVariation.addAttribute("Audio CD");
         variations.add(productVariation);
 
         productVariation = new ProductVariation();
-        productVariation.setSku(skuCodeGeneratorService.createProductVariationSKUCode());
+        productVariation.setSku(variationSkuCodes.get());
         productVariation.setProductId(audioAlbum.getProductId());
         productVariation.addAttribute("Vinyl");
         variations.add(productVariation);
 
         productVariation = new ProductVariation();
-        productVariation.setSku(skuCodeGeneratorService.createProductVariationSKUCode());
+        productVariation.setSku(variationSkuCodes.get());
         productVariation.setProductId(audioAlbum.getProductId());
         productVariation.addAttribute("Blu-ray Audio");
         variations.add(productVariation);
 
+        return variations;
+    }
+
+    private List<ProductVariation> createFilmProductVariation(Product film) {
+        List<ProductVariation> variations = buildFilmProductVariation(film,
+                skuCodeGeneratorService::createProductVariationSKUCode);
         mongoDBService.createAll("ecommerce", "variations",
                 ProductVariation.class, variations);
-
         return variations;
     }
 
-    private List<ProductVariation> createFilmProductVariation(Product film) {
+    private List<ProductVariation> buildFilmProductVariation(Product film, Supplier<String> variationSkuCodes) {
         List<ProductVariation> variations = new ArrayList<>();
         ProductVariation productVariation = new ProductVariation();
-        productVariation.setSku(skuCodeGeneratorService.createProductVariationSKUCode());
+        productVariation.setSku(variationSkuCodes.get());
         productVariation.setProductId(film.getProductId());
         productVariation.addAttribute("Blu-ray");
         productVariation.addAttribute("1999");
@@ -291,7 +570,7 @@ public class ProductCatalogService implements IProductCatalogService {
         variations.add(productVariation);
 
         productVariation = new ProductVariation();
-        productVariation.setSku(skuCodeGeneratorService.createProductVariationSKUCode());
+        productVariation.setSku(variationSkuCodes.get());
         productVariation.setProductId(film.getProductId());
         productVariation.addAttribute("Blu-ray");
         productVariation.addAttribute("1999");
@@ -301,7 +580,7 @@ public class ProductCatalogService implements IProductCatalogService {
         variations.add(productVariation);
 
         productVariation = new ProductVariation();
-        productVariation.setSku(skuCodeGeneratorService.createProductVariationSKUCode());
+        productVariation.setSku(variationSkuCodes.get());
         productVariation.setProductId(film.getProductId());
         productVariation.addAttribute("Blu-ray");
         productVariation.addAttribute("1999");
@@ -311,7 +590,7 @@ public class ProductCatalogService implements IProductCatalogService {
         variations.add(productVariation);
 
         productVariation = new ProductVariation();
-        productVariation.setSku(skuCodeGeneratorService.createProductVariationSKUCode());
+        productVariation.setSku(variationSkuCodes.get());
         productVariation.setProductId(film.getProductId());
         productVariation.addAttribute("Blu-ray");
         productVariation.addAttribute("1999");
@@ -320,9 +599,6 @@ public class ProductCatalogService implements IProductCatalogService {
         productVariation.addAttribute("Used");
         variations.add(productVariation);
 
-        mongoDBService.createAll("ecommerce", "variations",
-                ProductVariation.class, variations);
-
         return variations;
     }
 }
\ No newline at end of file
@@ -6,7 +6,6 @@ import org.myproject.ecommerce.core.interfaces.IProductCategoryService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.PostConstruct;
 import java.util.*;
 
 @Service
@@ -19,7 +18,6 @@ public class ProductCategoryService implements IProductCategoryService {
     }
 
     @Override
-    @PostConstruct
     public void initialise() {
         deleteAllCategories();
         populateCategories();
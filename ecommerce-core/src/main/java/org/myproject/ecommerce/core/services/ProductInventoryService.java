@@ -1,29 +1,59 @@
 package org.myproject.ecommerce.core.services;
 
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.myproject.ecommerce.core.domain.*;
 import org.myproject.ecommerce.core.interfaces.IProductInventoryService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.PostConstruct;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 
+// The stock a cart holds is recorded in the reservation collection, one document per cart and sku, so product
+// documents only carry the stock that is left and keep their size.
 @Service
 public class ProductInventoryService implements IProductInventoryService {
+    public static final String RESERVATION_COLLECTION = "reservation";
+    // how long a released reservation that was not deleted is kept
+    public static final long RELEASED_RESERVATION_TTL_SECONDS = 3600;
+
     private final MongoDBService mongoDBService;
     private final PaymentService paymentService;
+    private final InventoryCounterService inventoryCounterService;
+    private final StockChangeNotifier stockChangeNotifier;
+    private volatile CartExpiryWheel cartExpiryWheel;
+    private InventoryCleanupSweeper inventoryCleanupSweeper;
+    private volatile ReservationEngine reservationEngine;
+    // the cart operations started, which the cleanup sweeper makes way for
+    private final LongAdder foregroundOperations = new LongAdder();
 
-    @Autowired
     public ProductInventoryService(MongoDBService mongoDBService, PaymentService paymentService) {
+        this(mongoDBService, paymentService, new InventoryCounterService(mongoDBService));
+    }
+
+    public ProductInventoryService(MongoDBService mongoDBService, PaymentService paymentService,
+                                   InventoryCounterService inventoryCounterService) {
+        this(mongoDBService, paymentService, inventoryCounterService,
+                inventoryCounterService.getStockChangeNotifier());
+    }
+
+    @Autowired
+    public ProductInventoryService(MongoDBService mongoDBService, PaymentService paymentService,
+                                   InventoryCounterService inventoryCounterService,
+                                   StockChangeNotifier stockChangeNotifier) {
         this.mongoDBService = mongoDBService;
         this.paymentService = paymentService;
+        this.inventoryCounterService = inventoryCounterService;
+        this.stockChangeNotifier = stockChangeNotifier;
     }
 
     @Override
-    @PostConstruct
     public void initialise() {
         deleteAllCarts("ecommerce");
         populateCarts();
@@ -37,38 +67,65 @@ public class ProductInventoryService implements IProductInventoryService {
         updateMap.put("addOrRemove", valueMap);
         mongoDBService.updateOne("ecommerce", "product", Product.class,
                 queryFilterMap, updateMap, new HashMap<>());
+        stockChangeNotifier.stockChanged("00e8da9b");
     }
 
     @Override
     public void deleteAllCarts(String database) {
         mongoDBService.deleteAll(database, "cart");
+        mongoDBService.deleteAll(database, RESERVATION_COLLECTION);
+        mongoDBService.deleteAll(database, CartExpiryWheel.COLLECTION);
+        // the demo carts are older than the watermark
+        mongoDBService.deleteAll(database, InventoryCleanupSweeper.WATERMARK_COLLECTION);
 
         Map<String, Object> filterMap = new HashMap<>();
         filterMap.put("sku", "00e8da9b");
         Map<String, Object> valueMap = new HashMap<>();
         valueMap.put("qty", 16);
-        valueMap.put("carted", Optional.empty());
         Map<String, Object> updateMap = new HashMap<>();
         updateMap.put("addOrRemove", valueMap);
         mongoDBService.updateOne("ecommerce", "product", Product.class,
                 filterMap, updateMap, new HashMap<>());
+        stockChangeNotifier.stockChanged("00e8da9b");
 
         filterMap.clear();
         filterMap.put("sku", "0ab42f88");
         valueMap.clear();
         valueMap.put("qty", 16);
-        valueMap.put("carted", Optional.empty());
         updateMap.clear();
         updateMap.put("addOrRemove", valueMap);
         mongoDBService.updateOne("ecommerce", "product", Product.class,
                 filterMap, updateMap, new HashMap<>());
+        stockChangeNotifier.stockChanged("0ab42f88");
     }
 
+    // The stock is taken and reserved before the line item is added, so a cart that turned out inactive gives
+    // back exactly what this call reserved and the line items already in the cart keep theirs.
     @Override
     public void addItemToCart(int cartId, String sku, int quantity, ShoppingCartItemDetails details)
             throws EcommerceException {
+        foregroundOperations.increment();
         Date now = new Date();
 
+        // Take the stock and record it in the cart's reservation of the sku, which adds up the line items
+        // of the same sku
+        boolean sharded = inventoryCounterService.isSharded(sku);
+        if(!takeStock(sku, quantity, sharded)) {
+            if(!isCartActive(cartId)) {
+                throw new CartInactiveException("Cart Inactive: " + cartId);
+            }
+            throw new InadequateInventoryException("Inadquate Inventory: " + "cart id: " +
+                    cartId + ", quantity: " + quantity);
+        }
+        BulkWriteOperation<Reservation> reservationUpdate = reservationUpdate(sku, cartId, quantity, now, true);
+        Map<String, Object> updateOptions = new HashMap<>();
+        updateOptions.put("upsert", true);
+        if(mongoDBService.conditionalUpdateOne("ecommerce", RESERVATION_COLLECTION, Reservation.class,
+                reservationUpdate.getFilterMap(), reservationUpdate.getUpdateMap(), updateOptions) == 0) {
+            returnStock(sku, quantity, sharded);
+            throw new EcommerceException("unable to record the reservation of cart: " + cartId + ", sku: " + sku);
+        }
+
         // Make sure the cart is still active and add the line item
         Map<String, Object> filterMap = new HashMap<>();
         filterMap.put("_id", cartId);
@@ -78,49 +135,58 @@ public class ProductInventoryService implements IProductInventoryService {
         valueMap.put("items", Arrays.asList(new ShoppingCartItem(sku, quantity, details)));
         Map<String, Object> added = new HashMap<>();
         added.put("addOrRemove", valueMap);
-        boolean result = mongoDBService.addOne("ecommerce", "cart", ShoppingCart.class,
-                filterMap, added);
-        if(!result) {
+        if(!mongoDBService.addOne("ecommerce", "cart", ShoppingCart.class, filterMap, added)) {
+            unreserve(cartId, sku, quantity, sharded);
             throw new CartInactiveException("Cart Inactive: " + cartId);
         }
+        touched(cartId, now);
+    }
 
-        // Update inventory
-        HashMap<String, Object> quantityQueryMap = new HashMap<>();
-        quantityQueryMap.put("qty", quantity);
-        filterMap.clear();
-        filterMap.put("sku", sku);
-        filterMap.put("$gte", quantityQueryMap);
-        HashMap<String, Object> quantityUpdateMap = new HashMap<>();
-        quantityUpdateMap.put("qty", Math.negateExact(quantity));
-        valueMap.clear();
-        valueMap.put("carted", Arrays.asList(new Product.CartedItem(quantity, cartId, now)));
-        Map<String, Object> combined = new HashMap<>();
-        combined.put("addOrRemove", valueMap);
-        combined.put("inc", quantityUpdateMap);
-        result = mongoDBService.updateOne("ecommerce", "product", Product.class,
-                                            filterMap, combined, new HashMap<>());
-        if(!result) {
-            // roll back our cart update and return item to product
-            filterMap.clear();
-            filterMap.put("_id", cartId);
-            valueMap.clear();
-            valueMap.put("items", new ArrayList<>());
-            combined.clear();
-            combined.put("addOrRemove", valueMap);
-            result = mongoDBService.updateOne("ecommerce", "cart", ShoppingCart.class,
-                    filterMap, combined, new HashMap<>());
-            if(!result) {
-                throw new EcommerceException("roll back failed: " + ", cart_id: " +
-                        cartId + ", details.sku: " + sku);
-            }
+    // The batch variant of addItemToCart: the stock is taken, one bulk write records the reservations and one
+    // cart update adds the line items, whatever the number of items. All items are reserved or none is.
+    @Override
+    public void addItemsToCart(int cartId, List<ShoppingCartItem> items) throws EcommerceException {
+        foregroundOperations.increment();
+        if(items.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
 
+        // Take the stock of every sku, line items of the same sku add up, and record the reservations
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        items.forEach(item -> quantities.merge(item.getSku(), item.getQuantity(), Integer::sum));
+        Map<String, Integer> shortfalls = takeStock(quantities);
+        if(!shortfalls.isEmpty()) {
+            if(!isCartActive(cartId)) {
+                throw new CartInactiveException("Cart Inactive: " + cartId);
+            }
             throw new InadequateInventoryException("Inadquate Inventory: " + "cart id: " +
-                    cartId + ", quantity: " + quantity);
+                    cartId + ", shortfalls: " + shortfalls, shortfalls);
+        }
+        if(!reserve(cartId, quantities, now)) {
+            returnStock(quantities);
+            throw new EcommerceException("unable to record the reservations of cart: " + cartId);
         }
+
+        // Make sure the cart is still active and add the line items
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", cartId);
+        filterMap.put("status", ShoppingCartStatus.ACTIVE.toString());
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put("last_modified", now);
+        valueMap.put("items", new ArrayList<>(items));
+        Map<String, Object> added = new HashMap<>();
+        added.put("addOrRemove", valueMap);
+        if(!mongoDBService.addOne("ecommerce", "cart", ShoppingCart.class, filterMap, added)) {
+            unreserve(cartId, quantities);
+            throw new CartInactiveException("Cart Inactive: " + cartId);
+        }
+        touched(cartId, now);
     }
 
     @Override
     public void updateCartQuantity(int cartId, String sku, int oldQty, int newQty) throws EcommerceException {
+        foregroundOperations.increment();
         Date now = new Date();
         int deltaQty = newQty - oldQty;
 
@@ -139,26 +205,35 @@ public class ProductInventoryService implements IProductInventoryService {
         if(!result) {
             throw new CartInactiveException("Cart Inactive: " + cartId);
         }
+        touched(cartId, now);
 
-        // Update the inventory
-        HashMap<String, Object> quantityQueryMap = new HashMap<>();
-        quantityQueryMap.put("qty", deltaQty);
-        filterMap.clear();
-        filterMap.put("sku", sku);
-        filterMap.put("carted.cart_id", cartId);
-        filterMap.put("$gte", quantityQueryMap);
-        HashMap<String, Object> quantityUpdateMap = new HashMap<>();
-        quantityUpdateMap.put("qty", Math.negateExact(deltaQty));
-        valueMap.clear();
-        valueMap.put("carted.$.qty", newQty);
-        valueMap.put("carted.$.timestamp", now);
-        Map<String, Object> combined = new HashMap<>();
-        combined.put("addOrRemove", valueMap);
-        combined.put("inc", quantityUpdateMap);
-        Map<String, Object> updateOptions = new HashMap<>();
-        updateOptions.put("writeConcern", "W1");
-        result = mongoDBService.updateOne("ecommerce", "product", Product.class,
-                filterMap, combined, updateOptions);
+        // Update the inventory; an increase is taken from the stock first, a decrease is returned to it
+        // once the reservation is updated
+        boolean sharded = inventoryCounterService.isSharded(sku);
+        result = deltaQty <= 0 || takeStock(sku, deltaQty, sharded);
+        if(result) {
+            // the reservation adds up the line items of the sku, so it changes by the difference; a released
+            // one holds nothing to change
+            HashMap<String, Object> quantityQueryMap = new HashMap<>();
+            quantityQueryMap.put("qty", Math.max(1, Math.negateExact(deltaQty)));
+            filterMap.clear();
+            filterMap.put("_id", Reservation.id(sku, cartId));
+            filterMap.put("$gte", quantityQueryMap);
+            HashMap<String, Object> quantityUpdateMap = new HashMap<>();
+            quantityUpdateMap.put("qty", deltaQty);
+            valueMap.clear();
+            valueMap.put("timestamp", now);
+            Map<String, Object> combined = new HashMap<>();
+            combined.put("addOrRemove", valueMap);
+            combined.put("inc", quantityUpdateMap);
+            Map<String, Object> updateOptions = new HashMap<>();
+            updateOptions.put("writeConcern", "W1");
+            result = mongoDBService.conditionalUpdateOne("ecommerce", RESERVATION_COLLECTION, Reservation.class,
+                    filterMap, combined, updateOptions) == 1;
+            if(result ? deltaQty < 0 : deltaQty > 0) {
+                returnStock(sku, Math.abs(deltaQty), sharded);
+            }
+        }
         if(!result) {
             // roll back our cart update
             filterMap.clear();
@@ -179,6 +254,7 @@ public class ProductInventoryService implements IProductInventoryService {
 
     @Override
     public void processCheckout(int cartId) throws CartInactiveException {
+        foregroundOperations.increment();
         Date now = new Date();
 
         // Make sure the cart is still active and add the line item
@@ -190,16 +266,16 @@ public class ProductInventoryService implements IProductInventoryService {
         valueMap.put("status", ShoppingCartStatus.PENDING.toString());
         Map<String, Object> updated = new HashMap<>();
         updated.put("addOrRemove", valueMap);
-        boolean result = mongoDBService.updateOne("ecommerce", "cart", ShoppingCart.class,
-                filterMap, updated, new HashMap<>());
-        if(!result) {
+        Optional<ShoppingCart> pendingCart = mongoDBService.findOneAndUpdate("ecommerce", "cart",
+                ShoppingCart.class, filterMap, updated);
+        if(!pendingCart.isPresent()) {
             throw new CartInactiveException("Cart Inactive: " + cartId);
         }
+        boolean result;
 
         // Validate payment details; collect payment
         try {
-            ShoppingCart cart = getCartByCartId(cartId);
-            paymentService.collectPayment(cart);
+            paymentService.collectPayment(pendingCart.get());
 
             filterMap.clear();
             filterMap.put("_id", cartId);
@@ -213,17 +289,13 @@ public class ProductInventoryService implements IProductInventoryService {
                 throw new EcommerceException("Cart status update failed, cart id: " + cartId);
             }
 
+            // the reserved stock is sold, only the reservations go
             filterMap.clear();
-            filterMap.put("carted.cart_id", cartId);
-            valueMap.clear();
-            valueMap.put("carted.cart_id", cartId);
-            Map<String, Object> combined = new HashMap<>();
-            combined.put("pull", valueMap);
-            result = mongoDBService.updateMany("ecommerce", "product",
-                    filterMap, combined);
-
-            if(!result) {
-                throw new EcommerceException("Cart status update failed, cart id: " + cartId);
+            filterMap.put("cart_id", cartId);
+            mongoDBService.deleteMany("ecommerce", RESERVATION_COLLECTION, filterMap);
+            CartExpiryWheel wheel = cartExpiryWheel;
+            if(wheel != null) {
+                wheel.cancel(cartId);
             }
 
         } catch(EcommerceException e) {
@@ -259,13 +331,141 @@ public class ProductInventoryService implements IProductInventoryService {
 
         filterMap.clear();
         filterMap.put("status", ShoppingCartStatus.EXPIRING.toString());
-        List<ShoppingCart> carts = mongoDBService.readAll("ecommerce", "cart",
-                ShoppingCart.class, filterMap);
-        carts.stream()
-             .forEach(cart -> {
-                 cart.getItems().stream()
-                                .forEach(item -> returnCartItem(cart.getCartId(), item));
-             });
+        Map<String, Integer> projectionMap = new HashMap<>();
+        projectionMap.put("_id", 1);
+        try(Stream<ShoppingCart> carts = mongoDBService.stream("ecommerce", "cart",
+                ShoppingCart.class, filterMap, Optional.empty(), Optional.of(projectionMap),
+                MongoDBService.DEFAULT_BATCH_SIZE)) {
+            List<Integer> batch = new ArrayList<>();
+            carts.forEach(cart -> {
+                batch.add(cart.getCartId());
+                if(batch.size() == MongoDBService.DEFAULT_BATCH_SIZE) {
+                    expireCarts(batch);
+                    batch.clear();
+                }
+            });
+            expireCarts(batch);
+        }
+    }
+
+    // Expires carts as their deadline passes, timeout seconds after their last change, instead of waiting for
+    // processExpiringCarts; see CartExpiryWheel.
+    @Override
+    public synchronized void startCartExpiry(long timeout) {
+        if(cartExpiryWheel != null) {
+            throw new IllegalStateException("cart expiry is already running");
+        }
+        CartExpiryWheel wheel = new CartExpiryWheel(mongoDBService, timeout, this::expireDueCarts);
+        // touches made while the wheel loads are kept, it only adds the persisted deadlines to them
+        useCartExpiryWheel(wheel);
+        wheel.start();
+    }
+
+    @Override
+    public synchronized void stopCartExpiry() throws InterruptedException {
+        if(cartExpiryWheel != null) {
+            cartExpiryWheel.stop();
+            cartExpiryWheel = null;
+        }
+    }
+
+    // Returns the stale reservations of inactive carts to the stock in the background instead of with
+    // cleanupInventory, within opsPerSecond and pausing while the cart operations run above
+    // pauseAboveOpsPerSecond; see InventoryCleanupSweeper.
+    @Override
+    public synchronized InventoryCleanupSweeper startInventoryCleanup(long timeout, int opsPerSecond,
+                                                                      int pauseAboveOpsPerSecond) {
+        if(inventoryCleanupSweeper != null) {
+            throw new IllegalStateException("inventory cleanup is already running");
+        }
+        inventoryCleanupSweeper = new InventoryCleanupSweeper(mongoDBService, this, timeout, opsPerSecond,
+                pauseAboveOpsPerSecond, foregroundOperations::sum);
+        inventoryCleanupSweeper.start(InventoryCleanupSweeper.DEFAULT_INTERVAL_MILLIS);
+        return inventoryCleanupSweeper;
+    }
+
+    @Override
+    public synchronized void stopInventoryCleanup() throws InterruptedException {
+        if(inventoryCleanupSweeper != null) {
+            inventoryCleanupSweeper.stop();
+            inventoryCleanupSweeper = null;
+        }
+    }
+
+    // Takes the stock of the skus the engine owns in memory instead of from the products; see ReservationEngine.
+    // The stock the engine cannot give back because it lost a sku goes back as any other.
+    @Override
+    public synchronized ReservationEngine startReservationEngine(String owner) {
+        if(reservationEngine != null) {
+            throw new IllegalStateException("the reservation engine is already running");
+        }
+        ReservationEngine engine = new ReservationEngine(mongoDBService, owner,
+                (sku, quantity) -> returnStock(sku, quantity, inventoryCounterService.isSharded(sku)));
+        engine.start();
+        reservationEngine = engine;
+        return engine;
+    }
+
+    @Override
+    public synchronized void stopReservationEngine() throws InterruptedException {
+        ReservationEngine engine = reservationEngine;
+        if(engine != null) {
+            reservationEngine = null;
+            engine.stop();
+        }
+    }
+
+    void useCartExpiryWheel(CartExpiryWheel wheel) {
+        cartExpiryWheel = wheel;
+    }
+
+    private void touched(int cartId, Date lastModified) {
+        CartExpiryWheel wheel = cartExpiryWheel;
+        if(wheel != null) {
+            wheel.touch(cartId, lastModified);
+        }
+    }
+
+    // The expirer of the cart expiry wheel. The carts it found due are marked EXPIRING with one update, which
+    // skips those changed since, and one read tells which they were. A cart still active was touched by another
+    // process and a pending one is checking out, both are scheduled again.
+    void expireDueCarts(List<Integer> cartIds) {
+        CartExpiryWheel wheel = cartExpiryWheel;
+        Date now = new Date();
+        Date threshold = new Date(now.getTime() - wheel.getTimeoutMillis());
+
+        Map<String, Object> filterMap = new HashMap<>();
+        Map<String, Object> idFilterMap = new HashMap<>();
+        idFilterMap.put("_id", cartIds);
+        filterMap.put("$in", idFilterMap);
+        filterMap.put("status", ShoppingCartStatus.ACTIVE.toString());
+        Map<String, Object> lastModifiedMapFilter = new HashMap<>();
+        lastModifiedMapFilter.put("last_modified", threshold);
+        filterMap.put("$lte", lastModifiedMapFilter);
+        Map<String, Object> statusUpdate = new HashMap<>();
+        statusUpdate.put("status", ShoppingCartStatus.EXPIRING.toString());
+        Map<String, Object> updated = new HashMap<>();
+        updated.put("addOrRemove", statusUpdate);
+        mongoDBService.updateMany("ecommerce", "cart", filterMap, updated);
+
+        filterMap.remove("status");
+        filterMap.remove("$lte");
+        Map<String, Integer> projectionMap = new HashMap<>();
+        projectionMap.put("_id", 1);
+        projectionMap.put("status", 1);
+        projectionMap.put("last_modified", 1);
+        List<Integer> expiring = new ArrayList<>();
+        for(ShoppingCart cart : mongoDBService.readAll("ecommerce", "cart", ShoppingCart.class, filterMap,
+                Optional.empty(), Optional.of(projectionMap))) {
+            if(ShoppingCartStatus.EXPIRING.toString().equals(cart.getStatus())) {
+                expiring.add(cart.getCartId());
+            } else if(ShoppingCartStatus.ACTIVE.toString().equals(cart.getStatus())) {
+                wheel.touch(cart.getCartId(), cart.getLastModified());
+            } else if(ShoppingCartStatus.PENDING.toString().equals(cart.getStatus())) {
+                wheel.touch(cart.getCartId(), now);
+            }
+        }
+        expireCarts(expiring);
     }
 
     @Override
@@ -276,6 +476,34 @@ public class ProductInventoryService implements IProductInventoryService {
                 "cart", ShoppingCart.class, filterMap).get();
     }
 
+    // Carts with the given status, least recently modified first.
+    @Override
+    public Page<ShoppingCart> getCartPage(ShoppingCartStatus status, Optional<String> pageToken, int pageSize) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("status", status.toString());
+        return mongoDBService.readPage("ecommerce", "cart", ShoppingCart.class, filterMap, "last_modified", 1,
+                pageToken, pageSize);
+    }
+
+    // The stock not held by any cart; summed over the counters of a sharded sku.
+    @Override
+    public int getAvailableQuantity(String sku) {
+        if(inventoryCounterService.isSharded(sku)) {
+            return inventoryCounterService.getAvailable(sku);
+        }
+        ReservationEngine engine = reservationEngine;
+        if(engine != null && engine.owns(sku)) {
+            return engine.getAvailable(sku);
+        }
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", sku);
+        Map<String, Integer> projectionMap = new HashMap<>();
+        projectionMap.put("qty", 1);
+        return mongoDBService.readOne("ecommerce", "product", Product.class, filterMap, Optional.of(projectionMap))
+                .map(Product::getQuantity)
+                .orElse(0);
+    }
+
     // The function is safe for use because it checks to ensure that the cart has expired before returning
     // items from the cart to inventory. However, it could be long-running and slow other updates and queries.
     // Use judiciously.
@@ -284,109 +512,613 @@ public class ProductInventoryService implements IProductInventoryService {
         Date threshold = Date.from(Instant.now().minusSeconds(timeout));
 
         Map<String, Object> filterMap = new HashMap<>();
-        Map<String, Object> lastModifiedMapFilter = new HashMap<>();
-        lastModifiedMapFilter.put("carted.timestamp", threshold);
-        filterMap.put("$lt", lastModifiedMapFilter);
-        List<Product> products = mongoDBService.readAll("ecommerce", "product",
-                Product.class, filterMap);
-        products.stream()
-                .forEach(product -> {
-                    cleanupShoppingCarts(product, timeout);
-                });
+        Map<String, Object> timestampFilterMap = new HashMap<>();
+        timestampFilterMap.put("timestamp", threshold);
+        filterMap.put("$lt", timestampFilterMap);
+        Map<String, Object> quantityFilterMap = new HashMap<>();
+        quantityFilterMap.put("qty", 0);
+        filterMap.put("$gt", quantityFilterMap);
+        // the stale reservations are looked at a batch at a time, so each batch costs one read of its carts
+        try(Stream<Reservation> reservations = mongoDBService.stream("ecommerce", RESERVATION_COLLECTION,
+                Reservation.class, filterMap, Optional.empty(), Optional.empty(),
+                MongoDBService.DEFAULT_BATCH_SIZE)) {
+            List<Reservation> batch = new ArrayList<>();
+            reservations.forEach(reservation -> {
+                batch.add(reservation);
+                if(batch.size() == MongoDBService.DEFAULT_BATCH_SIZE) {
+                    cleanupReservations(batch);
+                    batch.clear();
+                }
+            });
+            if(!batch.isEmpty()) {
+                cleanupReservations(batch);
+            }
+        }
     }
 
-    private void cleanupShoppingCarts(Product product, long timeout) {
-        Date threshold = Date.from(Instant.now().minusSeconds(timeout));
-        List<Integer> cartIdsWaitingForCleanup = new ArrayList<>();
-        product.getCarted()
-                .stream()
-                .forEach(cartedItem -> {
-                    if(cartedItem.getTimestamp().before(threshold)) {
-                        cartIdsWaitingForCleanup.add(cartedItem.getCartId());
-                    }});
+    // Handles a batch of stale reservations and returns the number of operations that took, the read of their
+    // carts and every document written, and whether every reservation of the batch was handled: a reservation
+    // that changed since it was read is not released, and a failed write leaves the batch incomplete too.
+    CleanupResult cleanupReservations(List<Reservation> reservations) {
+        List<Integer> cartIds = reservations.stream()
+                .map(Reservation::getCartId)
+                .distinct()
+                .collect(toList());
+        Map<String, Object> filterMap = new HashMap<>();
+        Map<String, Object> idFilterMap = new HashMap<>();
+        idFilterMap.put("_id", cartIds);
+        filterMap.put("$in", idFilterMap);
+        Map<String, Integer> projectionMap = new HashMap<>();
+        projectionMap.put("_id", 1);
+        projectionMap.put("status", 1);
+        List<ShoppingCart> carts = mongoDBService.readAll("ecommerce",
+                "cart", ShoppingCart.class, filterMap, Optional.empty(), Optional.of(projectionMap));
+        Set<Integer> activeCartIds = carts.stream()
+                .filter(cart -> ShoppingCartStatus.ACTIVE.toString().equals(cart.getStatus()))
+                .map(ShoppingCart::getCartId)
+                .collect(toSet());
+
+        // Of the reservations with time stamps older than the threshold, if the cart is still active, it
+        // resets the time stamp to maintain the carts. The stale reservations of the other carts, including
+        // the ones that no longer exist, are returned to the inventory.
+        Date now = new Date();
+        int operations = 1;
+        List<BulkWriteOperation<Reservation>> reservationUpdates = new ArrayList<>();
+        List<BulkWriteOperation<ShoppingCart>> cartUpdates = new ArrayList<>();
+        List<Reservation> stale = new ArrayList<>();
+        for(Reservation reservation : reservations) {
+            if(!activeCartIds.contains(reservation.getCartId())) {
+                stale.add(reservation);
+                continue;
+            }
+            Map<String, Object> reservationFilterMap = new HashMap<>();
+            reservationFilterMap.put("_id", reservation.getId());
+            Map<String, Object> quantityFilterMap = new HashMap<>();
+            quantityFilterMap.put("qty", 0);
+            reservationFilterMap.put("$gt", quantityFilterMap);
+            Map<String, Object> valueMap = new HashMap<>();
+            valueMap.put("timestamp", now);
+            Map<String, Object> combined = new HashMap<>();
+            combined.put("addOrRemove", valueMap);
+            reservationUpdates.add(BulkWriteOperation.updateOne(reservationFilterMap, combined));
+        }
+        Released released = releaseReservations(stale);
+        operations += released.getOperations();
+        boolean complete = released.getIds().size() == stale.size();
+        for(Reservation reservation : stale) {
+            if(!released.getIds().contains(reservation.getId())) {
+                continue;
+            }
+            Map<String, Object> reservationFilterMap = new HashMap<>();
+            reservationFilterMap.put("_id", reservation.getId());
+            reservationFilterMap.put("qty", 0);
+            reservationUpdates.add(BulkWriteOperation.deleteOne(reservationFilterMap));
+            Map<String, Object> cartFilterMap = new HashMap<>();
+            cartFilterMap.put("_id", reservation.getCartId());
+            Map<String, Object> valueMap = new HashMap<>();
+            valueMap.put("items.sku", reservation.getSku());
+            Map<String, Object> combined = new HashMap<>();
+            combined.put("pull", valueMap);
+            cartUpdates.add(BulkWriteOperation.updateOne(cartFilterMap, combined));
+        }
 
-        // Of the items with time stamps older than the threshold, if the cart is still active, it resets
-        // the time stamp to maintain the carts
+        // the refreshed time stamps and the deletes of the released reservations of a batch go out as one bulk
+        // write, the items pulled from the carts as another
+        if(!reservationUpdates.isEmpty()) {
+            complete &= mongoDBService.bulkWrite("ecommerce", RESERVATION_COLLECTION, Reservation.class,
+                    reservationUpdates, false)
+                    .stream()
+                    .allMatch(BulkWriteBatchResult::isSuccessful);
+        }
+        if(!cartUpdates.isEmpty()) {
+            complete &= mongoDBService.bulkWrite("ecommerce", "cart", ShoppingCart.class, cartUpdates, false)
+                    .stream()
+                    .allMatch(BulkWriteBatchResult::isSuccessful);
+        }
+        return new CleanupResult(operations + reservationUpdates.size() + cartUpdates.size(), complete);
+    }
+
+    static class CleanupResult {
+        private final int operations;
+        private final boolean complete;
+
+        CleanupResult(int operations, boolean complete) {
+            this.operations = operations;
+            this.complete = complete;
+        }
+
+        int getOperations() {
+            return operations;
+        }
+
+        boolean isComplete() {
+            return complete;
+        }
+    }
+
+    // Returns the stock the reservations of the EXPIRING carts hold and marks the carts expired, also the ones
+    // that hold none; one read finds the reservations of all of them.
+    private void expireCarts(List<Integer> cartIds) {
+        if(cartIds.isEmpty()) {
+            return;
+        }
         Map<String, Object> filterMap = new HashMap<>();
+        Map<String, Object> cartIdFilterMap = new HashMap<>();
+        cartIdFilterMap.put("cart_id", cartIds);
+        filterMap.put("$in", cartIdFilterMap);
+        Map<String, Object> quantityFilterMap = new HashMap<>();
+        quantityFilterMap.put("qty", 0);
+        filterMap.put("$gt", quantityFilterMap);
+        releaseReservations(mongoDBService.readAll("ecommerce", RESERVATION_COLLECTION, Reservation.class,
+                filterMap));
+        filterMap.remove("$gt");
+        filterMap.put("qty", 0);
+        mongoDBService.deleteMany("ecommerce", RESERVATION_COLLECTION, filterMap);
+
+        filterMap.clear();
         Map<String, Object> idFilterMap = new HashMap<>();
-        idFilterMap.put("_id", cartIdsWaitingForCleanup);
+        idFilterMap.put("_id", cartIds);
         filterMap.put("$in", idFilterMap);
+        filterMap.put("status", ShoppingCartStatus.EXPIRING.toString());
+        Map<String, Object> combined = new HashMap<>();
+        Map<String, Object> statusUpdate = new HashMap<>();
+        statusUpdate.put("status", ShoppingCartStatus.EXPIRED.toString());
+        combined.put("addOrRemove", statusUpdate);
+        mongoDBService.updateMany("ecommerce", "cart", filterMap, combined);
+    }
+
+    private boolean isCartActive(int cartId) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", cartId);
         filterMap.put("status", ShoppingCartStatus.ACTIVE.toString());
-        List<ShoppingCart> activeCarts = mongoDBService.readAll("ecommerce",
-                "cart", ShoppingCart.class, filterMap);
-        activeCarts.stream()
-                .forEach(cart -> {
-                    filterMap.clear();
-                    filterMap.put("_id", product.getId());
-                    filterMap.put("carted.cart_id", cart.getCartId());
-                    Map<String, Object> valueMap = new HashMap<>();
-                    valueMap.put("carted.$.timestamp", Date.from(Instant.now()));
-                    Map<String, Object> combined = new HashMap<>();
-                    combined.put("addOrRemove", valueMap);
-                    mongoDBService.updateOne("ecommerce", "product", Product.class,
-                            filterMap, combined, new HashMap<>());
-                });
-
-        // Of the stale items that remain in inactive carts, the operation returns these items to
-        // the inventory.
-        List<Integer> activeCartIds =
-                activeCarts.stream()
-                        .map(cart -> cart.getCartId())
-                        .collect(toList());
-        cartIdsWaitingForCleanup.removeAll(activeCartIds);
-        cartIdsWaitingForCleanup.stream()
-                                .forEach(id -> {
-                                    filterMap.clear();
-                                    filterMap.put("_id", id);
-                                    Map<String, Object> valueMap = new HashMap<>();
-                                    valueMap.put("items.sku", product.getSku());
-                                    Map<String, Object> combined = new HashMap<>();
-                                    combined.put("pull", valueMap);
-                                    mongoDBService.updateMany("ecommerce", "cart",
-                                            filterMap, combined);
-                                });
-        product.getCarted()
+        Map<String, Integer> projectionMap = new HashMap<>();
+        projectionMap.put("_id", 1);
+        return mongoDBService.readOne("ecommerce", "cart", ShoppingCart.class, filterMap,
+                Optional.of(projectionMap)).isPresent();
+    }
+
+    // Takes the quantity a failed add put into the cart's reservation of the sku back out and returns it to the
+    // stock. When the cart's expiry released the reservation meanwhile, the stock went back with it.
+    private void unreserve(int cartId, String sku, int quantity, boolean sharded) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", Reservation.id(sku, cartId));
+        Map<String, Object> quantityFilterMap = new HashMap<>();
+        quantityFilterMap.put("qty", quantity);
+        filterMap.put("$gte", quantityFilterMap);
+        HashMap<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", Math.negateExact(quantity));
+        Map<String, Object> combined = new HashMap<>();
+        combined.put("inc", quantityUpdateMap);
+        if(mongoDBService.conditionalUpdateOne("ecommerce", RESERVATION_COLLECTION, Reservation.class,
+                filterMap, combined, new HashMap<>()) == 1) {
+            returnStock(sku, quantity, sharded);
+        }
+        // a reservation this call created is left empty, a released one is deleted as its releaser would
+        filterMap.remove("$gte");
+        filterMap.put("qty", 0);
+        mongoDBService.deleteMany("ecommerce", RESERVATION_COLLECTION, filterMap);
+    }
+
+    // The batch variant of unreserve. One bulk write takes the quantities back out of the reservations and tags
+    // the ones it changed with an id of this call, as a bulk write only counts what it changed; when some were
+    // released meanwhile, one read of the tag tells the reservations whose stock is returned here. The stock
+    // goes back with returnStock and one more bulk write deletes the emptied reservations and drops the tag.
+    private void unreserve(int cartId, Map<String, Integer> quantities) {
+        ObjectId unreserveId = new ObjectId();
+        List<BulkWriteOperation<Reservation>> reservationUpdates = new ArrayList<>();
+        quantities.forEach((sku, quantity) -> {
+            Map<String, Object> filterMap = new HashMap<>();
+            filterMap.put("_id", Reservation.id(sku, cartId));
+            Map<String, Object> quantityFilterMap = new HashMap<>();
+            quantityFilterMap.put("qty", quantity);
+            filterMap.put("$gte", quantityFilterMap);
+            reservationUpdates.add(BulkWriteOperation.updateOne(filterMap, taggedTake(quantity, unreserveId)));
+        });
+        int unreserved = mongoDBService.bulkWrite("ecommerce", RESERVATION_COLLECTION, Reservation.class,
+                reservationUpdates, false)
                 .stream()
-                .filter(carted -> !activeCartIds.contains(carted.getCartId()))
-                .forEach(item -> {
-                    filterMap.clear();
-                    filterMap.put("_id", product.getId());
-                    filterMap.put("carted.cart_id", item.getCartId());
-                    filterMap.put("carted.qty", item.getQuantity());
-                    Map<String, Object> combined = new HashMap<>();
-                    Map<String, Object> quantityUpdateMap = new HashMap<>();
-                    quantityUpdateMap.put("qty", item.getQuantity());
-                    combined.put("inc", quantityUpdateMap);
-                    Map<String, Object> remove = new HashMap<>();
-                    remove.put("carted.cart_id", item.getCartId());
-                    combined.put("pull", remove);
-                    mongoDBService.updateOne("ecommerce", "product",
-                            Product.class, filterMap, combined, new HashMap<>());
-                });
-    }
-
-    private void returnCartItem(int cartId, ShoppingCartItem item) {
+                .mapToInt(BulkWriteBatchResult::getMatchedCount)
+                .sum();
+        Map<String, Integer> returned = new LinkedHashMap<>(quantities);
+        if(unreserved < quantities.size()) {
+            Set<String> tagged = taggedValues(RESERVATION_COLLECTION, "_id", quantities.keySet()
+                    .stream()
+                    .map(sku -> Reservation.id(sku, cartId))
+                    .collect(toList()), unreserveId);
+            returned.keySet().removeIf(sku -> !tagged.contains(Reservation.id(sku, cartId)));
+        }
+        returnStock(returned);
+
+        // a reservation this call created is left empty, a released one is deleted as its releaser would
+        List<BulkWriteOperation<Reservation>> cleanups = new ArrayList<>();
+        quantities.keySet().forEach(sku -> {
+            Map<String, Object> filterMap = new HashMap<>();
+            filterMap.put("_id", Reservation.id(sku, cartId));
+            filterMap.put("qty", 0);
+            cleanups.add(BulkWriteOperation.deleteOne(filterMap));
+            cleanups.add(untag("_id", Reservation.id(sku, cartId), unreserveId, 0));
+        });
+        mongoDBService.bulkWrite("ecommerce", RESERVATION_COLLECTION, Reservation.class, cleanups, false);
+    }
+
+    // Releases the reservations unless they changed since they were read and returns their quantities to the
+    // stock. Releasing sets the quantity to 0 so only one caller returns it; one bulk write releases them all and
+    // tags the ones it changed with an id of this call, and when some changed meanwhile, one read of the tag tells
+    // the ones released here. Their stock goes back with the one bulk write of returnStock. The caller deletes
+    // the released reservations, the TTL index on released_at collects them when that does not happen.
+    private Released releaseReservations(List<Reservation> reservations) {
+        if(reservations.isEmpty()) {
+            return new Released(Collections.emptySet(), 0);
+        }
+        ObjectId releaseId = new ObjectId();
+        Date now = new Date();
+        List<BulkWriteOperation<Reservation>> releases = new ArrayList<>();
+        for(Reservation reservation : reservations) {
+            Map<String, Object> filterMap = new HashMap<>();
+            filterMap.put("_id", reservation.getId());
+            filterMap.put("qty", reservation.getQuantity());
+            Map<String, Object> valueMap = new HashMap<>();
+            valueMap.put("qty", 0);
+            valueMap.put("released_at", now);
+            valueMap.put("takes", Collections.singletonList(releaseId));
+            Map<String, Object> combined = new HashMap<>();
+            combined.put("addOrRemove", valueMap);
+            releases.add(BulkWriteOperation.updateOne(filterMap, combined));
+        }
+        int operations = reservations.size();
+        Set<String> ids = reservations.stream()
+                .map(Reservation::getId)
+                .collect(toSet());
+        int matched = mongoDBService.bulkWrite("ecommerce", RESERVATION_COLLECTION, Reservation.class,
+                releases, false)
+                .stream()
+                .mapToInt(BulkWriteBatchResult::getMatchedCount)
+                .sum();
+        if(matched < ids.size()) {
+            operations++;
+            ids = taggedValues(RESERVATION_COLLECTION, "_id", new ArrayList<>(ids), releaseId);
+        }
+        Map<String, Integer> returned = new LinkedHashMap<>();
+        for(Reservation reservation : reservations) {
+            if(ids.contains(reservation.getId())) {
+                returned.merge(reservation.getSku(), reservation.getQuantity(), Integer::sum);
+            }
+        }
+        returnStock(returned);
+        return new Released(ids, operations + returned.size());
+    }
+
+    // the ids of the reservations released by releaseReservations, and the reads and documents written for them
+    private static class Released {
+        private final Set<String> ids;
+        private final int operations;
+
+        Released(Set<String> ids, int operations) {
+            this.ids = ids;
+            this.operations = operations;
+        }
+
+        Set<String> getIds() {
+            return ids;
+        }
+
+        int getOperations() {
+            return operations;
+        }
+    }
+
+    // Takes the quantity unless less is in stock; the stock of a sharded sku is taken from its counters and the
+    // stock of a sku the reservation engine owns from the engine. Whether the sku is sharded is cached, so a miss
+    // re-reads it and takes from the other side if it was (un)sharded.
+    private boolean takeStock(String sku, int quantity, boolean sharded) {
+        return takeStockOnce(sku, quantity, sharded) || (inventoryCounterService.refresh(sku) &&
+                takeStockOnce(sku, quantity, inventoryCounterService.isSharded(sku)));
+    }
+
+    private boolean takeStockOnce(String sku, int quantity, boolean sharded) {
+        if(sharded) {
+            return inventoryCounterService.reserve(sku, quantity);
+        }
+        ReservationEngine engine = reservationEngine;
+        if(engine != null && engine.owns(sku)) {
+            if(engine.take(sku, quantity)) {
+                stockChangeNotifier.stockChanged(sku);
+                return true;
+            }
+            if(engine.owns(sku)) {
+                return false;
+            }
+        }
+        HashMap<String, Object> quantityQueryMap = new HashMap<>();
+        quantityQueryMap.put("qty", quantity);
         Map<String, Object> filterMap = new HashMap<>();
-        filterMap.put("sku", item.getSku());
-        filterMap.put("carted.cart_id", cartId);
-        filterMap.put("carted.qty", item.getQuantity());
+        filterMap.put("sku", sku);
+        filterMap.put("$gte", quantityQueryMap);
+        // the stock of a sku that an engine owns is taken through that engine only
+        filterMap.put(ReservationEngine.OWNER_FIELD, null);
+        HashMap<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", Math.negateExact(quantity));
+        Map<String, Object> combined = new HashMap<>();
+        combined.put("inc", quantityUpdateMap);
+        if(mongoDBService.conditionalUpdateOne("ecommerce", "product", Product.class, filterMap, combined,
+                new HashMap<>()) == 0) {
+            return false;
+        }
+        stockChangeNotifier.stockChanged(sku);
+        return true;
+    }
+
+    // The stock goes back to the product only while it is not sharded, else to the counters, see
+    // InventoryCounterService, and to the reservation engine while it owns the sku.
+    private void returnStock(String sku, int quantity, boolean sharded) {
+        if(sharded) {
+            inventoryCounterService.release(sku, quantity);
+            return;
+        }
+        ReservationEngine engine = reservationEngine;
+        if(engine != null && engine.give(sku, quantity)) {
+            stockChangeNotifier.stockChanged(sku);
+            return;
+        }
+        if(mongoDBService.conditionalUpdateOne("ecommerce", "product", Product.class, unshardedProduct(sku),
+                returnedStock(quantity), new HashMap<>()) == 0) {
+            inventoryCounterService.refresh(sku);
+            inventoryCounterService.release(sku, quantity);
+            return;
+        }
+        stockChangeNotifier.stockChanged(sku);
+    }
+
+    private static Map<String, Object> unshardedProduct(String sku) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", sku);
+        filterMap.put(InventoryCounterService.BUCKETS_FIELD, null);
+        return filterMap;
+    }
+
+    private static Map<String, Object> returnedStock(int quantity) {
+        HashMap<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", quantity);
+        Map<String, Object> combined = new HashMap<>();
+        combined.put("inc", quantityUpdateMap);
+        return combined;
+    }
+
+    // Takes the stock of all skus or of none and returns the shortfall per sku, empty when all was taken. The
+    // sharded skus are taken from their counters first, then the skus the reservation engine owns from the engine
+    // and the others with takeStock(quantities, takeId); after a miss the stock already taken is given back and
+    // one read tells the shortfalls.
+    private Map<String, Integer> takeStock(Map<String, Integer> quantities) {
+        Map<String, Integer> shortfalls = takeStockOnce(quantities);
+        // whether a sku is sharded is cached, the skus that missed may have been (un)sharded since
+        long moved = shortfalls.keySet().stream().filter(inventoryCounterService::refresh).count();
+        return moved > 0 ? takeStockOnce(quantities) : shortfalls;
+    }
+
+    private Map<String, Integer> takeStockOnce(Map<String, Integer> quantities) {
+        ReservationEngine engine = reservationEngine;
+        Map<String, Integer> taken = new LinkedHashMap<>();
+        Map<String, Integer> engineQuantities = new LinkedHashMap<>();
+        Map<String, Integer> productQuantities = new LinkedHashMap<>();
+        Set<String> missed = new LinkedHashSet<>();
+        quantities.forEach((sku, quantity) -> {
+            if(!inventoryCounterService.isSharded(sku)) {
+                (engine != null && engine.owns(sku) ? engineQuantities : productQuantities).put(sku, quantity);
+            } else if(missed.isEmpty() && inventoryCounterService.reserve(sku, quantity)) {
+                taken.put(sku, quantity);
+            } else {
+                missed.add(sku);
+            }
+        });
+        if(missed.isEmpty() && !engineQuantities.isEmpty()) {
+            missed.addAll(engine.take(engineQuantities));
+            if(missed.isEmpty()) {
+                taken.putAll(engineQuantities);
+            }
+        }
+        if(missed.isEmpty() && !productQuantities.isEmpty()) {
+            missed.addAll(takeStock(productQuantities, new ObjectId()));
+        }
+        if(missed.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        returnStock(taken);
+
+        Map<String, Integer> shortfalls = new LinkedHashMap<>();
+        Map<String, Integer> available = new HashMap<>();
+        List<String> productSkus = new ArrayList<>();
+        quantities.keySet().forEach(sku -> {
+            if(inventoryCounterService.isSharded(sku)) {
+                available.put(sku, inventoryCounterService.getAvailable(sku));
+            } else if(engine != null && engine.owns(sku)) {
+                available.put(sku, engine.getAvailable(sku));
+            } else {
+                productSkus.add(sku);
+            }
+        });
+        if(!productSkus.isEmpty()) {
+            Map<String, Object> filterMap = new HashMap<>();
+            Map<String, Object> skuFilterMap = new HashMap<>();
+            skuFilterMap.put("sku", productSkus);
+            filterMap.put("$in", skuFilterMap);
+            Map<String, Integer> projectionMap = new HashMap<>();
+            projectionMap.put("sku", 1);
+            projectionMap.put("qty", 1);
+            mongoDBService.readAll("ecommerce", "product", Product.class, filterMap, Optional.empty(),
+                    Optional.of(projectionMap))
+                    .forEach(product -> available.put(product.getSku(), product.getQuantity()));
+        }
+        // the skus whose take missed are short even when the read finds enough, the stock moved meanwhile
+        quantities.forEach((sku, quantity) -> {
+            int missing = quantity - available.getOrDefault(sku, 0);
+            if(missing > 0 || missed.contains(sku)) {
+                shortfalls.put(sku, Math.max(1, Math.min(quantity, missing)));
+            }
+        });
+        return shortfalls;
+    }
+
+    // Takes the stock of skus that are not sharded with one unordered bulk write of conditional updates, all or
+    // none, and returns the skus whose take missed. A bulk write only counts the updates that matched, so every
+    // update also tags its product with takeId: after a miss one read of the tag tells the products taken and
+    // one bulk write guarded by the tag gives their stock back. Either way one more bulk write drops the tag.
+    private Set<String> takeStock(Map<String, Integer> quantities, ObjectId takeId) {
+        if(quantities.size() == 1) {
+            Map.Entry<String, Integer> only = quantities.entrySet().iterator().next();
+            return takeStock(only.getKey(), only.getValue(), false) ?
+                    Collections.emptySet() : Collections.singleton(only.getKey());
+        }
+        List<BulkWriteOperation<Product>> takes = new ArrayList<>();
+        quantities.forEach((sku, quantity) -> {
+            HashMap<String, Object> quantityQueryMap = new HashMap<>();
+            quantityQueryMap.put("qty", quantity);
+            Map<String, Object> filterMap = new HashMap<>();
+            filterMap.put("sku", sku);
+            filterMap.put("$gte", quantityQueryMap);
+            filterMap.put(ReservationEngine.OWNER_FIELD, null);
+            takes.add(BulkWriteOperation.updateOne(filterMap, taggedTake(quantity, takeId)));
+        });
+        int taken = mongoDBService.bulkWrite("ecommerce", "product", Product.class, takes, false)
+                .stream()
+                .mapToInt(BulkWriteBatchResult::getMatchedCount)
+                .sum();
+        Set<String> missed = new LinkedHashSet<>();
+        List<BulkWriteOperation<Product>> settlements = new ArrayList<>();
+        if(taken < quantities.size()) {
+            Set<String> tagged = taggedValues("product", "sku", new ArrayList<>(quantities.keySet()), takeId);
+            quantities.forEach((sku, quantity) -> {
+                if(!tagged.contains(sku)) {
+                    missed.add(sku);
+                    return;
+                }
+                settlements.add(untag("sku", sku, takeId, quantity));
+            });
+        } else {
+            quantities.keySet().forEach(sku -> settlements.add(untag("sku", sku, takeId, 0)));
+        }
+        mongoDBService.bulkWrite("ecommerce", "product", Product.class, settlements, false);
+        quantities.keySet().forEach(stockChangeNotifier::stockChanged);
+        return missed;
+    }
+
+    // takes the quantity out of qty and pushes tag onto the takes of the document
+    private static Map<String, Object> taggedTake(int quantity, ObjectId tag) {
+        HashMap<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", Math.negateExact(quantity));
         Map<String, Object> valueMap = new HashMap<>();
-        valueMap.put("carted.cart_id", cartId);
-        Map<String, Object> quantityUpdateMap = new HashMap<>();
-        quantityUpdateMap.put("qty", item.getQuantity());
+        valueMap.put("takes", Collections.singletonList(tag));
         Map<String, Object> combined = new HashMap<>();
         combined.put("inc", quantityUpdateMap);
-        combined.put("pull", valueMap);
-        mongoDBService.updateOne("ecommerce", "product", Product.class,
-                filterMap, combined, new HashMap<>());
-        filterMap.clear();
-        filterMap.put("_id", cartId);
-        combined.clear();
-        Map<String, Object> statusUpdate = new HashMap<>();
-        statusUpdate.put("status", ShoppingCartStatus.EXPIRED.toString());
-        combined.put("addOrRemove", statusUpdate);
-        mongoDBService.updateOne("ecommerce", "cart", ShoppingCart.class,
-                filterMap, combined, new HashMap<>());
+        combined.put("addOrRemove", valueMap);
+        return combined;
+    }
+
+    // pulls tag off the takes of the document that carries it and puts returned back into its qty
+    private static <T> BulkWriteOperation<T> untag(String field, Object value, ObjectId tag, int returned) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put(field, value);
+        filterMap.put("takes", tag);
+        Map<String, Object> combined = new HashMap<>();
+        combined.put("pull", Collections.singletonMap("takes", tag));
+        if(returned > 0) {
+            HashMap<String, Object> quantityUpdateMap = new HashMap<>();
+            quantityUpdateMap.put("qty", returned);
+            combined.put("inc", quantityUpdateMap);
+        }
+        return BulkWriteOperation.updateOne(filterMap, combined);
+    }
+
+    // the values of field of the documents that carry tag
+    private Set<String> taggedValues(String collectionName, String field, List<String> values, ObjectId tag) {
+        Map<String, Object> valueFilterMap = new HashMap<>();
+        valueFilterMap.put(field, values);
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("$in", valueFilterMap);
+        filterMap.put("takes", tag);
+        Map<String, Integer> projectionMap = new HashMap<>();
+        projectionMap.put(field, 1);
+        return mongoDBService.readAll("ecommerce", collectionName, Document.class, filterMap, Optional.empty(),
+                Optional.of(projectionMap))
+                .stream()
+                .map(document -> document.get(field).toString())
+                .collect(toSet());
+    }
+
+    // Gives back stock taken by takeStock(quantities) with one bulk write for the skus that are not sharded and
+    // not owned by the reservation engine.
+    private void returnStock(Map<String, Integer> quantities) {
+        ReservationEngine engine = reservationEngine;
+        List<BulkWriteOperation<Product>> productUpdates = new ArrayList<>();
+        List<String> productSkus = new ArrayList<>();
+        quantities.forEach((sku, quantity) -> {
+            if(inventoryCounterService.isSharded(sku)) {
+                inventoryCounterService.release(sku, quantity);
+                return;
+            }
+            if(engine != null && engine.give(sku, quantity)) {
+                stockChangeNotifier.stockChanged(sku);
+                return;
+            }
+            productUpdates.add(BulkWriteOperation.updateOne(unshardedProduct(sku), returnedStock(quantity)));
+            productSkus.add(sku);
+        });
+        if(productUpdates.isEmpty()) {
+            return;
+        }
+        int returned = mongoDBService.bulkWrite("ecommerce", "product", Product.class, productUpdates, false)
+                .stream()
+                .mapToInt(BulkWriteBatchResult::getMatchedCount)
+                .sum();
+        productSkus.forEach(stockChangeNotifier::stockChanged);
+        if(returned < productSkus.size()) {
+            // the products that missed were sharded meanwhile
+            productSkus.stream()
+                    .filter(sku -> inventoryCounterService.refresh(sku) && inventoryCounterService.isSharded(sku))
+                    .forEach(sku -> inventoryCounterService.release(sku, quantities.get(sku)));
+        }
+    }
+
+    // Adds the quantities to the cart's reservations with one ordered bulk write. An ordered bulk write stops at
+    // the first failed write, so the ones before it are known and are taken back when it fails.
+    private boolean reserve(int cartId, Map<String, Integer> quantities, Date now) {
+        List<BulkWriteOperation<Reservation>> reservationUpdates = new ArrayList<>();
+        quantities.forEach((sku, quantity) ->
+                reservationUpdates.add(reservationUpdate(sku, cartId, quantity, now, true)));
+        List<BulkWriteBatchResult> results = mongoDBService.bulkWrite("ecommerce", RESERVATION_COLLECTION,
+                Reservation.class, reservationUpdates, true);
+        if(results.stream().allMatch(BulkWriteBatchResult::isSuccessful)) {
+            return true;
+        }
+        int written = results.stream()
+                .mapToInt(result -> result.getMatchedCount() + result.getUpsertedCount())
+                .sum();
+        List<BulkWriteOperation<Reservation>> compensations = new ArrayList<>();
+        quantities.entrySet()
+                .stream()
+                .limit(written)
+                .forEach(entry -> compensations.add(reservationUpdate(entry.getKey(), cartId,
+                        Math.negateExact(entry.getValue()), now, false)));
+        if(!compensations.isEmpty()) {
+            mongoDBService.bulkWrite("ecommerce", RESERVATION_COLLECTION, Reservation.class, compensations, false);
+        }
+        return false;
+    }
+
+    private static BulkWriteOperation<Reservation> reservationUpdate(String sku, int cartId, int quantity, Date now,
+                                                                     boolean upsert) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", Reservation.id(sku, cartId));
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put("sku", sku);
+        valueMap.put("cart_id", cartId);
+        valueMap.put("timestamp", now);
+        valueMap.put("released_at", Optional.empty());
+        HashMap<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", quantity);
+        Map<String, Object> combined = new HashMap<>();
+        combined.put("addOrRemove", valueMap);
+        combined.put("inc", quantityUpdateMap);
+        return BulkWriteOperation.updateOne(filterMap, combined, upsert);
     }
 
     private void populateCarts() {
@@ -397,27 +1129,8 @@ public class ProductInventoryService implements IProductInventoryService {
                         new ShoppingCartItem("0ab42f88", 4,
                         new ShoppingCartItemDetails("some details"))));
         mongoDBService.createOne("ecommerce", "cart", ShoppingCart.class, cart);
-        Map<String, Object> filterMap = new HashMap<>();
-        filterMap.put("sku", "00e8da9b");
-        Map<String, Object> valueUpdateMap = new HashMap<>();
-        Product.CartedItem cartedItem = new Product.CartedItem(1,42, lastModified);
-        valueUpdateMap.clear();
-        valueUpdateMap.put("carted", Arrays.asList(cartedItem));
-        Map<String, Object> added = new HashMap<>();
-        added.put("addOrRemove", valueUpdateMap);
-        mongoDBService.updateOne("ecommerce", "product", Product.class,
-                filterMap, added, new HashMap<>());
-
-        filterMap.clear();
-        filterMap.put("sku", "0ab42f88");
-        valueUpdateMap.clear();
-        cartedItem = new Product.CartedItem(4,42, lastModified);
-        valueUpdateMap.clear();
-        valueUpdateMap.put("carted", Arrays.asList(cartedItem));
-        added.clear();
-        added.put("addOrRemove", valueUpdateMap);
-        mongoDBService.updateOne("ecommerce", "product", Product.class,
-                filterMap, added, new HashMap<>());
-
+        mongoDBService.createAll("ecommerce", RESERVATION_COLLECTION, Reservation.class, Arrays.asList(
+                new Reservation("00e8da9b", 42, 1, lastModified),
+                new Reservation("0ab42f88", 42, 4, lastModified)));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.geojson.Point;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Filters.nearSphere;
+import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.popLast;
+import static com.mongodb.client.model.Updates.pushEach;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
+
+// Translates the Map based filter/update DSL of MongoDBService into Filters and Updates with one walk over the
+// entries of the map, without the key lists and streams the translation used to allocate for every operator.
+// The driver renders the result lazily, so the translation itself is a handful of small objects per call.
+@SuppressWarnings("unchecked")
+public final class QueryTranslator {
+    private QueryTranslator() {
+    }
+
+    public static Bson filter(Map<String, Object> filterMap) {
+        if(filterMap.isEmpty()) {
+            return new BsonDocument();
+        }
+        if(filterMap.size() == 1) {
+            Map.Entry<String, Object> entry = filterMap.entrySet().iterator().next();
+            return filter(entry.getKey(), entry.getValue());
+        }
+        List<Bson> filters = new ArrayList<>(filterMap.size());
+        for(Map.Entry<String, Object> entry : filterMap.entrySet()) {
+            filters.add(filter(entry.getKey(), entry.getValue()));
+        }
+        return and(filters);
+    }
+
+    public static Bson update(Map<String, Object> updateMap) {
+        List<Bson> updates = new ArrayList<>();
+        Map<String, Object> addOrRemove = (Map<String, Object>) updateMap.get("addOrRemove");
+        if(addOrRemove != null) {
+            for(Map.Entry<String, Object> entry : addOrRemove.entrySet()) {
+                updates.add(addOrRemove(entry.getKey(), entry.getValue()));
+            }
+        }
+        Map<String, Object> incMap = (Map<String, Object>) updateMap.get("inc");
+        if(incMap != null) {
+            for(Map.Entry<String, Object> entry : incMap.entrySet()) {
+                updates.add(inc(entry.getKey(), (Number) entry.getValue()));
+            }
+        }
+        Map<String, Object> pullMap = (Map<String, Object>) updateMap.get("pull");
+        if(pullMap != null) {
+            Map.Entry<String, Object> entry = pullMap.entrySet().iterator().next();
+            String[] fields = entry.getKey().split("\\.");
+            Bson filter = Filters.eq(fields[fields.length - 1], entry.getValue());
+            for(int i = fields.length - 2; i >= 0; i--) {
+                filter = Filters.eq(fields[i], filter);
+            }
+            updates.add(Updates.pullByFilter(filter));
+        }
+        return combine(updates);
+    }
+
+    private static Bson filter(String key, Object value) {
+        switch(key) {
+            case "$eq":
+            case "$gte":
+            case "$gt":
+            case "$lt":
+            case "$lte":
+            case "$in":
+            case "$regex":
+                Map.Entry<String, Object> operand = ((Map<String, Object>) value).entrySet().iterator().next();
+                return fieldOperator(key, operand.getKey(), operand.getValue());
+            case "$nearSphere":
+                Map<String, Object> fieldValueMap = (Map<String, Object>) value;
+                Double minDistance = (Double) fieldValueMap.get("minDistance");
+                return nearSphere((String) fieldValueMap.get("fieldName"), (Point) fieldValueMap.get("geometry"),
+                        (Double) fieldValueMap.get("maxDistance"), minDistance != null ? minDistance : 0.0);
+            default:
+                return eq(key, value);
+        }
+    }
+
+    private static Bson fieldOperator(String operator, String field, Object value) {
+        switch(operator) {
+            case "$eq":
+                return eq(field, value);
+            case "$gte":
+                return gte(field, value);
+            case "$gt":
+                return gt(field, value);
+            case "$lt":
+                return lt(field, value);
+            case "$lte":
+                return lte(field, value);
+            case "$in":
+                return in(field, (List) value);
+            default:
+                return regex(field, (Pattern) value);
+        }
+    }
+
+    // a non-empty list is pushed, an empty list pops the last element, Optional.empty() unsets the field
+    private static Bson addOrRemove(String key, Object value) {
+        if(value instanceof List) {
+            return ((List) value).isEmpty() ? popLast(key) : pushEach(key, (List) value);
+        }
+        if(value instanceof Optional && !((Optional) value).isPresent()) {
+            return unset(key);
+        }
+        return set(key, value);
+    }
+}
@@ -0,0 +1,482 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static java.util.stream.Collectors.toList;
+
+// Holds the stock of the skus it owns in memory, so a take of a flash-sale sku is granted or denied under the
+// lock of its sku instead of by a conditional update of product.qty that most of the concurrent callers lose.
+// One flusher thread writes the changes to the products behind: a flush adds up per sku what changed since the
+// last one and writes it as one $inc, guarded by the sequence number of the last flush that the product records
+// in inventory_sequence. A retried flush whose outcome was lost does not match again, and reading the sequence
+// number back tells whether it was applied. A take is decided in memory at once but only returns once the flush
+// that persists it succeeded, so concurrent takes share one write and a crash never leaves a granted take
+// unwritten; a give returns at once and goes out with the next flush, so a crash loses the gives of one flush
+// interval, as a crash between the reservation update and returnStock loses one without the engine.
+// A sku is owned through a lease on its product: own() sets inventory_owner to this engine when the product has
+// no owner, has this one after a restart, or has one whose lease expired, and every flush renews the lease. The
+// flush is guarded by the owner too, so an engine that lost the sku to another one stops granting it and hands the
+// gives it holds to the returner. While a sku is owned ProductInventoryService takes its stock only through its
+// engine; stock given back to the product by another instance is picked up from the quantity every flush reads
+// back. A sharded sku is not owned, and shard() of an owned sku ends the ownership at the next flush.
+public class ReservationEngine {
+    public static final String DATABASE = "ecommerce";
+    // the fields of the product that hold the lease of its owner and the sequence number of its last flush
+    public static final String OWNER_FIELD = "inventory_owner";
+    public static final String LEASE_FIELD = "inventory_lease_expires";
+    public static final String SEQUENCE_FIELD = "inventory_sequence";
+    public static final long DEFAULT_LEASE_MILLIS = 30000;
+
+    private static final Logger logger = LoggerFactory.getLogger(ReservationEngine.class);
+    private static final int MAX_STOP_ATTEMPTS = 3;
+
+    private final MongoDBService mongoDBService;
+    private final String owner;
+    private final long leaseMillis;
+    private final BiConsumer<String, Integer> returner;
+    private final Map<String, Stock> stocks = new ConcurrentHashMap<>();
+    // the skus with changes to flush
+    private final LinkedBlockingQueue<String> queued = new LinkedBlockingQueue<>();
+    private volatile boolean running;
+    private Thread flusher;
+
+    // The state of an owned sku, guarded by itself. The changes not sent yet are pending; the ones of the flush
+    // under way are in flight, and stay there until the outcome of that flush is known.
+    private static class Stock {
+        private final String sku;
+        private boolean owned = true;
+        private boolean queued;
+        private long sequence;
+        private int persisted;
+        private int pending;
+        private int pendingGiven;
+        private List<Take> pendingTakes = new ArrayList<>();
+        private int inFlight;
+        private int inFlightGiven;
+        private List<Take> inFlightTakes = new ArrayList<>();
+        private boolean flying;
+
+        Stock(String sku, long sequence, int persisted) {
+            this.sku = sku;
+            this.sequence = sequence;
+            this.persisted = persisted;
+        }
+
+        int available() {
+            return persisted + inFlight + pending;
+        }
+    }
+
+    private static class Take {
+        private final int quantity;
+        private final CompletableFuture<Boolean> granted = new CompletableFuture<>();
+
+        Take(int quantity) {
+            this.quantity = quantity;
+        }
+    }
+
+    public ReservationEngine(MongoDBService mongoDBService, String owner, BiConsumer<String, Integer> returner) {
+        this(mongoDBService, owner, DEFAULT_LEASE_MILLIS, returner);
+    }
+
+    public ReservationEngine(MongoDBService mongoDBService, String owner, long leaseMillis,
+                             BiConsumer<String, Integer> returner) {
+        this.mongoDBService = mongoDBService;
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+        this.returner = returner;
+    }
+
+    public synchronized void start() {
+        if(flusher != null) {
+            throw new IllegalStateException("the reservation engine is already running");
+        }
+        running = true;
+        flusher = new Thread(this::run, "reservation-engine");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Flushes what is left to write and releases the leases of the skus owned.
+    public synchronized void stop() throws InterruptedException {
+        if(flusher == null) {
+            return;
+        }
+        running = false;
+        queued.add("");
+        flusher.join();
+        flusher = null;
+        for(int attempt = 0; attempt < MAX_STOP_ATTEMPTS && stocks.values().stream().anyMatch(this::unflushed);
+            attempt++) {
+            flush(new ArrayList<>(stocks.keySet()));
+        }
+        for(Stock stock : new ArrayList<>(stocks.values())) {
+            int given;
+            synchronized(stock) {
+                stock.owned = false;
+                stock.inFlightTakes.forEach(take -> take.granted.complete(false));
+                stock.pendingTakes.forEach(take -> take.granted.complete(false));
+                given = stock.pendingGiven + stock.inFlightGiven;
+            }
+            stocks.remove(stock.sku);
+            release(stock.sku);
+            if(given > 0) {
+                returner.accept(stock.sku, given);
+            }
+        }
+    }
+
+    // Takes the lease of the sku and its stock into memory; false when another engine owns it or it is sharded.
+    public synchronized boolean own(String sku) {
+        if(stocks.containsKey(sku)) {
+            return true;
+        }
+        Date now = new Date();
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put(OWNER_FIELD, owner);
+        valueMap.put(LEASE_FIELD, new Date(now.getTime() + leaseMillis));
+        Map<String, Object> sequenceMap = new HashMap<>();
+        sequenceMap.put(SEQUENCE_FIELD, 0L);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        updateMap.put("inc", sequenceMap);
+
+        Map<String, Object> unowned = productFilter(sku);
+        unowned.put(OWNER_FIELD, null);
+        Map<String, Object> ownedHere = productFilter(sku);
+        ownedHere.put(OWNER_FIELD, owner);
+        Map<String, Object> expired = productFilter(sku);
+        Map<String, Object> leaseFilterMap = new HashMap<>();
+        leaseFilterMap.put(LEASE_FIELD, now);
+        expired.put("$lt", leaseFilterMap);
+        for(Map<String, Object> filterMap : Arrays.asList(unowned, ownedHere, expired)) {
+            Optional<Document> product = mongoDBService.findOneAndUpdate(DATABASE, "product", Document.class,
+                    filterMap, updateMap);
+            if(product.isPresent()) {
+                stocks.put(sku, new Stock(sku, sequence(product.get()), quantity(product.get())));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean owns(String sku) {
+        return stocks.containsKey(sku);
+    }
+
+    // The stock that is neither taken nor written behind yet; 0 when the sku is not owned.
+    public int getAvailable(String sku) {
+        Stock stock = stocks.get(sku);
+        if(stock == null) {
+            return 0;
+        }
+        synchronized(stock) {
+            return stock.owned ? stock.available() : 0;
+        }
+    }
+
+    // Takes the quantity unless less is available; false also when the sku is not or no longer owned.
+    public boolean take(String sku, int quantity) {
+        Take take = grant(sku, quantity);
+        return take != null && take.granted.join();
+    }
+
+    // Takes the quantities of all skus or of none and returns the skus that were short.
+    public Set<String> take(Map<String, Integer> quantities) {
+        Map<String, Take> takes = new LinkedHashMap<>();
+        Set<String> missed = new LinkedHashSet<>();
+        for(Map.Entry<String, Integer> entry : quantities.entrySet()) {
+            Take take = grant(entry.getKey(), entry.getValue());
+            if(take == null) {
+                missed.add(entry.getKey());
+                break;
+            }
+            takes.put(entry.getKey(), take);
+        }
+        // every take is waited for, a take that is not granted yet can still be
+        Map<String, Integer> taken = new LinkedHashMap<>();
+        takes.forEach((sku, take) -> {
+            if(take.granted.join()) {
+                taken.put(sku, take.quantity);
+            } else {
+                missed.add(sku);
+            }
+        });
+        if(!missed.isEmpty()) {
+            taken.forEach((sku, quantity) -> {
+                if(!give(sku, quantity)) {
+                    returner.accept(sku, quantity);
+                }
+            });
+        }
+        return missed;
+    }
+
+    // Gives the quantity back, written with the next flush; false when the sku is not owned.
+    public boolean give(String sku, int quantity) {
+        Stock stock = stocks.get(sku);
+        if(stock == null) {
+            return false;
+        }
+        synchronized(stock) {
+            if(!stock.owned) {
+                return false;
+            }
+            stock.pending += quantity;
+            stock.pendingGiven += quantity;
+            queue(stock);
+            return true;
+        }
+    }
+
+    private Take grant(String sku, int quantity) {
+        Stock stock = stocks.get(sku);
+        if(stock == null || !running) {
+            return null;
+        }
+        synchronized(stock) {
+            if(!stock.owned || stock.available() < quantity) {
+                return null;
+            }
+            Take take = new Take(quantity);
+            stock.pending -= quantity;
+            stock.pendingTakes.add(take);
+            queue(stock);
+            return take;
+        }
+    }
+
+    private void queue(Stock stock) {
+        if(!stock.queued) {
+            stock.queued = true;
+            queued.add(stock.sku);
+        }
+    }
+
+    // Flushes the queued skus as they come, and every sku at least every third of the lease to renew it.
+    private void run() {
+        long renewMillis = Math.max(1, leaseMillis / 3);
+        long renewAt = System.currentTimeMillis() + renewMillis;
+        while(running) {
+            Set<String> skus = new LinkedHashSet<>();
+            try {
+                String sku = queued.poll(Math.max(1, renewAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if(sku != null) {
+                    skus.add(sku);
+                    List<String> more = new ArrayList<>();
+                    queued.drainTo(more);
+                    skus.addAll(more);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if(System.currentTimeMillis() >= renewAt) {
+                skus.addAll(stocks.keySet());
+                renewAt = System.currentTimeMillis() + renewMillis;
+            }
+            skus.remove("");
+            if(!skus.isEmpty()) {
+                flush(skus);
+            }
+        }
+    }
+
+    // Writes the changes of the skus with one unordered bulk write of conditional updates and reads the products
+    // back with one read, which tells per sku whether its update was applied.
+    void flush(Collection<String> skus) {
+        Date leaseExpiresAt = new Date(System.currentTimeMillis() + leaseMillis);
+        List<Stock> flushed = new ArrayList<>();
+        List<BulkWriteOperation<Document>> writes = new ArrayList<>();
+        for(String sku : skus) {
+            Stock stock = stocks.get(sku);
+            if(stock == null) {
+                continue;
+            }
+            synchronized(stock) {
+                stock.queued = false;
+                if(!stock.owned) {
+                    continue;
+                }
+                // a flush whose outcome is unknown is sent again as it was, the pending changes wait for it
+                if(!stock.flying) {
+                    stock.inFlight = stock.pending;
+                    stock.inFlightGiven = stock.pendingGiven;
+                    stock.inFlightTakes = stock.pendingTakes;
+                    stock.pending = 0;
+                    stock.pendingGiven = 0;
+                    stock.pendingTakes = new ArrayList<>();
+                    stock.flying = true;
+                }
+                writes.add(write(sku, stock.sequence, stock.inFlight, leaseExpiresAt));
+                flushed.add(stock);
+            }
+        }
+        if(writes.isEmpty()) {
+            return;
+        }
+        boolean written;
+        try {
+            written = mongoDBService.bulkWrite(DATABASE, "product", Document.class, writes, false)
+                    .stream()
+                    .allMatch(BulkWriteBatchResult::isSuccessful);
+        } catch(RuntimeException e) {
+            logger.error("unable to flush the stock of " + flushed.size() + " skus: " + e.getMessage());
+            written = false;
+        }
+        Map<String, Document> products = new HashMap<>();
+        try {
+            Map<String, Object> skuFilterMap = new HashMap<>();
+            skuFilterMap.put("sku", flushed.stream().map(stock -> stock.sku).collect(toList()));
+            Map<String, Object> filterMap = new HashMap<>();
+            filterMap.put("$in", skuFilterMap);
+            Map<String, Integer> projectionMap = new HashMap<>();
+            projectionMap.put("sku", 1);
+            projectionMap.put("qty", 1);
+            projectionMap.put(OWNER_FIELD, 1);
+            projectionMap.put(SEQUENCE_FIELD, 1);
+            projectionMap.put(InventoryCounterService.BUCKETS_FIELD, 1);
+            mongoDBService.readAll(DATABASE, "product", Document.class, filterMap, Optional.empty(),
+                    Optional.of(projectionMap))
+                    .forEach(product -> products.put(product.getString("sku"), product));
+        } catch(RuntimeException e) {
+            logger.error("unable to read back the stock of " + flushed.size() + " skus: " + e.getMessage());
+            flushed.forEach(stock -> {
+                synchronized(stock) {
+                    queue(stock);
+                }
+            });
+            return;
+        }
+        for(Stock stock : flushed) {
+            settle(stock, products.get(stock.sku), written);
+        }
+    }
+
+    private void settle(Stock stock, Document product, boolean written) {
+        int returned = 0;
+        synchronized(stock) {
+            boolean owned = product != null && owner.equals(product.get(OWNER_FIELD)) &&
+                    product.get(InventoryCounterService.BUCKETS_FIELD) == null;
+            if(owned && sequence(product) == stock.sequence + 1) {
+                stock.sequence++;
+                stock.persisted = quantity(product);
+                stock.inFlightTakes.forEach(take -> take.granted.complete(true));
+                land(stock);
+                if(stock.pending != 0 || !stock.pendingTakes.isEmpty()) {
+                    queue(stock);
+                }
+            } else if(owned && sequence(product) == stock.sequence) {
+                if(!written) {
+                    // not applied, sent again with the next flush
+                    queue(stock);
+                    return;
+                }
+                // the stock went below what the flush takes, the takes are denied and the gives go again
+                stock.persisted = quantity(product);
+                stock.inFlightTakes.forEach(take -> take.granted.complete(false));
+                stock.pending += stock.inFlightGiven;
+                stock.pendingGiven += stock.inFlightGiven;
+                land(stock);
+                queue(stock);
+            } else {
+                logger.warn("lost the ownership of sku: " + stock.sku);
+                stock.owned = false;
+                stock.inFlightTakes.forEach(take -> take.granted.complete(false));
+                stock.pendingTakes.forEach(take -> take.granted.complete(false));
+                returned = stock.inFlightGiven + stock.pendingGiven;
+                stocks.remove(stock.sku);
+            }
+        }
+        if(returned > 0) {
+            returner.accept(stock.sku, returned);
+        }
+    }
+
+    private static void land(Stock stock) {
+        stock.inFlight = 0;
+        stock.inFlightGiven = 0;
+        stock.inFlightTakes = new ArrayList<>();
+        stock.flying = false;
+    }
+
+    private boolean unflushed(Stock stock) {
+        synchronized(stock) {
+            return stock.owned && (stock.flying || stock.pending != 0 || !stock.pendingTakes.isEmpty());
+        }
+    }
+
+    // adds delta to the qty of the product while this engine owns it and its last flush was sequence
+    private BulkWriteOperation<Document> write(String sku, long sequence, int delta, Date leaseExpiresAt) {
+        Map<String, Object> filterMap = productFilter(sku);
+        filterMap.put(OWNER_FIELD, owner);
+        filterMap.put(SEQUENCE_FIELD, sequence);
+        if(delta < 0) {
+            Map<String, Object> quantityFilterMap = new HashMap<>();
+            quantityFilterMap.put("qty", Math.negateExact(delta));
+            filterMap.put("$gte", quantityFilterMap);
+        }
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put(SEQUENCE_FIELD, sequence + 1);
+        valueMap.put(LEASE_FIELD, leaseExpiresAt);
+        Map<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", delta);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        updateMap.put("inc", quantityUpdateMap);
+        return BulkWriteOperation.updateOne(filterMap, updateMap);
+    }
+
+    private void release(String sku) {
+        Map<String, Object> filterMap = productFilter(sku);
+        filterMap.put(OWNER_FIELD, owner);
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put(OWNER_FIELD, Optional.empty());
+        valueMap.put(LEASE_FIELD, Optional.empty());
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        try {
+            mongoDBService.conditionalUpdateOne(DATABASE, "product", Document.class, filterMap, updateMap,
+                    new HashMap<>());
+        } catch(RuntimeException e) {
+            logger.error("unable to release sku: " + sku + ", its lease expires: " + e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> productFilter(String sku) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", sku);
+        filterMap.put(InventoryCounterService.BUCKETS_FIELD, null);
+        return filterMap;
+    }
+
+    private static long sequence(Document product) {
+        Object sequence = product.get(SEQUENCE_FIELD);
+        return sequence instanceof Number ? ((Number) sequence).longValue() : -1;
+    }
+
+    private static int quantity(Document product) {
+        Object quantity = product.get("qty");
+        return quantity instanceof Number ? ((Number) quantity).intValue() : 0;
+    }
+}
@@ -0,0 +1,24 @@
+package org.myproject.ecommerce.core.services;
+
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// Tells the listeners, such as the product cache of ProductCatalogService, the sku of every product whose stock
+// was written. The services that write product stock call stockChanged after the write.
+@Service
+public class StockChangeNotifier {
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    public void stockChanged(String sku) {
+        for(Consumer<String> listener : listeners) {
+            listener.accept(sku);
+        }
+    }
+}
@@ -10,7 +10,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.PostConstruct;
 import java.util.*;
 import java.util.function.Consumer;
 
@@ -29,10 +28,8 @@ public class StoreInventoryService {
         this.productCatalogService = productCatalogService;
     }
 
-    @PostConstruct
     public void initialise() {
-        if(mongoDBService.getDocumentCount("ecommerce", "store_inventory",
-                StoreInventory.class) != 1) {
+        if(mongoDBService.estimatedDocumentCount("ecommerce", "store_inventory") != 1) {
             StoreInventory store100Inventory = new StoreInventory();
             store100Inventory.setId("902372093572409542jbf42r2f2432");
             store100Inventory.setStoreId("store100");
@@ -8,7 +8,6 @@ import org.myproject.ecommerce.core.domain.StoreBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.PostConstruct;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -25,10 +24,8 @@ public class StoreService {
         this.mongoDBService = mongoDBService;
     }
 
-    @PostConstruct
     public void initialise() {
-        if(mongoDBService.getDocumentCount("ecommerce", "store",
-                Store.class) != 1001) {
+        if(mongoDBService.estimatedDocumentCount("ecommerce", "store") != 1001) {
             mongoDBService.deleteAll("ecommerce", "store");
             List<Store> stores =
                     IntStream.rangeClosed(1, 1000).boxed()
@@ -1,88 +1,245 @@
 package org.myproject.ecommerce.core.utilities;
 
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.myproject.ecommerce.core.domain.SKUCodeProductId;
 import org.myproject.ecommerce.core.services.MongoDBService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 // SKU - Stock Keeping Unit
+// Hi/lo allocator: each counter in skucode_productid holds the next unreserved value. A block of ids is
+// reserved with a single $inc and handed out from memory; once half of a block is used the next one is
+// reserved in the background. Ids are unique across threads and application instances, but not gap free.
 @Service
 public class SKUCodeProductIdGenerator {
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+    private static final String INITIAL_PRODUCT_SKU_CODE = "00e8da9e";
+    private static final String INITIAL_PRODUCT_VARIATION_SKU_CODE = "93284847362823";
+    private static final String INITIAL_PRODUCT_ID = "1";
+
+    private static final Logger logger = LoggerFactory.getLogger(SKUCodeProductIdGenerator.class);
+
     private MongoDBService mongoDBService;
-    private long productSku = 0L;
-    private long productvariationSku = 0L;
-    private long productId = 0L;
-    private SKUCodeProductId skuCodeProductId;
+    private final int blockSize;
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "sku-block-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final BlockAllocator productSku = new BlockAllocator("nextProductSku");
+    private final BlockAllocator productVariationSku = new BlockAllocator("nextProductVariationSku");
+    private final BlockAllocator productId = new BlockAllocator("nextProductId");
 
     @Autowired
     public SKUCodeProductIdGenerator(MongoDBService mongoDBService) {
+        this(mongoDBService, DEFAULT_BLOCK_SIZE);
+    }
+
+    public SKUCodeProductIdGenerator(MongoDBService mongoDBService, int blockSize) {
+        if(blockSize <= 1) {
+            throw new IllegalArgumentException("block size must be greater than one: " + blockSize);
+        }
         this.mongoDBService = mongoDBService;
+        this.blockSize = blockSize;
     }
 
     @PostConstruct
     public void initialise() {
-        Optional<SKUCodeProductId> result = mongoDBService.readOne("ecommerce", "skucode_productid",
-                SKUCodeProductId.class, new HashMap<>());
-        if(result.isPresent()) {
-            skuCodeProductId = result.get();
-            productSku = Long.parseLong(skuCodeProductId.getProductSkuCode(), 16);
-            productvariationSku = Long.parseLong(skuCodeProductId.getProductVariationSkuCode());
-            productId = Long.parseLong(skuCodeProductId.getProductId());
-        } else {
+        Optional<Document> result = mongoDBService.readOne("ecommerce", "skucode_productid",
+                Document.class, new HashMap<>());
+        if(!result.isPresent()) {
             reset();
+        } else if(result.get().get("productSkuCode") instanceof String) {
+            migrateStringCounters(result.get());
         }
     }
 
-    public void reset() {
+    // Counters written before the allocator stored the next values as strings, which $inc cannot update.
+    private void migrateStringCounters(Document legacy) {
+        SKUCodeProductId skuCodeProductId = new SKUCodeProductId();
+        skuCodeProductId.setId(legacy.getObjectId("_id"));
+        skuCodeProductId.setNextProductSku(Long.parseLong(legacy.getString("productSkuCode"), 16));
+        skuCodeProductId.setNextProductVariationSku(Long.parseLong(legacy.getString("productVariationSkuCode")));
+        skuCodeProductId.setNextProductId(Long.parseLong(legacy.getString("productId")));
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", skuCodeProductId.getId());
+        mongoDBService.replaceOne("ecommerce", "skucode_productid", SKUCodeProductId.class,
+                filterMap, skuCodeProductId);
+        LoggingUtils.info(logger, "migrated sku and product id counters: " + skuCodeProductId);
+    }
+
+    public synchronized void reset() {
+        // let background reservations against the old counters finish before they are deleted
+        allocators().forEach(BlockAllocator::clear);
         mongoDBService.deleteAll("ecommerce", "skucode_productid");
-        skuCodeProductId = new SKUCodeProductId();
+        SKUCodeProductId skuCodeProductId = new SKUCodeProductId();
         skuCodeProductId.setId(new ObjectId());
-        skuCodeProductId.setProductSkuCode("00e8da9e");
-        skuCodeProductId.setProductVariationSkuCode("93284847362823");
-        skuCodeProductId.setProductId("1");
+        skuCodeProductId.setNextProductSku(Long.parseLong(INITIAL_PRODUCT_SKU_CODE, 16));
+        skuCodeProductId.setNextProductVariationSku(Long.parseLong(INITIAL_PRODUCT_VARIATION_SKU_CODE));
+        skuCodeProductId.setNextProductId(Long.parseLong(INITIAL_PRODUCT_ID));
         mongoDBService.createOne("ecommerce", "skucode_productid",
                 SKUCodeProductId.class, skuCodeProductId);
-        productSku = Long.parseLong(skuCodeProductId.getProductSkuCode(), 16);
-        productvariationSku = Long.parseLong(skuCodeProductId.getProductVariationSkuCode());
-        productId = Long.parseLong(skuCodeProductId.getProductId());
+    }
+
+    // Reserves count consecutive product ids with a single write and returns the first of them;
+    // format with formatProductId.
+    public long reserveProductIds(int count) {
+        return reserve("nextProductId", count);
+    }
+
+    public long reserveProductSKUCodes(int count) {
+        return reserve("nextProductSku", count);
+    }
+
+    public long reserveProductVariationSKUCodes(int count) {
+        return reserve("nextProductVariationSku", count);
+    }
+
+    public static String formatProductSKUCode(long productSku) {
+        return String.format("%08x", productSku);
+    }
+
+    public static String formatProductVariationSKUCode(long productVariationSku) {
+        return Long.toString(productVariationSku);
+    }
+
+    public static String formatProductId(long productId) {
+        return Long.toString(productId);
     }
 
     public String createProductSKUCode() {
-        String skuCode = String.format("%08x", productSku);
-        productSku++;
-        skuCodeProductId.setProductSkuCode(String.format("%08x", productSku));
-        Map<String, Object> filterMap = new HashMap<>();
-        filterMap.put("_id", skuCodeProductId.getId());
-        mongoDBService.replaceOne("ecommerce", "skucode_productid", SKUCodeProductId.class,
-                filterMap, skuCodeProductId);
-        return skuCode;
+        return formatProductSKUCode(productSku.next());
     }
 
     public String createProductVariationSKUCode() {
-        String skuCode = Long.toString(productvariationSku);
-        productvariationSku++;
-        skuCodeProductId.setProductVariationSkuCode(Long.toString(productvariationSku));
-        Map<String, Object> filterMap = new HashMap<>();
-        filterMap.put("_id", skuCodeProductId.getId());
-        mongoDBService.replaceOne("ecommerce", "skucode_productid", SKUCodeProductId.class,
-                filterMap, skuCodeProductId);
-        return skuCode;
+        return formatProductVariationSKUCode(productVariationSku.next());
     }
 
     public String createProductId() {
-        String code = Long.toString(productId);
-        productId++;
-        skuCodeProductId.setProductId(Long.toString(productId));
-        Map<String, Object> filterMap = new HashMap<>();
-        filterMap.put("_id", skuCodeProductId.getId());
-        mongoDBService.replaceOne("ecommerce", "skucode_productid", SKUCodeProductId.class,
-                filterMap, skuCodeProductId);
-        return code;
+        return formatProductId(productId.next());
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    private List<BlockAllocator> allocators() {
+        return Arrays.asList(productSku, productVariationSku, productId);
+    }
+
+    private long reserve(String counter, int count) {
+        if(count <= 0) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        Map<String, Object> incMap = new HashMap<>();
+        incMap.put(counter, (long) count);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("inc", incMap);
+        SKUCodeProductId reserved = mongoDBService.findOneAndUpdate("ecommerce", "skucode_productid",
+                SKUCodeProductId.class, new HashMap<>(), updateMap)
+                .orElseThrow(() -> new IllegalStateException("no sku and product id counters to reserve from"));
+        switch(counter) {
+            case "nextProductSku":
+                return reserved.getNextProductSku() - count;
+            case "nextProductVariationSku":
+                return reserved.getNextProductVariationSku() - count;
+            default:
+                return reserved.getNextProductId() - count;
+        }
+    }
+
+    private static class IdRange {
+        private static final IdRange EMPTY = new IdRange(0, 0, 0);
+
+        private final AtomicLong next;
+        private final long prefetchAt;
+        private final long end;
+
+        IdRange(long start, long prefetchAt, long end) {
+            this.next = new AtomicLong(start);
+            this.prefetchAt = prefetchAt;
+            this.end = end;
+        }
+    }
+
+    private class BlockAllocator {
+        private final String counter;
+        private final AtomicReference<IdRange> current = new AtomicReference<>(IdRange.EMPTY);
+        private CompletableFuture<IdRange> prefetched;
+
+        BlockAllocator(String counter) {
+            this.counter = counter;
+        }
+
+        long next() {
+            while(true) {
+                IdRange range = current.get();
+                long id = range.next.getAndIncrement();
+                if(id < range.end) {
+                    if(id == range.prefetchAt) {
+                        prefetch();
+                    }
+                    return id;
+                }
+                synchronized(this) {
+                    if(current.get() == range) {
+                        current.set(takeNextBlock());
+                    }
+                }
+            }
+        }
+
+        private synchronized void prefetch() {
+            if(prefetched == null) {
+                prefetched = CompletableFuture.supplyAsync(this::reserveBlock, prefetchExecutor);
+            }
+        }
+
+        private synchronized IdRange takeNextBlock() {
+            CompletableFuture<IdRange> block = prefetched;
+            prefetched = null;
+            if(block != null) {
+                try {
+                    return block.join();
+                } catch (RuntimeException e) {
+                    logger.error("prefetching the next " + counter + " block failed: " + e.getMessage());
+                }
+            }
+            return reserveBlock();
+        }
+
+        private IdRange reserveBlock() {
+            long start = reserve(counter, blockSize);
+            return new IdRange(start, start + blockSize / 2, start + blockSize);
+        }
+
+        synchronized void clear() {
+            if(prefetched != null) {
+                try {
+                    prefetched.join();
+                } catch (RuntimeException e) {
+                    // the reserved block is discarded either way
+                }
+                prefetched = null;
+            }
+            current.set(IdRange.EMPTY);
+        }
     }
 }
@@ -0,0 +1,151 @@
+package org.myproject.ecommerce.core.codec;
+
+import com.mongodb.MongoClient;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.myproject.ecommerce.core.domain.AudioAlbum;
+import org.myproject.ecommerce.core.domain.Film;
+import org.myproject.ecommerce.core.domain.Pricing;
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.ProductVariation;
+import org.myproject.ecommerce.core.domain.Shipping;
+import org.myproject.ecommerce.core.domain.StoreInventory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CatalogCodecTest {
+    private final CodecRegistry reflective = CodecRegistries.fromRegistries(MongoClient.getDefaultCodecRegistry(),
+            CodecRegistries.fromProviders(PojoCodecProvider.builder().automatic(true).build()));
+
+    @Test
+    public void shouldReadAndWriteFilmsLikeTheReflectiveCodec() {
+        assertCompatible(film(), new FilmCodec(), Film.class);
+    }
+
+    @Test
+    public void shouldReadAndWriteAudioAlbumsLikeTheReflectiveCodec() {
+        assertCompatible(audioAlbum(), new AudioAlbumCodec(), AudioAlbum.class);
+    }
+
+    @Test
+    public void shouldReadAndWriteProductsLikeTheReflectiveCodec() {
+        Product product = new Product("30671", "00e8da9b", "Digital Music", "Audio Album", "Jazz",
+                "A Love Supreme", "by John Coltrane", "B0000A118M", null, new Pricing(1200, 1100, 100, 8),
+                16, null);
+        product.setId(new ObjectId());
+        assertCompatible(product, new ProductCodec(), Product.class);
+    }
+
+    @Test
+    public void shouldReadAndWriteProductVariationsLikeTheReflectiveCodec() {
+        ProductVariation productVariation = new ProductVariation("93284847362823", "30671");
+        productVariation.addAttribute("CD");
+        assertCompatible(productVariation, new ProductVariationCodec(), ProductVariation.class);
+    }
+
+    @Test
+    public void shouldReadAndWriteStoreInventoryLikeTheReflectiveCodec() {
+        StoreInventory storeInventory = new StoreInventory("902372093572409542jbf42r2f2432", "store100",
+                Arrays.asList(-86.95444, 33.40178), "20034",
+                Arrays.asList(new StoreInventory.StoreVariation("sku1", 5),
+                        new StoreInventory.StoreVariation("sku2", 23)));
+        assertCompatible(storeInventory, new StoreInventoryCodec(), StoreInventory.class);
+    }
+
+    @Test
+    public void shouldSkipUnknownFieldsAndWidenNumbers() {
+        // given
+        Film film = film();
+        BsonDocument document = encode(film, new FilmCodec());
+        document.put("qty", new BsonInt64(7));
+        document.put("reviews", new BsonDocument("count", new BsonString("many")));
+
+        // when
+        Product product = decode(document, new ProductCodec());
+
+        // verify
+        assertEquals(7, product.getQuantity());
+        assertEquals(film.getTitle(), product.getTitle());
+    }
+
+    @Test
+    public void shouldReadAnUnwoundStoreVariation() {
+        // given
+        BsonDocument document = BsonDocument.parse("{_id: 'i1', storeId: 'store100', productId: '20034', " +
+                "location: [-86, 33.4], vars: {sku: 'sku1', quantity: 5}, dist: {calculated: 1.5}}");
+
+        // when
+        StoreInventory storeInventory = decode(document, new StoreInventoryCodec());
+
+        // verify
+        assertEquals(Arrays.asList(-86.0, 33.4), storeInventory.getLocation());
+        assertEquals(Collections.singletonList(new StoreInventory.StoreVariation("sku1", 5)),
+                storeInventory.getStoreVariations());
+    }
+
+    @Test
+    public void shouldLeaveOutNullFields() {
+        // when
+        BsonDocument document = encode(new Product(), new ProductCodec());
+
+        // verify
+        assertEquals(BsonDocument.parse("{qty: 0}"), document);
+        assertNull(decode(document, new ProductCodec()).getSku());
+    }
+
+    private <T> void assertCompatible(T value, Codec<T> codec, Class<T> clazz) {
+        Codec<T> reflectiveCodec = reflective.get(clazz);
+        assertEquals(value, decode(encode(value, codec), reflectiveCodec));
+        assertEquals(value, decode(encode(value, reflectiveCodec), codec));
+        assertEquals(value, decode(encode(value, codec), codec));
+    }
+
+    private static <T> BsonDocument encode(T value, Codec<T> codec) {
+        BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), value, EncoderContext.builder().build());
+        return document;
+    }
+
+    private static <T> T decode(BsonDocument document, Codec<T> codec) {
+        return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+    static Film film() {
+        Film.FilmDetails details = new Film.FilmDetails("The Matrix", Arrays.asList("Andy Wachowski",
+                "Larry Wachowski"), Arrays.asList("Andy Wachowski", "Larry Wachowski"), "1.66:1",
+                new Date(922406400000L), Arrays.asList("Action", "Sci-Fi"), "Keanu Reeves");
+        Film film = new Film("20034", "0ab42f88", "DVD & Blu-ray", "Film", "Science Fiction", "The Matrix",
+                "Set in the 22nd century", "B000P0J0AQ", new Shipping(6, new Shipping.Dimensions(10, 10, 1)),
+                new Pricing(1200, 1100, 100, 8), 16,
+                Collections.singletonList(new Product.CartedItem(1, 42, new Date(1500000000000L))), details);
+        film.setId(new ObjectId());
+        return film;
+    }
+
+    static AudioAlbum audioAlbum() {
+        AudioAlbum.AudioAlbumDetails details = new AudioAlbum.AudioAlbumDetails("A Love Supreme [Original Recording Reissued]",
+                "John Coltrane", Arrays.asList("General"), Arrays.asList("A Love Supreme Part I: Acknowledgement",
+                "A Love Supreme Part II - Resolution"), new Date(1102896000000L));
+        AudioAlbum audioAlbum = new AudioAlbum("30671", "00e8da9b", "Digital Music", "Audio Album", "Jazz",
+                "A Love Supreme", "by John Coltrane", "B0000A118M", new Shipping(6, null),
+                new Pricing(1200, 1100, 100, 8), 16, null, details);
+        audioAlbum.setId(new ObjectId());
+        return audioAlbum;
+    }
+}
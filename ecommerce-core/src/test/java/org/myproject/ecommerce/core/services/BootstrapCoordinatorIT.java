@@ -0,0 +1,91 @@
+package org.myproject.ecommerce.core.services;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { TestApplicationConfiguration.class})
+public class BootstrapCoordinatorIT {
+    @Autowired
+    private BootstrapCoordinator bootstrapCoordinator;
+
+    @Autowired
+    private MongoDBService mongoDBService;
+
+    @After
+    public void tearDown() {
+        bootstrapCoordinator.start().join();
+    }
+
+    @Test
+    public void shouldBeReadyOnceTheContextHasStarted() {
+        // verify
+        assertTrue(bootstrapCoordinator.isReady());
+        assertTrue(bootstrapCoordinator.awaitReady(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldVerifyUnchangedCollectionsWithoutSeeding() {
+        // given
+        bootstrapCoordinator.start().join();
+
+        // when
+        Map<String, BootstrapCoordinator.Outcome> outcomes = bootstrapCoordinator.start().join();
+
+        // verify
+        assertEquals(6, outcomes.size());
+        outcomes.forEach((step, outcome) -> assertEquals(step, BootstrapCoordinator.Outcome.VERIFIED, outcome));
+    }
+
+    @Test
+    public void shouldSeedChangedCollectionsAndTheStepsDependingOnThem() {
+        // given
+        bootstrapCoordinator.start().join();
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("storeId", "store1000");
+        mongoDBService.deleteOne("ecommerce", "store", filterMap);
+        filterMap.clear();
+        filterMap.put("slug", "swing");
+        mongoDBService.deleteOne("ecommerce", "categories", filterMap);
+
+        // when
+        Map<String, BootstrapCoordinator.Outcome> outcomes = bootstrapCoordinator.start().join();
+
+        // verify
+        assertEquals(BootstrapCoordinator.Outcome.SEEDED, outcomes.get("stores"));
+        assertEquals(BootstrapCoordinator.Outcome.SEEDED, outcomes.get("prices"));
+        assertEquals(BootstrapCoordinator.Outcome.SEEDED, outcomes.get("categories"));
+        assertEquals(BootstrapCoordinator.Outcome.VERIFIED, outcomes.get("products"));
+        assertEquals(BootstrapCoordinator.Outcome.VERIFIED, outcomes.get("carts"));
+        assertEquals(1001, mongoDBService.estimatedDocumentCount("ecommerce", "store"));
+    }
+
+    @Test
+    public void shouldReseedTheCartsWhenTheirReservationsAreGone() {
+        // given
+        bootstrapCoordinator.start().join();
+        long reservations = mongoDBService.estimatedDocumentCount("ecommerce",
+                ProductInventoryService.RESERVATION_COLLECTION);
+        mongoDBService.deleteAll("ecommerce", ProductInventoryService.RESERVATION_COLLECTION);
+
+        // when
+        Map<String, BootstrapCoordinator.Outcome> outcomes = bootstrapCoordinator.start().join();
+
+        // verify
+        assertEquals(BootstrapCoordinator.Outcome.SEEDED, outcomes.get("carts"));
+        assertEquals(BootstrapCoordinator.Outcome.VERIFIED, outcomes.get("products"));
+        assertEquals(reservations, mongoDBService.estimatedDocumentCount("ecommerce",
+                ProductInventoryService.RESERVATION_COLLECTION));
+    }
+}
@@ -0,0 +1,157 @@
+package org.myproject.ecommerce.core.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.myproject.ecommerce.core.domain.CartExpiry;
+import org.myproject.ecommerce.core.domain.ShoppingCart;
+import org.myproject.ecommerce.core.domain.ShoppingCartStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CartExpiryWheelTest {
+    private static final String DATABASE = "ecommerce";
+    private InMemoryMongoDBService mongoDBService;
+    private List<List<Integer>> batches;
+
+    @Before
+    public void setUp() {
+        mongoDBService = new InMemoryMongoDBService();
+        batches = new ArrayList<>();
+    }
+
+    @Test
+    public void shouldExpireCartsInBatchesWhenDue() {
+        // given
+        CartExpiryWheel wheel = new CartExpiryWheel(mongoDBService, 60, 1000, 2, batches::add);
+        long now = System.currentTimeMillis();
+        for(int cartId = 1; cartId <= 5; cartId++) {
+            wheel.touch(cartId, new Date(now));
+        }
+        wheel.touch(6, new Date(now + 30000));
+        wheel.touch(1, new Date(now + 20000));
+
+        // when
+        int expired = wheel.expireDue(now + 59000);
+
+        // verify
+        assertEquals(0, expired);
+        assertEquals(6, wheel.size());
+
+        // when
+        expired = wheel.expireDue(now + 61000);
+
+        // verify: the cart touched again is not due yet
+        assertEquals(4, expired);
+        assertEquals(2, batches.size());
+        assertEquals(Arrays.asList(2, 3, 4, 5), expiredCartIds());
+        assertEquals(2, wheel.size());
+
+        // when
+        batches.clear();
+        wheel.expireDue(now + 81000);
+        wheel.expireDue(now + 91000);
+
+        // verify
+        assertEquals(Arrays.asList(Collections.singletonList(1), Collections.singletonList(6)), batches);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void shouldExpireDistantDeadlinesOnTime() {
+        // given: one deadline on each of the higher levels and one beyond them
+        CartExpiryWheel wheel = new CartExpiryWheel(mongoDBService, 0, 1000, 100, batches::add);
+        long now = System.currentTimeMillis();
+        wheel.touch(1, new Date(now + TimeUnit.HOURS.toMillis(1)));
+        wheel.touch(2, new Date(now + TimeUnit.DAYS.toMillis(3)));
+        wheel.touch(3, new Date(now + TimeUnit.DAYS.toMillis(30)));
+        wheel.touch(4, new Date(now + TimeUnit.DAYS.toMillis(200)));
+
+        // when
+        List<Integer> expired = new ArrayList<>();
+        for(long deadline : new long[] {TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(3),
+                TimeUnit.DAYS.toMillis(30), TimeUnit.DAYS.toMillis(200)}) {
+            expired.add(wheel.expireDue(now + deadline - 1000));
+            expired.add(wheel.expireDue(now + deadline + 1000));
+        }
+
+        // verify
+        assertEquals(Arrays.asList(0, 1, 0, 1, 0, 1, 0, 1), expired);
+        assertEquals(Arrays.asList(Collections.singletonList(1), Collections.singletonList(2),
+                Collections.singletonList(3), Collections.singletonList(4)), batches);
+    }
+
+    @Test
+    public void shouldRetryABatchTheExpirerFailedOn() {
+        // given
+        List<Integer> attempts = new ArrayList<>();
+        CartExpiryWheel wheel = new CartExpiryWheel(mongoDBService, 0, 1000, 100, cartIds -> {
+            attempts.addAll(cartIds);
+            if(attempts.size() == 1) {
+                throw new IllegalStateException("not now");
+            }
+        });
+        long now = System.currentTimeMillis();
+        wheel.touch(42, new Date(now));
+
+        // when
+        wheel.expireDue(now + 1000);
+        wheel.expireDue(now + 2000);
+        wheel.expireDue(now + 3000);
+
+        // verify
+        assertEquals(Arrays.asList(42, 42), attempts);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void shouldResumeFromThePersistedDeadlines() {
+        // given
+        long now = System.currentTimeMillis();
+        Date stale = new Date(now - TimeUnit.DAYS.toMillis(1));
+        mongoDBService.createAll(DATABASE, "cart", ShoppingCart.class, Arrays.asList(
+                new ShoppingCart(41, stale, ShoppingCartStatus.ACTIVE.toString(), new ArrayList<>()),
+                new ShoppingCart(45, new Date(now), ShoppingCartStatus.ACTIVE.toString(), new ArrayList<>())));
+        CartExpiryWheel wheel = new CartExpiryWheel(mongoDBService, 60, 1000, 100, batches::add);
+        wheel.touch(42, new Date(now));
+        wheel.touch(43, new Date(now));
+        wheel.touch(44, new Date(now - 120000));
+        assertTrue(wheel.flush());
+        wheel.expireDue(now + 1000);
+        assertTrue(wheel.flush());
+        // a cart checked out after the last flush, the process stops before it is persisted
+        wheel.cancel(43);
+
+        // when
+        CartExpiryWheel restarted = new CartExpiryWheel(mongoDBService, 60, 1000, 100, batches::add);
+        restarted.load();
+
+        // verify: the flushed deadlines and the cart changed since the checkpoint, not the cart changed before it
+        assertEquals(Collections.singletonList(Collections.singletonList(44)), batches);
+        assertEquals(2, mongoDBService.count(DATABASE, CartExpiryWheel.COLLECTION));
+        assertEquals(wheel.getDeadline(42), restarted.getDeadline(42));
+        assertTrue(restarted.getDeadline(43).isPresent());
+        assertFalse(restarted.getDeadline(44).isPresent());
+        assertTrue(restarted.getDeadline(45).isPresent());
+        assertFalse(restarted.getDeadline(41).isPresent());
+        assertEquals(3, restarted.size());
+        assertTrue(restarted.flush());
+        assertTrue(mongoDBService.readById(DATABASE, CartExpiryWheel.COLLECTION, CartExpiry.class, 45)
+                .isPresent());
+    }
+
+    private List<Integer> expiredCartIds() {
+        List<Integer> cartIds = new ArrayList<>();
+        batches.forEach(cartIds::addAll);
+        Collections.sort(cartIds);
+        return cartIds;
+    }
+}
@@ -0,0 +1,97 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.RawBsonDocument;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class CommandMetricsTest {
+    private final ConnectionDescription connection = new ConnectionDescription(
+            new ServerId(new ClusterId(), new ServerAddress()));
+
+    @Test
+    public void shouldAttributeCommandsToCollection() {
+        // given
+        CommandMetrics commandMetrics = new CommandMetrics();
+        RawBsonDocument response = RawBsonDocument.parse(
+                "{cursor: {firstBatch: [{sku: 'a'}, {sku: 'b'}], id: 0, ns: 'ecommerce.product'}, ok: 1}");
+
+        // when
+        commandMetrics.commandStarted(new CommandStartedEvent(1, connection, "ecommerce", "find",
+                BsonDocument.parse("{find: 'product', filter: {sku: 'a'}}")));
+        commandMetrics.commandSucceeded(new CommandSucceededEvent(1, connection, "find", response,
+                TimeUnit.MILLISECONDS.toNanos(3)));
+        commandMetrics.commandStarted(new CommandStartedEvent(2, connection, "ecommerce", "getMore",
+                BsonDocument.parse("{getMore: {$numberLong: '42'}, collection: 'product'}")));
+        commandMetrics.commandFailed(new CommandFailedEvent(2, connection, "getMore",
+                TimeUnit.MILLISECONDS.toNanos(1), new RuntimeException("cursor not found")));
+
+        // verify
+        List<CommandStats> productStats = commandMetrics.getCommandStats("ecommerce", "product");
+        assertEquals(2, productStats.size());
+        CommandStats find = productStats.stream().filter(s -> "find".equals(s.getCommandName())).findFirst().get();
+        assertEquals(1, find.getLatency().getCount());
+        assertEquals(3000, find.getLatency().getMaxMicros());
+        assertEquals(2, find.getDocumentCount());
+        assertEquals(response.getByteBuffer().remaining(), find.getResponseBytes());
+        CommandStats getMore = productStats.stream().filter(s -> "getMore".equals(s.getCommandName())).findFirst().get();
+        assertEquals(1, getMore.getFailureCount());
+    }
+
+    @Test
+    public void shouldCountWrittenDocuments() {
+        assertEquals(3, CommandMetrics.documentCount(RawBsonDocument.parse("{n: 3, nModified: 2, ok: 1}")));
+        assertEquals(0, CommandMetrics.documentCount(RawBsonDocument.parse("{ismaster: true, ok: 1}")));
+    }
+
+    @Test
+    public void shouldNotCopyResponsesThatAreNotRaw() {
+        // given
+        CommandMetrics commandMetrics = new CommandMetrics();
+        BsonDocument response = new BsonDocument() {
+            @Override
+            public BsonDocument clone() {
+                throw new AssertionError("the response was copied");
+            }
+        };
+        response.append("n", new BsonInt32(3)).append("ok", new BsonInt32(1));
+
+        // when
+        commandMetrics.commandStarted(new CommandStartedEvent(4, connection, "ecommerce", "update",
+                BsonDocument.parse("{update: 'product', updates: []}")));
+        commandMetrics.commandSucceeded(new CommandSucceededEvent(4, connection, "update", response, 1000));
+
+        // verify
+        CommandStats update = commandMetrics.getCommandStats("ecommerce", "product").get(0);
+        assertEquals(3, update.getDocumentCount());
+        assertEquals(0, update.getResponseBytes());
+    }
+
+    @Test
+    public void shouldReportDatabaseCommands() {
+        // given
+        CommandMetrics commandMetrics = new CommandMetrics();
+
+        // when
+        commandMetrics.commandStarted(new CommandStartedEvent(3, connection, "admin", "ismaster",
+                BsonDocument.parse("{ismaster: 1}")));
+        commandMetrics.commandSucceeded(new CommandSucceededEvent(3, connection, "ismaster",
+                BsonDocument.parse("{ismaster: true, ok: 1}"), 1000));
+
+        // verify
+        assertEquals(1, commandMetrics.getCommandStats("admin", "$cmd").size());
+        assertEquals(1, commandMetrics.getCommandStats("admin", "$cmd").get(0).getLatency().getCount());
+    }
+}
@@ -0,0 +1,364 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.geojson.Point;
+import com.mongodb.client.model.geojson.Position;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.myproject.ecommerce.core.domain.AudioAlbum;
+import org.myproject.ecommerce.core.domain.Film;
+import org.myproject.ecommerce.core.domain.Pricing;
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.Reservation;
+import org.myproject.ecommerce.core.domain.ShoppingCart;
+import org.myproject.ecommerce.core.domain.ShoppingCartItemDetails;
+import org.myproject.ecommerce.core.domain.ShoppingCartStatus;
+import org.myproject.ecommerce.core.domain.StoreInventory;
+import org.myproject.ecommerce.core.utilities.SKUCodeProductIdGenerator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InMemoryMongoDBServiceTest {
+    private static final String DATABASE = "ecommerce";
+    private InMemoryMongoDBService mongoDBService;
+
+    @Before
+    public void setUp() {
+        mongoDBService = new InMemoryMongoDBService();
+        mongoDBService.createOne(DATABASE, "product", AudioAlbum.class, product(AudioAlbum.class,
+                "00e8da9b", "A Love Supreme", 16));
+        mongoDBService.createOne(DATABASE, "product", Film.class, product(Film.class,
+                "0ab42f88", "The Matrix", 16));
+        mongoDBService.createOne(DATABASE, "product", Product.class, product(Product.class,
+                "7c2cb53f", "Kind of Blue", 3));
+    }
+
+    @Test
+    public void shouldFilterWithTheMapDsl() {
+        // given
+        Map<String, Object> quantityMap = new HashMap<>();
+        quantityMap.put("qty", 10);
+        Map<String, Object> gteFilterMap = new HashMap<>();
+        gteFilterMap.put("$gte", quantityMap);
+        Map<String, Object> skuMap = new HashMap<>();
+        skuMap.put("sku", Arrays.asList("7c2cb53f", "0ab42f88"));
+        Map<String, Object> inFilterMap = new HashMap<>();
+        inFilterMap.put("$in", skuMap);
+        Map<String, Object> titleMap = new HashMap<>();
+        titleMap.put("title", Pattern.compile("^a love", Pattern.CASE_INSENSITIVE));
+        Map<String, Object> regexFilterMap = new HashMap<>();
+        regexFilterMap.put("$regex", titleMap);
+
+        // when
+        List<Product> inStock = mongoDBService.readAll(DATABASE, "product", Product.class, gteFilterMap,
+                Optional.of(Collections.singletonMap("sku", -1)));
+        List<Product> bySku = mongoDBService.readAll(DATABASE, "product", Product.class, inFilterMap);
+        Optional<AudioAlbum> byTitle = mongoDBService.readOne(DATABASE, "product", AudioAlbum.class,
+                regexFilterMap);
+
+        // verify
+        assertEquals(Arrays.asList("0ab42f88", "00e8da9b"), inStock.stream().map(Product::getSku).collect(toList()));
+        assertEquals(Arrays.asList("0ab42f88", "7c2cb53f"), bySku.stream().map(Product::getSku).collect(toList()));
+        assertEquals("A Love Supreme", byTitle.get().getTitle());
+        assertEquals(3, mongoDBService.count(DATABASE, "product"));
+    }
+
+    @Test
+    public void shouldRunTheCartLifecycleOfProductInventoryService() throws EcommerceException {
+        // given
+        ProductInventoryService productInventoryService = new ProductInventoryService(mongoDBService,
+                new PaymentService());
+        productInventoryService.initialise();
+
+        // when
+        productInventoryService.addItemToCart(42, "7c2cb53f", 1, new ShoppingCartItemDetails("a cart item"));
+        productInventoryService.updateCartQuantity(42, "7c2cb53f", 1, 3);
+
+        // verify
+        ShoppingCart cart = productInventoryService.getCartByCartId(42);
+        assertEquals(3, cart.getItems().get(cart.getItems().size() - 1).getQuantity());
+        Product product = readProduct("7c2cb53f");
+        assertEquals(0, product.getQuantity());
+        assertEquals(3, readReservation("7c2cb53f", 42).getQuantity());
+        try {
+            productInventoryService.updateCartQuantity(42, "7c2cb53f", 3, 4);
+            fail("there is no inventory left");
+        } catch (InadequateInventoryException e) {
+            assertEquals(0, readProduct("7c2cb53f").getQuantity());
+        }
+
+        // when
+        productInventoryService.processCheckout(42);
+
+        // verify
+        assertEquals(ShoppingCartStatus.COMPLETE.toString(), productInventoryService.getCartByCartId(42).getStatus());
+        assertEquals(0, mongoDBService.count(DATABASE, ProductInventoryService.RESERVATION_COLLECTION));
+    }
+
+    @Test
+    public void shouldNotOversellUnderConcurrentConditionalUpdates() throws Exception {
+        // given
+        Map<String, Object> quantityMap = new HashMap<>();
+        quantityMap.put("qty", 1);
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", "00e8da9b");
+        filterMap.put("$gte", quantityMap);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("inc", Collections.singletonMap("qty", -1));
+        Map<String, Object> updateOptions = new HashMap<>();
+        updateOptions.put("atomic", true);
+        AtomicInteger sold = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+        List<Future<?>> buyers = new java.util.ArrayList<>();
+        for(int i = 0; i < 8; i++) {
+            buyers.add(executor.submit(() -> {
+                for(int j = 0; j < 10; j++) {
+                    if(mongoDBService.updateOne(DATABASE, "product", Product.class, filterMap, updateMap,
+                            updateOptions)) {
+                        sold.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for(Future<?> buyer : buyers) {
+            buyer.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        // verify
+        assertEquals(16, sold.get());
+        assertEquals(0, readProduct("00e8da9b").getQuantity());
+    }
+
+    @Test
+    public void shouldUseAndEnforceUniqueIndexes() {
+        // given
+        mongoDBService.createIndex(DATABASE, "product", IndexDefinition.unique(Collections.singletonMap("sku", 1)));
+
+        // when
+        try {
+            mongoDBService.createOne(DATABASE, "product", Product.class, product(Product.class, "7c2cb53f",
+                    "Kind of Blue (Legacy Edition)", 1));
+            fail("the sku is taken");
+        } catch (MongoWriteException e) {
+            assertEquals(11000, e.getError().getCode());
+        }
+        readProduct("7c2cb53f");
+
+        // verify
+        assertEquals(3, mongoDBService.count(DATABASE, "product"));
+        Document stats = mongoDBService.getIndexStats(DATABASE, "product")
+                .stream()
+                .filter(document -> "sku_1".equals(document.getString("name")))
+                .findFirst()
+                .get();
+        assertEquals(1L, ((Document) stats.get("accesses")).get("ops"));
+        assertEquals(Arrays.asList("_id_", "sku_1"), mongoDBService.listIndexes(DATABASE, "product")
+                .stream()
+                .map(document -> document.getString("name"))
+                .collect(toList()));
+    }
+
+    @Test
+    public void shouldFindNearestStoresFirst() {
+        // given
+        mongoDBService.createIndex(DATABASE, "store_inventory", IndexDefinition.geo2dsphere("location"));
+        mongoDBService.createAll(DATABASE, "store_inventory", StoreInventory.class, Arrays.asList(
+                storeInventory("birmingham", -86.80249, 33.52066),
+                storeInventory("hoover", -86.81138, 33.40539),
+                storeInventory("atlanta", -84.38798, 33.74900)));
+        Point birmingham = new Point(new Position(-86.80249, 33.52066));
+        Map<String, Object> nearSphereMap = new HashMap<>();
+        nearSphereMap.put("fieldName", "location");
+        nearSphereMap.put("geometry", birmingham);
+        nearSphereMap.put("maxDistance", 50000.0);
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("$nearSphere", nearSphereMap);
+        Map<String, Object> geoQueryMap = new HashMap<>();
+        geoQueryMap.put("geometry", birmingham);
+        geoQueryMap.put("distanceFieldName", "distance");
+        geoQueryMap.put("maxDistance", 500000.0);
+
+        // when
+        List<StoreInventory> near = mongoDBService.readAll(DATABASE, "store_inventory", StoreInventory.class,
+                filterMap);
+        List<StoreInventory> withSku = mongoDBService.performGeoQuery(DATABASE, "store_inventory",
+                StoreInventory.class, geoQueryMap, Collections.singletonMap("productId", "20034"),
+                Arrays.asList(Collections.singletonMap("$unwind", "$vars"),
+                        Collections.singletonMap("$match", Collections.singletonMap("vars.sku", "sku2"))));
+
+        // verify
+        assertEquals(Arrays.asList("birmingham", "hoover"), near.stream().map(StoreInventory::getStoreId)
+                .collect(toList()));
+        assertEquals(Arrays.asList("birmingham", "hoover", "atlanta"), withSku.stream()
+                .map(StoreInventory::getStoreId).collect(toList()));
+        assertEquals(Collections.singletonList(new StoreInventory.StoreVariation("sku2", 23)),
+                withSku.get(0).getStoreVariations());
+    }
+
+    @Test
+    public void shouldAggregate() {
+        // given
+        Map<String, Object> groupMap = new HashMap<>();
+        groupMap.put("$sum", Arrays.asList("count", "$qty"));
+        List<Map<String, Object>> pipeline = Arrays.asList(
+                Collections.singletonMap("$match", Collections.singletonMap("department", "Music")),
+                Collections.singletonMap("$group", Arrays.asList("$department", groupMap)));
+
+        // when
+        Map<String, Object> result = mongoDBService.processAggregatePipeline(DATABASE, "product", pipeline,
+                Arrays.asList("_id", "count"));
+
+        // verify
+        assertEquals("Music", result.get("_id"));
+        assertEquals(35, result.get("count"));
+    }
+
+    @Test
+    public void shouldPageInSortOrder() {
+        // when
+        Page<Product> first = mongoDBService.readPage(DATABASE, "product", Product.class, new HashMap<>(),
+                "title", 1, Optional.empty(), 2);
+        Page<Product> second = mongoDBService.readPage(DATABASE, "product", Product.class, new HashMap<>(),
+                "title", 1, first.getNextPageToken(), 2);
+
+        // verify
+        assertEquals(Arrays.asList("A Love Supreme", "Kind of Blue"), first.getItems().stream()
+                .map(Product::getTitle).collect(toList()));
+        assertEquals(Collections.singletonList("The Matrix"), second.getItems().stream()
+                .map(Product::getTitle).collect(toList()));
+        assertFalse(second.getNextPageToken().isPresent());
+        // the last page still says where it ended
+        assertTrue(mongoDBService.readPage(DATABASE, "product", Product.class, new HashMap<>(), "title", 1,
+                second.getLastItemToken(), 2).getItems().isEmpty());
+    }
+
+    private Product readProduct(String sku) {
+        return mongoDBService.readOne(DATABASE, "product", Product.class, Collections.singletonMap("sku", sku))
+                .get();
+    }
+
+    private Reservation readReservation(String sku, int cartId) {
+        return mongoDBService.readById(DATABASE, ProductInventoryService.RESERVATION_COLLECTION, Reservation.class,
+                Reservation.id(sku, cartId)).get();
+    }
+
+    private static <T extends Product> T product(Class<T> clazz, String sku, String title, int quantity) {
+        try {
+            T product = clazz.newInstance();
+            product.setSku(sku);
+            product.setTitle(title);
+            product.setDepartment("Music");
+            product.setPricing(new Pricing(1200, 1100, 100, 8));
+            product.setQuantity(quantity);
+            return product;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static StoreInventory storeInventory(String storeId, double longitude, double latitude) {
+        return new StoreInventory(storeId + "-20034", storeId, Arrays.asList(longitude, latitude), "20034",
+                Arrays.asList(new StoreInventory.StoreVariation("sku1", 5),
+                        new StoreInventory.StoreVariation("sku2", 23)));
+    }
+
+    @Test
+    public void shouldDropCachedProductsThatAreWrittenBehindTheCatalog() {
+        // given
+        ProductCatalogService productCatalogService = new ProductCatalogService(mongoDBService,
+                new SKUCodeProductIdGenerator(mongoDBService));
+        Product product = productCatalogService.getProductBySku("00e8da9b", Product.class).get();
+        productCatalogService.getProductBySku("0ab42f88", Product.class);
+        Map<String, Object> quantityMap = new HashMap<>();
+        quantityMap.put("qty", 4);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", quantityMap);
+
+        // when
+        mongoDBService.updateOne(DATABASE, "product", Product.class, Collections.singletonMap("_id",
+                product.getId()), updateMap, new HashMap<>());
+        mongoDBService.bulkWrite(DATABASE, "product", Product.class, Collections.singletonList(
+                BulkWriteOperation.updateOne(Collections.singletonMap("sku", "0ab42f88"), updateMap)), false);
+
+        // verify
+        assertEquals(4, productCatalogService.getProductBySku("00e8da9b", Product.class).get().getQuantity());
+        assertEquals(4, productCatalogService.getProductBySku("0ab42f88", Product.class).get().getQuantity());
+    }
+
+    @Test
+    public void shouldApplyAnAtomicConditionalUpdateExactlyOnce() {
+        // given
+        mongoDBService.createOne(DATABASE, "stock", Document.class, new Document("_id", 1).append("qty", 1));
+        Map<String, Object> quantityFilterMap = new HashMap<>();
+        quantityFilterMap.put("qty", 1);
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("$gte", quantityFilterMap);
+        Map<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", -1);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("inc", quantityUpdateMap);
+        Map<String, Object> updateOptions = new HashMap<>();
+        updateOptions.put("atomic", true);
+
+        // when
+        boolean first = mongoDBService.updateOne(DATABASE, "stock", Document.class, filterMap, updateMap,
+                updateOptions);
+        boolean second = mongoDBService.updateOne(DATABASE, "stock", Document.class, filterMap, updateMap,
+                updateOptions);
+
+        // verify
+        assertTrue(first);
+        assertFalse(second);
+        assertEquals(0, (int) mongoDBService.readById(DATABASE, "stock", Document.class, 1)
+                .get().getInteger("qty"));
+    }
+
+    @Test
+    public void shouldFindNothingToUpdateForANonMatchingFilter() {
+        // given
+        mongoDBService.createOne(DATABASE, "stock", Document.class, new Document("_id", 1).append("qty", 1));
+        Map<String, Object> quantityFilterMap = new HashMap<>();
+        quantityFilterMap.put("qty", 2);
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", 1);
+        filterMap.put("$gte", quantityFilterMap);
+        Map<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", -2);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("inc", quantityUpdateMap);
+
+        // when
+        Optional<Document> missed = mongoDBService.findOneAndUpdate(DATABASE, "stock", Document.class,
+                filterMap, updateMap);
+        quantityFilterMap.put("qty", 1);
+        quantityUpdateMap.put("qty", -1);
+        Optional<Document> updated = mongoDBService.findOneAndUpdate(DATABASE, "stock", Document.class,
+                filterMap, updateMap);
+
+        // verify
+        assertFalse(missed.isPresent());
+        assertEquals(0, (int) updated.get().getInteger("qty"));
+    }
+}
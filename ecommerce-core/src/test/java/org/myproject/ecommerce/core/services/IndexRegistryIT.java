@@ -0,0 +1,67 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { TestApplicationConfiguration.class})
+public class IndexRegistryIT {
+    private static final String SLICE_COLLECTION = IndexRegistry.ACTIVITY_SLICE_PREFIX + "test_0";
+
+    @Autowired
+    private IndexRegistry indexRegistry;
+
+    @Autowired
+    private MongoDBService mongoDBService;
+
+    @After
+    public void tearDown() {
+        mongoDBService.dropCollection(IndexRegistry.DATABASE, SLICE_COLLECTION);
+    }
+
+    @Test
+    public void shouldCreateDeclaredIndexesAtStartup() {
+        // when
+        IndexReport report = indexRegistry.verify();
+
+        // verify
+        assertTrue(report.getMissingIndexes().toString(), report.isComplete());
+        List<String> indexNames = mongoDBService.listIndexes(IndexRegistry.DATABASE, "store")
+                .stream()
+                .map(index -> index.getString("name"))
+                .collect(toList());
+        assertTrue(indexNames.contains("location_2dsphere"));
+    }
+
+    @Test
+    public void shouldIndexSliceCollectionOnFirstUse() {
+        // given
+        mongoDBService.createOne(IndexRegistry.DATABASE, SLICE_COLLECTION, Document.class,
+                new Document("data", new Document("userId", "u1").append("ts", 1L)));
+
+        // when
+        indexRegistry.ensureIndexes(SLICE_COLLECTION);
+
+        // verify
+        List<String> indexNames = mongoDBService.listIndexes(IndexRegistry.DATABASE, SLICE_COLLECTION)
+                .stream()
+                .map(index -> index.getString("name"))
+                .collect(toList());
+        assertEquals(3, indexNames.size());
+        assertTrue(indexNames.contains("data.userId_1_data.ts_-1"));
+        assertTrue(indexNames.contains("data.itemId_1_data.ts_-1"));
+        assertFalse(indexRegistry.verify().getMissingIndexes().containsKey(SLICE_COLLECTION));
+    }
+}
@@ -0,0 +1,175 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.Reservation;
+import org.myproject.ecommerce.core.domain.ShoppingCart;
+import org.myproject.ecommerce.core.domain.ShoppingCartStatus;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InventoryCleanupSweeperTest {
+    private static final String DATABASE = "ecommerce";
+    private static final Date STALE = Date.from(Instant.parse("2012-03-09T20:55:36Z"));
+    private InMemoryMongoDBService mongoDBService;
+    private ProductInventoryService productInventoryService;
+
+    @Before
+    public void setUp() {
+        mongoDBService = new InMemoryMongoDBService();
+        Product product = new Product();
+        product.setSku("00e8da9b");
+        product.setTitle("00e8da9b");
+        product.setQuantity(0);
+        mongoDBService.createOne(DATABASE, "product", Product.class, product);
+        productInventoryService = new ProductInventoryService(mongoDBService, new PaymentService());
+    }
+
+    @Test
+    public void shouldSweepInChunksAndResumeFromTheWatermark() {
+        // given
+        createCart(42, ShoppingCartStatus.ACTIVE);
+        createReservation(42, 1, STALE);
+        for(int cartId = 100; cartId < 110; cartId++) {
+            createCart(cartId, ShoppingCartStatus.EXPIRED);
+            createReservation(cartId, 2, new Date(STALE.getTime() + cartId));
+        }
+        InventoryCleanupSweeper sweeper = new InventoryCleanupSweeper(mongoDBService, productInventoryService,
+                60, 100000, 0, 3, 0, () -> 0);
+
+        // when
+        int swept = sweeper.sweep();
+
+        // verify
+        assertEquals(11, swept);
+        assertEquals(20, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertTrue(readReservation(42).get().getTimestamp().after(STALE));
+        assertEquals(1, mongoDBService.count(DATABASE, ProductInventoryService.RESERVATION_COLLECTION));
+
+        assertEquals(0, mongoDBService.count(DATABASE, InventoryCleanupSweeper.WATERMARK_COLLECTION));
+
+        // when: a sweeper restarted in the middle of a pass skips what is behind the watermark
+        createCart(110, ShoppingCartStatus.EXPIRED);
+        createReservation(110, 4, STALE);
+        createCart(111, ShoppingCartStatus.EXPIRED);
+        createReservation(111, 8, new Date(STALE.getTime() + 1000));
+        saveWatermark(mongoDBService.readPage(DATABASE, ProductInventoryService.RESERVATION_COLLECTION,
+                Reservation.class, new HashMap<>(), "timestamp", 1, Optional.empty(), 1).getLastItemToken().get());
+        swept = new InventoryCleanupSweeper(mongoDBService, productInventoryService, 60, 100000, 0, 3, 0,
+                () -> 0).sweep();
+
+        // verify
+        assertEquals(1, swept);
+        assertEquals(28, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertTrue(readReservation(110).isPresent());
+        assertFalse(readReservation(111).isPresent());
+
+        // when: the next pass starts from the beginning again
+        swept = sweeper.sweep();
+
+        // verify
+        assertEquals(1, swept);
+        assertEquals(32, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertFalse(readReservation(110).isPresent());
+    }
+
+    @Test
+    public void shouldTellAnIncompleteChunk() {
+        // given: the second reservation changed since it was read
+        createCart(100, ShoppingCartStatus.EXPIRED);
+        createReservation(100, 2, STALE);
+        createCart(101, ShoppingCartStatus.EXPIRED);
+        createReservation(101, 3, STALE);
+
+        // when
+        ProductInventoryService.CleanupResult result = productInventoryService.cleanupReservations(Arrays.asList(
+                new Reservation("00e8da9b", 100, 2, STALE), new Reservation("00e8da9b", 101, 1, STALE)));
+
+        // verify
+        assertFalse(result.isComplete());
+        assertEquals(2, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertFalse(readReservation(100).isPresent());
+        assertEquals(3, readReservation(101).get().getQuantity());
+
+        // when
+        result = productInventoryService.cleanupReservations(Collections.singletonList(
+                readReservation(101).get()));
+
+        // verify
+        assertTrue(result.isComplete());
+        assertEquals(5, productInventoryService.getAvailableQuantity("00e8da9b"));
+    }
+
+    @Test
+    public void shouldKeepToTheOpsBudget() {
+        // given: each chunk of 5 costs 19 operations, 4 chunks take 0.76 seconds at 100 per second
+        for(int cartId = 100; cartId < 120; cartId++) {
+            createCart(cartId, ShoppingCartStatus.EXPIRED);
+            createReservation(cartId, 1, STALE);
+        }
+        InventoryCleanupSweeper sweeper = new InventoryCleanupSweeper(mongoDBService, productInventoryService,
+                60, 100, 0, 5, 0, () -> 0);
+
+        // when
+        long start = System.currentTimeMillis();
+        int swept = sweeper.sweep();
+
+        // verify
+        assertEquals(20, swept);
+        assertTrue(System.currentTimeMillis() - start >= 750);
+        assertEquals(20, productInventoryService.getAvailableQuantity("00e8da9b"));
+    }
+
+    @Test
+    public void shouldPauseWhileTheForegroundIsBusy() throws InterruptedException {
+        // given: the foreground runs 1000 operations between the first samples, then goes quiet
+        createCart(100, ShoppingCartStatus.EXPIRED);
+        createReservation(100, 3, STALE);
+        AtomicLong samples = new AtomicLong();
+        InventoryCleanupSweeper sweeper = new InventoryCleanupSweeper(mongoDBService, productInventoryService,
+                60, 100000, 100, 5, 200, () -> Math.min(3, samples.incrementAndGet()) * 1000);
+        Thread.sleep(150);
+
+        // when
+        int swept = sweeper.sweep();
+
+        // verify
+        assertEquals(1, swept);
+        assertEquals(2, sweeper.getPauses());
+        assertEquals(3, productInventoryService.getAvailableQuantity("00e8da9b"));
+    }
+
+    private void createCart(int cartId, ShoppingCartStatus status) {
+        mongoDBService.createOne(DATABASE, "cart", ShoppingCart.class, new ShoppingCart(cartId, STALE,
+                status.toString(), new ArrayList<>()));
+    }
+
+    private void createReservation(int cartId, int quantity, Date timestamp) {
+        mongoDBService.createOne(DATABASE, ProductInventoryService.RESERVATION_COLLECTION, Reservation.class,
+                new Reservation("00e8da9b", cartId, quantity, timestamp));
+    }
+
+    private void saveWatermark(String token) {
+        mongoDBService.upsertOne(DATABASE, InventoryCleanupSweeper.WATERMARK_COLLECTION, Document.class,
+                Collections.singletonMap("_id", ProductInventoryService.RESERVATION_COLLECTION),
+                new Document("_id", ProductInventoryService.RESERVATION_COLLECTION).append("token", token));
+    }
+
+    private Optional<Reservation> readReservation(int cartId) {
+        return mongoDBService.readById(DATABASE, ProductInventoryService.RESERVATION_COLLECTION, Reservation.class,
+                Reservation.id("00e8da9b", cartId));
+    }
+}
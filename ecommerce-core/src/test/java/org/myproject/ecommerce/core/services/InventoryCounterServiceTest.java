@@ -0,0 +1,300 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.myproject.ecommerce.core.domain.InventoryCounter;
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.Reservation;
+import org.myproject.ecommerce.core.domain.ShoppingCart;
+import org.myproject.ecommerce.core.domain.ShoppingCartItemDetails;
+import org.myproject.ecommerce.core.domain.ShoppingCartStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InventoryCounterServiceTest {
+    private static final String DATABASE = "ecommerce";
+    private InMemoryMongoDBService mongoDBService;
+    private InventoryCounterService inventoryCounterService;
+
+    @Before
+    public void setUp() {
+        mongoDBService = new InMemoryMongoDBService();
+        mongoDBService.createAll(DATABASE, "product", Product.class, Arrays.asList(
+                product("00e8da9b", 16), product("0ab42f88", 3)));
+        inventoryCounterService = new InventoryCounterService(mongoDBService);
+    }
+
+    @Test
+    public void shouldSplitTheStockOverTheBuckets() throws EcommerceException {
+        // when
+        inventoryCounterService.shard("00e8da9b", 3);
+
+        // verify
+        assertTrue(inventoryCounterService.isSharded("00e8da9b"));
+        assertFalse(inventoryCounterService.isSharded("0ab42f88"));
+        assertEquals(Arrays.asList(6, 5, 5), quantities("00e8da9b"));
+        assertEquals(0, readProduct("00e8da9b").getQuantity());
+        assertEquals(16, inventoryCounterService.getAvailable("00e8da9b"));
+        try {
+            inventoryCounterService.shard("00e8da9b", 2);
+            fail("the sku is sharded");
+        } catch (EcommerceException e) {
+            assertEquals(16, inventoryCounterService.getAvailable("00e8da9b"));
+        }
+    }
+
+    @Test
+    public void shouldNotOversellUnderContention() throws Exception {
+        // given
+        inventoryCounterService.shard("00e8da9b", 4);
+        AtomicInteger reserved = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+        List<Future<?>> shoppers = new ArrayList<>();
+        for(int i = 0; i < 8; i++) {
+            shoppers.add(executor.submit(() -> {
+                for(int j = 0; j < 5; j++) {
+                    if(inventoryCounterService.reserve("00e8da9b", 1)) {
+                        reserved.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for(Future<?> shopper : shoppers) {
+            shopper.get();
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        // verify
+        assertEquals(16, reserved.get());
+        assertEquals(0, inventoryCounterService.getAvailable("00e8da9b"));
+        assertFalse(inventoryCounterService.reserve("00e8da9b", 1));
+    }
+
+    @Test
+    public void shouldCompleteAShardThatTookTheProductStockBeforeACrash() {
+        // given: the counters are pending and the product went to their shard
+        mongoDBService.createAll(DATABASE, "inventory_counter", InventoryCounter.class, Arrays.asList(
+                new InventoryCounter("00e8da9b", 0, 8, "5ad9d9a3e4b0d2d2f1a3c001", true),
+                new InventoryCounter("00e8da9b", 1, 8, "5ad9d9a3e4b0d2d2f1a3c001", true)));
+        takeProductStock("00e8da9b", 16, "5ad9d9a3e4b0d2d2f1a3c001");
+
+        // when
+        try {
+            inventoryCounterService.shard("00e8da9b", 2);
+            fail("the sku is sharded");
+        } catch (EcommerceException e) {
+            // verify
+            assertTrue(inventoryCounterService.isSharded("00e8da9b"));
+            assertEquals(16, inventoryCounterService.getAvailable("00e8da9b"));
+            assertEquals(0, readProduct("00e8da9b").getQuantity());
+            assertFalse(readProductDocument("00e8da9b").containsKey("inventory_shard"));
+        }
+    }
+
+    @Test
+    public void shouldUndoAShardThatDidNotTakeTheProductStockBeforeACrash() throws EcommerceException {
+        // given: the counters are pending, the product still holds the stock
+        mongoDBService.createAll(DATABASE, "inventory_counter", InventoryCounter.class, Arrays.asList(
+                new InventoryCounter("00e8da9b", 0, 8, "5ad9d9a3e4b0d2d2f1a3c001", true),
+                new InventoryCounter("00e8da9b", 1, 8, "5ad9d9a3e4b0d2d2f1a3c001", true)));
+
+        // when
+        boolean shardedBefore = inventoryCounterService.isSharded("00e8da9b");
+        inventoryCounterService.shard("00e8da9b", 4);
+
+        // verify
+        assertFalse(shardedBefore);
+        assertEquals(Arrays.asList(4, 4, 4, 4), quantities("00e8da9b"));
+        assertEquals(16, inventoryCounterService.getAvailable("00e8da9b"));
+        assertEquals(0, readProduct("00e8da9b").getQuantity());
+    }
+
+    @Test
+    public void shouldReserveAcrossBucketsAndRebalance() throws EcommerceException {
+        // given: one in each bucket
+        inventoryCounterService.shard("0ab42f88", 3);
+
+        // when
+        boolean reserved = inventoryCounterService.reserve("0ab42f88", 3);
+
+        // verify
+        assertTrue(reserved);
+        assertEquals(Arrays.asList(0, 0, 0), quantities("0ab42f88"));
+
+        // when: returns land in random buckets
+        for(int i = 0; i < 7; i++) {
+            inventoryCounterService.release("0ab42f88", 1);
+        }
+        inventoryCounterService.rebalance("0ab42f88");
+
+        // verify
+        assertEquals(Arrays.asList(3, 2, 2), quantities("0ab42f88"));
+        assertEquals(7, inventoryCounterService.getAvailable("0ab42f88"));
+    }
+
+    @Test
+    public void shouldReturnTheStockOnUnshard() throws EcommerceException {
+        // given
+        inventoryCounterService.shard("00e8da9b", 2);
+        inventoryCounterService.reserve("00e8da9b", 5);
+
+        // when
+        inventoryCounterService.unshard("00e8da9b");
+
+        // verify
+        assertFalse(inventoryCounterService.isSharded("00e8da9b"));
+        assertEquals(11, readProduct("00e8da9b").getQuantity());
+        assertEquals(0, mongoDBService.count(DATABASE, "inventory_counter"));
+    }
+
+    @Test
+    public void shouldFenceTheBucketsOfAnUnshardAndCompleteItAfterACrash() throws EcommerceException {
+        // given: an unshard fenced the counters and stopped
+        inventoryCounterService.shard("00e8da9b", 2);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", Collections.singletonMap("draining", true));
+        mongoDBService.updateMany(DATABASE, "inventory_counter", Collections.singletonMap("sku", "00e8da9b"),
+                updateMap);
+
+        // when
+        boolean reserved = inventoryCounterService.reserve("00e8da9b", 1);
+        inventoryCounterService.release("00e8da9b", 3);
+
+        // verify: the counters hold still, the release went to the product
+        assertFalse(reserved);
+        assertEquals(Arrays.asList(8, 8), quantities("00e8da9b"));
+        assertEquals(3, readProduct("00e8da9b").getQuantity());
+
+        // when
+        inventoryCounterService.unshard("00e8da9b");
+
+        // verify
+        assertFalse(inventoryCounterService.isSharded("00e8da9b"));
+        assertEquals(19, readProduct("00e8da9b").getQuantity());
+        assertEquals(0, mongoDBService.count(DATABASE, "inventory_counter"));
+    }
+
+    @Test
+    public void shouldTakeFromTheSideAnotherInstanceMovedTheStockTo() throws EcommerceException {
+        // given: this instance cached the skus before another one sharded and unsharded them
+        ProductInventoryService productInventoryService = new ProductInventoryService(mongoDBService,
+                new PaymentService(), inventoryCounterService);
+        InventoryCounterService otherInstance = new InventoryCounterService(mongoDBService);
+        inventoryCounterService.shard("0ab42f88", 3);
+        assertFalse(inventoryCounterService.isSharded("00e8da9b"));
+        assertTrue(inventoryCounterService.isSharded("0ab42f88"));
+        otherInstance.shard("00e8da9b", 2);
+        otherInstance.unshard("0ab42f88");
+        mongoDBService.createOne(DATABASE, "cart", ShoppingCart.class, new ShoppingCart(42, new Date(),
+                ShoppingCartStatus.ACTIVE.toString(), new ArrayList<>()));
+
+        // when
+        productInventoryService.addItemToCart(42, "00e8da9b", 5, new ShoppingCartItemDetails("sharded since"));
+        productInventoryService.addItemToCart(42, "0ab42f88", 2, new ShoppingCartItemDetails("unsharded since"));
+        productInventoryService.updateCartQuantity(42, "00e8da9b", 5, 1);
+
+        // verify
+        assertEquals(15, inventoryCounterService.getAvailable("00e8da9b"));
+        assertEquals(0, readProduct("00e8da9b").getQuantity());
+        assertEquals(1, readProduct("0ab42f88").getQuantity());
+    }
+
+    @Test
+    public void shouldKeepShardedStockBehindProductInventoryService() throws EcommerceException {
+        // given
+        ProductInventoryService productInventoryService = new ProductInventoryService(mongoDBService,
+                new PaymentService(), inventoryCounterService);
+        inventoryCounterService.shard("00e8da9b", 4);
+        mongoDBService.createOne(DATABASE, "cart", ShoppingCart.class, new ShoppingCart(42, new Date(),
+                ShoppingCartStatus.ACTIVE.toString(), new ArrayList<>()));
+
+        // when
+        productInventoryService.addItemToCart(42, "00e8da9b", 3, new ShoppingCartItemDetails("a cart item"));
+        productInventoryService.updateCartQuantity(42, "00e8da9b", 3, 10);
+        productInventoryService.updateCartQuantity(42, "00e8da9b", 10, 4);
+
+        // verify
+        assertEquals(12, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertEquals(0, readProduct("00e8da9b").getQuantity());
+        assertEquals(4, readReservation("00e8da9b", 42).getQuantity());
+        try {
+            productInventoryService.addItemToCart(42, "00e8da9b", 13, new ShoppingCartItemDetails("too many"));
+            fail("only 12 are left");
+        } catch (InadequateInventoryException e) {
+            assertEquals(12, productInventoryService.getAvailableQuantity("00e8da9b"));
+        }
+
+        // when: the cart expires
+        productInventoryService.processExpiringCarts(-1);
+
+        // verify
+        assertEquals(ShoppingCartStatus.EXPIRED.toString(), productInventoryService.getCartByCartId(42).getStatus());
+        assertEquals(0, mongoDBService.count(DATABASE, ProductInventoryService.RESERVATION_COLLECTION));
+        assertEquals(16, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertEquals(3, productInventoryService.getAvailableQuantity("0ab42f88"));
+    }
+
+    private List<Integer> quantities(String sku) {
+        return mongoDBService.readAll(DATABASE, "inventory_counter", InventoryCounter.class,
+                Collections.singletonMap("sku", sku))
+                .stream()
+                .sorted((a, b) -> Integer.compare(a.getBucket(), b.getBucket()))
+                .map(InventoryCounter::getQuantity)
+                .collect(toList());
+    }
+
+    private Product readProduct(String sku) {
+        return mongoDBService.readOne(DATABASE, "product", Product.class, Collections.singletonMap("sku", sku))
+                .get();
+    }
+
+    private Document readProductDocument(String sku) {
+        return mongoDBService.readOne(DATABASE, "product", Document.class, Collections.singletonMap("sku", sku))
+                .get();
+    }
+
+    // what shard() does before it completes the shard
+    private void takeProductStock(String sku, int quantity, String shard) {
+        Map<String, Object> quantityMap = new HashMap<>();
+        quantityMap.put("qty", -quantity);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("inc", quantityMap);
+        updateMap.put("addOrRemove", Collections.singletonMap("inventory_shard", shard));
+        mongoDBService.updateOne(DATABASE, "product", Product.class, Collections.singletonMap("sku", sku),
+                updateMap, new HashMap<>());
+    }
+
+    private Reservation readReservation(String sku, int cartId) {
+        return mongoDBService.readById(DATABASE, ProductInventoryService.RESERVATION_COLLECTION, Reservation.class,
+                Reservation.id(sku, cartId)).get();
+    }
+
+    private static Product product(String sku, int quantity) {
+        Product product = new Product();
+        product.setSku(sku);
+        product.setTitle(sku);
+        product.setQuantity(quantity);
+        return product;
+    }
+}
@@ -0,0 +1,55 @@
+package org.myproject.ecommerce.core.services;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldReportPercentilesWithinBucketResolution() {
+        // given
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // when
+        for(int i = 1; i <= 1000; i++) {
+            histogram.record(i, TimeUnit.MILLISECONDS);
+        }
+
+        // verify
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMaxMicros());
+        long p50 = histogram.getPercentileMicros(50);
+        assertTrue(String.valueOf(p50), p50 >= 500000 && p50 <= 500000 * 5 / 4);
+        long p99 = histogram.getPercentileMicros(99);
+        assertTrue(String.valueOf(p99), p99 >= 990000 && p99 <= 1000000);
+    }
+
+    @Test
+    public void shouldMapEveryValueIntoItsBucket() {
+        for(long micros : new long[] {0, 1, 3, 4, 5, 7, 8, 1023, 1024, 123456789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.bucketIndex(micros);
+            assertTrue(micros + " above bucket " + index, micros <= LatencyHistogram.bucketUpperBound(index));
+            assertTrue(micros + " below bucket " + index,
+                    index == 0 || micros > LatencyHistogram.bucketUpperBound(index - 1));
+        }
+    }
+
+    @Test
+    public void shouldReportNothingWhenEmpty() {
+        // given
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5, TimeUnit.MILLISECONDS);
+
+        // when
+        histogram.reset();
+
+        // verify
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(99));
+        assertEquals(0, histogram.getMaxMicros());
+    }
+}
@@ -0,0 +1,45 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.ReadPreference;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MongoDBConnectionSettingsTest {
+
+    @After
+    public void tearDown() {
+        System.clearProperty("mongodb_oltp_max_pool_size");
+        System.clearProperty("mongodb_analytics_socket_timeout_ms");
+    }
+
+    @Test
+    public void shouldOverrideDefaultsPerWorkload() {
+        // given
+        System.setProperty("mongodb_oltp_max_pool_size", "250");
+        System.setProperty("mongodb_analytics_socket_timeout_ms", "600000");
+
+        // when
+        MongoDBConnectionSettings oltp = MongoDBConnectionSettings.oltp();
+        MongoDBConnectionSettings analytics = MongoDBConnectionSettings.analytics();
+
+        // verify
+        assertEquals(250, oltp.getMaxPoolSize());
+        assertEquals(10, oltp.getMinPoolSize());
+        assertEquals(600000, analytics.getSocketTimeoutMillis());
+        assertEquals(10, analytics.getMaxPoolSize());
+        assertFalse(analytics.isWarmUp());
+        assertEquals(ReadPreference.primary(), oltp.getReadPreference());
+        assertEquals(ReadPreference.secondaryPreferred(90, TimeUnit.SECONDS), analytics.getReadPreference());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectMinimumAboveMaximum() {
+        new MongoDBConnectionSettings(MongoDBConnectionSettings.Workload.OLTP, 20, 10, 5, 1000, 1000, 1000,
+                1000, 0, false, ReadPreference.primary());
+    }
+}
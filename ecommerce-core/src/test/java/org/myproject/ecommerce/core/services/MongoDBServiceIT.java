@@ -0,0 +1,198 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.ReadPreference;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { TestApplicationConfiguration.class})
+public class MongoDBServiceIT {
+    private static final String COLLECTION = "bulk_write_test";
+
+    @Autowired
+    private MongoDBService mongoDBService;
+
+    @Before
+    public void setUp() {
+        mongoDBService.deleteAll("ecommerce", COLLECTION);
+    }
+
+    @After
+    public void tearDown() {
+        mongoDBService.dropCollection("ecommerce", COLLECTION);
+    }
+
+    @Test
+    public void shouldChunkMixedBulkWriteByCount() {
+        // given
+        List<BulkWriteOperation<Document>> operations = new ArrayList<>();
+        for(int i = 0; i < 25; i++) {
+            operations.add(BulkWriteOperation.insertOne(new Document("_id", i).append("qty", 1)));
+        }
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", 3);
+        Map<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", 4);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("inc", quantityUpdateMap);
+        operations.add(BulkWriteOperation.updateOne(filterMap, updateMap));
+        Map<String, Object> deleteFilterMap = new HashMap<>();
+        deleteFilterMap.put("_id", 7);
+        operations.add(BulkWriteOperation.deleteOne(deleteFilterMap));
+
+        // when
+        List<BulkWriteBatchResult> results = mongoDBService.bulkWrite("ecommerce", COLLECTION, Document.class,
+                operations, true, 10);
+
+        // verify
+        assertEquals(3, results.size());
+        assertEquals(25, results.stream().mapToInt(BulkWriteBatchResult::getInsertedCount).sum());
+        assertEquals(1, results.get(2).getModifiedCount());
+        assertEquals(1, results.get(2).getDeletedCount());
+        assertEquals(24, mongoDBService.count("ecommerce", COLLECTION));
+        assertEquals(5, (int) mongoDBService.readById("ecommerce", COLLECTION, Document.class, 3)
+                .get().getInteger("qty"));
+    }
+
+    @Test
+    public void shouldStopOrderedBulkWriterAtFailedBatch() {
+        // given
+        BulkWriter<Document> writer = mongoDBService.bulkWriter("ecommerce", COLLECTION, Document.class,
+                true, 2);
+
+        // when
+        writer.insertOne(new Document("_id", 1));
+        writer.insertOne(new Document("_id", 1));
+        writer.close();
+
+        // verify
+        assertTrue(writer.hasErrors());
+        assertFalse(writer.getResults().get(0).isSuccessful());
+        assertEquals(1, writer.getResults().get(0).getInsertedCount());
+        assertEquals(1, mongoDBService.count("ecommerce", COLLECTION));
+    }
+
+    @Test
+    public void shouldRouteReadsByLongestCollectionPrefix() {
+        // given
+        mongoDBService.setReadPreference("ecommerce", "bulk_", ReadPreference.secondaryPreferred());
+        mongoDBService.setReadPreference("ecommerce", COLLECTION, ReadPreference.primaryPreferred());
+        mongoDBService.createOne("ecommerce", COLLECTION, Document.class, new Document("_id", 1));
+
+        // when
+        List<Document> documents = mongoDBService.readAll("ecommerce", COLLECTION, Document.class,
+                new HashMap<>(), Optional.empty(), Optional.empty(), ReadPreference.primary());
+
+        // verify
+        assertEquals(1, documents.size());
+        assertEquals(ReadPreference.primaryPreferred(),
+                mongoDBService.getReadPreference("ecommerce", COLLECTION).get());
+        assertEquals(ReadPreference.secondaryPreferred(),
+                mongoDBService.getReadPreference("ecommerce", "bulk_other").get());
+        assertFalse(mongoDBService.getReadPreference("ecommerce", "product").isPresent());
+    }
+
+    @Test
+    public void shouldPageByKeyWithDuplicateValues() {
+        // given
+        for(int i = 0; i < 25; i++) {
+            mongoDBService.createOne("ecommerce", COLLECTION, Document.class,
+                    new Document("_id", i).append("group", i % 3));
+        }
+
+        // when
+        List<Document> documents = new ArrayList<>();
+        Optional<String> pageToken = Optional.empty();
+        int pages = 0;
+        do {
+            Page<Document> page = mongoDBService.readPage("ecommerce", COLLECTION, Document.class,
+                    new HashMap<>(), "group", -1, pageToken, 10);
+            documents.addAll(page.getItems());
+            pageToken = page.getNextPageToken();
+            pages++;
+        } while(pageToken.isPresent());
+
+        // verify
+        assertEquals(3, pages);
+        assertEquals(25, documents.size());
+        assertEquals(25, documents.stream().map(d -> d.get("_id")).distinct().count());
+        for(int i = 1; i < documents.size(); i++) {
+            Document previous = documents.get(i - 1);
+            Document current = documents.get(i);
+            assertTrue(previous.getInteger("group") > current.getInteger("group") ||
+                    (previous.getInteger("group").equals(current.getInteger("group")) &&
+                            previous.getInteger("_id") > current.getInteger("_id")));
+        }
+    }
+
+    @Test
+    public void shouldApplyAnAtomicConditionalUpdateExactlyOnce() {
+        // given
+        mongoDBService.createOne("ecommerce", COLLECTION, Document.class, new Document("_id", 1).append("qty", 1));
+        Map<String, Object> quantityFilterMap = new HashMap<>();
+        quantityFilterMap.put("qty", 1);
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("$gte", quantityFilterMap);
+        Map<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", -1);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("inc", quantityUpdateMap);
+        Map<String, Object> updateOptions = new HashMap<>();
+        updateOptions.put("atomic", true);
+
+        // when
+        boolean first = mongoDBService.updateOne("ecommerce", COLLECTION, Document.class, filterMap, updateMap,
+                updateOptions);
+        boolean second = mongoDBService.updateOne("ecommerce", COLLECTION, Document.class, filterMap, updateMap,
+                updateOptions);
+
+        // verify
+        assertTrue(first);
+        assertFalse(second);
+        assertEquals(0, (int) mongoDBService.readById("ecommerce", COLLECTION, Document.class, 1)
+                .get().getInteger("qty"));
+    }
+
+    @Test
+    public void shouldFindNothingToUpdateForANonMatchingFilter() {
+        // given
+        mongoDBService.createOne("ecommerce", COLLECTION, Document.class, new Document("_id", 1).append("qty", 1));
+        Map<String, Object> quantityFilterMap = new HashMap<>();
+        quantityFilterMap.put("qty", 2);
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", 1);
+        filterMap.put("$gte", quantityFilterMap);
+        Map<String, Object> quantityUpdateMap = new HashMap<>();
+        quantityUpdateMap.put("qty", -2);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("inc", quantityUpdateMap);
+
+        // when
+        Optional<Document> missed = mongoDBService.findOneAndUpdate("ecommerce", COLLECTION, Document.class,
+                filterMap, updateMap);
+        quantityFilterMap.put("qty", 1);
+        quantityUpdateMap.put("qty", -1);
+        Optional<Document> updated = mongoDBService.findOneAndUpdate("ecommerce", COLLECTION, Document.class,
+                filterMap, updateMap);
+
+        // verify
+        assertFalse(missed.isPresent());
+        assertEquals(0, (int) updated.get().getInteger("qty"));
+    }
+}
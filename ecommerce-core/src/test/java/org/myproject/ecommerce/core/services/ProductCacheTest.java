@@ -0,0 +1,156 @@
+package org.myproject.ecommerce.core.services;
+
+import org.junit.Test;
+import org.myproject.ecommerce.core.codec.CustomCodecProvider;
+import org.myproject.ecommerce.core.domain.Product;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class ProductCacheTest {
+
+    @Test
+    public void shouldLoadOnceAndServeLaterReadsFromMemory() {
+        // given
+        ProductCache productCache = new ProductCache(10, 60000, 60000);
+        AtomicInteger loads = new AtomicInteger();
+        Product product = new Product();
+        product.setSku("00e8da9b");
+
+        // when
+        productCache.get("product.sku", "00e8da9b", Product.class, () -> {
+            loads.incrementAndGet();
+            return Optional.of(product);
+        });
+        Optional<Product> cached = productCache.get("product.sku", "00e8da9b", Product.class, () -> {
+            loads.incrementAndGet();
+            return Optional.of(product);
+        });
+
+        // verify
+        assertEquals(1, loads.get());
+        assertEquals(product, cached.get());
+        assertEquals(1, productCache.getHitCount());
+        assertEquals(1, productCache.getMissCount());
+    }
+
+    @Test
+    public void shouldCacheMissesAndDropThemOnInvalidation() {
+        // given
+        ProductCache productCache = new ProductCache(10, 60000, 60000);
+        productCache.get("product.productId", "452318", Product.class, Optional::empty);
+
+        // when
+        Optional<Product> cachedMiss = productCache.getIfPresent("product.productId", "452318", Product.class);
+        productCache.invalidate("product.productId", "452318");
+
+        // verify
+        assertFalse(cachedMiss.isPresent());
+        assertNull(productCache.getIfPresent("product.productId", "452318", Product.class));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntriesBeyondMaxEntries() {
+        // given
+        ProductCache productCache = new ProductCache(2, 60000, 60000);
+
+        // when
+        productCache.put("product.sku", "a", Product.class, Optional.of(new Product()));
+        productCache.put("product.sku", "b", Product.class, Optional.of(new Product()));
+        productCache.getIfPresent("product.sku", "a", Product.class);
+        productCache.put("product.sku", "c", Product.class, Optional.of(new Product()));
+
+        // verify
+        assertEquals(2, productCache.size());
+        assertEquals(1, productCache.getEvictionCount());
+        assertNull(productCache.getIfPresent("product.sku", "b", Product.class));
+    }
+
+    @Test
+    public void shouldHandOutCopiesThatCallersMayModify() {
+        // given
+        ProductCache productCache = new ProductCache(10, 60000, 60000);
+        Product product = new Product();
+        product.setSku("00e8da9b");
+        product.setQuantity(16);
+        productCache.put("product.sku", "00e8da9b", Product.class, Optional.of(product));
+
+        // when
+        Product first = productCache.getIfPresent("product.sku", "00e8da9b", Product.class).get();
+        first.setQuantity(0);
+        product.setQuantity(1);
+        Product second = productCache.getIfPresent("product.sku", "00e8da9b", Product.class).get();
+
+        // verify
+        assertNotSame(first, second);
+        assertEquals(16, second.getQuantity());
+    }
+
+    @Test
+    public void shouldNotCacheALoadThatRacedAnInvalidation() {
+        // given
+        ProductCache productCache = new ProductCache(10, 60000, 60000);
+        Product product = new Product();
+        product.setSku("00e8da9b");
+
+        // when
+        productCache.get("product.sku", "00e8da9b", Product.class, () -> {
+            productCache.invalidate("product.sku", "00e8da9b");
+            return Optional.of(product);
+        });
+
+        // verify
+        assertNull(productCache.getIfPresent("product.sku", "00e8da9b", Product.class));
+    }
+
+    @Test
+    public void shouldDropProductsWhoseStockChanged() {
+        // given
+        ProductCache productCache = new ProductCache(10, 60000, 60000,
+                MongoDBService.codecRegistry(Collections.singletonList(new CustomCodecProvider())),
+                document -> ((Product) document).getSku(), document -> null);
+        Product product = new Product();
+        product.setSku("00e8da9b");
+        productCache.put("product.productId", "452318", Product.class, Optional.of(product));
+        Optional<Product> beforeStockChange = productCache.getIfPresent("product.productId", "452318",
+                Product.class);
+
+        // when
+        productCache.invalidateStock("00e8da9b");
+
+        // verify
+        assertNotNull(beforeStockChange);
+        assertNull(productCache.getIfPresent("product.productId", "452318", Product.class));
+    }
+
+    @Test
+    public void shouldDropEveryLookupOfADocumentById() {
+        // given
+        ProductCache productCache = new ProductCache(10, 60000, 60000,
+                MongoDBService.codecRegistry(Collections.singletonList(new CustomCodecProvider())),
+                document -> null, document -> ((Product) document).getSku());
+        Product product = new Product();
+        product.setSku("00e8da9b");
+        Product other = new Product();
+        other.setSku("0ab42f88");
+        productCache.put("product.sku", "00e8da9b", Product.class, Optional.of(product));
+        productCache.put("product.productId", "452318", Product.class, Optional.of(product));
+        productCache.put("product.sku", "0ab42f88", Product.class, Optional.of(other));
+
+        // when
+        productCache.invalidateDocument("00e8da9b");
+
+        // verify
+        assertNull(productCache.getIfPresent("product.sku", "00e8da9b", Product.class));
+        assertNull(productCache.getIfPresent("product.productId", "452318", Product.class));
+        assertNotNull(productCache.getIfPresent("product.sku", "0ab42f88", Product.class));
+        assertEquals(1, productCache.size());
+    }
+}
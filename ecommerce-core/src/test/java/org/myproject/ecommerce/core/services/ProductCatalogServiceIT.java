@@ -10,6 +10,7 @@ import org.myproject.ecommerce.core.domain.AudioAlbumGenreType;
 import org.myproject.ecommerce.core.domain.DepartmentType;
 import org.myproject.ecommerce.core.domain.Pricing;
 import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.ProductSummary;
 import org.myproject.ecommerce.core.domain.ProductType;
 import org.myproject.ecommerce.core.domain.ProductVariation;
 import org.myproject.ecommerce.core.domain.Shipping;
@@ -21,8 +22,13 @@ import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -127,4 +133,69 @@ public class ProductCatalogServiceIT {
                          .forEach(p -> assertEquals(productId, p.getProductId()));
     }
 
+    @Test
+    public void shouldReturnProductsInRequestedOrderAcrossChunks() {
+        // given
+        List<String> productIds = IntStream.rangeClosed(1, 250)
+                                           .mapToObj(i -> Integer.toString(251 - i))
+                                           .collect(toList());
+
+        // when
+        List<Product> products = productCatalogService.getProducts(productIds, Product.class,
+                Arrays.asList("sku", "title"));
+
+        // verify
+        assertEquals(productIds, products.stream().map(Product::getProductId).collect(toList()));
+        assertEquals(null, products.get(0).getDescription());
+    }
+
+    @Test
+    public void shouldReturnProductSummariesWithoutDetails() {
+        // given
+        List<String> productIds = Arrays.asList("30671", "20034");
+
+        // when
+        List<ProductSummary> summaries = productCatalogService.getProductSummaries(productIds);
+
+        // verify
+        assertEquals(productIds, summaries.stream().map(ProductSummary::getProductId).collect(toList()));
+        summaries.forEach(s -> assertTrue(s.getSku() != null && s.getPricing() != null));
+    }
+
+    @Test
+    public void shouldStreamProductsInBatches() {
+        // given
+        int batchSize = 10;
+        long limit = 25;
+
+        // when
+        List<Product> products;
+        try(Stream<Product> stream = mongoDBService.stream("ecommerce", "product", Product.class,
+                new HashMap<>(), Optional.empty(), batchSize)) {
+            products = stream.limit(limit).collect(toList());
+        }
+
+        // verify
+        assertEquals(limit, products.size());
+    }
+
+    @Test
+    public void shouldPageThroughCatalogInProductIdOrder() {
+        // given
+        int pageSize = 50;
+
+        // when
+        Page<ProductSummary> first = productCatalogService.getProductSummaryPage(Optional.empty(), pageSize);
+        Page<ProductSummary> second = productCatalogService.getProductSummaryPage(first.getNextPageToken(),
+                pageSize);
+
+        // verify
+        assertEquals(pageSize, first.getItems().size());
+        assertTrue(first.hasNext());
+        List<String> productIds = Stream.concat(first.getItems().stream(), second.getItems().stream())
+                .map(ProductSummary::getProductId)
+                .collect(toList());
+        assertEquals(productIds.stream().sorted().collect(toList()), productIds);
+        assertEquals(productIds.size(), productIds.stream().distinct().count());
+    }
 }
@@ -6,7 +6,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.myproject.ecommerce.core.domain.AudioAlbum;
-import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.Reservation;
 import org.myproject.ecommerce.core.domain.ShoppingCart;
 import org.myproject.ecommerce.core.domain.ShoppingCartItemDetails;
 import org.myproject.ecommerce.core.domain.ShoppingCartStatus;
@@ -98,10 +98,10 @@ public class ProductInventoryServiceIT {
         ShoppingCart cart = productInventoryService.getCartByCartId(cartId);
         Assert.assertEquals(ShoppingCartStatus.COMPLETE.toString(), cart.getStatus());
         Map<String, Object> filterMap = new HashMap<>();
-        filterMap.put("carted.cart_id", cartId);
-        List<Product> cartedProducts = mongoDBService.readAll("ecommerce",
-                "product", Product.class, filterMap);
-        assertTrue(cartedProducts.size() == 0);
+        filterMap.put("cart_id", cartId);
+        List<Reservation> reservations = mongoDBService.readAll("ecommerce",
+                ProductInventoryService.RESERVATION_COLLECTION, Reservation.class, filterMap);
+        assertTrue(reservations.size() == 0);
     }
 
     @Test
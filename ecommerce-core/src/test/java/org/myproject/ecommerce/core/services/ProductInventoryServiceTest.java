@@ -0,0 +1,349 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.Reservation;
+import org.myproject.ecommerce.core.domain.ShoppingCart;
+import org.myproject.ecommerce.core.domain.ShoppingCartItem;
+import org.myproject.ecommerce.core.domain.ShoppingCartItemDetails;
+import org.myproject.ecommerce.core.domain.ShoppingCartStatus;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProductInventoryServiceTest {
+    private static final String DATABASE = "ecommerce";
+    private InMemoryMongoDBService mongoDBService;
+    private ProductInventoryService productInventoryService;
+
+    @Before
+    public void setUp() {
+        mongoDBService = new InMemoryMongoDBService();
+        mongoDBService.createAll(DATABASE, "product", Product.class, Arrays.asList(
+                product("00e8da9b", 16), product("0ab42f88", 16)));
+        productInventoryService = new ProductInventoryService(mongoDBService, new PaymentService());
+    }
+
+    @Test
+    public void shouldKeepTheReservationsOutOfTheProduct() throws EcommerceException {
+        // given
+        createCart(42, ShoppingCartStatus.ACTIVE, new Date());
+
+        // when
+        productInventoryService.addItemToCart(42, "00e8da9b", 2, new ShoppingCartItemDetails("a cart item"));
+        productInventoryService.addItemToCart(42, "00e8da9b", 3, new ShoppingCartItemDetails("another one"));
+        productInventoryService.updateCartQuantity(42, "00e8da9b", 3, 1);
+
+        // verify
+        Product product = readProduct("00e8da9b");
+        assertEquals(13, product.getQuantity());
+        assertNull(product.getCarted());
+        Reservation reservation = readReservation("00e8da9b", 42).get();
+        assertEquals(3, reservation.getQuantity());
+        assertEquals(42, reservation.getCartId());
+        assertNull(reservation.getReleasedAt());
+    }
+
+    @Test
+    public void shouldReturnTheStaleReservationsOfInactiveCarts() {
+        // given
+        Date stale = Date.from(Instant.parse("2012-03-09T20:55:36Z"));
+        createCart(42, ShoppingCartStatus.ACTIVE, stale, new ShoppingCartItem("00e8da9b", 1,
+                new ShoppingCartItemDetails("kept")));
+        createCart(43, ShoppingCartStatus.EXPIRED, stale, new ShoppingCartItem("00e8da9b", 2,
+                new ShoppingCartItemDetails("abandoned")), new ShoppingCartItem("0ab42f88", 4,
+                new ShoppingCartItemDetails("abandoned")));
+        mongoDBService.createAll(DATABASE, ProductInventoryService.RESERVATION_COLLECTION, Reservation.class,
+                Arrays.asList(new Reservation("00e8da9b", 42, 1, stale), new Reservation("00e8da9b", 43, 2, stale),
+                        new Reservation("0ab42f88", 43, 4, stale), new Reservation("0ab42f88", 44, 5, stale)));
+
+        // when
+        productInventoryService.cleanupInventory(60);
+
+        // verify: the active cart keeps its item, the others are returned, also the one of a deleted cart
+        assertEquals(18, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertEquals(25, productInventoryService.getAvailableQuantity("0ab42f88"));
+        assertTrue(readReservation("00e8da9b", 42).get().getTimestamp().after(stale));
+        assertFalse(readReservation("00e8da9b", 43).isPresent());
+        assertFalse(readReservation("0ab42f88", 44).isPresent());
+        assertEquals(1, mongoDBService.count(DATABASE, ProductInventoryService.RESERVATION_COLLECTION));
+        assertEquals(1, productInventoryService.getCartByCartId(42).getItems().size());
+        assertTrue(productInventoryService.getCartByCartId(43).getItems().isEmpty());
+    }
+
+    @Test
+    public void shouldExpireCartsWithAndWithoutItems() throws EcommerceException {
+        // given
+        createCart(42, ShoppingCartStatus.ACTIVE, new Date());
+        createCart(43, ShoppingCartStatus.ACTIVE, new Date());
+        productInventoryService.addItemToCart(42, "0ab42f88", 6, new ShoppingCartItemDetails("a cart item"));
+
+        // when
+        productInventoryService.processExpiringCarts(-1);
+
+        // verify
+        assertEquals(ShoppingCartStatus.EXPIRED.toString(), productInventoryService.getCartByCartId(42).getStatus());
+        assertEquals(ShoppingCartStatus.EXPIRED.toString(), productInventoryService.getCartByCartId(43).getStatus());
+        assertEquals(16, productInventoryService.getAvailableQuantity("0ab42f88"));
+        assertEquals(0, mongoDBService.count(DATABASE, ProductInventoryService.RESERVATION_COLLECTION));
+
+        // when: a second sweep finds nothing left to return
+        productInventoryService.cleanupInventory(-1);
+
+        // verify
+        assertEquals(16, productInventoryService.getAvailableQuantity("0ab42f88"));
+    }
+
+    @Test
+    public void shouldGiveBackOnlyWhatTheFailedAddReserved() throws EcommerceException {
+        // given
+        createCart(42, ShoppingCartStatus.ACTIVE, new Date());
+        productInventoryService.addItemToCart(42, "00e8da9b", 2, new ShoppingCartItemDetails("a cart item"));
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("_id", 42);
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put("status", ShoppingCartStatus.PENDING.toString());
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        mongoDBService.updateOne(DATABASE, "cart", ShoppingCart.class, filterMap, updateMap, new HashMap<>());
+
+        try {
+            // when
+            productInventoryService.addItemToCart(42, "00e8da9b", 3, new ShoppingCartItemDetails("too late"));
+            fail("the cart is checking out");
+        } catch (CartInactiveException e) {
+            // verify: the line item added before keeps its stock
+            assertEquals(14, productInventoryService.getAvailableQuantity("00e8da9b"));
+            assertEquals(2, readReservation("00e8da9b", 42).get().getQuantity());
+            assertEquals(1, productInventoryService.getCartByCartId(42).getItems().size());
+        }
+
+        try {
+            // when
+            productInventoryService.addItemToCart(42, "0ab42f88", 3, new ShoppingCartItemDetails("too late"));
+            fail("the cart is checking out");
+        } catch (CartInactiveException e) {
+            // verify: the reservation this add created is gone again
+            assertEquals(16, productInventoryService.getAvailableQuantity("0ab42f88"));
+            assertFalse(readReservation("0ab42f88", 42).isPresent());
+        }
+    }
+
+    @Test
+    public void shouldAddABundleOfItems() throws EcommerceException {
+        // given
+        createCart(42, ShoppingCartStatus.ACTIVE, new Date());
+
+        // when
+        productInventoryService.addItemsToCart(42, Arrays.asList(
+                new ShoppingCartItem("00e8da9b", 2, new ShoppingCartItemDetails("bundle")),
+                new ShoppingCartItem("0ab42f88", 3, new ShoppingCartItemDetails("bundle")),
+                new ShoppingCartItem("00e8da9b", 1, new ShoppingCartItemDetails("bundle"))));
+
+        // verify
+        assertEquals(13, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertEquals(13, productInventoryService.getAvailableQuantity("0ab42f88"));
+        assertEquals(3, readReservation("00e8da9b", 42).get().getQuantity());
+        assertEquals(3, readReservation("0ab42f88", 42).get().getQuantity());
+        assertEquals(3, productInventoryService.getCartByCartId(42).getItems().size());
+    }
+
+    @Test
+    public void shouldRollTheWholeBundleBackAndReportTheShortfalls() throws EcommerceException {
+        // given
+        InventoryCounterService inventoryCounterService = new InventoryCounterService(mongoDBService);
+        productInventoryService = new ProductInventoryService(mongoDBService, new PaymentService(),
+                inventoryCounterService);
+        inventoryCounterService.shard("00e8da9b", 4);
+        createCart(42, ShoppingCartStatus.ACTIVE, new Date(), new ShoppingCartItem("7c2cb53f", 1,
+                new ShoppingCartItemDetails("already in the cart")));
+
+        try {
+            // when
+            productInventoryService.addItemsToCart(42, Arrays.asList(
+                    new ShoppingCartItem("00e8da9b", 2, new ShoppingCartItemDetails("bundle")),
+                    new ShoppingCartItem("0ab42f88", 20, new ShoppingCartItemDetails("bundle")),
+                    new ShoppingCartItem("ffffffff", 1, new ShoppingCartItemDetails("bundle"))));
+            fail("only 16 of 0ab42f88 are in stock");
+        } catch (InadequateInventoryException e) {
+            // verify
+            Map<String, Integer> shortfalls = new HashMap<>();
+            shortfalls.put("0ab42f88", 4);
+            shortfalls.put("ffffffff", 1);
+            assertEquals(shortfalls, e.getShortfalls());
+        }
+        assertEquals(16, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertEquals(16, productInventoryService.getAvailableQuantity("0ab42f88"));
+        assertEquals(0, mongoDBService.count(DATABASE, ProductInventoryService.RESERVATION_COLLECTION));
+        List<ShoppingCartItem> items = productInventoryService.getCartByCartId(42).getItems();
+        assertEquals(1, items.size());
+        assertEquals("7c2cb53f", items.get(0).getSku());
+    }
+
+    @Test
+    public void shouldGiveBackOnlyTheTakesOfTheBundleThatMissed() throws EcommerceException {
+        // given
+        createCart(42, ShoppingCartStatus.ACTIVE, new Date());
+        mongoDBService.createOne(DATABASE, "product", Product.class, product("7c2cb53f", 1));
+
+        try {
+            // when
+            productInventoryService.addItemsToCart(42, Arrays.asList(
+                    new ShoppingCartItem("00e8da9b", 2, new ShoppingCartItemDetails("bundle")),
+                    new ShoppingCartItem("7c2cb53f", 2, new ShoppingCartItemDetails("bundle")),
+                    new ShoppingCartItem("0ab42f88", 3, new ShoppingCartItemDetails("bundle"))));
+            fail("only 1 of 7c2cb53f is in stock");
+        } catch (InadequateInventoryException e) {
+            // verify
+            assertEquals(Collections.singletonMap("7c2cb53f", 1), e.getShortfalls());
+        }
+        assertEquals(16, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertEquals(1, productInventoryService.getAvailableQuantity("7c2cb53f"));
+        assertEquals(16, productInventoryService.getAvailableQuantity("0ab42f88"));
+        // and no product keeps the tag of the take
+        mongoDBService.readAll(DATABASE, "product", Document.class, new HashMap<>()).forEach(product ->
+                assertTrue(product.get("takes", new ArrayList<>()).isEmpty()));
+    }
+
+    @Test
+    public void shouldGiveTheBundleBackWhenTheCartIsNoLongerActive() throws EcommerceException {
+        // given
+        createCart(42, ShoppingCartStatus.ACTIVE, new Date());
+        productInventoryService.addItemToCart(42, "00e8da9b", 2, new ShoppingCartItemDetails("a cart item"));
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put("status", ShoppingCartStatus.PENDING.toString());
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        mongoDBService.updateOne(DATABASE, "cart", ShoppingCart.class, Collections.singletonMap("_id", 42),
+                updateMap, new HashMap<>());
+
+        try {
+            // when
+            productInventoryService.addItemsToCart(42, Arrays.asList(
+                    new ShoppingCartItem("00e8da9b", 3, new ShoppingCartItemDetails("too late")),
+                    new ShoppingCartItem("0ab42f88", 4, new ShoppingCartItemDetails("too late"))));
+            fail("the cart is checking out");
+        } catch (CartInactiveException e) {
+            // verify: the line item added before keeps its stock, the reservation the bundle created is gone
+            assertEquals(14, productInventoryService.getAvailableQuantity("00e8da9b"));
+            assertEquals(16, productInventoryService.getAvailableQuantity("0ab42f88"));
+            assertEquals(2, readReservation("00e8da9b", 42).get().getQuantity());
+            assertFalse(readReservation("0ab42f88", 42).isPresent());
+            assertEquals(1, productInventoryService.getCartByCartId(42).getItems().size());
+        }
+    }
+
+    @Test
+    public void shouldExpireTheDueCartsWithTheWheel() throws EcommerceException {
+        // given
+        CartExpiryWheel wheel = new CartExpiryWheel(mongoDBService, 0, 1000, 100,
+                productInventoryService::expireDueCarts);
+        productInventoryService.useCartExpiryWheel(wheel);
+        createCart(42, ShoppingCartStatus.ACTIVE, new Date());
+        createCart(43, ShoppingCartStatus.ACTIVE, new Date());
+        createCart(44, ShoppingCartStatus.ACTIVE, new Date());
+        productInventoryService.addItemToCart(42, "0ab42f88", 6, new ShoppingCartItemDetails("abandoned"));
+        productInventoryService.addItemToCart(43, "0ab42f88", 2, new ShoppingCartItemDetails("checked out"));
+        productInventoryService.processCheckout(43);
+        productInventoryService.addItemToCart(44, "00e8da9b", 3, new ShoppingCartItemDetails("kept"));
+        // another process changes cart 44 since
+        Date later = new Date((System.currentTimeMillis() / 1000 + 3600) * 1000);
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put("last_modified", later);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        mongoDBService.updateOne(DATABASE, "cart", ShoppingCart.class, Collections.singletonMap("_id", 44),
+                updateMap, new HashMap<>());
+
+        // when
+        int expired = wheel.expireDue(System.currentTimeMillis() + 2000);
+
+        // verify
+        assertEquals(2, expired);
+        assertEquals(ShoppingCartStatus.EXPIRED.toString(), productInventoryService.getCartByCartId(42).getStatus());
+        assertEquals(ShoppingCartStatus.COMPLETE.toString(), productInventoryService.getCartByCartId(43).getStatus());
+        assertEquals(ShoppingCartStatus.ACTIVE.toString(), productInventoryService.getCartByCartId(44).getStatus());
+        assertEquals(14, productInventoryService.getAvailableQuantity("0ab42f88"));
+        assertEquals(13, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertFalse(readReservation("0ab42f88", 42).isPresent());
+        assertEquals(3, readReservation("00e8da9b", 44).get().getQuantity());
+        assertEquals(Optional.of(later), wheel.getDeadline(44));
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void shouldTakeTheStockOfAnOwnedSkuThroughTheReservationEngine() throws Exception {
+        // given
+        ReservationEngine engine = productInventoryService.startReservationEngine("instance-1");
+        assertTrue(engine.own("00e8da9b"));
+        createCart(42, ShoppingCartStatus.ACTIVE, new Date());
+
+        // when
+        productInventoryService.addItemToCart(42, "00e8da9b", 2, new ShoppingCartItemDetails("a cart item"));
+        productInventoryService.addItemsToCart(42, Arrays.asList(
+                new ShoppingCartItem("00e8da9b", 3, new ShoppingCartItemDetails("bundle")),
+                new ShoppingCartItem("0ab42f88", 4, new ShoppingCartItemDetails("bundle"))));
+        try {
+            productInventoryService.addItemsToCart(42, Arrays.asList(
+                    new ShoppingCartItem("00e8da9b", 1, new ShoppingCartItemDetails("bundle")),
+                    new ShoppingCartItem("0ab42f88", 20, new ShoppingCartItemDetails("bundle"))));
+            fail("only 12 of 0ab42f88 are in stock");
+        } catch (InadequateInventoryException e) {
+            // verify
+            assertEquals(Collections.singletonMap("0ab42f88", 8), e.getShortfalls());
+        }
+        productInventoryService.updateCartQuantity(42, "00e8da9b", 5, 1);
+
+        // verify: the owned sku is held by the engine, its product only takes through it
+        assertEquals(15, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertEquals(12, productInventoryService.getAvailableQuantity("0ab42f88"));
+        assertEquals(1, readReservation("00e8da9b", 42).get().getQuantity());
+
+        // when
+        productInventoryService.stopReservationEngine();
+
+        // verify: what the engine wrote behind is in the product, which no longer has an owner
+        assertFalse(engine.owns("00e8da9b"));
+        assertEquals(15, productInventoryService.getAvailableQuantity("00e8da9b"));
+        assertNull(mongoDBService.readOne(DATABASE, "product", Document.class,
+                Collections.singletonMap("sku", "00e8da9b")).get().get(ReservationEngine.OWNER_FIELD));
+    }
+
+    private void createCart(int cartId, ShoppingCartStatus status, Date lastModified, ShoppingCartItem... items) {
+        mongoDBService.createOne(DATABASE, "cart", ShoppingCart.class, new ShoppingCart(cartId, lastModified,
+                status.toString(), new ArrayList<>(Arrays.asList(items))));
+    }
+
+    private Optional<Reservation> readReservation(String sku, int cartId) {
+        return mongoDBService.readById(DATABASE, ProductInventoryService.RESERVATION_COLLECTION, Reservation.class,
+                Reservation.id(sku, cartId));
+    }
+
+    private Product readProduct(String sku) {
+        return mongoDBService.readOne(DATABASE, "product", Product.class, Collections.singletonMap("sku", sku))
+                .get();
+    }
+
+    private static Product product(String sku, int quantity) {
+        Product product = new Product();
+        product.setSku(sku);
+        product.setTitle(sku);
+        product.setQuantity(quantity);
+        return product;
+    }
+}
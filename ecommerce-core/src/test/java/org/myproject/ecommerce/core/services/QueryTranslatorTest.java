@@ -0,0 +1,98 @@
+package org.myproject.ecommerce.core.services;
+
+import com.mongodb.MongoClient;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryTranslatorTest {
+    @Test
+    public void shouldTranslateTheFilterOfEachCall() {
+        // given
+        Map<String, Object> first = inventoryFilter("00e8da9b", 1);
+        Map<String, Object> second = inventoryFilter("0ab42f88", 4);
+
+        // when
+        BsonDocument firstFilter = render(QueryTranslator.filter(first));
+        BsonDocument secondFilter = render(QueryTranslator.filter(second));
+
+        // verify
+        assertEquals(BsonDocument.parse("{ 'sku' : '00e8da9b', 'qty' : { '$gte' : 1 } }"), firstFilter);
+        assertEquals(BsonDocument.parse("{ 'sku' : '0ab42f88', 'qty' : { '$gte' : 4 } }"), secondFilter);
+    }
+
+    @Test
+    public void shouldTranslateUpdateOperators() {
+        // given
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put("status", "EXPIRED");
+        valueMap.put("carted", Optional.empty());
+        Map<String, Object> incMap = new HashMap<>();
+        incMap.put("qty", 2);
+        Map<String, Object> pullMap = new HashMap<>();
+        pullMap.put("carted.cart_id", 42);
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        updateMap.put("inc", incMap);
+        updateMap.put("pull", pullMap);
+
+        // when
+        BsonDocument update = render(QueryTranslator.update(updateMap));
+
+        // verify
+        assertEquals(BsonDocument.parse("{ 'status' : 'EXPIRED' }"), update.getDocument("$set"));
+        assertEquals(BsonDocument.parse("{ 'carted' : '' }"), update.getDocument("$unset"));
+        assertEquals(BsonDocument.parse("{ 'qty' : 2 }"), update.getDocument("$inc"));
+        assertEquals(BsonDocument.parse("{ 'carted' : { 'cart_id' : 42 } }"), update.getDocument("$pull"));
+    }
+
+    @Test
+    public void shouldPushANonEmptyListAndPopOnAnEmptyOne() {
+        // given
+        Map<String, Object> push = new HashMap<>();
+        push.put("addOrRemove", singleton("items", Arrays.asList(1)));
+        Map<String, Object> pop = new HashMap<>();
+        pop.put("addOrRemove", singleton("items", Arrays.asList()));
+
+        // when
+        BsonDocument pushed = render(QueryTranslator.update(push));
+        BsonDocument popped = render(QueryTranslator.update(pop));
+
+        // verify
+        assertEquals(BsonDocument.parse("{ '$push' : { 'items' : { '$each' : [1] } } }"), pushed);
+        assertEquals(BsonDocument.parse("{ '$pop' : { 'items' : 1 } }"), popped);
+    }
+
+    @Test
+    public void shouldTranslateAnEmptyFilterToAnEmptyDocument() {
+        // when
+        BsonDocument filter = render(QueryTranslator.filter(new HashMap<>()));
+
+        // verify
+        assertEquals(new BsonDocument(), filter);
+    }
+
+    private Map<String, Object> inventoryFilter(String sku, int quantity) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", sku);
+        filterMap.put("$gte", singleton("qty", quantity));
+        return filterMap;
+    }
+
+    private Map<String, Object> singleton(String key, Object value) {
+        Map<String, Object> map = new HashMap<>();
+        map.put(key, value);
+        return map;
+    }
+
+    private BsonDocument render(Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+    }
+}
@@ -0,0 +1,197 @@
+package org.myproject.ecommerce.core.services;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.myproject.ecommerce.core.domain.Product;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReservationEngineTest {
+    private static final String DATABASE = "ecommerce";
+    private InMemoryMongoDBService mongoDBService;
+    private Map<String, Integer> returned;
+    private ReservationEngine engine;
+
+    @Before
+    public void setUp() {
+        mongoDBService = new InMemoryMongoDBService();
+        createProduct("00e8da9b", 10);
+        createProduct("0ab42f88", 1);
+        returned = new ConcurrentHashMap<>();
+        engine = new ReservationEngine(mongoDBService, "engine-1", (sku, quantity) -> returned.merge(sku, quantity,
+                Integer::sum));
+        engine.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        engine.stop();
+    }
+
+    @Test
+    public void shouldTakeTheStockInMemoryAndPersistItAsSequencedDeltas() throws Exception {
+        // given
+        assertTrue(engine.own("00e8da9b"));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger granted = new AtomicInteger();
+
+        // when: 16 shoppers race for 10 items
+        Future<?>[] futures = new Future<?>[16];
+        for(int i = 0; i < futures.length; i++) {
+            futures[i] = executor.submit(() -> {
+                if(engine.take("00e8da9b", 1)) {
+                    granted.incrementAndGet();
+                }
+            });
+        }
+        for(Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // verify
+        assertEquals(10, granted.get());
+        assertEquals(0, engine.getAvailable("00e8da9b"));
+        Document product = readProduct("00e8da9b");
+        assertEquals(0, product.getInteger("qty").intValue());
+        assertEquals("engine-1", product.get(ReservationEngine.OWNER_FIELD));
+        assertTrue(((Number) product.get(ReservationEngine.SEQUENCE_FIELD)).longValue() >= 1);
+    }
+
+    @Test
+    public void shouldWriteTheGivesBehindAndReleaseTheLeaseOnStop() throws InterruptedException {
+        // given
+        assertTrue(engine.own("00e8da9b"));
+        assertTrue(engine.take("00e8da9b", 4));
+
+        // when
+        assertTrue(engine.give("00e8da9b", 3));
+        engine.stop();
+
+        // verify
+        assertFalse(engine.owns("00e8da9b"));
+        Document product = readProduct("00e8da9b");
+        assertEquals(9, product.getInteger("qty").intValue());
+        assertNull(product.get(ReservationEngine.OWNER_FIELD));
+        assertTrue(returned.isEmpty());
+    }
+
+    @Test
+    public void shouldTakeTheQuantitiesOfAllSkusOrOfNone() {
+        // given
+        assertTrue(engine.own("00e8da9b"));
+        assertTrue(engine.own("0ab42f88"));
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        quantities.put("00e8da9b", 2);
+        quantities.put("0ab42f88", 2);
+
+        // when
+        Set<String> missed = engine.take(quantities);
+
+        // verify
+        assertEquals(Collections.singleton("0ab42f88"), missed);
+        assertEquals(10, engine.getAvailable("00e8da9b"));
+        assertEquals(1, engine.getAvailable("0ab42f88"));
+
+        // when
+        quantities.put("0ab42f88", 1);
+        missed = engine.take(quantities);
+
+        // verify
+        assertTrue(missed.isEmpty());
+        assertEquals(8, engine.getAvailable("00e8da9b"));
+        assertEquals(0, engine.getAvailable("0ab42f88"));
+    }
+
+    @Test
+    public void shouldNotOwnASkuLeasedByAnotherEngine() throws InterruptedException {
+        // given
+        assertTrue(engine.own("00e8da9b"));
+        ReservationEngine other = new ReservationEngine(mongoDBService, "engine-2", (sku, quantity) -> {
+        });
+
+        // verify
+        assertFalse(other.own("00e8da9b"));
+
+        // when: the lease of the first engine expires
+        expireLease("00e8da9b");
+
+        // verify
+        assertTrue(other.own("00e8da9b"));
+        other.stop();
+    }
+
+    @Test
+    public void shouldHandTheGivesToTheReturnerWhenTheSkuIsLost() throws InterruptedException {
+        // given: the flusher of a stopped engine does not run, the test flushes itself
+        engine.stop();
+        engine = new ReservationEngine(mongoDBService, "engine-1", (sku, quantity) -> returned.merge(sku,
+                quantity, Integer::sum));
+        assertTrue(engine.own("00e8da9b"));
+        assertTrue(engine.give("00e8da9b", 5));
+        expireLease("00e8da9b");
+        ReservationEngine other = new ReservationEngine(mongoDBService, "engine-2", (sku, quantity) -> {
+        });
+        assertTrue(other.own("00e8da9b"));
+
+        // when
+        engine.flush(Collections.singleton("00e8da9b"));
+
+        // verify
+        assertFalse(engine.owns("00e8da9b"));
+        assertEquals(0, engine.getAvailable("00e8da9b"));
+        assertEquals(5, returned.get("00e8da9b").intValue());
+        assertEquals(10, readProduct("00e8da9b").getInteger("qty").intValue());
+        assertEquals("engine-2", readProduct("00e8da9b").get(ReservationEngine.OWNER_FIELD));
+    }
+
+    @Test
+    public void shouldNotOwnAShardedSku() throws EcommerceException {
+        // given
+        new InventoryCounterService(mongoDBService).shard("00e8da9b", 2);
+
+        // verify
+        assertFalse(engine.own("00e8da9b"));
+    }
+
+    private void createProduct(String sku, int quantity) {
+        Product product = new Product();
+        product.setSku(sku);
+        product.setTitle(sku);
+        product.setQuantity(quantity);
+        mongoDBService.createOne(DATABASE, "product", Product.class, product);
+    }
+
+    private void expireLease(String sku) {
+        Map<String, Object> valueMap = new HashMap<>();
+        valueMap.put(ReservationEngine.LEASE_FIELD, new Date(0));
+        Map<String, Object> updateMap = new HashMap<>();
+        updateMap.put("addOrRemove", valueMap);
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", sku);
+        mongoDBService.updateOne(DATABASE, "product", Document.class, filterMap, updateMap, new HashMap<>());
+    }
+
+    private Document readProduct(String sku) {
+        Map<String, Object> filterMap = new HashMap<>();
+        filterMap.put("sku", sku);
+        return mongoDBService.readOne(DATABASE, "product", Document.class, filterMap).get();
+    }
+}
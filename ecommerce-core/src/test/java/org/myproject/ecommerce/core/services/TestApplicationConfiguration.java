@@ -24,6 +24,11 @@ public class TestApplicationConfiguration {
         return new MongoDBService(codecProvider());
     }
 
+    @Bean
+    public IndexRegistry indexRegistry() {
+        return new IndexRegistry(mongoDBService());
+    }
+
     @Bean
     public StoreService storeService() {
         return new StoreService(mongoDBService());
@@ -39,9 +44,20 @@ public class TestApplicationConfiguration {
         return new PaymentService();
     }
 
+    @Bean
+    public StockChangeNotifier stockChangeNotifier() {
+        return new StockChangeNotifier();
+    }
+
+    @Bean
+    public InventoryCounterService inventoryCounterService() {
+        return new InventoryCounterService(mongoDBService(), stockChangeNotifier());
+    }
+
     @Bean
     public ProductInventoryService productInventoryService() {
-        return new ProductInventoryService(mongoDBService(), paymentService());
+        return new ProductInventoryService(mongoDBService(), paymentService(), inventoryCounterService(),
+                stockChangeNotifier());
     }
 
     @Bean
@@ -51,7 +67,7 @@ public class TestApplicationConfiguration {
 
     @Bean
     ProductCatalogService productCatalogService() {
-        return new ProductCatalogService(mongoDBService(), skuCodeProductIdGenerator());
+        return new ProductCatalogService(mongoDBService(), skuCodeProductIdGenerator(), stockChangeNotifier());
     }
 
     @Bean
@@ -64,4 +80,10 @@ public class TestApplicationConfiguration {
         return new PriceService(mongoDBService(), productCatalogService(), storeService());
     }
 
+    @Bean
+    public BootstrapCoordinator bootstrapCoordinator() {
+        return new BootstrapCoordinator(mongoDBService(), productCategoryService(), storeService(),
+                productCatalogService(), storeInventoryService(), priceService(), productInventoryService());
+    }
+
 }
@@ -0,0 +1,67 @@
+package org.myproject.ecommerce.core.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.myproject.ecommerce.core.services.MongoDBService;
+import org.myproject.ecommerce.core.services.TestApplicationConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { TestApplicationConfiguration.class})
+public class SKUCodeProductIdGeneratorIT {
+    @Autowired
+    private MongoDBService mongoDBService;
+
+    private SKUCodeProductIdGenerator generator;
+
+    @Before
+    public void setUp() {
+        generator = new SKUCodeProductIdGenerator(mongoDBService, 100);
+        generator.initialise();
+    }
+
+    @After
+    public void tearDown() {
+        generator.cleanup();
+    }
+
+    @Test
+    public void shouldHandOutUniqueIdsAcrossThreads() throws Exception {
+        // given
+        int threads = 8;
+        int idsPerThread = 2000;
+        Set<String> productIds = ConcurrentHashMap.newKeySet();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+        // when
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < threads; i++) {
+            futures.add(executorService.submit(() -> {
+                for(int j = 0; j < idsPerThread; j++) {
+                    productIds.add(generator.createProductId());
+                }
+            }));
+        }
+        for(Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        // verify
+        assertEquals(threads * idsPerThread, productIds.size());
+    }
+}
@@ -16,6 +16,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.util.ToolRunner;
+import org.myproject.ecommerce.core.services.MongoDBConnectionSettings;
 import org.myproject.ecommerce.core.services.MongoDBService;
 import org.myproject.ecommerce.hvdfclient.HVDFClientPropertyService;
 
@@ -74,7 +75,9 @@ public class LastHourUniqueMultiConfig extends MongoTool {
         logger.info("mongo host: " + mongoHost);
         logger.info("mongo port: " + mongoPort);
 
-        MongoDBService mongoDBService = new MongoDBService(Collections.emptyList(), mongoHost, mongoPort);
+        // the job only reads the hvdf configuration, a single small analytics pool is enough
+        MongoDBService mongoDBService = new MongoDBService(Collections.emptyList(), mongoHost, mongoPort,
+                MongoDBConnectionSettings.analytics(), Optional.empty());
         HVDFClientPropertyService hvdfClientPropertyService = new HVDFClientPropertyService(mongoDBService);
         hvdfClientPropertyService.initialise();
 
@@ -97,4 +97,9 @@ public class HVDFClientPropertyService {
     public String getChannelPrefix() {
         return channelPrefix;
     }
+
+    // name of the time slice collection hvdf stores a sample with the given time stamp in
+    public String getSliceCollectionName(long timeStamp) {
+        return channelPrefix + String.valueOf(timeStamp / period);
+    }
 }
@@ -17,6 +17,7 @@ import org.bson.Document;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import org.myproject.ecommerce.core.services.IndexRegistry;
 import org.myproject.ecommerce.core.services.MongoDBService;
 import org.myproject.ecommerce.core.utilities.LoggingUtils;
 import org.slf4j.Logger;
@@ -56,6 +57,8 @@ import static java.util.stream.Collectors.joining;
 @Service
 public class HVDFClientService {
     private final MongoDBService mongoDBService;
+    private final HVDFClientPropertyService hvdfClientPropertyService;
+    private final IndexRegistry indexRegistry;
     private final RestTemplate restTemplate;
     private final MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter;
     private ObjectMapper objectMapper;
@@ -68,23 +71,22 @@ public class HVDFClientService {
 
     @Autowired
     public HVDFClientService(@Qualifier("hvdfServiceUrl") String serviceUrl, MongoDBService mongoDBService,
+                             HVDFClientPropertyService hvdfClientPropertyService, IndexRegistry indexRegistry,
                              RestTemplate restTemplate,
                              MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter) {
         Objects.requireNonNull(serviceUrl);
         this.serviceUrl = serviceUrl;
         querySample = serviceUrl + "/feed/ecommerce/activity/data";
         this.mongoDBService = mongoDBService;
+        this.hvdfClientPropertyService = hvdfClientPropertyService;
+        this.indexRegistry = indexRegistry;
         this.restTemplate = restTemplate;
         this.mappingJackson2HttpMessageConverter = mappingJackson2HttpMessageConverter;
     }
 
     @PostConstruct
     public void initialise() {
-        objectMapper = mappingJackson2HttpMessageConverter.getObjectMapper();
-        objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-        SimpleModule simpleModule = new SimpleModule();
-        customeJsonmapping(simpleModule);
-        objectMapper.registerModule(simpleModule);
+        objectMapper = configureObjectMapper(mappingJackson2HttpMessageConverter.getObjectMapper());
 
         if(!isHVDFServiceConfigured("config", "hvdf_channels_ecommerce")) {
             JSONParser parser = new JSONParser();
@@ -107,7 +109,11 @@ public class HVDFClientService {
             requestUrl = StringUtils.replace(requestUrl, "{channel}",
                     activity.getClass().getSimpleName().toLowerCase());
             ResponseEntity<String> response = send(requestUrl, paramsMap, HttpMethod.POST);
-            return HttpStatus.OK == response.getStatusCode();
+            if(HttpStatus.OK != response.getStatusCode()) {
+                return false;
+            }
+            ensureSliceIndexes(activity.getTimeStamp());
+            return true;
         } catch (Exception e) {
             logger.error("unable to record activity: " + activity.toString());
             e.printStackTrace();
@@ -124,7 +130,14 @@ public class HVDFClientService {
             requestUrl = StringUtils.replace(requestUrl, "{channel}",
                     clazz.getSimpleName().toLowerCase());
             ResponseEntity<String> response = send(requestUrl, paramsMap, HttpMethod.POST);
-            return HttpStatus.OK == response.getStatusCode();
+            if(HttpStatus.OK != response.getStatusCode()) {
+                return false;
+            }
+            activities.stream()
+                      .mapToLong(Activity::getTimeStamp)
+                      .distinct()
+                      .forEach(this::ensureSliceIndexes);
+            return true;
         } catch (Exception e) {
             logger.error("unable to record activities: "
                     + activities.stream()
@@ -135,6 +148,13 @@ public class HVDFClientService {
         }
     }
 
+    // hvdf creates a slice collection with the first sample of its period; index it on first sight
+    private void ensureSliceIndexes(long timeStamp) {
+        if(hvdfClientPropertyService.isConfigued()) {
+            indexRegistry.ensureIndexes(hvdfClientPropertyService.getSliceCollectionName(timeStamp));
+        }
+    }
+
     public List<Activity> query(Map<String, Object> criteriaMap) {
         HttpHeaders headers = new HttpHeaders();
         headers.set("Accept", MediaType.APPLICATION_JSON_VALUE);
@@ -207,7 +227,16 @@ public class HVDFClientService {
         return configOptional.isPresent();
     }
 
-    private void customeJsonmapping(SimpleModule simpleModule) {
+    // the activity json mapping used by record/query, shared with the benchmarks
+    public static ObjectMapper configureObjectMapper(ObjectMapper objectMapper) {
+        objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+        SimpleModule simpleModule = new SimpleModule();
+        customeJsonmapping(simpleModule);
+        objectMapper.registerModule(simpleModule);
+        return objectMapper;
+    }
+
+    private static void customeJsonmapping(SimpleModule simpleModule) {
         simpleModule.addDeserializer(LocalDateTime.class, new JsonDeserializer<LocalDateTime>() {
             @Override
             public LocalDateTime deserialize(JsonParser jsonParser, DeserializationContext deserializationContext)
@@ -1,5 +1,6 @@
 package org.myproject.ecommerce.hvdfclient;
 
+import com.mongodb.ReadPreference;
 import org.apache.commons.io.IOUtils;
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
@@ -14,6 +15,7 @@ import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
 import org.bson.json.JsonReader;
+import org.myproject.ecommerce.core.services.MongoDBConnectionSettings;
 import org.myproject.ecommerce.core.services.MongoDBService;
 import org.myproject.ecommerce.core.utilities.LoggingUtils;
 import org.slf4j.Logger;
@@ -37,8 +39,10 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import static java.util.Comparator.reverseOrder;
 import static java.util.stream.Collectors.toList;
@@ -100,13 +104,15 @@ public class UserInsightsAnalysisService {
                 .sorted(reverseOrder())
                 .map(time -> hvdfClientPropertyService.getChannelPrefix() + String.valueOf(time))
                 .map(collection -> findUserActivities(userId, startTime, endTime, collection))
-                .flatMap(List::stream)
+                .flatMap(Function.identity())
                 .limit(numberOfUserActivities)
                 .collect(toList());
     }
 
-    private List<Activity> findUserActivities(String userId, long startTime, long endTime,
-                                              String collectionName) {
+    // The activity slices are scanned on the analytics client, with its read preference, so that they do not
+    // hold the OLTP connections.
+    private Stream<Activity> findUserActivities(String userId, long startTime, long endTime,
+                                                String collectionName) {
         Objects.requireNonNull(userId);
         Objects.requireNonNull(collectionName);
         Map<String, Object> filterMap = new HashMap<>();
@@ -119,8 +125,8 @@ public class UserInsightsAnalysisService {
         filterMap.put("$lt", endTimeQueryMap);
         Map<String, Integer> sortMap = new LinkedHashMap<>();
         sortMap.put("data.ts", -1);
-        return mongoDBService.readAll("ecommerce", collectionName,
-                Activity.class, filterMap, Optional.of(sortMap));
+        return mongoDBService.stream("ecommerce", collectionName, Activity.class, filterMap, Optional.of(sortMap),
+                Optional.empty(), MongoDBService.DEFAULT_BATCH_SIZE, MongoDBConnectionSettings.Workload.ANALYTICS);
     }
 
     public List<Activity> findProductActivities(String itemId, long startTime, long endTime,
@@ -130,7 +136,7 @@ public class UserInsightsAnalysisService {
                 .sorted(reverseOrder())
                 .map(time -> hvdfClientPropertyService.getChannelPrefix() + String.valueOf(time))
                 .map(collection -> findProductActivities(itemId, startTime, endTime, collection))
-                .flatMap(List::stream)
+                .flatMap(Function.identity())
                 .limit(numberOfProductActivities)
                 .collect(toList());
     }
@@ -239,8 +245,8 @@ public class UserInsightsAnalysisService {
         }
     }
 
-    private List<Activity> findProductActivities(String itemId, long startTime, long endTime,
-                                                 String collectionName) {
+    private Stream<Activity> findProductActivities(String itemId, long startTime, long endTime,
+                                                   String collectionName) {
         Objects.requireNonNull(itemId);
         Objects.requireNonNull(collectionName);
         Map<String, Object> filterMap = new HashMap<>();
@@ -253,8 +259,8 @@ public class UserInsightsAnalysisService {
         filterMap.put("$lt", endTimeQueryMap);
         Map<String, Integer> sortMap = new LinkedHashMap<>();
         sortMap.put("data.ts", -1);
-        return mongoDBService.readAll("ecommerce", collectionName,
-                Activity.class, filterMap, Optional.of(sortMap));
+        return mongoDBService.stream("ecommerce", collectionName, Activity.class, filterMap, Optional.of(sortMap),
+                Optional.empty(), MongoDBService.DEFAULT_BATCH_SIZE, MongoDBConnectionSettings.Workload.ANALYTICS);
     }
 
     public List<UserInsights> getUserInsights(String userId, LocalDate date) {
@@ -383,8 +389,11 @@ public class UserInsightsAnalysisService {
                            .map(e -> new UserInsights(e.getKey(), e.getValue())).collect(toList());
     }
 
+    // Aggregates are the map/reduce output of this flow, which may not have reached the secondaries yet:
+    // read them from the primary, on the analytics client.
     public <T> List<T> getUserAggregates(String inputName, Class<T> clazz) {
-        return mongoDBService.readAll("ecommerce", inputName, clazz);
+        return mongoDBService.readAll("ecommerce", inputName, clazz, new HashMap<>(), Optional.empty(),
+                Optional.empty(), ReadPreference.primary(), MongoDBConnectionSettings.Workload.ANALYTICS);
     }
 
     public long getNumberOfUniqueUserAggregates(String inputName) {
@@ -492,7 +501,8 @@ public class UserInsightsAnalysisService {
         Map<String, Integer> sortMap = new LinkedHashMap<>();
         sortMap.put("value", -1);
         return mongoDBService.readAll("ecommerce", "pairs",
-                UserPurchaseOccurrenceAggregate.class, filterMap, Optional.of(sortMap));
+                UserPurchaseOccurrenceAggregate.class, filterMap, Optional.of(sortMap), Optional.empty(),
+                ReadPreference.primary(), MongoDBConnectionSettings.Workload.ANALYTICS);
 
     }
 }
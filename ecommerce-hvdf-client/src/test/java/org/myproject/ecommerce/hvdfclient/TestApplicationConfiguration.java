@@ -1,6 +1,7 @@
 package org.myproject.ecommerce.hvdfclient;
 
 import org.bson.codecs.configuration.CodecProvider;
+import org.myproject.ecommerce.core.services.IndexRegistry;
 import org.myproject.ecommerce.core.services.MongoDBService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -34,8 +35,13 @@ public class TestApplicationConfiguration {
     }
     @Bean
     HVDFClientService hvdfClientService() {
-        return new HVDFClientService(serviceUrl(), mongoDBService(), restTemplate(),
-                mappingJackson2HttpMessageConverter());
+        return new HVDFClientService(serviceUrl(), mongoDBService(), hvdfClientPropertyService(),
+                indexRegistry(), restTemplate(), mappingJackson2HttpMessageConverter());
+    }
+
+    @Bean
+    IndexRegistry indexRegistry() {
+        return new IndexRegistry(mongoDBService());
     }
 
     @Bean
@@ -5,6 +5,8 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.myproject.ecommerce.core.services.CommandMetrics;
+import org.myproject.ecommerce.core.services.MongoDBConnectionSettings;
 import org.myproject.ecommerce.core.services.MongoDBService;
 import org.myproject.ecommerce.core.utilities.LoggingUtils;
 import org.slf4j.Logger;
@@ -33,6 +35,7 @@ import java.util.stream.Stream;
 import static java.util.Comparator.reverseOrder;
 import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -195,6 +198,29 @@ public class UserInsightsAnalysisServiceIT {
                 .collect(Collectors.toList()));
     }
 
+    @Test
+    public void shouldReadTheActivitiesOnTheAnalyticsClient() {
+        // given
+        CommandMetrics analytics = mongoDBService.getCommandMetrics(MongoDBConnectionSettings.Workload.ANALYTICS);
+        CommandMetrics oltp = mongoDBService.getCommandMetrics(MongoDBConnectionSettings.Workload.OLTP);
+        assertNotSame(oltp, analytics);
+        String collectionName = hvdfClientPropertyService.getChannelPrefix() +
+                (times.get(0) / hvdfClientPropertyService.getPeriod());
+        analytics.reset();
+        oltp.reset();
+
+        // when
+        userInsightsAnalysisService.findUserActivities("u123", times.get(0) - 1, times.get(0) + 1, 10);
+        userInsightsAnalysisService.findProductActivities("301671", times.get(0) - 1, times.get(0) + 1, 10);
+        userInsightsAnalysisService.getAllUserPurchaseOccurrenceAggregates("301671", 0);
+
+        // verify
+        assertEquals(2, finds(analytics, collectionName));
+        assertEquals(0, finds(oltp, collectionName));
+        assertEquals(1, finds(analytics, "pairs"));
+        assertEquals(0, finds(oltp, "pairs"));
+    }
+
     @Test
     public void shouldReturnUserActivityInsights() {
         // given
@@ -628,4 +654,12 @@ public class UserInsightsAnalysisServiceIT {
             }
         }
     }
+
+    private static long finds(CommandMetrics commandMetrics, String collectionName) {
+        return commandMetrics.getCommandStats("ecommerce", collectionName)
+                .stream()
+                .filter(stats -> "find".equals(stats.getCommandName()))
+                .mapToLong(stats -> stats.getLatency().getCount())
+                .sum();
+    }
 }
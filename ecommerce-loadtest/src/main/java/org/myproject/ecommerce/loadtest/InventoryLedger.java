@@ -0,0 +1,97 @@
+package org.myproject.ecommerce.loadtest;
+
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.Reservation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+// The shoppers' own record of what was sold, kept outside of the database so the audit can check the stock
+// of every sku once the run is quiet: seeded == on hand + carted + sold.
+public class InventoryLedger {
+    private final Map<String, Integer> seeded = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> sold = new ConcurrentHashMap<>();
+
+    public void seeded(String sku, int quantity) {
+        seeded.put(sku, quantity);
+        sold.put(sku, new LongAdder());
+    }
+
+    public void sold(String sku, int quantity) {
+        sold.get(sku).add(quantity);
+    }
+
+    public long getSold(String sku) {
+        return sold.get(sku).sum();
+    }
+
+    // available gives the stock of a sku that is not in a cart, product.qty or the sum of its counters
+    public Audit audit(List<Product> products, List<Reservation> reservations, ToIntFunction<String> available) {
+        Map<String, Long> cartedBySku = new HashMap<>();
+        reservations.forEach(reservation -> cartedBySku.merge(reservation.getSku(),
+                (long) reservation.getQuantity(), Long::sum));
+        Audit audit = new Audit();
+        for(Product product : products) {
+            Integer seededQuantity = seeded.get(product.getSku());
+            if(seededQuantity == null) {
+                continue;
+            }
+            long carted = cartedBySku.getOrDefault(product.getSku(), 0L);
+            long soldQuantity = getSold(product.getSku());
+            int onHand = available.applyAsInt(product.getSku());
+            audit.onHand += onHand;
+            audit.carted += carted;
+            audit.sold += soldQuantity;
+            if(onHand < 0 || carted + soldQuantity > seededQuantity) {
+                audit.oversoldSkus.add(product.getSku());
+            }
+            long drift = seededQuantity - onHand - carted - soldQuantity;
+            if(drift != 0) {
+                audit.driftedSkus.add(product.getSku());
+                audit.drift += Math.abs(drift);
+            }
+        }
+        return audit;
+    }
+
+    public static class Audit {
+        private final List<String> oversoldSkus = new ArrayList<>();
+        private final List<String> driftedSkus = new ArrayList<>();
+        private long onHand;
+        private long carted;
+        private long sold;
+        private long drift;
+
+        // skus with negative stock or more carted and sold than was seeded
+        public List<String> getOversoldSkus() {
+            return oversoldSkus;
+        }
+
+        // skus where stock was lost or created, e.g. by a roll back that did not return an item
+        public List<String> getDriftedSkus() {
+            return driftedSkus;
+        }
+
+        public long getOnHand() {
+            return onHand;
+        }
+
+        // stock still held by carts; after the final expiry sweep this is stock stranded in inactive carts
+        public long getCarted() {
+            return carted;
+        }
+
+        public long getSold() {
+            return sold;
+        }
+
+        public long getDrift() {
+            return drift;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.myproject.ecommerce.loadtest;
+
+import org.bson.codecs.configuration.CodecProvider;
+import org.myproject.ecommerce.core.codec.CustomCodecProvider;
+import org.myproject.ecommerce.core.services.EcommerceException;
+import org.myproject.ecommerce.core.services.InMemoryMongoDBService;
+import org.myproject.ecommerce.core.services.InventoryCleanupSweeper;
+import org.myproject.ecommerce.core.services.InventoryCounterService;
+import org.myproject.ecommerce.core.services.LatencyHistogram;
+import org.myproject.ecommerce.core.services.MongoDBService;
+import org.myproject.ecommerce.core.services.PaymentService;
+import org.myproject.ecommerce.core.services.ProductInventoryService;
+import org.myproject.ecommerce.core.services.ReservationEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Drives ProductInventoryService with concurrent shoppers plus the periodic processExpiringCarts and
+// cleanupInventory sweeps, then returns every abandoned cart to inventory and checks that no stock was oversold
+// or lost. Runs against the in-memory MongoDBService unless --mongodb=host[:port] is given; exits with 1 when the
+// audit fails. --counter-buckets=N splits the stock of the hottest skus over N inventory counters,
+// --bundle-probability=P adds the items of that share of the carts as one bundle, --expiry-wheel=true expires carts
+// as their deadline passes instead of with the processExpiringCarts sweep, --cleanup-ops-per-second=N runs the
+// cleanup sweeper within that budget instead of cleanupInventory, --engine-skus=N has the reservation engine own the
+// hottest N skus that are not sharded.
+// See LoadTestSettings for the other options.
+public class LoadTest {
+
+    public static void main(String[] args) throws InterruptedException, EcommerceException {
+        LoadTestSettings settings = LoadTestSettings.parse(args);
+        List<CodecProvider> codecProvider = new ArrayList<>();
+        codecProvider.add(new CustomCodecProvider());
+        MongoDBService mongoDBService = settings.getMongodbHost().isPresent() ?
+                new MongoDBService(codecProvider, settings.getMongodbHost().get(), settings.getMongodbPort()) :
+                new InMemoryMongoDBService(codecProvider);
+        try {
+            InventoryCounterService inventoryCounterService = new InventoryCounterService(mongoDBService);
+            Workload workload = new Workload(settings, mongoDBService, new ProductInventoryService(mongoDBService,
+                    new PaymentService(), inventoryCounterService), inventoryCounterService);
+            InventoryLedger.Audit audit = run(workload);
+            report(workload, audit);
+            if(!audit.getOversoldSkus().isEmpty() || audit.getDrift() != 0) {
+                System.exit(1);
+            }
+        } finally {
+            mongoDBService.cleanup();
+        }
+    }
+
+    public static InventoryLedger.Audit run(Workload workload) throws InterruptedException, EcommerceException {
+        LoadTestSettings settings = workload.getSettings();
+        workload.seed();
+        if(settings.getEngineSkus() > 0) {
+            ReservationEngine engine = workload.getProductInventoryService().startReservationEngine("loadtest");
+            int owned = 0;
+            for(int rank = 0; rank < settings.getSkus() && owned < settings.getEngineSkus(); rank++) {
+                if(engine.own(workload.getSku(rank))) {
+                    owned++;
+                }
+            }
+        }
+        if(settings.isExpiryWheel()) {
+            workload.getProductInventoryService().startCartExpiry(settings.getExpiryTimeoutSeconds());
+        }
+        Optional<InventoryCleanupSweeper> sweeper = Optional.empty();
+        if(settings.getCleanupOpsPerSecond() > 0) {
+            sweeper = Optional.of(workload.getProductInventoryService().startInventoryCleanup(
+                    settings.getExpiryTimeoutSeconds(), settings.getCleanupOpsPerSecond(),
+                    settings.getCleanupPauseAbove()));
+        }
+
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor();
+        maintenance.scheduleWithFixedDelay(() -> sweep(workload, settings.getExpiryTimeoutSeconds()),
+                settings.getMaintenanceIntervalMillis(), settings.getMaintenanceIntervalMillis(),
+                TimeUnit.MILLISECONDS);
+
+        ExecutorService shoppers = Executors.newFixedThreadPool(settings.getShoppers());
+        long deadline = System.currentTimeMillis() + settings.getDurationMillis();
+        for(int i = 0; i < settings.getShoppers(); i++) {
+            shoppers.execute(new Shopper(workload, settings.getSeed() + i, deadline));
+        }
+        shoppers.shutdown();
+        shoppers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        maintenance.shutdown();
+        maintenance.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        workload.getProductInventoryService().stopCartExpiry();
+        workload.getProductInventoryService().stopInventoryCleanup();
+        workload.getProductInventoryService().stopReservationEngine();
+        sweeper.ifPresent(s -> System.out.println(String.format("cleanup sweeper: %d reservations swept, %d pauses",
+                s.getSwept(), s.getPauses())));
+
+        // every shopper is done, so whatever is still carted belongs to an abandoned cart
+        workload.getProductInventoryService().processExpiringCarts(0);
+        workload.getProductInventoryService().cleanupInventory(0);
+        return workload.getLedger().audit(workload.readProducts(), workload.readReservations(),
+                workload.getProductInventoryService()::getAvailableQuantity);
+    }
+
+    private static void sweep(Workload workload, long timeout) {
+        if(!workload.getSettings().isExpiryWheel()) {
+            time(workload.getProcessExpiringCarts(),
+                    () -> workload.getProductInventoryService().processExpiringCarts(timeout));
+        }
+        if(workload.getSettings().getCleanupOpsPerSecond() == 0) {
+            time(workload.getCleanupInventory(),
+                    () -> workload.getProductInventoryService().cleanupInventory(timeout));
+        }
+    }
+
+    private static void time(OperationStats stats, Runnable operation) {
+        long start = System.nanoTime();
+        OperationStats.Outcome outcome = OperationStats.Outcome.SUCCEEDED;
+        try {
+            operation.run();
+        } catch (RuntimeException e) {
+            outcome = OperationStats.Outcome.FAILED;
+        }
+        stats.record(System.nanoTime() - start, outcome);
+    }
+
+    private static void report(Workload workload, InventoryLedger.Audit audit) {
+        LoadTestSettings settings = workload.getSettings();
+        double seconds = settings.getDurationMillis() / 1000.0;
+        System.out.println(settings);
+        System.out.println(String.format("%-22s%10s%10s%12s%10s%8s%10s%10s%10s%10s%10s%10s",
+                "operation", "count", "ok", "inadequate", "inactive", "failed", "ops/s",
+                "mean us", "p50 us", "p99 us", "p99.9 us", "max us"));
+        for(OperationStats stats : workload.getOperationStats()) {
+            LatencyHistogram latency = stats.getLatency();
+            System.out.println(String.format("%-22s%10d%10d%12d%10d%8d%10.1f%10d%10d%10d%10d%10d",
+                    stats.getName(), stats.getCount(),
+                    stats.getCount(OperationStats.Outcome.SUCCEEDED),
+                    stats.getCount(OperationStats.Outcome.INADEQUATE_INVENTORY),
+                    stats.getCount(OperationStats.Outcome.CART_INACTIVE),
+                    stats.getCount(OperationStats.Outcome.FAILED),
+                    stats.getCount() / seconds, latency.getMeanMicros(), latency.getPercentileMicros(50),
+                    latency.getPercentileMicros(99), latency.getPercentileMicros(99.9), latency.getMaxMicros()));
+        }
+
+        long cartChanges = workload.getAddItemToCart().getCount() + workload.getAddItemsToCart().getCount() +
+                workload.getUpdateCartQuantity().getCount();
+        long rollbacks = workload.getAddItemToCart().getCount(OperationStats.Outcome.INADEQUATE_INVENTORY) +
+                workload.getAddItemsToCart().getCount(OperationStats.Outcome.INADEQUATE_INVENTORY) +
+                workload.getUpdateCartQuantity().getCount(OperationStats.Outcome.INADEQUATE_INVENTORY);
+        System.out.println(String.format("carts: %d started, %d checked out (%.1f/s), %d abandoned",
+                workload.getCartsStarted(), workload.getCartsCheckedOut(), workload.getCartsCheckedOut() / seconds,
+                workload.getCartsAbandoned()));
+        System.out.println(String.format("rollbacks: %d of %d cart changes (%.2f%% InadequateInventoryException)",
+                rollbacks, cartChanges, cartChanges == 0 ? 0.0 : rollbacks * 100.0 / cartChanges));
+        System.out.println(String.format("inventory: %d sold, %d on hand, %d stranded in carts after the sweep",
+                audit.getSold(), audit.getOnHand(), audit.getCarted()));
+        System.out.println(String.format("audit: %d oversold skus %s, %d units drifted over %d skus %s",
+                audit.getOversoldSkus().size(), limit(audit.getOversoldSkus()), audit.getDrift(),
+                audit.getDriftedSkus().size(), limit(audit.getDriftedSkus())));
+    }
+
+    private static List<String> limit(List<String> skus) {
+        return skus.size() > 10 ? skus.subList(0, 10) : skus;
+    }
+}
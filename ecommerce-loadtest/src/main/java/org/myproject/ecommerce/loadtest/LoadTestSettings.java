@@ -0,0 +1,269 @@
+package org.myproject.ecommerce.loadtest;
+
+import java.util.Optional;
+
+// Command line settings of a load test run, given as --name=value. Times are in milliseconds except the cart
+// expiry timeout, which is in seconds like the IProductInventoryService api.
+public class LoadTestSettings {
+    private int shoppers = 16;
+    private long durationMillis = 30000;
+    private long thinkTimeMillis = 20;
+    private int skus = 1000;
+    private double skew = 1.0;
+    private int stock = 100;
+    private int maxQuantity = 3;
+    private int itemsPerCart = 4;
+    private double updateProbability = 0.3;
+    private double checkoutProbability = 0.7;
+    private double bundleProbability = 0;
+    private long expiryTimeoutSeconds = 5;
+    private boolean expiryWheel = false;
+    private long maintenanceIntervalMillis = 1000;
+    private int cleanupOpsPerSecond = 0;
+    private int cleanupPauseAbove = 0;
+    private int counterBuckets = 0;
+    private int shardedSkus = 10;
+    private int engineSkus = 0;
+    private int firstCartId = 1000000;
+    private long seed = 42;
+    private Optional<String> mongodbHost = Optional.empty();
+    private int mongodbPort = 27017;
+
+    public static LoadTestSettings parse(String[] args) {
+        LoadTestSettings settings = new LoadTestSettings();
+        for(String arg : args) {
+            int separator = arg.indexOf('=');
+            if(!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            switch(name) {
+                case "shoppers":
+                    settings.shoppers = positive(name, Integer.parseInt(value));
+                    break;
+                case "duration":
+                    settings.durationMillis = positive(name, Long.parseLong(value));
+                    break;
+                case "think-time":
+                    settings.thinkTimeMillis = Long.parseLong(value);
+                    break;
+                case "skus":
+                    settings.skus = positive(name, Integer.parseInt(value));
+                    break;
+                case "skew":
+                    settings.skew = Double.parseDouble(value);
+                    break;
+                case "stock":
+                    settings.stock = Integer.parseInt(value);
+                    break;
+                case "max-quantity":
+                    settings.maxQuantity = positive(name, Integer.parseInt(value));
+                    break;
+                case "items-per-cart":
+                    settings.itemsPerCart = positive(name, Integer.parseInt(value));
+                    break;
+                case "update-probability":
+                    settings.updateProbability = probability(name, Double.parseDouble(value));
+                    break;
+                case "checkout-probability":
+                    settings.checkoutProbability = probability(name, Double.parseDouble(value));
+                    break;
+                case "bundle-probability":
+                    settings.bundleProbability = probability(name, Double.parseDouble(value));
+                    break;
+                case "expiry-timeout":
+                    settings.expiryTimeoutSeconds = Long.parseLong(value);
+                    break;
+                case "expiry-wheel":
+                    settings.expiryWheel = Boolean.parseBoolean(value);
+                    break;
+                case "maintenance-interval":
+                    settings.maintenanceIntervalMillis = positive(name, Long.parseLong(value));
+                    break;
+                case "cleanup-ops-per-second":
+                    settings.cleanupOpsPerSecond = Integer.parseInt(value);
+                    break;
+                case "cleanup-pause-above":
+                    settings.cleanupPauseAbove = Integer.parseInt(value);
+                    break;
+                case "counter-buckets":
+                    settings.counterBuckets = Integer.parseInt(value);
+                    break;
+                case "sharded-skus":
+                    settings.shardedSkus = Integer.parseInt(value);
+                    break;
+                case "engine-skus":
+                    settings.engineSkus = Integer.parseInt(value);
+                    break;
+                case "first-cart-id":
+                    settings.firstCartId = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    settings.seed = Long.parseLong(value);
+                    break;
+                case "mongodb":
+                    int portSeparator = value.lastIndexOf(':');
+                    if(portSeparator < 0) {
+                        settings.mongodbHost = Optional.of(value);
+                    } else {
+                        settings.mongodbHost = Optional.of(value.substring(0, portSeparator));
+                        settings.mongodbPort = Integer.parseInt(value.substring(portSeparator + 1));
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown setting: " + name);
+            }
+        }
+        return settings;
+    }
+
+    private static int positive(String name, int value) {
+        if(value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+        return value;
+    }
+
+    private static long positive(String name, long value) {
+        if(value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+        return value;
+    }
+
+    private static double probability(String name, double value) {
+        if(value < 0 || value > 1) {
+            throw new IllegalArgumentException(name + " must be between 0 and 1: " + value);
+        }
+        return value;
+    }
+
+    public int getShoppers() {
+        return shoppers;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public long getThinkTimeMillis() {
+        return thinkTimeMillis;
+    }
+
+    public int getSkus() {
+        return skus;
+    }
+
+    public double getSkew() {
+        return skew;
+    }
+
+    public int getStock() {
+        return stock;
+    }
+
+    public int getMaxQuantity() {
+        return maxQuantity;
+    }
+
+    public int getItemsPerCart() {
+        return itemsPerCart;
+    }
+
+    public double getUpdateProbability() {
+        return updateProbability;
+    }
+
+    public double getCheckoutProbability() {
+        return checkoutProbability;
+    }
+
+    // the share of carts whose items are added as one bundle with addItemsToCart
+    public double getBundleProbability() {
+        return bundleProbability;
+    }
+
+    public long getExpiryTimeoutSeconds() {
+        return expiryTimeoutSeconds;
+    }
+
+    // true expires carts with the cart expiry wheel instead of the periodic processExpiringCarts sweep
+    public boolean isExpiryWheel() {
+        return expiryWheel;
+    }
+
+    public long getMaintenanceIntervalMillis() {
+        return maintenanceIntervalMillis;
+    }
+
+    // 0 runs cleanupInventory every maintenance interval, otherwise the cleanup sweeper runs in the background
+    // with this budget
+    public int getCleanupOpsPerSecond() {
+        return cleanupOpsPerSecond;
+    }
+
+    // the cart operations per second above which the cleanup sweeper pauses, 0 never pauses
+    public int getCleanupPauseAbove() {
+        return cleanupPauseAbove;
+    }
+
+    // 0 keeps all stock in product.qty, otherwise the hottest shardedSkus are split over this many counters
+    public int getCounterBuckets() {
+        return counterBuckets;
+    }
+
+    public int getShardedSkus() {
+        return shardedSkus;
+    }
+
+    // 0 takes all stock from the products, otherwise the reservation engine owns this many of the hottest skus
+    // that are not sharded
+    public int getEngineSkus() {
+        return engineSkus;
+    }
+
+    public int getFirstCartId() {
+        return firstCartId;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public Optional<String> getMongodbHost() {
+        return mongodbHost;
+    }
+
+    public int getMongodbPort() {
+        return mongodbPort;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadTestSettings{" +
+                "shoppers=" + shoppers +
+                ", durationMillis=" + durationMillis +
+                ", thinkTimeMillis=" + thinkTimeMillis +
+                ", skus=" + skus +
+                ", skew=" + skew +
+                ", stock=" + stock +
+                ", maxQuantity=" + maxQuantity +
+                ", itemsPerCart=" + itemsPerCart +
+                ", updateProbability=" + updateProbability +
+                ", checkoutProbability=" + checkoutProbability +
+                ", bundleProbability=" + bundleProbability +
+                ", expiryTimeoutSeconds=" + expiryTimeoutSeconds +
+                ", expiryWheel=" + expiryWheel +
+                ", maintenanceIntervalMillis=" + maintenanceIntervalMillis +
+                ", cleanupOpsPerSecond=" + cleanupOpsPerSecond +
+                ", cleanupPauseAbove=" + cleanupPauseAbove +
+                ", counterBuckets=" + counterBuckets +
+                ", shardedSkus=" + shardedSkus +
+                ", engineSkus=" + engineSkus +
+                ", firstCartId=" + firstCartId +
+                ", seed=" + seed +
+                ", mongodb=" + mongodbHost.map(host -> host + ":" + mongodbPort).orElse("in-memory") +
+                '}';
+    }
+}
@@ -0,0 +1,51 @@
+package org.myproject.ecommerce.loadtest;
+
+import org.myproject.ecommerce.core.services.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency and outcome counts of one IProductInventoryService operation, shared by all shopper threads.
+public class OperationStats {
+    public enum Outcome {
+        SUCCEEDED,
+        // InadequateInventoryException: the cart change was rolled back
+        INADEQUATE_INVENTORY,
+        // CartInactiveException: the cart expired or was checked out under the shopper
+        CART_INACTIVE,
+        // any other exception, e.g. a failed roll back
+        FAILED
+    }
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+
+    public OperationStats(String name) {
+        this.name = name;
+        for(int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+    }
+
+    public void record(long elapsedNanos, Outcome outcome) {
+        latency.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        outcomes[outcome.ordinal()].increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    public long getCount(Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+}
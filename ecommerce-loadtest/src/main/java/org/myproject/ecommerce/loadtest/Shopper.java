@@ -0,0 +1,188 @@
+package org.myproject.ecommerce.loadtest;
+
+import org.myproject.ecommerce.core.domain.ShoppingCartItem;
+import org.myproject.ecommerce.core.domain.ShoppingCartItemDetails;
+import org.myproject.ecommerce.core.domain.ShoppingCartStatus;
+import org.myproject.ecommerce.core.interfaces.IProductInventoryService;
+import org.myproject.ecommerce.core.services.CartInactiveException;
+import org.myproject.ecommerce.core.services.InadequateInventoryException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// One simulated shopper: until the deadline it opens a cart, adds a few distinct skus drawn from the hot sku
+// distribution, one at a time or as one bundle, sometimes changes a quantity and then either checks out or walks
+// away, leaving the cart to the expiry sweep. Think times between the steps are exponentially distributed around
+// the configured mean.
+public class Shopper implements Runnable {
+    private final Workload workload;
+    private final IProductInventoryService productInventoryService;
+    private final LoadTestSettings settings;
+    private final Random random;
+    private final long deadline;
+
+    public Shopper(Workload workload, long seed, long deadline) {
+        this.workload = workload;
+        this.productInventoryService = workload.getProductInventoryService();
+        this.settings = workload.getSettings();
+        this.random = new Random(seed);
+        this.deadline = deadline;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while(System.currentTimeMillis() < deadline) {
+                shop();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void shop() throws InterruptedException {
+        int cartId = workload.startCart();
+        // sku to the quantity this cart holds
+        Map<String, Integer> held = new LinkedHashMap<>();
+        int items = 1 + random.nextInt(settings.getItemsPerCart());
+        if(random.nextDouble() < settings.getBundleProbability()) {
+            Map<String, Integer> bundle = new LinkedHashMap<>();
+            for(int i = 0; i < items; i++) {
+                bundle.putIfAbsent(workload.getSku(workload.getSkuDistribution().sample(random)),
+                        1 + random.nextInt(settings.getMaxQuantity()));
+            }
+            think();
+            OperationStats.Outcome outcome = addItemsToCart(cartId, bundle);
+            if(outcome == OperationStats.Outcome.SUCCEEDED) {
+                held.putAll(bundle);
+            } else if(outcome != OperationStats.Outcome.INADEQUATE_INVENTORY) {
+                workload.cartAbandoned();
+                return;
+            }
+            items = 0;
+        }
+        for(int i = 0; i < items; i++) {
+            String sku = workload.getSku(workload.getSkuDistribution().sample(random));
+            if(held.containsKey(sku)) {
+                continue;
+            }
+            think();
+            int quantity = 1 + random.nextInt(settings.getMaxQuantity());
+            OperationStats.Outcome outcome = addItemToCart(cartId, sku, quantity);
+            if(outcome == OperationStats.Outcome.SUCCEEDED) {
+                held.put(sku, quantity);
+            } else if(outcome != OperationStats.Outcome.INADEQUATE_INVENTORY) {
+                workload.cartAbandoned();
+                return;
+            }
+        }
+
+        if(!held.isEmpty() && random.nextDouble() < settings.getUpdateProbability()) {
+            think();
+            List<String> skus = new ArrayList<>(held.keySet());
+            String sku = skus.get(random.nextInt(skus.size()));
+            int oldQuantity = held.get(sku);
+            int newQuantity = 1 + random.nextInt(settings.getMaxQuantity() + 1);
+            if(newQuantity != oldQuantity) {
+                OperationStats.Outcome outcome = updateCartQuantity(cartId, sku, oldQuantity, newQuantity);
+                if(outcome == OperationStats.Outcome.SUCCEEDED) {
+                    held.put(sku, newQuantity);
+                } else if(outcome != OperationStats.Outcome.INADEQUATE_INVENTORY) {
+                    workload.cartAbandoned();
+                    return;
+                }
+            }
+        }
+
+        if(held.isEmpty() || random.nextDouble() >= settings.getCheckoutProbability()) {
+            workload.cartAbandoned();
+            return;
+        }
+        think();
+        if(processCheckout(cartId)) {
+            held.forEach((sku, quantity) -> workload.getLedger().sold(sku, quantity));
+            workload.cartCheckedOut();
+        } else {
+            workload.cartAbandoned();
+        }
+    }
+
+    private OperationStats.Outcome addItemToCart(int cartId, String sku, int quantity) {
+        long start = System.nanoTime();
+        OperationStats.Outcome outcome;
+        try {
+            productInventoryService.addItemToCart(cartId, sku, quantity,
+                    new ShoppingCartItemDetails("load test item"));
+            outcome = OperationStats.Outcome.SUCCEEDED;
+        } catch (Exception e) {
+            outcome = outcome(e);
+        }
+        workload.getAddItemToCart().record(System.nanoTime() - start, outcome);
+        return outcome;
+    }
+
+    private OperationStats.Outcome addItemsToCart(int cartId, Map<String, Integer> bundle) {
+        List<ShoppingCartItem> items = new ArrayList<>();
+        bundle.forEach((sku, quantity) -> items.add(new ShoppingCartItem(sku, quantity,
+                new ShoppingCartItemDetails("load test bundle"))));
+        long start = System.nanoTime();
+        OperationStats.Outcome outcome;
+        try {
+            productInventoryService.addItemsToCart(cartId, items);
+            outcome = OperationStats.Outcome.SUCCEEDED;
+        } catch (Exception e) {
+            outcome = outcome(e);
+        }
+        workload.getAddItemsToCart().record(System.nanoTime() - start, outcome);
+        return outcome;
+    }
+
+    private OperationStats.Outcome updateCartQuantity(int cartId, String sku, int oldQuantity, int newQuantity) {
+        long start = System.nanoTime();
+        OperationStats.Outcome outcome;
+        try {
+            productInventoryService.updateCartQuantity(cartId, sku, oldQuantity, newQuantity);
+            outcome = OperationStats.Outcome.SUCCEEDED;
+        } catch (Exception e) {
+            outcome = outcome(e);
+        }
+        workload.getUpdateCartQuantity().record(System.nanoTime() - start, outcome);
+        return outcome;
+    }
+
+    // processCheckout rolls a cart back to ACTIVE without throwing when it cannot complete it, so the
+    // status is read back to tell a sale from a roll back
+    private boolean processCheckout(int cartId) {
+        long start = System.nanoTime();
+        OperationStats.Outcome outcome;
+        try {
+            productInventoryService.processCheckout(cartId);
+            outcome = ShoppingCartStatus.COMPLETE.toString().equals(
+                    productInventoryService.getCartByCartId(cartId).getStatus()) ?
+                    OperationStats.Outcome.SUCCEEDED : OperationStats.Outcome.FAILED;
+        } catch (Exception e) {
+            outcome = outcome(e);
+        }
+        workload.getProcessCheckout().record(System.nanoTime() - start, outcome);
+        return outcome == OperationStats.Outcome.SUCCEEDED;
+    }
+
+    private static OperationStats.Outcome outcome(Exception e) {
+        if(e instanceof InadequateInventoryException) {
+            return OperationStats.Outcome.INADEQUATE_INVENTORY;
+        }
+        if(e instanceof CartInactiveException) {
+            return OperationStats.Outcome.CART_INACTIVE;
+        }
+        return OperationStats.Outcome.FAILED;
+    }
+
+    private void think() throws InterruptedException {
+        if(settings.getThinkTimeMillis() > 0) {
+            Thread.sleep((long) (-settings.getThinkTimeMillis() * Math.log(1 - random.nextDouble())));
+        }
+    }
+}
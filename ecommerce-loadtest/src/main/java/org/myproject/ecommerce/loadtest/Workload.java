@@ -0,0 +1,193 @@
+package org.myproject.ecommerce.loadtest;
+
+import org.myproject.ecommerce.core.domain.Pricing;
+import org.myproject.ecommerce.core.domain.Product;
+import org.myproject.ecommerce.core.domain.Reservation;
+import org.myproject.ecommerce.core.domain.ShoppingCart;
+import org.myproject.ecommerce.core.domain.ShoppingCartStatus;
+import org.myproject.ecommerce.core.interfaces.IProductInventoryService;
+import org.myproject.ecommerce.core.services.CartExpiryWheel;
+import org.myproject.ecommerce.core.services.EcommerceException;
+import org.myproject.ecommerce.core.services.InventoryCleanupSweeper;
+import org.myproject.ecommerce.core.services.InventoryCounterService;
+import org.myproject.ecommerce.core.services.MongoDBService;
+import org.myproject.ecommerce.core.services.ProductInventoryService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+// State shared by the shoppers and the maintenance thread of one run: the seeded skus, the hot sku
+// distribution, the sold ledger and the per operation statistics.
+public class Workload {
+    public static final String DATABASE = "ecommerce";
+    private static final String SKU_PREFIX = "loadtest-";
+
+    private final LoadTestSettings settings;
+    private final MongoDBService mongoDBService;
+    private final IProductInventoryService productInventoryService;
+    private final InventoryCounterService inventoryCounterService;
+    private final ZipfDistribution skuDistribution;
+    private final List<String> skus = new ArrayList<>();
+    private final InventoryLedger ledger = new InventoryLedger();
+    private final AtomicInteger nextCartId;
+    private final OperationStats addItemToCart = new OperationStats("addItemToCart");
+    private final OperationStats addItemsToCart = new OperationStats("addItemsToCart");
+    private final OperationStats updateCartQuantity = new OperationStats("updateCartQuantity");
+    private final OperationStats processCheckout = new OperationStats("processCheckout");
+    private final OperationStats processExpiringCarts = new OperationStats("processExpiringCarts");
+    private final OperationStats cleanupInventory = new OperationStats("cleanupInventory");
+    private final LongAdder cartsStarted = new LongAdder();
+    private final LongAdder cartsCheckedOut = new LongAdder();
+    private final LongAdder cartsAbandoned = new LongAdder();
+
+    public Workload(LoadTestSettings settings, MongoDBService mongoDBService,
+                    IProductInventoryService productInventoryService,
+                    InventoryCounterService inventoryCounterService) {
+        this.settings = settings;
+        this.mongoDBService = mongoDBService;
+        this.productInventoryService = productInventoryService;
+        this.inventoryCounterService = inventoryCounterService;
+        this.skuDistribution = new ZipfDistribution(settings.getSkus(), settings.getSkew());
+        this.nextCartId = new AtomicInteger(settings.getFirstCartId());
+    }
+
+    // Replaces the products, counters, reservations, carts, cart deadlines and cleanup watermark of an earlier run; sku rank 0 is the hottest.
+    public void seed() throws EcommerceException {
+        mongoDBService.deleteMany(DATABASE, "product", ownProducts());
+        mongoDBService.deleteMany(DATABASE, InventoryCounterService.COLLECTION, ownProducts());
+        mongoDBService.deleteMany(DATABASE, ProductInventoryService.RESERVATION_COLLECTION, ownProducts());
+        inventoryCounterService.refresh();
+        Map<String, Object> cartIdMap = new HashMap<>();
+        cartIdMap.put("_id", settings.getFirstCartId());
+        Map<String, Object> cartFilterMap = new HashMap<>();
+        cartFilterMap.put("$gte", cartIdMap);
+        mongoDBService.deleteMany(DATABASE, "cart", cartFilterMap);
+        mongoDBService.deleteMany(DATABASE, CartExpiryWheel.COLLECTION, cartFilterMap);
+        mongoDBService.deleteAll(DATABASE, InventoryCleanupSweeper.WATERMARK_COLLECTION);
+
+        List<Product> products = new ArrayList<>();
+        for(int rank = 0; rank < settings.getSkus(); rank++) {
+            String sku = String.format("%s%05d", SKU_PREFIX, rank);
+            Product product = new Product();
+            product.setSku(sku);
+            product.setTitle("Load test product " + rank);
+            product.setDepartment("Load Test");
+            product.setPricing(new Pricing(1200, 1100, 100, 8));
+            product.setQuantity(settings.getStock());
+            products.add(product);
+            skus.add(sku);
+            ledger.seeded(sku, settings.getStock());
+        }
+        mongoDBService.createAll(DATABASE, "product", Product.class, products);
+        if(settings.getCounterBuckets() > 1) {
+            for(int rank = 0; rank < Math.min(settings.getShardedSkus(), skus.size()); rank++) {
+                inventoryCounterService.shard(skus.get(rank), settings.getCounterBuckets());
+            }
+        }
+    }
+
+    public int startCart() {
+        int cartId = nextCartId.getAndIncrement();
+        mongoDBService.createOne(DATABASE, "cart", ShoppingCart.class, new ShoppingCart(cartId, new Date(),
+                ShoppingCartStatus.ACTIVE.toString(), new ArrayList<>()));
+        cartsStarted.increment();
+        return cartId;
+    }
+
+    public List<Product> readProducts() {
+        return mongoDBService.readAll(DATABASE, "product", Product.class, ownProducts());
+    }
+
+    public List<Reservation> readReservations() {
+        return mongoDBService.readAll(DATABASE, ProductInventoryService.RESERVATION_COLLECTION, Reservation.class,
+                ownProducts());
+    }
+
+    private static Map<String, Object> ownProducts() {
+        Map<String, Object> skuMap = new HashMap<>();
+        skuMap.put("sku", Pattern.compile("^" + SKU_PREFIX));
+        return Collections.singletonMap("$regex", skuMap);
+    }
+
+    public LoadTestSettings getSettings() {
+        return settings;
+    }
+
+    public IProductInventoryService getProductInventoryService() {
+        return productInventoryService;
+    }
+
+    public ZipfDistribution getSkuDistribution() {
+        return skuDistribution;
+    }
+
+    public String getSku(int rank) {
+        return skus.get(rank);
+    }
+
+    public InventoryLedger getLedger() {
+        return ledger;
+    }
+
+    public OperationStats getAddItemToCart() {
+        return addItemToCart;
+    }
+
+    public OperationStats getAddItemsToCart() {
+        return addItemsToCart;
+    }
+
+    public OperationStats getUpdateCartQuantity() {
+        return updateCartQuantity;
+    }
+
+    public OperationStats getProcessCheckout() {
+        return processCheckout;
+    }
+
+    public OperationStats getProcessExpiringCarts() {
+        return processExpiringCarts;
+    }
+
+    public OperationStats getCleanupInventory() {
+        return cleanupInventory;
+    }
+
+    public List<OperationStats> getOperationStats() {
+        List<OperationStats> operationStats = new ArrayList<>();
+        operationStats.add(addItemToCart);
+        operationStats.add(addItemsToCart);
+        operationStats.add(updateCartQuantity);
+        operationStats.add(processCheckout);
+        operationStats.add(processExpiringCarts);
+        operationStats.add(cleanupInventory);
+        return operationStats;
+    }
+
+    public void cartCheckedOut() {
+        cartsCheckedOut.increment();
+    }
+
+    public void cartAbandoned() {
+        cartsAbandoned.increment();
+    }
+
+    public long getCartsStarted() {
+        return cartsStarted.sum();
+    }
+
+    public long getCartsCheckedOut() {
+        return cartsCheckedOut.sum();
+    }
+
+    public long getCartsAbandoned() {
+        return cartsAbandoned.sum();
+    }
+}
@@ -0,0 +1,42 @@
+package org.myproject.ecommerce.loadtest;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Ranks 0..n-1 where rank k is drawn with a probability proportional to 1 / (k + 1)^exponent. An exponent of 0 is
+// uniform, around 1 a handful of hot skus take most of the traffic.
+public class ZipfDistribution {
+    private final double[] cumulative;
+
+    public ZipfDistribution(int n, double exponent) {
+        if(n <= 0) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        if(exponent < 0) {
+            throw new IllegalArgumentException("exponent must not be negative: " + exponent);
+        }
+        cumulative = new double[n];
+        double sum = 0;
+        for(int rank = 0; rank < n; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for(int rank = 0; rank < n; rank++) {
+            cumulative[rank] /= sum;
+        }
+    }
+
+    public int sample(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        int rank = index >= 0 ? index : -index - 1;
+        return Math.min(rank, cumulative.length - 1);
+    }
+
+    public double probability(int rank) {
+        return rank == 0 ? cumulative[0] : cumulative[rank] - cumulative[rank - 1];
+    }
+
+    public int size() {
+        return cumulative.length;
+    }
+}
@@ -0,0 +1,126 @@
+package org.myproject.ecommerce.loadtest;
+
+import org.junit.Test;
+import org.myproject.ecommerce.core.services.EcommerceException;
+import org.myproject.ecommerce.core.services.InMemoryMongoDBService;
+import org.myproject.ecommerce.core.services.InventoryCounterService;
+import org.myproject.ecommerce.core.services.PaymentService;
+import org.myproject.ecommerce.core.services.ProductInventoryService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WorkloadTest {
+
+    @Test
+    public void shouldNotOversellHotSkus() throws InterruptedException, EcommerceException {
+        // given
+        Workload workload = workload("--counter-buckets=0");
+
+        // when
+        InventoryLedger.Audit audit = LoadTest.run(workload);
+
+        // verify
+        assertTrue(workload.getCartsCheckedOut() > 0);
+        assertTrue(workload.getAddItemToCart().getCount(OperationStats.Outcome.INADEQUATE_INVENTORY) > 0);
+        assertTrue(audit.getOversoldSkus().isEmpty());
+        assertEquals(0, audit.getDrift());
+        assertEquals(0, audit.getCarted());
+        assertEquals(20 * 10, audit.getOnHand() + audit.getSold());
+    }
+
+    @Test
+    public void shouldNotOversellShardedSkus() throws InterruptedException, EcommerceException {
+        // given
+        Workload workload = workload("--counter-buckets=4");
+
+        // when
+        InventoryLedger.Audit audit = LoadTest.run(workload);
+
+        // verify
+        assertTrue(workload.getCartsCheckedOut() > 0);
+        assertTrue(audit.getOversoldSkus().isEmpty());
+        assertEquals(0, audit.getDrift());
+        assertEquals(20 * 10, audit.getOnHand() + audit.getSold());
+    }
+
+    @Test
+    public void shouldNotOversellBundles() throws InterruptedException, EcommerceException {
+        // given
+        Workload workload = workload("--counter-buckets=4", "--bundle-probability=0.5");
+
+        // when
+        InventoryLedger.Audit audit = LoadTest.run(workload);
+
+        // verify
+        assertTrue(workload.getAddItemsToCart().getCount(OperationStats.Outcome.SUCCEEDED) > 0);
+        assertTrue(workload.getAddItemsToCart().getCount(OperationStats.Outcome.INADEQUATE_INVENTORY) > 0);
+        assertTrue(audit.getOversoldSkus().isEmpty());
+        assertEquals(0, audit.getDrift());
+        assertEquals(20 * 10, audit.getOnHand() + audit.getSold());
+    }
+
+    @Test
+    public void shouldNotOversellWithTheExpiryWheel() throws InterruptedException, EcommerceException {
+        // given
+        Workload workload = workload("--counter-buckets=4", "--expiry-wheel=true", "--duration=2500");
+
+        // when
+        InventoryLedger.Audit audit = LoadTest.run(workload);
+
+        // verify
+        assertEquals(0, workload.getProcessExpiringCarts().getCount());
+        assertTrue(workload.getCartsCheckedOut() > 0);
+        assertTrue(audit.getOversoldSkus().isEmpty());
+        assertEquals(0, audit.getDrift());
+        assertEquals(20 * 10, audit.getOnHand() + audit.getSold());
+    }
+
+    @Test
+    public void shouldNotOversellWithTheCleanupSweeper() throws InterruptedException, EcommerceException {
+        // given
+        Workload workload = workload("--counter-buckets=4", "--cleanup-ops-per-second=500",
+                "--cleanup-pause-above=100000", "--duration=2500");
+
+        // when
+        InventoryLedger.Audit audit = LoadTest.run(workload);
+
+        // verify
+        assertEquals(0, workload.getCleanupInventory().getCount());
+        assertTrue(workload.getCartsCheckedOut() > 0);
+        assertTrue(audit.getOversoldSkus().isEmpty());
+        assertEquals(0, audit.getDrift());
+        assertEquals(20 * 10, audit.getOnHand() + audit.getSold());
+    }
+
+    @Test
+    public void shouldNotOversellWithTheReservationEngine() throws InterruptedException, EcommerceException {
+        // given: the engine owns the hottest skus after the 5 sharded ones
+        Workload workload = workload("--counter-buckets=4", "--engine-skus=5", "--bundle-probability=0.5");
+
+        // when
+        InventoryLedger.Audit audit = LoadTest.run(workload);
+
+        // verify
+        assertTrue(workload.getCartsCheckedOut() > 0);
+        assertTrue(audit.getOversoldSkus().isEmpty());
+        assertEquals(0, audit.getDrift());
+        assertEquals(20 * 10, audit.getOnHand() + audit.getSold());
+    }
+
+    private static Workload workload(String... options) {
+        List<String> args = new ArrayList<>(Arrays.asList("--shoppers=8", "--duration=1000", "--think-time=0",
+                "--skus=20", "--skew=1.2", "--stock=10", "--expiry-timeout=1", "--maintenance-interval=100",
+                "--sharded-skus=5"));
+        args.addAll(Arrays.asList(options));
+        LoadTestSettings settings = LoadTestSettings.parse(args.toArray(new String[0]));
+        InMemoryMongoDBService mongoDBService = new InMemoryMongoDBService();
+        InventoryCounterService inventoryCounterService = new InventoryCounterService(mongoDBService);
+        return new Workload(settings, mongoDBService, new ProductInventoryService(mongoDBService,
+                new PaymentService(), inventoryCounterService), inventoryCounterService);
+    }
+}
@@ -0,0 +1,41 @@
+package org.myproject.ecommerce.loadtest;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ZipfDistributionTest {
+
+    @Test
+    public void shouldFavourTheLowRanks() {
+        // given
+        ZipfDistribution distribution = new ZipfDistribution(100, 1.0);
+        Random random = new Random(42);
+        int[] counts = new int[distribution.size()];
+
+        // when
+        for(int i = 0; i < 100000; i++) {
+            counts[distribution.sample(random)]++;
+        }
+
+        // verify
+        assertEquals(1 / 5.187, distribution.probability(0), 0.001);
+        assertEquals(distribution.probability(0) / 2, distribution.probability(1), 1e-9);
+        assertEquals(distribution.probability(0), counts[0] / 100000.0, 0.01);
+        assertTrue(counts[0] > counts[9] && counts[9] > counts[99]);
+    }
+
+    @Test
+    public void shouldBeUniformWithoutSkew() {
+        // given
+        ZipfDistribution distribution = new ZipfDistribution(4, 0);
+
+        // verify
+        for(int rank = 0; rank < distribution.size(); rank++) {
+            assertEquals(0.25, distribution.probability(rank), 1e-9);
+        }
+    }
+}